@@ -220,6 +220,6 @@ public class ASTBuilder implements GrammarEvaluator {
   @Override
   public Expr expr_ge(Expr expr, Expr expr2) {
     int lineNumber = expr.lineNumber();
-    return new FunCall(new LocalVarAccess("!>=", lineNumber), List.of(expr, expr2), lineNumber);
+    return new FunCall(new LocalVarAccess(">=", lineNumber), List.of(expr, expr2), lineNumber);
   }
 }
@@ -2,23 +2,33 @@ package fr.umlv.smalljs.jvminterp;
 
 import fr.umlv.smalljs.rt.JSObject;
 
-class FunClassLoader extends ClassLoader {
+/**
+ * The class loader of the generated classes, the bootstrap methods of {@link RT}
+ * find the global environment through it.
+ * It can be sub-classed by other code generators that want to reuse the bootstrap methods
+ * that do not create functions (see {@link RT#bsm_fun}).
+ */
+public class FunClassLoader extends ClassLoader {
   private final FunDictionary dictionary;
-  private final JSObject global; 
-  
+  private final JSObject global;
+
   FunClassLoader(FunDictionary dictionary, JSObject global) {
     this.dictionary = dictionary;
     this.global = global;
   }
 
+  protected FunClassLoader(JSObject global) {
+    this(new FunDictionary(), global);
+  }
+
   JSObject getGlobal() {
     return global;
   }
   FunDictionary getDictionary() {
     return dictionary;
   }
-  
-  Class<?> createClass(String name, byte[] instrs) {
+
+  protected Class<?> createClass(String name, byte[] instrs) {
     return defineClass(name, instrs, 0, instrs.length);
   }
 }
\ No newline at end of file
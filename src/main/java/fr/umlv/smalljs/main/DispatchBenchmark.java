@@ -0,0 +1,118 @@
+package fr.umlv.smalljs.main;
+
+import fr.umlv.smalljs.ast.Script;
+import fr.umlv.smalljs.stackinterp.Dispatch;
+import fr.umlv.smalljs.stackinterp.RegisterInterpreter;
+import fr.umlv.smalljs.stackinterp.StackInterpreter;
+import fr.umlv.smalljs.stackinterp.WideInterpreter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static fr.umlv.smalljs.ast.ASTBuilder.createScript;
+
+// run with java --enable-preview --class-path lib/tatoo-runtime.jar:target/smalljs-1.0.jar fr.umlv.smalljs.main.DispatchBenchmark samples/*.js
+/**
+ * Compares the execution engines of the stack interpreter (see {@link Dispatch}), the register interpreter
+ * and the wide interpreter (NaN-boxed 64 bits values instead of 32 bits tagged values).
+ *
+ * Each script is run several times by each engine to warm up the JIT, then the average time of a run is measured.
+ * The output of the scripts and the traces of the interpreter are discarded.
+ * Use {@code -Dwarmup=n} and {@code -Diterations=n} to change the number of runs
+ * and {@code -Dsmalljs.countDispatches=true} to also print the number of instructions executed
+ * by the switch loops (the threaded engine executes the same instructions as the switch loop,
+ * the instructions of the functions compiled by the tiered engine and of the wide engine are not counted).
+ */
+public class DispatchBenchmark {
+  private static final PrintStream NULL_STREAM = new PrintStream(OutputStream.nullOutputStream());
+
+  private static StackInterpreter.Config config(Dispatch dispatch) {
+    var config = StackInterpreter.Config.DEFAULT;
+    return new StackInterpreter.Config(config.gcMode(), config.initialStackSize(), config.maxStackSize(),
+        config.initialHeapSize(), config.maxHeapSize(), dispatch);
+  }
+
+  private static LinkedHashMap<String, BiConsumer<Script, PrintStream>> engines() {
+    var engines = new LinkedHashMap<String, BiConsumer<Script, PrintStream>>();
+    engines.put("switch", (script, outStream) -> StackInterpreter.interpret(script, outStream, config(Dispatch.SWITCH)));
+    engines.put("threaded", (script, outStream) -> StackInterpreter.interpret(script, outStream, config(Dispatch.THREADED)));
+    engines.put("tiered", (script, outStream) -> StackInterpreter.interpret(script, outStream, config(Dispatch.TIERED)));
+    engines.put("inlining", (script, outStream) -> StackInterpreter.interpret(script, outStream, config(Dispatch.INLINING)));
+    engines.put("register", (script, outStream) -> RegisterInterpreter.interpret(script, outStream, config(Dispatch.SWITCH)));
+    engines.put("wide", (script, outStream) -> WideInterpreter.interpret(script, outStream, config(Dispatch.SWITCH)));
+    return engines;
+  }
+
+  private static long run(Script script, BiConsumer<Script, PrintStream> engine, int iterations) {
+    var err = System.err;
+    System.setErr(NULL_STREAM);
+    try {
+      var start = System.nanoTime();
+      for (var i = 0; i < iterations; i++) {
+        engine.accept(script, NULL_STREAM);
+      }
+      return (System.nanoTime() - start) / iterations;
+    } finally {
+      System.setErr(err);
+    }
+  }
+
+  private static List<Path> scripts(String[] args) throws IOException {
+    if (args.length != 0) {
+      return Stream.of(args).map(Path::of).collect(Collectors.toList());
+    }
+    try (var files = Files.list(Path.of("samples"))) {
+      return files.filter(path -> path.toString().endsWith(".js")).sorted().collect(Collectors.toList());
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    var warmup = Integer.getInteger("warmup", 200);
+    var iterations = Integer.getInteger("iterations", 1_000);
+    var countDispatches = Boolean.getBoolean("smalljs.countDispatches");
+    var engines = engines();
+
+    System.out.printf("%-20s", "script");
+    for (var name : engines.keySet()) {
+      System.out.printf("%15s", name + " (us)");
+      if (countDispatches) {
+        System.out.printf("%15s", "dispatches");
+      }
+    }
+    System.out.println();
+
+    for (var path : scripts(args)) {
+      Script script;
+      try (var reader = Files.newBufferedReader(path)) {
+        script = createScript(reader);
+      }
+      System.out.printf("%-20s", path.getFileName());
+      for (var engine : engines.values()) {
+        try {
+          run(script, engine, warmup);
+          StackInterpreter.takeDispatchCount();
+          var time = run(script, engine, iterations);
+          System.out.printf("%15.1f", time / 1_000.0);
+          if (countDispatches) {
+            var dispatches = StackInterpreter.takeDispatchCount() / iterations;
+            System.out.printf("%15s", (dispatches == 0) ? "-" : dispatches);
+          }
+        } catch (RuntimeException e) {
+          System.out.printf("%15s", "failed");
+          if (countDispatches) {
+            System.out.printf("%15s", "");
+          }
+        }
+      }
+      System.out.println();
+    }
+  }
+}
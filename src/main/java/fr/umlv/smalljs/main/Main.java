@@ -3,11 +3,17 @@ package fr.umlv.smalljs.main;
 import fr.umlv.smalljs.ast.Script;
 import fr.umlv.smalljs.astinterp.ASTInterpreter;
 import fr.umlv.smalljs.jvminterp.JVMInterpreter;
+import fr.umlv.smalljs.stackinterp.Dispatch;
+import fr.umlv.smalljs.stackinterp.GCMode;
+import fr.umlv.smalljs.stackinterp.HeapStorage;
+import fr.umlv.smalljs.stackinterp.RegisterInterpreter;
 import fr.umlv.smalljs.stackinterp.StackInterpreter;
+import fr.umlv.smalljs.stackinterp.WideInterpreter;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.util.Locale;
 import java.util.function.BiConsumer;
 
 import static fr.umlv.smalljs.ast.ASTBuilder.createScript;
@@ -17,10 +23,12 @@ import static java.nio.file.Paths.get;
 
 // run with /path/to/jdk-15/bin/java --enable-preview --class-path lib/tatoo-runtime.jar:target/smalljs-1.0.jar fr.umlv.smalljs.main.Main ast samples/hello.js
 public class Main {
-  private static BiConsumer<Script, PrintStream> interpreter(String name) {
+  private static BiConsumer<Script, PrintStream> interpreter(String name, StackInterpreter.Config config) {
     return switch (name) {
       case "ast" -> ASTInterpreter::interpret;
-      case "stack" -> StackInterpreter::interpret;
+      case "stack" -> (script, outStream) -> StackInterpreter.interpret(script, outStream, config);
+      case "register" -> (script, outStream) -> RegisterInterpreter.interpret(script, outStream, config);
+      case "wide" -> (script, outStream) -> WideInterpreter.interpret(script, outStream, config);
       case "jvm" -> JVMInterpreter::interpret;
       default -> throw new IllegalArgumentException("unkonwn interpreter " + name);
     };
@@ -29,20 +37,110 @@ public class Main {
   private static void printHelp() {
     System.err.println("""
             Help:
-              fr.umlv.smalljs.main.Main interpreter [input-file.js]
-                available interpreters: ast, stack and jvm
+              fr.umlv.smalljs.main.Main [options] interpreter [input-file.js]
+                available interpreters: ast, stack, register, wide and jvm
+              fr.umlv.smalljs.main.Main compile input-file.js output-file.jsc
+                writes the code of the stack interpreter in a file
+              fr.umlv.smalljs.main.Main [options] run input-file.jsc
+                executes a file written by compile with the stack interpreter
+                options of the stack (register and wide) interpreter:
+                  --gc=mark-compact|generational|incremental
+                  --stack-size=initial[:max]   in words
+                  --heap-size=initial[:max]    in words
+                  --dispatch=switch|threaded|tiered|inlining
+                  --heap-storage=array|direct|mapped
+                  --gc-work-budget=words       per allocation of the incremental GC
             """);
     System.exit(1);
   }
 
+  private static int[] sizes(String value, int defaultMax) {
+    var separator = value.indexOf(':');
+    if (separator == -1) {
+      var initial = Integer.parseInt(value);
+      return new int[] { initial, Math.max(initial, defaultMax) };
+    }
+    return new int[] { Integer.parseInt(value.substring(0, separator)), Integer.parseInt(value.substring(separator + 1)) };
+  }
+
+  private static StackInterpreter.Config option(StackInterpreter.Config config, String option) {
+    var separator = option.indexOf('=');
+    if (separator == -1) {
+      throw new IllegalArgumentException("invalid option " + option);
+    }
+    var value = option.substring(separator + 1);
+    return switch (option.substring(0, separator)) {
+      case "--gc" -> new StackInterpreter.Config(GCMode.valueOf(value.replace('-', '_').toUpperCase(Locale.ROOT)),
+          config.initialStackSize(), config.maxStackSize(), config.initialHeapSize(), config.maxHeapSize(), config.dispatch(),
+          config.heapStorage(), config.gcWorkBudget());
+      case "--stack-size" -> {
+        var sizes = sizes(value, config.maxStackSize());
+        yield new StackInterpreter.Config(config.gcMode(), sizes[0], sizes[1], config.initialHeapSize(), config.maxHeapSize(),
+            config.dispatch(), config.heapStorage(), config.gcWorkBudget());
+      }
+      case "--heap-size" -> {
+        var sizes = sizes(value, config.maxHeapSize());
+        yield new StackInterpreter.Config(config.gcMode(), config.initialStackSize(), config.maxStackSize(), sizes[0], sizes[1],
+            config.dispatch(), config.heapStorage(), config.gcWorkBudget());
+      }
+      case "--dispatch" -> new StackInterpreter.Config(config.gcMode(), config.initialStackSize(), config.maxStackSize(),
+          config.initialHeapSize(), config.maxHeapSize(), Dispatch.valueOf(value.toUpperCase(Locale.ROOT)), config.heapStorage(),
+          config.gcWorkBudget());
+      case "--heap-storage" -> new StackInterpreter.Config(config.gcMode(), config.initialStackSize(), config.maxStackSize(),
+          config.initialHeapSize(), config.maxHeapSize(), config.dispatch(), HeapStorage.valueOf(value.toUpperCase(Locale.ROOT)),
+          config.gcWorkBudget());
+      case "--gc-work-budget" -> new StackInterpreter.Config(config.gcMode(), config.initialStackSize(), config.maxStackSize(),
+          config.initialHeapSize(), config.maxHeapSize(), config.dispatch(), config.heapStorage(), Integer.parseInt(value));
+      default -> throw new IllegalArgumentException("unknown option " + option);
+    };
+  }
+
   public static void main(String[] args) throws IOException {
-    if (args.length == 0 || args.length > 2) {
+    var config = StackInterpreter.Config.DEFAULT;
+    var index = 0;
+    try {
+      for (; index < args.length && args[index].startsWith("--"); index++) {
+        config = option(config, args[index]);
+      }
+    } catch(IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      printHelp();
+      return;
+    }
+    var remaining = args.length - index;
+    if (remaining == 0 || remaining > 3) {
       printHelp();
       return;
     }
     try {
-      var interpreter = interpreter(args[0]);
-      try (var reader = (args.length == 2) ? newBufferedReader(get(args[1])) : new InputStreamReader(in)) {
+      switch (args[index]) {
+        case "compile" -> {
+          if (remaining != 3) {
+            printHelp();
+            return;
+          }
+          try (var reader = newBufferedReader(get(args[index + 1]))) {
+            StackInterpreter.compile(createScript(reader), get(args[index + 2]));
+          }
+          return;
+        }
+        case "run" -> {
+          if (remaining != 2) {
+            printHelp();
+            return;
+          }
+          StackInterpreter.interpret(get(args[index + 1]), System.out, config);
+          return;
+        }
+        default -> {
+          if (remaining == 3) {
+            printHelp();
+            return;
+          }
+        }
+      }
+      var interpreter = interpreter(args[index], config);
+      try (var reader = (remaining == 2) ? newBufferedReader(get(args[index + 1])) : new InputStreamReader(in)) {
         var script = createScript(reader);
         interpreter.accept(script, System.out);
       }
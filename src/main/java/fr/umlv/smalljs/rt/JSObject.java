@@ -9,6 +9,7 @@ import java.lang.invoke.SwitchPoint;
 import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 
 public class JSObject {
@@ -48,6 +49,15 @@ public class JSObject {
     this.mh = INVOKER.bindTo(invoker).bindTo(this).asVarargsCollector(Object[].class);
   }
   
+  /**
+   * Creates an object without prototype, a subclass that stores its values elsewhere
+   * has to override {@link #lookup(String)}, {@link #register(String, Object)}, {@link #length()}
+   * and {@link #forEach(BiConsumer)}.
+   */
+  protected JSObject() {
+    this(null, "object", (_1, _2, _3) -> { throw new Failure("object can not be applied"); });
+  }
+  
   public static JSObject newObject(JSObject proto) {
     return new JSObject(proto, "object", (_1, _2, _3) -> { throw new Failure("object can not be applied"); });
   }
@@ -126,9 +136,13 @@ public class JSObject {
     return valueMap.size();
   }
   
+  public void forEach(BiConsumer<? super String, ? super Object> action) {
+    valueMap.forEach(action);
+  }
+  
   public JSObject mirror(Function<Object, Object> valueMapper) {
     var mirror = newObject(null);
-    valueMap.forEach((key, value) -> {
+    forEach((key, value) -> {
       mirror.register(key, valueMapper.apply(value));  
     });
     return mirror;
@@ -159,7 +173,11 @@ public class JSObject {
     }
     var jsObject = (JSObject)object;
     builder.append("{ // ").append(jsObject.name).append('\n');
-    jsObject.valueMap.forEach((key, value) -> {
+    jsObject.forEach((key, value) -> {
+      if (key.startsWith("__") && key.endsWith("__")) {
+        // the internal fields of the interpreters (like the code of a function) are not printed
+        return;
+      }
       builder.append("  ").append(key).append(": ");
       toString(value, builder, seen);
       builder.append("\n");
@@ -0,0 +1,48 @@
+package fr.umlv.smalljs.stackinterp;
+
+import java.util.Arrays;
+
+/**
+ * A memory stored in an array of ints.
+ */
+final class ArrayHeapMemory implements HeapMemory {
+	private final int[] words;
+
+	ArrayHeapMemory(int size) {
+		this(new int[size]);
+	}
+
+	private ArrayHeapMemory(int[] words) {
+		this.words = words;
+	}
+
+	@Override
+	public int size() {
+		return words.length;
+	}
+
+	@Override
+	public int get(int index) {
+		return words[index];
+	}
+
+	@Override
+	public void set(int index, int value) {
+		words[index] = value;
+	}
+
+	@Override
+	public void copy(int from, int to, int length) {
+		System.arraycopy(words, from, words, to, length);
+	}
+
+	@Override
+	public void fill(int from, int to, int value) {
+		Arrays.fill(words, from, to, value);
+	}
+
+	@Override
+	public HeapMemory grow(int newSize) {
+		return new ArrayHeapMemory(Arrays.copyOf(words, newSize));
+	}
+}
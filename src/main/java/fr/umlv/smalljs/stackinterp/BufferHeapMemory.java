@@ -0,0 +1,114 @@
+package fr.umlv.smalljs.stackinterp;
+
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * A memory stored outside of the Java heap, in direct buffers or in buffers mapped on a file.
+ *
+ * A buffer can not be bigger than 2 GiB, so the words are split in chunks of {@code CHUNK_SIZE} words,
+ * growing the memory allocates new chunks and never copies the words.
+ */
+final class BufferHeapMemory implements HeapMemory {
+	private static final int CHUNK_SHIFT = 16;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	private static final int CHUNK_BYTES = CHUNK_SIZE * Integer.BYTES;
+
+	private final IntFunction<ByteBuffer> allocator; // allocates the chunk of an index
+	private IntBuffer[] chunks = new IntBuffer[0];
+	private int size;
+
+	private BufferHeapMemory(int size, IntFunction<ByteBuffer> allocator) {
+		this.allocator = allocator;
+		grow(size);
+	}
+
+	/**
+	 * Creates a memory stored in direct buffers.
+	 */
+	static BufferHeapMemory direct(int size) {
+		return new BufferHeapMemory(size, index -> ByteBuffer.allocateDirect(CHUNK_BYTES));
+	}
+
+	/**
+	 * Creates a memory stored in a temporary file mapped in memory, the file is deleted when the JVM exits.
+	 */
+	static BufferHeapMemory mapped(int size) {
+		FileChannel channel;
+		try {
+			var path = Files.createTempFile("smalljs-heap", ".bin");
+			channel = FileChannel.open(path, READ, WRITE, DELETE_ON_CLOSE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return new BufferHeapMemory(size, index -> {
+			try {
+				// mapping after the end of the file makes the file grow
+				return channel.map(FileChannel.MapMode.READ_WRITE, (long) index * CHUNK_BYTES, CHUNK_BYTES);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int get(int index) {
+		return chunks[index >>> CHUNK_SHIFT].get(index & CHUNK_MASK);
+	}
+
+	@Override
+	public void set(int index, int value) {
+		chunks[index >>> CHUNK_SHIFT].put(index & CHUNK_MASK, value);
+	}
+
+	@Override
+	public void copy(int from, int to, int length) {
+		if (to <= from) {
+			for (var i = 0; i < length; i++) {
+				set(to + i, get(from + i));
+			}
+		} else {
+			for (var i = length; --i >= 0; ) {
+				set(to + i, get(from + i));
+			}
+		}
+	}
+
+	@Override
+	public void fill(int from, int to, int value) {
+		for (var i = from; i < to; i++) {
+			set(i, value);
+		}
+	}
+
+	@Override
+	public HeapMemory grow(int newSize) {
+		var chunkCount = (int) (((long) newSize + CHUNK_MASK) >>> CHUNK_SHIFT);
+		if (chunkCount > chunks.length) {
+			var length = chunks.length;
+			chunks = Arrays.copyOf(chunks, chunkCount);
+			for (var i = length; i < chunkCount; i++) {
+				chunks[i] = allocator.apply(i).order(ByteOrder.nativeOrder()).asIntBuffer();
+			}
+		}
+		size = newSize;
+		return this;
+	}
+}
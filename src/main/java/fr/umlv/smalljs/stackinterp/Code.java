@@ -2,11 +2,44 @@ package fr.umlv.smalljs.stackinterp;
 
 import static java.util.Objects.requireNonNull;
 
-public record Code(int[] instrs, int parameterCount, int slotCount) {
+/**
+ * The code of a function.
+ *
+ * {@code inlineCaches} is a side table indexed by pc, the two words of a FUNCALL
+ * store the qualifier seen by the call site and the index of the function
+ * in the function table of the dictionary (see {@link Dictionary#functionIndex(fr.umlv.smalljs.rt.JSObject)}).
+ * The two words of a quickened instruction store the data of the instruction,
+ * the value and the epoch of the global environment for LOOKUP_CACHED,
+ * the class word and the slot for GET_SLOT and PUT_SLOT.
+ *
+ * {@code maxStackDepth} is the maximum number of values on the operand stack (see {@link Instructions#maxStackDepth}),
+ * the interpreter checks that the whole stack frame fits in the stack when a function is called.
+ */
+public record Code(int[] instrs, int parameterCount, int slotCount, int maxStackDepth, int[] inlineCaches) {
 	public Code {
 		if (parameterCount < 1 || slotCount < 1 || parameterCount > slotCount) {
 			throw new IllegalArgumentException("invalid parameter or slot count");
 		}
+		if (maxStackDepth < 0) {
+			throw new IllegalArgumentException("invalid max stack depth");
+		}
 		requireNonNull(instrs);
+		requireNonNull(inlineCaches);
+		if (inlineCaches.length != instrs.length) {
+			throw new IllegalArgumentException("invalid inline caches");
+		}
+	}
+
+	public Code(int[] instrs, int parameterCount, int slotCount, int maxStackDepth) {
+		this(instrs, parameterCount, slotCount, maxStackDepth, new int[instrs.length]);
+	}
+
+	/**
+	 * Creates a code without computing the maximum depth of the operand stack,
+	 * an instruction pushes at most one value (and an operator two more on its slow path)
+	 * and all the paths to an instruction have the same depth, so the number of instructions is an upper bound.
+	 */
+	public Code(int[] instrs, int parameterCount, int slotCount) {
+		this(instrs, parameterCount, slotCount, instrs.length + StackInterpreter.FUNCALL_PREFIX);
 	}
-}
\ No newline at end of file
+}
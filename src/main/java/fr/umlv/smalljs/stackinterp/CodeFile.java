@@ -0,0 +1,200 @@
+package fr.umlv.smalljs.stackinterp;
+
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import fr.umlv.smalljs.rt.JSObject;
+
+/**
+ * Precompiled code of a script, the codes of the main function and of the nested functions
+ * with the constants of the dictionary, so a script can be executed without being parsed and rewritten.
+ *
+ * The file is read through a memory mapped {@link FileChannel}, all values are big endian 32 bits integers
+ * <pre>
+ *   magic version
+ *   constant_count constant*
+ *   function                                          // the main function
+ * </pre>
+ * A constant starts with a kind followed by its value, the constants are stored in the order of their index
+ * so the instructions can be loaded without being patched
+ * <pre>
+ *   UNDEFINED
+ *   STRING  length utf8_bytes (padded to a multiple of 4)
+ *   INTEGER value
+ *   CLASS   field_count (length utf8_bytes)*             // the field names in slot order
+ *   FUNCTION name_length utf8_bytes parameter_count slot_count max_stack_depth instr_count instr*
+ * </pre>
+ * The nested functions are constants, they are referenced by the CONST instructions of the enclosing function.
+ */
+public final class CodeFile {
+	private static final int MAGIC = 0x534A5343; // SJSC
+	private static final int VERSION = 1;
+
+	private static final int UNDEFINED_KIND = 0;
+	private static final int STRING_KIND = 1;
+	private static final int INTEGER_KIND = 2;
+	private static final int CLASS_KIND = 3;
+	private static final int FUNCTION_KIND = 4;
+
+	private CodeFile() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Writes the main function of a script and the constants of its dictionary.
+	 */
+	public static void write(Path path, JSObject main, Dictionary dict) throws IOException {
+		try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path, CREATE, TRUNCATE_EXISTING, WRITE)))) {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			// the codes of the nested functions are created lazily and may add constants
+			for (var i = 0; i < dict.size(); i++) {
+				if (dict.getConst(i) instanceof JSObject function) {
+					InstrRewriter.code(function);
+				}
+			}
+			var constantCount = dict.size();
+			output.writeInt(constantCount);
+			for (var i = 0; i < constantCount; i++) {
+				writeConstant(output, dict.getConst(i));
+			}
+			writeFunction(output, main);
+		}
+	}
+
+	private static void writeConstant(DataOutputStream output, Object constant) throws IOException {
+		if (constant == UNDEFINED) {
+			output.writeInt(UNDEFINED_KIND);
+			return;
+		}
+		if (constant instanceof String string) {
+			output.writeInt(STRING_KIND);
+			writeString(output, string);
+			return;
+		}
+		if (constant instanceof Integer value) {
+			output.writeInt(INTEGER_KIND);
+			output.writeInt(value);
+			return;
+		}
+		if (constant instanceof JSObject object) {
+			if (InstrRewriter.code(object) instanceof Code) {
+				output.writeInt(FUNCTION_KIND);
+				writeFunction(output, object);
+				return;
+			}
+			if (object != Heap.BOXED_INT_CLASS && object != Heap.STRING_CLASS) {
+				// a class, the value of a field name is its slot
+				var fieldNames = new String[object.length()];
+				object.forEach((fieldName, slot) -> fieldNames[(int) slot] = fieldName);
+				output.writeInt(CLASS_KIND);
+				output.writeInt(fieldNames.length);
+				for (var fieldName : fieldNames) {
+					writeString(output, fieldName);
+				}
+				return;
+			}
+		}
+		throw new IllegalArgumentException("can not write the constant " + constant);
+	}
+
+	private static void writeFunction(DataOutputStream output, JSObject function) throws IOException {
+		var code = (Code) InstrRewriter.code(function);
+		writeString(output, function.getName().substring("function ".length()));
+		output.writeInt(code.parameterCount());
+		output.writeInt(code.slotCount());
+		output.writeInt(code.maxStackDepth());
+		var instrs = code.instrs();
+		output.writeInt(instrs.length);
+		for (var instr : instrs) {
+			output.writeInt(instr);
+		}
+	}
+
+	private static void writeString(DataOutputStream output, String string) throws IOException {
+		var bytes = string.getBytes(UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+		// keep the next integer aligned
+		output.write(new byte[-bytes.length & 3]);
+	}
+
+	/**
+	 * Reads a file written by {@link #write(Path, JSObject, Dictionary)},
+	 * the constants are added to an empty dictionary.
+	 *
+	 * @return the main function.
+	 */
+	public static JSObject read(Path path, Dictionary dict, JSObject globalEnv, StackInterpreter.Config config) throws IOException {
+		if (dict.size() != 0) {
+			throw new IllegalArgumentException("the dictionary is not empty");
+		}
+		try (var channel = FileChannel.open(path, READ)) {
+			var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				throw new IOException("invalid code file " + path);
+			}
+			var constantCount = buffer.getInt();
+			for (var i = 0; i < constantCount; i++) {
+				var constant = readConstant(buffer, dict, globalEnv, config);
+				if (dict.index(constant) != i) {
+					throw new IOException("invalid code file " + path + ", duplicate constant " + constant);
+				}
+			}
+			return readFunction(buffer, dict, globalEnv, config);
+		}
+	}
+
+	private static Object readConstant(ByteBuffer buffer, Dictionary dict, JSObject globalEnv, StackInterpreter.Config config)
+			throws IOException {
+		var kind = buffer.getInt();
+		return switch (kind) {
+			case UNDEFINED_KIND -> UNDEFINED;
+			case STRING_KIND -> readString(buffer);
+			case INTEGER_KIND -> buffer.getInt();
+			case CLASS_KIND -> {
+				var clazz = JSObject.newObject(null);
+				var fieldCount = buffer.getInt();
+				for (var i = 0; i < fieldCount; i++) {
+					clazz.register(readString(buffer), i);
+				}
+				yield clazz;
+			}
+			case FUNCTION_KIND -> readFunction(buffer, dict, globalEnv, config);
+			default -> throw new IOException("invalid constant kind " + kind);
+		};
+	}
+
+	private static JSObject readFunction(ByteBuffer buffer, Dictionary dict, JSObject globalEnv, StackInterpreter.Config config) {
+		var name = readString(buffer);
+		var parameterCount = buffer.getInt();
+		var slotCount = buffer.getInt();
+		var maxStackDepth = buffer.getInt();
+		var instrs = new int[buffer.getInt()];
+		// the instructions are copied because the interpreter quickens them
+		buffer.asIntBuffer().get(instrs);
+		buffer.position(buffer.position() + instrs.length * Integer.BYTES);
+		var code = new Code(instrs, parameterCount, slotCount, maxStackDepth);
+		return InstrRewriter.newFunction(name, code, dict, globalEnv, config);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		var length = buffer.getInt();
+		var bytes = new byte[length];
+		buffer.get(bytes);
+		buffer.position(buffer.position() + (-length & 3));
+		return new String(bytes, UTF_8);
+	}
+}
@@ -1,12 +1,44 @@
 package fr.umlv.smalljs.stackinterp;
 
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+import static fr.umlv.smalljs.stackinterp.TagValues.encodeDictObject;
+
+import java.lang.invoke.SwitchPoint;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 
+import fr.umlv.smalljs.rt.JSObject;
+
 public class Dictionary {
 	private final HashMap<Object, Integer> indexMap = new HashMap<>();
 	private final ArrayList<Object> constants = new ArrayList<>();
 
+	// table of the called functions, the code of a native function is null
+	private final HashMap<JSObject, Integer> functionIndexMap = new HashMap<>();
+	private final ArrayList<JSObject> functions = new ArrayList<>();
+	private final ArrayList<Code> codes = new ArrayList<>();
+	private final ArrayList<NativeFunction> nativeFunctions = new ArrayList<>();
+
+	// used to check the validity of the quickened instructions that depend on the global environment
+	private SwitchPoint globalSwitchPoint;
+	private int globalEpoch;
+
+	// counts the invocations of the functions of the table, created by the first tiered interpreter
+	private TieredCompiler tieredCompiler;
+
+	// counts the invocations of the functions of the table, created by the first inlining interpreter
+	private Inliner inliner;
+
+	// hidden classes of the objects of the heap, the successors of a class indexed by field name,
+	// the capacities of the classes indexed by dictionary index (0 for the class of an object literal)
+	// and the classes of the forwarded objects indexed by capacity and by dictionary index
+	private final HashMap<JSObject, HashMap<String, JSObject>> transitions = new HashMap<>();
+	private int[] capacities = new int[16];
+	private final HashMap<Integer, JSObject> forwardedClasses = new HashMap<>();
+	private final BitSet forwarded = new BitSet();
+
 	public int index(Object constant) {
 		return indexMap.computeIfAbsent(constant, key -> {
 			var index = constants.size();
@@ -15,7 +47,149 @@ public class Dictionary {
 		});
 	}
 
+	/**
+	 * Returns the index of a constant or -1 if the constant is not in the dictionary.
+	 */
+	int indexIfPresent(Object constant) {
+		return indexMap.getOrDefault(constant, -1);
+	}
+
 	public Object getConst(int index) {
 		return constants.get(index);
 	}
+
+	int size() {
+		return constants.size();
+	}
+
+	/**
+	 * Returns a number that changes each time the global environment is modified,
+	 * zero is never returned.
+	 */
+	int globalEpoch(JSObject globalEnv) {
+		var switchPoint = globalEnv.getSwitchPoint();
+		if (switchPoint != globalSwitchPoint) {
+			globalSwitchPoint = switchPoint;
+			globalEpoch++;
+		}
+		return globalEpoch;
+	}
+
+	/**
+	 * Returns the index of a function in the function table,
+	 * the function is added to the table if necessary.
+	 */
+	int functionIndex(JSObject function) {
+		return functionIndexMap.computeIfAbsent(function, key -> {
+			var index = functions.size();
+			functions.add(key);
+			var code = InstrRewriter.code(key);
+			codes.add((code == UNDEFINED) ? null : (Code) code);
+			nativeFunctions.add((key.lookup("__native__") instanceof NativeFunction nativeFunction) ? nativeFunction : null);
+			return index;
+		});
+	}
+
+	JSObject function(int functionIndex) {
+		return functions.get(functionIndex);
+	}
+
+	/**
+	 * Returns the tiered compiler of the functions of the function table,
+	 * the compiler is shared by all the interpreters that use this dictionary.
+	 */
+	TieredCompiler tieredCompiler(JSObject globalEnv) {
+		if (tieredCompiler == null) {
+			tieredCompiler = new TieredCompiler(this, globalEnv);
+		}
+		return tieredCompiler;
+	}
+
+	/**
+	 * Returns the inliner of the functions of the function table,
+	 * the inliner is shared by all the interpreters that use this dictionary.
+	 */
+	Inliner inliner(JSObject globalEnv, StackInterpreter.Config config) {
+		if (inliner == null) {
+			inliner = new Inliner(this, globalEnv, config);
+		}
+		return inliner;
+	}
+
+	/**
+	 * Returns the number of field words of the objects of a class,
+	 * the capacity of the class of an object literal is its number of fields (at least one word),
+	 * the capacity of a successor class (see {@link #transition(int, String)}) may be greater than its number of fields.
+	 */
+	int capacity(int classWord) {
+		var index = classWord >>> 2;
+		if (index < capacities.length && capacities[index] != 0) {
+			return capacities[index];
+		}
+		return Math.max(1, ((JSObject) getConst(index)).length());
+	}
+
+	/**
+	 * Returns the class word of the class with the fields of a class followed by a new field,
+	 * the same successor is returned for the same class and the same field name.
+	 * If the objects of the class have no free word, the capacity of the successor is twice the capacity of the class
+	 * so the objects are relocated (see {@link Heap#forward(int, int)}), otherwise the objects change their class in place.
+	 */
+	int transition(int classWord, String fieldName) {
+		var clazz = (JSObject) getConst(classWord >>> 2);
+		var successor = transitions.computeIfAbsent(clazz, key -> new HashMap<>()).computeIfAbsent(fieldName, key -> {
+			var newClass = JSObject.newObject(null);
+			clazz.forEach(newClass::register);
+			newClass.register(fieldName, clazz.length());
+			var capacity = capacity(classWord);
+			setCapacity(index(newClass), (clazz.length() < capacity) ? capacity : 2 * capacity);
+			return newClass;
+		});
+		return encodeDictObject(successor, this);
+	}
+
+	/**
+	 * Returns the class word of the class of the forwarded objects of a capacity,
+	 * the only field of a forwarded object is the reference to the relocated object.
+	 */
+	int forwardedClass(int capacity) {
+		var clazz = forwardedClasses.computeIfAbsent(capacity, key -> {
+			var newClass = JSObject.newObject(null);
+			newClass.register("forward", 0);
+			var index = index(newClass);
+			setCapacity(index, capacity);
+			forwarded.set(index);
+			return newClass;
+		});
+		return encodeDictObject(clazz, this);
+	}
+
+	/**
+	 * Returns true if the class is the class of the forwarded objects.
+	 */
+	boolean isForwarded(int classWord) {
+		return forwarded.get(classWord >>> 2);
+	}
+
+	private void setCapacity(int index, int capacity) {
+		if (index >= capacities.length) {
+			capacities = Arrays.copyOf(capacities, Math.max(capacities.length * 2, index + 1));
+		}
+		capacities[index] = capacity;
+	}
+
+	/**
+	 * Returns the code of a function of the function table or null if the function is a native function.
+	 */
+	Code code(int functionIndex) {
+		return codes.get(functionIndex);
+	}
+
+	/**
+	 * Returns the native version of a function of the function table
+	 * or null if the function has no native version.
+	 */
+	NativeFunction nativeFunction(int functionIndex) {
+		return nativeFunctions.get(functionIndex);
+	}
 }
@@ -0,0 +1,26 @@
+package fr.umlv.smalljs.stackinterp;
+
+/**
+ * The execution engines available for the stack interpreter.
+ */
+public enum Dispatch {
+	/**
+	 * a single loop with a switch on the opcode of the current instruction.
+	 */
+	SWITCH,
+	/**
+	 * the instructions are decoded once to an array of handlers indexed by pc,
+	 * each handler executes one instruction and sets the pc of the next one.
+	 */
+	THREADED,
+	/**
+	 * the switch loop, a function called more than a threshold is compiled to JVM bytecode
+	 * and its callers call the compiled version (see {@link TieredCompiler}).
+	 */
+	TIERED,
+	/**
+	 * the switch loop, the small functions called by a function called more than a threshold
+	 * are inlined in a new version of its code (see {@link Inliner}).
+	 */
+	INLINING
+}
@@ -0,0 +1,20 @@
+package fr.umlv.smalljs.stackinterp;
+
+/**
+ * The garbage collection algorithms available for the heap of the stack interpreter.
+ */
+public enum GCMode {
+	/**
+	 * a single space with a bump pointer allocation and a mark and compact GC.
+	 */
+	MARK_COMPACT,
+	/**
+	 * a young generation collected by copy and an old generation collected by mark and compact.
+	 */
+	GENERATIONAL,
+	/**
+	 * a single space with a free list allocation and a mark and sweep GC
+	 * that runs a bounded amount of work at each allocation.
+	 */
+	INCREMENTAL
+}
@@ -0,0 +1,15 @@
+package fr.umlv.smalljs.stackinterp;
+
+/**
+ * Statistics of the garbage collector of a {@link Heap}.
+ *
+ * @param collections number of completed collections.
+ * @param totalTime total time spent in the GC in nanoseconds.
+ * @param maxPause longest time the interpreter was stopped by the GC in nanoseconds.
+ */
+public record GCStats(int collections, long totalTime, long maxPause) {
+	@Override
+	public String toString() {
+		return "collections: " + collections + ", total time: " + totalTime / 1_000 + "us, max pause: " + maxPause / 1_000 + "us";
+	}
+}
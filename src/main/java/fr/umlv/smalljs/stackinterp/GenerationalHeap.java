@@ -0,0 +1,271 @@
+package fr.umlv.smalljs.stackinterp;
+
+import static fr.umlv.smalljs.stackinterp.TagValues.OBJECT_HEADER_SIZE;
+import static fr.umlv.smalljs.stackinterp.TagValues.decodeReference;
+import static fr.umlv.smalljs.stackinterp.TagValues.encodeReference;
+import static fr.umlv.smalljs.stackinterp.TagValues.isReference;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A heap with two generations.
+ *
+ * The words are split in three spaces
+ * <pre>
+ *   [0, semi[                young generation, semi space A
+ *   [semi, 2*semi[           young generation, semi space B
+ *   [2*semi, size[           old generation, bump pointer allocation, mark and compact GC
+ * </pre>
+ * The size of the young generation is fixed, only the old generation grows with the heap.
+ *
+ *
+ * Objects are allocated in the current young semi space, when it is full,
+ * the live young objects are copied (Cheney algorithm) to the other semi space
+ * or promoted to the old generation if they have survived enough collections.
+ * The roots of a young collection are the stack and the old objects that reference young objects,
+ * those are recorded in a remembered set by a write barrier on {@link #putField(int, int, int)}.
+ *
+ * The GC word of the header of a young object stores its age ({@code GC_EMPTY - age})
+ * or its new address once the object has been copied.
+ * The GC word of an old object is either GC_EMPTY or GC_REMEMBERED.
+ */
+final class GenerationalHeap extends Heap {
+	static final int DEFAULT_TENURING_THRESHOLD = 2;
+
+	private static final int GC_REMEMBERED = -3;
+
+	private final int tenuringThreshold;
+	private final int semiSize;
+	private final int oldStart;
+
+	private int oldTop;     // old generation allocation pointer
+	private int youngStart; // start of the current young semi space
+	private int youngTop;   // young generation allocation pointer
+
+	private int[] remembered = new int[16];
+	private int rememberedSize;
+
+	GenerationalHeap(Dictionary dict, int initialSize, int maxSize, HeapStorage storage, int tenuringThreshold) {
+		super(dict, initialSize, maxSize, storage);
+		if (tenuringThreshold < 0) {
+			throw new IllegalArgumentException("invalid tenuring threshold " + tenuringThreshold);
+		}
+		this.tenuringThreshold = tenuringThreshold;
+		this.semiSize = initialSize / 4;
+		this.oldStart = 2 * semiSize;
+		this.oldTop = oldStart;
+	}
+
+	private boolean isYoung(int ref) {
+		return ref < oldStart;
+	}
+
+	private int otherSemiSpace() {
+		return (youngStart == 0) ? semiSize : 0;
+	}
+
+	private int oldFree() {
+		return words.size() - oldTop;
+	}
+
+	@Override
+	int allocate(int classWord, int fieldCount) {
+		var size = OBJECT_HEADER_SIZE + fieldCount;
+		if (youngTop + size <= youngStart + semiSize) {
+			var ref = youngTop;
+			youngTop += size;
+			return initHeader(ref, classWord);
+		}
+		if (size > semiSize && size <= oldFree()) {
+			// too big for the young generation
+			var ref = oldTop;
+			oldTop += size;
+			return initHeader(ref, classWord);
+		}
+		return -1;
+	}
+
+	@Override
+	void collectGarbage(Roots roots, int size) {
+		var start = System.nanoTime();
+		collectYoung(roots, tenuringThreshold);
+		if (!fits(size)) {
+			// the survivors fill the young generation, try to promote them all
+			var youngSize = youngTop - youngStart;
+			if (youngSize > oldFree()) {
+				collectOld(roots);
+				if (youngSize > oldFree()) {
+					grow(youngSize);
+				}
+			}
+			if (youngSize <= oldFree()) {
+				collectYoung(roots, 0);
+			}
+			if (!fits(size)) {
+				collectOld(roots);
+				if (!fits(size)) {
+					grow(size);
+				}
+			}
+		}
+		pauseDone(start);
+	}
+
+	private boolean fits(int size) {
+		if (size > semiSize) {
+			return size <= oldFree();
+		}
+		return youngTop + size <= youngStart + semiSize;
+	}
+
+	@Override
+	void putField(int ref, int slot, int value) {
+		words.set(ref + OBJECT_HEADER_SIZE + slot, value);
+		// write barrier
+		if (!isYoung(ref) && isReference(value) && isYoung(decodeReference(value))) {
+			remember(ref);
+		}
+	}
+
+	private void remember(int ref) {
+		if (words.get(ref + GC_OFFSET) == GC_REMEMBERED) {
+			return;
+		}
+		words.set(ref + GC_OFFSET, GC_REMEMBERED);
+		if (rememberedSize == remembered.length) {
+			remembered = Arrays.copyOf(remembered, rememberedSize << 1);
+		}
+		remembered[rememberedSize++] = ref;
+	}
+
+	@Override
+	void forEachObject(IntConsumer consumer) {
+		for (var ref = youngStart; ref < youngTop; ref += objectSize(ref)) {
+			consumer.accept(ref);
+		}
+		for (var ref = oldStart; ref < oldTop; ref += objectSize(ref)) {
+			consumer.accept(ref);
+		}
+	}
+
+	// Cheney copy of the young generation
+	private int toStart;
+	private int toTop;
+	private int currentThreshold;
+
+	private int copy(int value) {
+		// a forwarded object is not copied, the reference goes directly to the relocated object
+		value = resolveReference(value);
+		var ref = decodeReference(value);
+		if (!isYoung(ref) || (ref >= toStart && ref < toTop)) {
+			// an old object or the copy of a relocated object
+			return value;
+		}
+		var gcWord = words.get(ref + GC_OFFSET);
+		if (gcWord >= 0) {
+			// already copied
+			return encodeReference(gcWord);
+		}
+		var size = objectSize(ref);
+		var age = GC_EMPTY - gcWord + 1;
+		int newRef;
+		if (age >= currentThreshold && size <= oldFree()) {
+			// promotion
+			newRef = oldTop;
+			oldTop += size;
+			words.copy(ref, newRef, size);
+			words.set(newRef + GC_OFFSET, GC_EMPTY);
+		} else {
+			newRef = toTop;
+			toTop += size;
+			words.copy(ref, newRef, size);
+			words.set(newRef + GC_OFFSET, GC_EMPTY - age);
+		}
+		words.set(ref + GC_OFFSET, newRef);
+		return encodeReference(newRef);
+	}
+
+	/**
+	 * Copies the young objects referenced by the fields of an object.
+	 *
+	 * @return true if the object still references a young object.
+	 */
+	private boolean copyFields(int ref) {
+		var end = ref + OBJECT_HEADER_SIZE + taggedFieldCount(ref);
+		var young = false;
+		for (var i = ref + OBJECT_HEADER_SIZE; i < end; i++) {
+			var value = words.get(i);
+			if (isReference(value)) {
+				var newValue = copy(value);
+				words.set(i, newValue);
+				young |= isYoung(decodeReference(newValue));
+			}
+		}
+		return young;
+	}
+
+	private void collectYoung(Roots roots, int threshold) {
+		toStart = otherSemiSpace();
+		toTop = toStart;
+		currentThreshold = threshold;
+		var promoted = oldTop;
+
+		// the stack
+		roots.visit(this::copy);
+
+		// the old objects that reference young objects
+		var oldRemembered = remembered;
+		var oldRememberedSize = rememberedSize;
+		remembered = new int[Math.max(16, oldRememberedSize)];
+		rememberedSize = 0;
+		for (var i = 0; i < oldRememberedSize; i++) {
+			var ref = oldRemembered[i];
+			words.set(ref + GC_OFFSET, GC_EMPTY);
+			if (copyFields(ref)) {
+				remember(ref);
+			}
+		}
+
+		// the copied and promoted objects
+		var scan = toStart;
+		while (scan < toTop || promoted < oldTop) {
+			for (; scan < toTop; scan += objectSize(scan)) {
+				copyFields(scan);
+			}
+			for (; promoted < oldTop; promoted += objectSize(promoted)) {
+				if (copyFields(promoted)) {
+					remember(promoted);
+				}
+			}
+		}
+
+		youngStart = toStart;
+		youngTop = toTop;
+		collectionDone();
+	}
+
+	private void collectOld(Roots roots) {
+		// young objects are not collected, they are roots of the old generation
+		oldTop = markAndCompact(roots, oldStart, oldTop, youngStart, youngTop);
+
+		// old objects have moved, rebuild the remembered set
+		rememberedSize = 0;
+		for (var ref = oldStart; ref < oldTop; ref += objectSize(ref)) {
+			var end = ref + OBJECT_HEADER_SIZE + taggedFieldCount(ref);
+			for (var i = ref + OBJECT_HEADER_SIZE; i < end; i++) {
+				var value = words.get(i);
+				if (isReference(value) && isYoung(decodeReference(value))) {
+					remember(ref);
+					break;
+				}
+			}
+		}
+		collectionDone();
+
+		// less than a quarter of the old generation is free, grow it
+		if (oldFree() < (words.size() - oldStart) / 4) {
+			grow(0);
+		}
+	}
+}
@@ -0,0 +1,539 @@
+package fr.umlv.smalljs.stackinterp;
+
+import static fr.umlv.smalljs.stackinterp.TagValues.OBJECT_HEADER_SIZE;
+import static fr.umlv.smalljs.stackinterp.TagValues.decodeAnyValue;
+import static fr.umlv.smalljs.stackinterp.TagValues.decodeDictObject;
+import static fr.umlv.smalljs.stackinterp.TagValues.decodeReference;
+import static fr.umlv.smalljs.stackinterp.TagValues.encodeReference;
+import static fr.umlv.smalljs.stackinterp.TagValues.encodeSmallInt;
+import static fr.umlv.smalljs.stackinterp.TagValues.isReference;
+import static java.util.Objects.requireNonNull;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+
+import fr.umlv.smalljs.rt.JSObject;
+
+/**
+ * The heap of the stack interpreter.
+ *
+ * Objects are stored contiguously in the words of a {@link HeapMemory}, each object is a header
+ * (a class encoded as a dictionary index and a word used by the GC) followed by the fields.
+ * An object may have more words than fields, so a field can be added without moving the object,
+ * otherwise the object is relocated and replaced by a forwarded object (see {@link #forward(int, int)}).
+ * How the memory is allocated and reclaimed depends on the {@link GCMode}.
+ */
+public abstract class Heap {
+	static final int GC_OFFSET = 1;
+	static final int GC_MARK = -1;
+	static final int GC_EMPTY = -2;
+
+	/**
+	 * Class of the integers that do not fit in a small int,
+	 * the object has no field but one raw word that contains the value.
+	 */
+	static final JSObject BOXED_INT_CLASS = JSObject.newObject(null);
+
+	/**
+	 * Class of the strings created at runtime, the object has no field but raw words,
+	 * the first word is the length and the coder (the lowest bit is set if the string is in Latin-1),
+	 * the following words are the characters packed 4 by word in Latin-1 or 2 by word in UTF-16.
+	 */
+	static final JSObject STRING_CLASS = JSObject.newObject(null);
+
+	/**
+	 * The roots of the GC, i.e. all the references stored on the stack.
+	 */
+	@FunctionalInterface
+	interface Roots {
+		/**
+		 * Visits all the references, each reference is replaced by the value returned by the operator.
+		 */
+		void visit(IntUnaryOperator operator);
+	}
+
+	final Dictionary dict;
+	final int maxSize;
+	HeapMemory words;
+
+	// the views of the objects, indexed by reference
+	private HashMap<Integer, WeakReference<HeapObjectView>> views = new HashMap<>();
+
+	private int collections;
+	private long totalTime;
+	private long maxPause;
+
+	Heap(Dictionary dict, int initialSize, int maxSize, HeapStorage storage) {
+		this.dict = requireNonNull(dict);
+		if (initialSize < OBJECT_HEADER_SIZE || maxSize < initialSize) {
+			throw new IllegalArgumentException("invalid heap size " + initialSize + " " + maxSize);
+		}
+		this.maxSize = maxSize;
+		this.words = HeapMemory.create(storage, initialSize);
+	}
+
+	/**
+	 * Creates a heap with a fixed size.
+	 *
+	 * @param mode the GC algorithm.
+	 * @param dict the dictionary used to decode the classes of the objects.
+	 * @param size the size of the heap in words.
+	 * @return a new heap.
+	 */
+	public static Heap create(GCMode mode, Dictionary dict, int size) {
+		return create(mode, dict, size, size);
+	}
+
+	/**
+	 * Creates a heap that grows when the GC can not reclaim enough memory.
+	 *
+	 * @param mode the GC algorithm.
+	 * @param dict the dictionary used to decode the classes of the objects.
+	 * @param initialSize the initial size of the heap in words.
+	 * @param maxSize the maximum size of the heap in words.
+	 * @return a new heap.
+	 */
+	public static Heap create(GCMode mode, Dictionary dict, int initialSize, int maxSize) {
+		return create(mode, dict, initialSize, maxSize, HeapStorage.ARRAY);
+	}
+
+	/**
+	 * Creates a heap that grows when the GC can not reclaim enough memory.
+	 *
+	 * @param mode the GC algorithm.
+	 * @param dict the dictionary used to decode the classes of the objects.
+	 * @param initialSize the initial size of the heap in words.
+	 * @param maxSize the maximum size of the heap in words.
+	 * @param storage where the words of the heap are stored.
+	 * @return a new heap.
+	 */
+	public static Heap create(GCMode mode, Dictionary dict, int initialSize, int maxSize, HeapStorage storage) {
+		return create(mode, dict, initialSize, maxSize, storage, IncrementalHeap.DEFAULT_WORK_BUDGET);
+	}
+
+	/**
+	 * Creates a heap that grows when the GC can not reclaim enough memory.
+	 *
+	 * @param mode the GC algorithm.
+	 * @param dict the dictionary used to decode the classes of the objects.
+	 * @param initialSize the initial size of the heap in words.
+	 * @param maxSize the maximum size of the heap in words.
+	 * @param storage where the words of the heap are stored.
+	 * @param workBudget the maximum number of words marked or swept by each allocation
+	 *                   of the {@link GCMode#INCREMENTAL incremental} GC, a smaller budget means shorter pauses
+	 *                   but more allocations before the memory is reclaimed.
+	 * @return a new heap.
+	 * @throws IllegalArgumentException if the work budget is not positive.
+	 */
+	public static Heap create(GCMode mode, Dictionary dict, int initialSize, int maxSize, HeapStorage storage, int workBudget) {
+		if (workBudget < 1) {
+			throw new IllegalArgumentException("invalid work budget " + workBudget);
+		}
+		return switch (mode) {
+			case MARK_COMPACT -> new MarkCompactHeap(dict, initialSize, maxSize, storage);
+			case GENERATIONAL -> new GenerationalHeap(dict, initialSize, maxSize, storage, GenerationalHeap.DEFAULT_TENURING_THRESHOLD);
+			case INCREMENTAL -> new IncrementalHeap(dict, initialSize, maxSize, storage, workBudget);
+		};
+	}
+
+	/**
+	 * Returns the current size of the heap in words.
+	 */
+	public final int size() {
+		return words.size();
+	}
+
+	/**
+	 * Grows the heap (at least by {@code needed} words), the size is doubled
+	 * but can not exceed the maximum size.
+	 *
+	 * @return true if the heap has grown.
+	 */
+	boolean grow(int needed) {
+		var length = words.size();
+		var newLength = (int) Math.min(maxSize, Math.max(2L * length, (long) length + needed));
+		if (newLength <= length) {
+			return false;
+		}
+		words = words.grow(newLength);
+		return true;
+	}
+
+	/**
+	 * Returns the statistics of the GC.
+	 */
+	public final GCStats stats() {
+		return new GCStats(collections, totalTime, maxPause);
+	}
+
+	final void collectionDone() {
+		collections++;
+	}
+
+	/**
+	 * Records a pause of the interpreter that started at {@code start} (see {@link System#nanoTime()}).
+	 */
+	final void pauseDone(long start) {
+		var pause = System.nanoTime() - start;
+		totalTime += pause;
+		maxPause = Math.max(maxPause, pause);
+	}
+
+	/**
+	 * Allocates an object with its header initialized.
+	 *
+	 * @return the address of the object or -1 if the GC needs to be run.
+	 */
+	abstract int allocate(int classWord, int fieldCount);
+
+	/**
+	 * Reclaims the memory so an object of {@code size} words can be allocated,
+	 * the objects seen through a view (see {@link #view(int)}) are also roots.
+	 */
+	final void collect(Roots roots, int size) {
+		collectGarbage(operator -> {
+			roots.visit(operator);
+			visitViews(operator);
+		}, size);
+	}
+
+	/**
+	 * Reclaims the memory so an object of {@code size} words can be allocated.
+	 */
+	abstract void collectGarbage(Roots roots, int size);
+
+	/**
+	 * Returns the view of an object of the heap, the same view is returned for the same reference
+	 * as long as the view is used.
+	 */
+	final JSObject view(int ref) {
+		ref = resolve(ref);
+		var reference = views.get(ref);
+		var view = (reference == null) ? null : reference.get();
+		if (view == null) {
+			view = new HeapObjectView(this, ref);
+			views.put(ref, new WeakReference<>(view));
+		}
+		return view;
+	}
+
+	private void visitViews(IntUnaryOperator operator) {
+		if (views.isEmpty()) {
+			return;
+		}
+		// a view that is not used anymore does not keep its object alive
+		var newViews = new HashMap<Integer, WeakReference<HeapObjectView>>();
+		for (var reference : views.values()) {
+			var view = reference.get();
+			if (view == null) {
+				continue;
+			}
+			view.ref = decodeReference(operator.applyAsInt(view.encode()));
+			newViews.put(view.ref, reference);
+		}
+		views = newViews;
+	}
+
+	/**
+	 * Stores a value in a field of an object, the GC may need to be notified of the change.
+	 */
+	abstract void putField(int ref, int slot, int value);
+
+	/**
+	 * Calls the consumer with the address of all allocated objects in address order.
+	 */
+	abstract void forEachObject(IntConsumer consumer);
+
+	final int classWord(int ref) {
+		return words.get(ref);
+	}
+
+	final int getField(int ref, int slot) {
+		return words.get(ref + OBJECT_HEADER_SIZE + slot);
+	}
+
+	final int objectSize(int ref) {
+		var classWord = words.get(ref);
+		var clazz = (JSObject) decodeDictObject(classWord, dict);
+		if (clazz == BOXED_INT_CLASS) {
+			return OBJECT_HEADER_SIZE + 1;
+		}
+		if (clazz == STRING_CLASS) {
+			return OBJECT_HEADER_SIZE + stringWordCount(words.get(ref + OBJECT_HEADER_SIZE));
+		}
+		// the words after the fields are free words used when a field is added
+		return OBJECT_HEADER_SIZE + dict.capacity(classWord);
+	}
+
+	/**
+	 * Changes the class of an object to a successor class that has the same capacity (see {@link Dictionary#transition(int, String)}),
+	 * the new field has to be initialized.
+	 */
+	final void changeClass(int ref, int classWord) {
+		words.set(ref, classWord);
+	}
+
+	/**
+	 * Replaces an object that has been relocated by a forwarded object that references the relocated object,
+	 * the forwarded object has the same size, so the heap can still be walked.
+	 * The old fields are cleared using {@link #putField(int, int, int)} so a GC that is marking sees their values.
+	 */
+	final void forward(int ref, int newRef) {
+		for (var slot = taggedFieldCount(ref); --slot > 0;) {
+			putField(ref, slot, encodeSmallInt(0));
+		}
+		words.set(ref, dict.forwardedClass(dict.capacity(words.get(ref))));
+		putField(ref, 0, encodeReference(newRef));
+
+		// the view of the object is now a view of the relocated object
+		var reference = views.remove(ref);
+		var view = (reference == null) ? null : reference.get();
+		if (view != null) {
+			view.ref = newRef;
+			views.put(newRef, reference);
+		}
+	}
+
+	/**
+	 * Returns the address of the relocated object if the object has been forwarded, the object itself otherwise.
+	 */
+	final int resolve(int ref) {
+		while (dict.isForwarded(words.get(ref))) {
+			ref = decodeReference(words.get(ref + OBJECT_HEADER_SIZE));
+		}
+		return ref;
+	}
+
+	/**
+	 * Returns the reference to the relocated object if the value references a forwarded object, the value itself otherwise.
+	 * The GCs replace the references to the forwarded objects, so the forwarded objects can be reclaimed.
+	 */
+	final int resolveReference(int value) {
+		return encodeReference(resolve(decodeReference(value)));
+	}
+
+	/**
+	 * Returns the number of fields of an object that contain tagged values,
+	 * the words after those fields are raw data that are not scanned by the GC.
+	 */
+	final int taggedFieldCount(int ref) {
+		var clazz = (JSObject) decodeDictObject(words.get(ref), dict);
+		if (clazz == BOXED_INT_CLASS || clazz == STRING_CLASS) {
+			return 0;
+		}
+		return clazz.length();
+	}
+
+	/**
+	 * Returns true if the object is a boxed integer.
+	 */
+	final boolean isBoxedInt(int ref) {
+		return decodeDictObject(words.get(ref), dict) == BOXED_INT_CLASS;
+	}
+
+	/**
+	 * Returns the value of a boxed integer.
+	 */
+	final int boxedIntValue(int ref) {
+		return words.get(ref + OBJECT_HEADER_SIZE);
+	}
+
+	/**
+	 * Initializes the value of a boxed integer.
+	 */
+	final void initBoxedInt(int ref, int value) {
+		words.set(ref + OBJECT_HEADER_SIZE, value);
+	}
+
+	private static int stringWordCount(int lengthAndCoder) {
+		var length = lengthAndCoder >>> 1;
+		var latin1 = (lengthAndCoder & 1) != 0;
+		return 1 + (latin1 ? (length + 3) >> 2 : (length + 1) >> 1);
+	}
+
+	private static int lengthAndCoder(String string) {
+		var latin1 = string.chars().allMatch(c -> c < 256);
+		return string.length() << 1 | (latin1 ? 1 : 0);
+	}
+
+	/**
+	 * Returns the number of raw words of a string object.
+	 */
+	static int stringWordCount(String string) {
+		return stringWordCount(lengthAndCoder(string));
+	}
+
+	/**
+	 * Returns true if the object is a string.
+	 */
+	final boolean isString(int ref) {
+		return decodeDictObject(words.get(ref), dict) == STRING_CLASS;
+	}
+
+	/**
+	 * Initializes the characters of a string, the object has {@link #stringWordCount(String)} raw words.
+	 */
+	final void initString(int ref, String string) {
+		var lengthAndCoder = lengthAndCoder(string);
+		var base = ref + OBJECT_HEADER_SIZE;
+		words.set(base, lengthAndCoder);
+		words.fill(base + 1, base + stringWordCount(lengthAndCoder), 0);
+		var shift = ((lengthAndCoder & 1) != 0) ? 2 : 1;  // log2 of the number of characters by word
+		var bits = 32 >> shift;
+		for (var i = 0; i < string.length(); i++) {
+			var index = base + 1 + (i >> shift);
+			words.set(index, words.get(index) | string.charAt(i) << ((i & ((1 << shift) - 1)) * bits));
+		}
+	}
+
+	/**
+	 * Returns the value of a string.
+	 */
+	final String stringValue(int ref) {
+		var base = ref + OBJECT_HEADER_SIZE;
+		var lengthAndCoder = words.get(base);
+		var length = lengthAndCoder >>> 1;
+		var shift = ((lengthAndCoder & 1) != 0) ? 2 : 1;
+		var bits = 32 >> shift;
+		var mask = (1 << bits) - 1;
+		var chars = new char[length];
+		for (var i = 0; i < length; i++) {
+			chars[i] = (char) ((words.get(base + 1 + (i >> shift)) >>> ((i & ((1 << shift) - 1)) * bits)) & mask);
+		}
+		return new String(chars);
+	}
+
+	final int initHeader(int ref, int classWord) {
+		words.set(ref, classWord);
+		words.set(ref + GC_OFFSET, GC_EMPTY);
+		return ref;
+	}
+
+	void dump(String message) {
+		System.err.println(message);
+		forEachObject(ref -> {
+			var size = objectSize(ref);
+			for (var i = ref; i < ref + size; i++) {
+				var value = words.get(i);
+				try {
+					System.err.println(i + ": " + value + " " + decodeAnyValue(value, dict, this));
+				} catch (IndexOutOfBoundsException | ClassCastException e) {
+					System.err.println(i + ": " + value + " (can't decode)");
+				}
+			}
+		});
+		System.err.println();
+	}
+
+	private void mark(int ref, int bottom, int top, ArrayDeque<Integer> pending) {
+		if (ref < bottom || ref >= top || words.get(ref + GC_OFFSET) == GC_MARK) {
+			return;
+		}
+		words.set(ref + GC_OFFSET, GC_MARK);
+		pending.push(ref);
+	}
+
+	private void markFields(int ref, int bottom, int top, ArrayDeque<Integer> pending) {
+		var end = ref + OBJECT_HEADER_SIZE + taggedFieldCount(ref);
+		for (var i = ref + OBJECT_HEADER_SIZE; i < end; i++) {
+			var value = words.get(i);
+			if (isReference(value)) {
+				var newValue = resolveReference(value);
+				if (newValue != value) {
+					words.set(i, newValue);
+				}
+				mark(decodeReference(newValue), bottom, top, pending);
+			}
+		}
+	}
+
+	private int forward(int value, int bottom, int top) {
+		var ref = decodeReference(value);
+		if (ref < bottom || ref >= top) {
+			return value;
+		}
+		return encodeReference(words.get(ref + GC_OFFSET));
+	}
+
+	private void forwardFields(int ref, int bottom, int top) {
+		var end = ref + OBJECT_HEADER_SIZE + taggedFieldCount(ref);
+		for (var i = ref + OBJECT_HEADER_SIZE; i < end; i++) {
+			var value = words.get(i);
+			if (isReference(value)) {
+				words.set(i, forward(value, bottom, top));
+			}
+		}
+	}
+
+	/**
+	 * Mark and compact the objects between {@code bottom} and {@code top}.
+	 * The objects between {@code externalStart} and {@code externalEnd} are not collected,
+	 * they are considered alive and their fields are updated if necessary.
+	 * The references to the forwarded objects are replaced by references to the relocated objects,
+	 * so the forwarded objects are not marked.
+	 *
+	 * @return the new top.
+	 */
+	final int markAndCompact(Roots roots, int bottom, int top, int externalStart, int externalEnd) {
+		// 1. scan the stack and mark all reachable objects in the heap
+		var pending = new ArrayDeque<Integer>();
+		roots.visit(value -> {
+			var newValue = resolveReference(value);
+			mark(decodeReference(newValue), bottom, top, pending);
+			return newValue;
+		});
+		for (var ref = externalStart; ref < externalEnd; ref += objectSize(ref)) {
+			markFields(ref, bottom, top, pending);
+		}
+		while (!pending.isEmpty()) {
+			markFields(pending.pop(), bottom, top, pending);
+		}
+
+		// 2. scan the heap to find the new addresses of all live objects
+		var newTop = bottom;
+		for (var ref = bottom; ref < top; ref += objectSize(ref)) {
+			if (words.get(ref + GC_OFFSET) == GC_MARK) {
+				words.set(ref + GC_OFFSET, newTop);
+				newTop += objectSize(ref);
+			} else {
+				words.set(ref + GC_OFFSET, GC_EMPTY);
+			}
+		}
+
+		// 3. check if memory can be freed
+		if (newTop == top) {
+			for (var ref = bottom; ref < top; ref += objectSize(ref)) {
+				words.set(ref + GC_OFFSET, GC_EMPTY);
+			}
+			return top;
+		}
+
+		// 4. scan the heap to rewrite all field references
+		for (var ref = bottom; ref < top; ref += objectSize(ref)) {
+			if (words.get(ref + GC_OFFSET) != GC_EMPTY) {
+				forwardFields(ref, bottom, top);
+			}
+		}
+		for (var ref = externalStart; ref < externalEnd; ref += objectSize(ref)) {
+			forwardFields(ref, bottom, top);
+		}
+
+		// 5. scan the stack to rewrite the references
+		roots.visit(value -> forward(value, bottom, top));
+
+		// 6. scan the heap and move the objects to their new addresses
+		for (var ref = bottom; ref < top; ) {
+			var size = objectSize(ref);
+			var newRef = words.get(ref + GC_OFFSET);
+			if (newRef != GC_EMPTY) {
+				words.copy(ref, newRef, size);
+				words.set(newRef + GC_OFFSET, GC_EMPTY);
+			}
+			ref += size;
+		}
+		return newTop;
+	}
+}
@@ -0,0 +1,43 @@
+package fr.umlv.smalljs.stackinterp;
+
+/**
+ * The words of a {@link Heap}, all the accesses of the heaps to their memory go through this interface
+ * so the words can be stored outside of the Java heap (see {@link HeapStorage}).
+ */
+interface HeapMemory {
+	/**
+	 * Returns the number of words.
+	 */
+	int size();
+
+	int get(int index);
+
+	void set(int index, int value);
+
+	/**
+	 * Copies {@code length} words from {@code from} to {@code to}, the two ranges may overlap.
+	 */
+	void copy(int from, int to, int length);
+
+	/**
+	 * Stores the value in the words between {@code from} (inclusive) and {@code to} (exclusive).
+	 */
+	void fill(int from, int to, int value);
+
+	/**
+	 * Returns a memory of {@code newSize} words that starts with the words of this memory,
+	 * this memory can not be used after this call.
+	 */
+	HeapMemory grow(int newSize);
+
+	/**
+	 * Creates a memory of {@code size} words.
+	 */
+	static HeapMemory create(HeapStorage storage, int size) {
+		return switch (storage) {
+			case ARRAY -> new ArrayHeapMemory(size);
+			case DIRECT -> BufferHeapMemory.direct(size);
+			case MAPPED -> BufferHeapMemory.mapped(size);
+		};
+	}
+}
@@ -0,0 +1,80 @@
+package fr.umlv.smalljs.stackinterp;
+
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+import static fr.umlv.smalljs.stackinterp.TagValues.decodeAnyValue;
+import static fr.umlv.smalljs.stackinterp.TagValues.decodeDictObject;
+import static fr.umlv.smalljs.stackinterp.TagValues.encodeReference;
+import static java.util.Objects.requireNonNull;
+
+import java.util.function.BiConsumer;
+
+import fr.umlv.smalljs.rt.Failure;
+import fr.umlv.smalljs.rt.JSObject;
+
+/**
+ * An object of the heap seen as a {@link JSObject}, the fields are decoded when they are accessed.
+ *
+ * The views are created by {@link Heap#view(int)} that returns the same view for the same reference,
+ * so a view is equal to itself and a cycle of objects is decoded lazily.
+ * The reference is updated by the GC when the object is moved.
+ */
+final class HeapObjectView extends JSObject {
+	private final Heap heap;
+	int ref;
+
+	HeapObjectView(Heap heap, int ref) {
+		this.heap = heap;
+		this.ref = ref;
+	}
+
+	/**
+	 * Returns true if the value is a view of an object of the heap.
+	 */
+	static boolean isViewOf(Object value, Heap heap) {
+		return value instanceof HeapObjectView view && view.heap == heap;
+	}
+
+	int encode() {
+		return encodeReference(ref);
+	}
+
+	private JSObject clazz() {
+		return (JSObject) decodeDictObject(heap.classWord(ref), heap.dict);
+	}
+
+	private Object field(int slot) {
+		return decodeAnyValue(heap.getField(ref, slot), heap.dict, heap);
+	}
+
+	@Override
+	public Object lookup(String key) {
+		requireNonNull(key);
+		var slot = clazz().lookup(key);
+		if (slot == UNDEFINED) {
+			return UNDEFINED;
+		}
+		return field((int) slot);
+	}
+
+	@Override
+	public void register(String key, Object value) {
+		requireNonNull(key);
+		requireNonNull(value);
+		var slot = clazz().lookup(key);
+		if (slot == UNDEFINED) {
+			throw new Failure("no field " + key + " in " + this);
+		}
+		var encoded = isViewOf(value, heap) ? ((HeapObjectView) value).encode() : TagValues.encodeAnyValue(value, heap.dict);
+		heap.putField(ref, (int) slot, encoded);
+	}
+
+	@Override
+	public int length() {
+		return clazz().length();
+	}
+
+	@Override
+	public void forEach(BiConsumer<? super String, ? super Object> action) {
+		clazz().forEach((key, slot) -> action.accept(key, field((int) slot)));
+	}
+}
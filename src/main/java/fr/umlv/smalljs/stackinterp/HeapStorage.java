@@ -0,0 +1,19 @@
+package fr.umlv.smalljs.stackinterp;
+
+/**
+ * Where the words of the heap of the stack interpreter are stored.
+ */
+public enum HeapStorage {
+	/**
+	 * an array of ints on the Java heap.
+	 */
+	ARRAY,
+	/**
+	 * direct buffers allocated outside of the Java heap, so a big heap is not scanned by the GC of the JVM.
+	 */
+	DIRECT,
+	/**
+	 * buffers mapped on a temporary file, the operating system can page the heap in and out.
+	 */
+	MAPPED
+}
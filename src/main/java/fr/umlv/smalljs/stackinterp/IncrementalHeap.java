@@ -0,0 +1,330 @@
+package fr.umlv.smalljs.stackinterp;
+
+import static fr.umlv.smalljs.stackinterp.TagValues.OBJECT_HEADER_SIZE;
+import static fr.umlv.smalljs.stackinterp.TagValues.decodeReference;
+import static fr.umlv.smalljs.stackinterp.TagValues.decodeSmallInt;
+import static fr.umlv.smalljs.stackinterp.TagValues.encodeSmallInt;
+import static fr.umlv.smalljs.stackinterp.TagValues.isReference;
+import static fr.umlv.smalljs.stackinterp.TagValues.isSmallInt;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A heap with an incremental mark and sweep GC, objects never move.
+ *
+ * A collection is started when the free memory goes below half of the heap,
+ * the roots (the stack) are scanned at the beginning of the collection,
+ * then each allocation does at most {@code workBudget} words of marking or sweeping work,
+ * so the pauses do not depend on the size of the heap.
+ *
+ * Marking is done with three colors stored in the GC word of the header,
+ * white (GC_EMPTY), grey (GC_GREY, waiting in the mark stack) and black (GC_MARK).
+ * Because the interpreter runs between two marking steps, {@link #putField(int, int, int)}
+ * has a snapshot at the beginning barrier, the value of a field that is overwritten is marked grey,
+ * so all the objects reachable when the collection started are marked.
+ * The stack does not need a barrier because it is part of the snapshot.
+ * Objects allocated during the marking are black.
+ *
+ * Free memory is a list of chunks linked using the GC word, a chunk has a small int
+ * as class word that stores the size of the chunk, so the heap stays parseable.
+ * A chunk of one word (a hole too small to be reused) has no GC word.
+ */
+final class IncrementalHeap extends Heap {
+	static final int DEFAULT_WORK_BUDGET = 64;
+
+	private static final int GC_GREY = -3;
+	private static final int NO_CHUNK = -1;
+
+	private enum Phase { IDLE, MARKING, SWEEPING }
+
+	private final int workBudget;
+
+	private int top;              // end of the parseable part of the heap, after that memory is free
+	private int freeList = NO_CHUNK;
+	private int free;             // free words (free list + after top)
+	private Phase phase = Phase.IDLE;
+
+	// marking
+	private int[] greys = new int[16];
+	private int greySize;
+
+	// sweeping
+	private int sweep;            // next chunk to sweep
+	private int sweepEnd;
+	private int freeRun = -1;     // start of the current run of free chunks
+
+	private int maxStepObjects;   // maximum number of objects and chunks marked or swept by a step
+
+	IncrementalHeap(Dictionary dict, int initialSize, int maxSize, HeapStorage storage, int workBudget) {
+		super(dict, initialSize, maxSize, storage);
+		if (workBudget < 1) {
+			throw new IllegalArgumentException("invalid work budget " + workBudget);
+		}
+		this.workBudget = workBudget;
+		this.free = initialSize;
+	}
+
+	@Override
+	boolean grow(int needed) {
+		var length = words.size();
+		if (!super.grow(needed)) {
+			return false;
+		}
+		free += words.size() - length;
+		return true;
+	}
+
+	private boolean isChunk(int ref) {
+		return isSmallInt(words.get(ref));
+	}
+
+	private int chunkSize(int ref) {
+		return isChunk(ref) ? decodeSmallInt(words.get(ref)) : objectSize(ref);
+	}
+
+	@Override
+	int allocate(int classWord, int fieldCount) {
+		var size = OBJECT_HEADER_SIZE + fieldCount;
+		int ref;
+		if (phase != Phase.IDLE) {
+			var start = System.nanoTime();
+			step(workBudget);
+			ref = allocateChunk(size);
+			while (ref == NO_CHUNK && phase != Phase.IDLE) {
+				// not enough memory, the collection has to progress
+				step(workBudget);
+				ref = allocateChunk(size);
+			}
+			pauseDone(start);
+		} else {
+			if (free < words.size() / 2) {
+				// a new collection needs the roots
+				return -1;
+			}
+			ref = allocateChunk(size);
+		}
+		if (ref == NO_CHUNK) {
+			return -1;
+		}
+		initHeader(ref, classWord);
+		if (phase == Phase.MARKING) {
+			words.set(ref + GC_OFFSET, GC_MARK);
+		}
+		// no garbage in the fields, the barrier reads them
+		words.fill(ref + OBJECT_HEADER_SIZE, ref + size, encodeSmallInt(0));
+		return ref;
+	}
+
+	private int allocateChunk(int size) {
+		// first fit
+		for (int previous = NO_CHUNK, chunk = freeList; chunk != NO_CHUNK; previous = chunk, chunk = words.get(chunk + GC_OFFSET)) {
+			var chunkSize = decodeSmallInt(words.get(chunk));
+			if (chunkSize < size) {
+				continue;
+			}
+			var next = words.get(chunk + GC_OFFSET);
+			var remaining = chunkSize - size;
+			if (remaining >= OBJECT_HEADER_SIZE) {
+				var rest = chunk + size;
+				words.set(rest, encodeSmallInt(remaining));
+				words.set(rest + GC_OFFSET, next);
+				next = rest;
+			} else if (remaining == 1) {
+				words.set(chunk + size, encodeSmallInt(1));
+			}
+			if (previous == NO_CHUNK) {
+				freeList = next;
+			} else {
+				words.set(previous + GC_OFFSET, next);
+			}
+			free -= chunkSize - ((remaining >= OBJECT_HEADER_SIZE) ? remaining : 0);
+			return chunk;
+		}
+		if (top + size > words.size()) {
+			return NO_CHUNK;
+		}
+		var ref = top;
+		top += size;
+		free -= size;
+		return ref;
+	}
+
+	private boolean fits(int size) {
+		if (top + size <= words.size()) {
+			return true;
+		}
+		for (var chunk = freeList; chunk != NO_CHUNK; chunk = words.get(chunk + GC_OFFSET)) {
+			if (decodeSmallInt(words.get(chunk)) >= size) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	void collectGarbage(Roots roots, int size) {
+		var start = System.nanoTime();
+		if (phase == Phase.IDLE) {
+			startMarking(roots);
+		}
+		if (!fits(size)) {
+			// not enough memory, finish the current collection
+			step(Integer.MAX_VALUE);
+			if (!fits(size)) {
+				// the objects allocated during the previous collection may be dead
+				startMarking(roots);
+				step(Integer.MAX_VALUE);
+				if (!fits(size)) {
+					grow(size);
+				}
+			}
+		}
+		if (phase == Phase.IDLE && free < words.size() / 2) {
+			startMarking(roots);
+		}
+		pauseDone(start);
+	}
+
+	private void startMarking(Roots roots) {
+		phase = Phase.MARKING;
+		roots.visit(value -> {
+			var newValue = resolveReference(value);
+			shade(decodeReference(newValue));
+			return newValue;
+		});
+	}
+
+	private void shade(int ref) {
+		if (words.get(ref + GC_OFFSET) != GC_EMPTY) {
+			return;
+		}
+		words.set(ref + GC_OFFSET, GC_GREY);
+		if (greySize == greys.length) {
+			greys = Arrays.copyOf(greys, greySize << 1);
+		}
+		greys[greySize++] = ref;
+	}
+
+	/**
+	 * Runs the collection until {@code budget} words have been marked or swept.
+	 */
+	private void step(int budget) {
+		var objects = 0;
+		while (budget > 0 && phase == Phase.MARKING) {
+			if (greySize == 0) {
+				startSweeping();
+				break;
+			}
+			var ref = greys[--greySize];
+			var size = objectSize(ref);
+			var end = ref + OBJECT_HEADER_SIZE + taggedFieldCount(ref);
+			for (var i = ref + OBJECT_HEADER_SIZE; i < end; i++) {
+				var value = words.get(i);
+				if (isReference(value)) {
+					// the field now references the relocated object, but the forwarded object is still marked,
+					// the value of the field may have been pushed on the stack, it is reclaimed by the next collection
+					shade(decodeReference(value));
+					var newValue = resolveReference(value);
+					if (newValue != value) {
+						words.set(i, newValue);
+					}
+				}
+			}
+			words.set(ref + GC_OFFSET, GC_MARK);
+			budget -= size;
+			objects++;
+		}
+		while (budget > 0 && phase == Phase.SWEEPING) {
+			if (sweep == sweepEnd) {
+				endSweeping();
+				break;
+			}
+			var ref = sweep;
+			var size = chunkSize(ref);
+			if (isChunk(ref) || words.get(ref + GC_OFFSET) == GC_EMPTY) {
+				// dead
+				if (freeRun == -1) {
+					freeRun = ref;
+				}
+			} else {
+				words.set(ref + GC_OFFSET, GC_EMPTY);
+				closeFreeRun(ref);
+			}
+			sweep += size;
+			budget -= size;
+			objects++;
+		}
+		maxStepObjects = Math.max(maxStepObjects, objects);
+	}
+
+	/**
+	 * Returns the maximum number of objects (and free chunks) marked or swept by one step of the collection.
+	 */
+	int maxStepObjects() {
+		return maxStepObjects;
+	}
+
+	private void startSweeping() {
+		phase = Phase.SWEEPING;
+		// the free chunks will be found again by the sweeper
+		freeList = NO_CHUNK;
+		free = words.size() - top;
+		sweep = 0;
+		sweepEnd = top;
+		freeRun = -1;
+	}
+
+	private void closeFreeRun(int end) {
+		if (freeRun == -1) {
+			return;
+		}
+		var size = end - freeRun;
+		words.set(freeRun, encodeSmallInt(size));
+		if (size >= OBJECT_HEADER_SIZE) {
+			words.set(freeRun + GC_OFFSET, freeList);
+			freeList = freeRun;
+			free += size;
+		}
+		freeRun = -1;
+	}
+
+	private void endSweeping() {
+		if (freeRun != -1 && sweepEnd == top) {
+			// the free memory is at the end of the heap
+			free += top - freeRun;
+			top = freeRun;
+			freeRun = -1;
+		}
+		closeFreeRun(sweepEnd);
+		phase = Phase.IDLE;
+		collectionDone();
+
+		// less than a quarter of the heap is free, grow it
+		if (free < words.size() / 4) {
+			grow(0);
+		}
+	}
+
+	@Override
+	void putField(int ref, int slot, int value) {
+		var index = ref + OBJECT_HEADER_SIZE + slot;
+		if (phase == Phase.MARKING) {
+			// snapshot at the beginning barrier
+			var oldValue = words.get(index);
+			if (isReference(oldValue)) {
+				shade(decodeReference(oldValue));
+			}
+		}
+		words.set(index, value);
+	}
+
+	@Override
+	void forEachObject(IntConsumer consumer) {
+		for (var ref = 0; ref < top; ref += chunkSize(ref)) {
+			if (!isChunk(ref)) {
+				consumer.accept(ref);
+			}
+		}
+	}
+}
@@ -0,0 +1,264 @@
+package fr.umlv.smalljs.stackinterp;
+
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+import static fr.umlv.smalljs.stackinterp.Instructions.CONST;
+import static fr.umlv.smalljs.stackinterp.Instructions.FUNCALL;
+import static fr.umlv.smalljs.stackinterp.Instructions.GET;
+import static fr.umlv.smalljs.stackinterp.Instructions.GET_SLOT;
+import static fr.umlv.smalljs.stackinterp.Instructions.GOTO;
+import static fr.umlv.smalljs.stackinterp.Instructions.INLINED_FUNCALL;
+import static fr.umlv.smalljs.stackinterp.Instructions.LOAD;
+import static fr.umlv.smalljs.stackinterp.Instructions.LOOKUP;
+import static fr.umlv.smalljs.stackinterp.Instructions.LOOKUP_CACHED;
+import static fr.umlv.smalljs.stackinterp.Instructions.POP;
+import static fr.umlv.smalljs.stackinterp.Instructions.PUT;
+import static fr.umlv.smalljs.stackinterp.Instructions.PUT_SLOT;
+import static fr.umlv.smalljs.stackinterp.Instructions.RET;
+import static fr.umlv.smalljs.stackinterp.Instructions.STORE;
+import static fr.umlv.smalljs.stackinterp.Instructions.TAILCALL;
+import static fr.umlv.smalljs.stackinterp.TagValues.encodeDictObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import fr.umlv.smalljs.rt.JSObject;
+import fr.umlv.smalljs.stackinterp.InstrRewriter.InstrBuffer;
+
+/**
+ * Inliner of the switch loop of the stack interpreter (see {@link Dispatch#INLINING}).
+ *
+ * The invocations of the functions of the function table of the dictionary are counted,
+ * when a function is called {@code THRESHOLD} times, the small functions called by its FUNCALLs are inlined
+ * in a new version of its code. The function called by a FUNCALL is the one recorded by the inline cache
+ * of the call site, so only the call sites that have been executed are inlined.
+ *
+ * An inlined call site starts with an INLINED_FUNCALL that checks that the qualifier is still the inlined function,
+ * if the global has been rebound by a REGISTER, it jumps to the original FUNCALL that follows the inlined code.
+ * The inlined code stores the receiver and the arguments in new local variables, the local variables
+ * of the inlined function are renumbered after the ones of the caller, and a RET jumps after the call site.
+ *
+ * The new version of the code is the code of a new function with the same name and its own index in the function table,
+ * so the activations of the old version that are on the stack still return to the old code.
+ */
+final class Inliner {
+	/**
+	 * Number of calls after which the callees of a function are inlined, the default can be changed with
+	 * the system property {@code smalljs.inlineThreshold}.
+	 */
+	static final int THRESHOLD = Integer.getInteger("smalljs.inlineThreshold", 1_000);
+
+	/**
+	 * Maximum number of words of the instructions of an inlined function, the default can be changed with
+	 * the system property {@code smalljs.inlineMaxSize}.
+	 */
+	static final int MAX_INLINED_SIZE = Integer.getInteger("smalljs.inlineMaxSize", 32);
+
+	private final Dictionary dict;
+	private final JSObject globalEnv;
+	private final StackInterpreter.Config config;
+
+	// indexed by function index, a count equals to THRESHOLD means that the inlining has been tried
+	private int[] invocationCounts = new int[16];
+	// index of the function to call instead, valid if the inlining has been tried
+	private int[] versions = new int[16];
+
+	Inliner(Dictionary dict, JSObject globalEnv, StackInterpreter.Config config) {
+		this.dict = dict;
+		this.globalEnv = globalEnv;
+		this.config = config;
+	}
+
+	/**
+	 * Counts an invocation of a function of the function table and inlines its callees if necessary.
+	 *
+	 * @return the index of the function to call, the index of the version with the callees inlined
+	 *   or the index of the function itself.
+	 */
+	int profile(int functionIndex) {
+		ensureCapacity(functionIndex);
+		var count = invocationCounts[functionIndex];
+		if (count != THRESHOLD) {
+			invocationCounts[functionIndex] = ++count;
+			if (count != THRESHOLD) {
+				return functionIndex;
+			}
+			versions[functionIndex] = createVersion(functionIndex);
+		}
+		return versions[functionIndex];
+	}
+
+	private void ensureCapacity(int functionIndex) {
+		if (functionIndex >= invocationCounts.length) {
+			var length = Math.max(invocationCounts.length * 2, functionIndex + 1);
+			invocationCounts = Arrays.copyOf(invocationCounts, length);
+			versions = Arrays.copyOf(versions, length);
+		}
+	}
+
+	private int createVersion(int functionIndex) {
+		var code = dict.code(functionIndex);
+		if (code == null) {
+			return functionIndex;
+		}
+		var newCode = inline(code, dict);
+		if (newCode == null) {
+			return functionIndex;
+		}
+		var name = dict.function(functionIndex).getName().substring("function ".length());
+		var version = dict.functionIndex(InstrRewriter.newFunction(name, newCode, dict, globalEnv, config));
+
+		// the version is never inlined again
+		ensureCapacity(version);
+		invocationCounts[version] = THRESHOLD;
+		versions[version] = version;
+		return version;
+	}
+
+	/**
+	 * Returns a new code with the small functions called by the executed FUNCALLs inlined,
+	 * or null if no function can be inlined.
+	 */
+	static Code inline(Code code, Dictionary dict) {
+		var instrs = code.instrs();
+		var inlineCaches = code.inlineCaches();
+
+		// find the callees, all the inlined functions share the same new local variables
+		var callees = new Code[instrs.length];
+		var inlinedSlotCount = 0;
+		for (var pc = 0; pc < instrs.length; pc += Instructions.size(instrs[pc])) {
+			var callee = callee(instrs, inlineCaches, pc, dict);
+			if (callee != null) {
+				callees[pc] = callee;
+				inlinedSlotCount = Math.max(inlinedSlotCount, callee.slotCount());
+			}
+		}
+		if (inlinedSlotCount == 0) {
+			return null;
+		}
+
+		var base = code.slotCount();
+		var buffer = new InstrBuffer();
+		var newPcs = new int[instrs.length];
+		var labels = new ArrayList<int[]>(); // position of a label in the new instructions and its old value
+		for (var pc = 0; pc < instrs.length; pc += Instructions.size(instrs[pc])) {
+			newPcs[pc] = buffer.label();
+			var callee = callees[pc];
+			if (callee != null) {
+				inline(buffer, instrs[pc], instrs[pc + 1], inlineCaches[pc], callee, base, dict);
+				continue;
+			}
+			copy(buffer, instrs, pc, labels);
+		}
+		for (var label : labels) {
+			buffer.patch(label[0], newPcs[label[1]]);
+		}
+
+		var newInstrs = buffer.toInstrs();
+		int maxStackDepth;
+		try {
+			maxStackDepth = Instructions.maxStackDepth(newInstrs, dict);
+		} catch (IllegalArgumentException e) {
+			// the stack of the inlined code is not balanced, keep the code
+			return null;
+		}
+		return new Code(newInstrs, code.parameterCount(), base + inlinedSlotCount, maxStackDepth);
+	}
+
+	/**
+	 * Returns the code of the function called by the FUNCALL (or the TAILCALL) at pc
+	 * or null if there is no instruction to inline.
+	 */
+	private static Code callee(int[] instrs, int[] inlineCaches, int pc, Dictionary dict) {
+		var opcode = instrs[pc];
+		if ((opcode != FUNCALL && opcode != TAILCALL) || inlineCaches[pc] == 0) {
+			// not a call or a call never executed
+			return null;
+		}
+		var callee = dict.code(inlineCaches[pc + 1]);
+		if (callee == null || callee.parameterCount() != instrs[pc + 1] + 1 /* this */
+				|| callee.instrs().length > MAX_INLINED_SIZE) {
+			return null;
+		}
+		var calleeInstrs = callee.instrs();
+		for (var i = 0; i < calleeInstrs.length; i += Instructions.size(calleeInstrs[i])) {
+			if (calleeInstrs[i] == INLINED_FUNCALL) {
+				return null;
+			}
+		}
+		return callee;
+	}
+
+	/**
+	 * Emits the code of a function at a call site,
+	 * the original call is emitted after the inlined code and executed if the qualifier is not the inlined function.
+	 */
+	private static void inline(InstrBuffer buffer, int opcode, int argumentCount, int qualifier, Code callee, int base,
+			Dictionary dict) {
+		buffer.emit(INLINED_FUNCALL).emit(argumentCount).emit(qualifier);
+		var fallback = buffer.placeholder();
+
+		// store the arguments and the receiver in the parameters, pop the qualifier
+		for (var i = argumentCount; i >= 0; i--) {
+			buffer.emit(STORE).emit(base + i);
+		}
+		buffer.emit(POP);
+		// initialize all locals that are not parameters
+		var undefined = encodeDictObject(UNDEFINED, dict);
+		for (var i = callee.parameterCount(); i < callee.slotCount(); i++) {
+			buffer.emit(CONST).emit(undefined);
+			buffer.emit(STORE).emit(base + i);
+		}
+
+		var instrs = callee.instrs();
+		var newPcs = new int[instrs.length];
+		var labels = new ArrayList<int[]>();
+		var ends = new ArrayList<Integer>();
+		for (var pc = 0; pc < instrs.length; pc += Instructions.size(instrs[pc])) {
+			newPcs[pc] = buffer.label();
+			switch (instrs[pc]) {
+				case LOAD, STORE -> buffer.emit(instrs[pc]).emit(base + instrs[pc + 1]);
+				case RET -> {
+					// the result is on top of the stack
+					buffer.emit(GOTO);
+					ends.add(buffer.placeholder());
+				}
+				// the caller frame can only be replaced if the call site is itself a tail call
+				case TAILCALL -> buffer.emit(opcode).emit(instrs[pc + 1]);
+				default -> copy(buffer, instrs, pc, labels);
+			}
+		}
+		for (var label : labels) {
+			buffer.patch(label[0], newPcs[label[1]]);
+		}
+
+		buffer.patch(fallback, buffer.label());
+		buffer.emit(opcode).emit(argumentCount);
+		var end = buffer.label();
+		for (var position : ends) {
+			buffer.patch(position, end);
+		}
+	}
+
+	/**
+	 * Copies the instruction at pc, a quickened instruction is copied as the original instruction
+	 * because the inline caches are not copied.
+	 */
+	private static void copy(InstrBuffer buffer, int[] instrs, int pc, ArrayList<int[]> labels) {
+		var opcode = instrs[pc];
+		var position = buffer.label();
+		buffer.emit(switch (opcode) {
+			case LOOKUP_CACHED -> LOOKUP;
+			case GET_SLOT -> GET;
+			case PUT_SLOT -> PUT;
+			default -> opcode;
+		});
+		var size = Instructions.size(opcode);
+		for (var i = 1; i < size; i++) {
+			buffer.emit(instrs[pc + i]);
+		}
+		var labelOffset = Instructions.labelOffset(opcode);
+		if (labelOffset != -1) {
+			labels.add(new int[] { position + labelOffset, instrs[pc + labelOffset] });
+		}
+	}
+}
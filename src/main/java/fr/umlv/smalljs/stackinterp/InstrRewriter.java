@@ -15,8 +15,13 @@ import static fr.umlv.smalljs.stackinterp.Instructions.*;
 import static fr.umlv.smalljs.stackinterp.TagValues.*;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import fr.umlv.smalljs.ast.Expr;
 import fr.umlv.smalljs.ast.Expr.Block;
@@ -37,6 +42,10 @@ import fr.umlv.smalljs.rt.Failure;
 import fr.umlv.smalljs.rt.JSObject;
 
 public class InstrRewriter {
+	// prints the number of instructions removed by the peephole optimizer for each function,
+	// enabled with -Dsmalljs.peepholeStats=true
+	static final String PEEPHOLE_STATS = "smalljs.peepholeStats";
+
 	static class InstrBuffer {
 		private int[] instrs;
 		private int size;
@@ -58,7 +67,9 @@ public class InstrRewriter {
 		}
 
 		int placeholder() {
-			return size++;
+			var position = size;
+			emit(0);
+			return position;
 		}
 
 		void patch(int position, int label) {
@@ -70,11 +81,27 @@ public class InstrRewriter {
 		}
 	}
 
-	private InstrRewriter(Dictionary dict, InstrBuffer buffer, JSObject globalEnv) {
-		this.visitor = createVisitor(buffer, dict, globalEnv);
+	private InstrRewriter(Dictionary dict, InstrBuffer buffer, JSObject globalEnv, StackInterpreter.Config config,
+			Set<String> declaredFunctions) {
+		this.visitor = createVisitor(buffer, dict, globalEnv, config, declaredFunctions);
+	}
+
+	public static JSObject createFunction(Optional<String> name, List<String> parameters, Block body, Dictionary dict, JSObject globalEnv,
+			StackInterpreter.Config config) {
+		// the names of all the functions declared by the script, the operators with those names can not be folded
+		var declaredFunctions = new HashSet<String>();
+		visitDeclaration(body, declaredFunctions);
+		return createFunction(name, parameters, body, dict, globalEnv, config, declaredFunctions);
+	}
+
+	private static JSObject createFunction(Optional<String> name, List<String> parameters, Block body, Dictionary dict, JSObject globalEnv,
+			StackInterpreter.Config config, Set<String> declaredFunctions) {
+		var code = createCode(name, parameters, body, dict, globalEnv, config, declaredFunctions);
+		return newFunction(name.orElse("lambda"), code, dict, globalEnv, config);
 	}
 
-	public static JSObject createFunction(Optional<String> name, List<String> parameters, Block body, Dictionary dict, JSObject globalEnv) {
+	private static Code createCode(Optional<String> name, List<String> parameters, Block body, Dictionary dict, JSObject globalEnv,
+			StackInterpreter.Config config, Set<String> declaredFunctions) {
 		var env = JSObject.newEnv(null);
 
 		env.register("this", 0);
@@ -82,23 +109,80 @@ public class InstrRewriter {
 			env.register(parameter, env.length());
 		}
 		visitVariable(body, env);
+		// the fields of the objects that do not escape are local variables
+		nonEscapingObjects(body, parameters).forEach((object, fieldNames) -> {
+			for (var fieldName : fieldNames) {
+				env.register(object + "." + fieldName, env.length());
+			}
+		});
 
 		var buffer = new InstrBuffer();
-		var rewriter = new InstrRewriter(dict, buffer, globalEnv);
+		var rewriter = new InstrRewriter(dict, buffer, globalEnv, config, declaredFunctions);
 		rewriter.rewrite(body, env);
 		buffer.emit(CONST).emit(encodeDictObject(UNDEFINED, dict));
 		buffer.emit(RET);
 
-		var instrs = buffer.toInstrs();
-		Instructions.dump(instrs, dict);
-
-		var code = new Code(instrs, parameters.size() + 1 /* this */, env.length());
-		var function = JSObject.newFunction(name.orElse("lambda"), (self, receiver, args) -> {
-			if (receiver != UNDEFINED || args.length != 0) {
-				throw new Failure("can not interpret a function with a receiver and/or arguments");
+		var foldable = new HashSet<Integer>();
+		OPERATORS.forEach((operator, opcode) -> {
+			if (!declaredFunctions.contains(operator)) {
+				foldable.add(opcode);
 			}
-			return StackInterpreter.execute(self, dict, globalEnv);
 		});
+		var result = PeepholeOptimizer.optimize(buffer.toInstrs(), foldable::contains);
+		var instrs = result.instrs();
+		Instructions.dump(instrs, dict);
+		if (Boolean.getBoolean(PEEPHOLE_STATS)) {
+			System.err.println("peephole " + name.orElse("lambda") + ": " + result.saved() + " instructions saved");
+		}
+
+		return new Code(instrs, parameters.size() + 1 /* this */, env.length(), Instructions.maxStackDepth(instrs, dict));
+	}
+
+	/**
+	 * The code of a function that has not been called yet, the AST of the function is rewritten
+	 * by the first call (see {@link #code(JSObject)}).
+	 */
+	private record CodeStub(Fun fun, Dictionary dict, JSObject globalEnv, StackInterpreter.Config config, Set<String> declaredFunctions) {
+		private Code createCode() {
+			return InstrRewriter.createCode(fun.name(), fun.parameters(), fun.body(), dict, globalEnv, config, declaredFunctions);
+		}
+
+		// the global environment references the function, so it is not printed
+		@Override
+		public String toString() {
+			return "CodeStub[" + fun.name().orElse("lambda") + "]";
+		}
+	}
+
+	private static JSObject createLazyFunction(Fun fun, Dictionary dict, JSObject globalEnv, StackInterpreter.Config config,
+			Set<String> declaredFunctions) {
+		var function = JSObject.newFunction(fun.name().orElse("lambda"),
+				(self, receiver, args) -> StackInterpreter.execute(self, receiver, args, dict, globalEnv, config));
+		function.register("__code__", new CodeStub(fun, dict, globalEnv, config, declaredFunctions));
+		return function;
+	}
+
+	/**
+	 * Returns the code of a function or undefined if the function is a native function.
+	 * If the code of the function has not been created yet, the code is created and replaces the stub,
+	 * so the AST of the function is not referenced anymore.
+	 */
+	static Object code(JSObject function) {
+		var code = function.lookup("__code__");
+		if (code instanceof CodeStub stub) {
+			var newCode = stub.createCode();
+			function.register("__code__", newCode);
+			return newCode;
+		}
+		return code;
+	}
+
+	/**
+	 * Creates a function executed by the stack interpreter from its code.
+	 */
+	static JSObject newFunction(String name, Code code, Dictionary dict, JSObject globalEnv, StackInterpreter.Config config) {
+		var function = JSObject.newFunction(name,
+				(self, receiver, args) -> StackInterpreter.execute(self, receiver, args, dict, globalEnv, config));
 		function.register("__code__", code);
 		return function;
 	}
@@ -139,11 +223,158 @@ public class InstrRewriter {
 			  // do nothing
 			});
 
+	/**
+	 * Escape analysis of the object literals of a function.
+	 * An object literal stored in a local variable declared in the body of the function (not in a nested block)
+	 * does not escape if after its declaration the variable is only used to read or write the fields
+	 * of the object, so the object is never passed to a function, returned, stored, printed or used as a receiver.
+	 * Those objects are not allocated, each field is stored in a local variable (scalar replacement)
+	 * named {@code object.field}, a name that can not be the name of a variable of the script.
+	 *
+	 * @return the field names of the objects that do not escape indexed by the name of their variable.
+	 */
+	private static Map<String, List<String>> nonEscapingObjects(Block body, List<String> parameters) {
+		var analysis = new EscapeAnalysis();
+		for (var instr : body.instrs()) {
+			if (instr instanceof LocalVarAssignment localVarAssignment && localVarAssignment.declaration()
+					&& localVarAssignment.expr() instanceof New _new && !_new.initMap().isEmpty()) {
+				var name = localVarAssignment.name();
+				if (parameters.contains(name) || analysis.declarations.put(name, localVarAssignment) != null) {
+					analysis.escaped.add(name);
+				}
+			}
+		}
+		visitEscape(body, analysis);
+		var objects = new LinkedHashMap<String, List<String>>();
+		analysis.declarations.forEach((name, declaration) -> {
+			if (!analysis.escaped.contains(name)) {
+				objects.put(name, List.copyOf(((New) declaration.expr()).initMap().keySet()));
+			}
+		});
+		return objects;
+	}
+
+	private static final class EscapeAnalysis {
+		// the declarations of the objects that may not escape
+		private final LinkedHashMap<String, LocalVarAssignment> declarations = new LinkedHashMap<>();
+		// the variables already declared when visiting an expression
+		private final HashSet<String> declared = new HashSet<>();
+		private final HashSet<String> escaped = new HashSet<>();
+
+		private boolean isField(Expr receiver, String fieldName) {
+			return receiver instanceof LocalVarAccess localVarAccess
+					&& declared.contains(localVarAccess.name())
+					&& ((New) declarations.get(localVarAccess.name()).expr()).initMap().containsKey(fieldName);
+		}
+	}
+
+	private static void visitEscape(Expr expr, EscapeAnalysis analysis) {
+		ESCAPE_VISITOR.visit(expr, analysis);
+	}
+
+	private static final VoidVisitor<EscapeAnalysis> ESCAPE_VISITOR = new VoidVisitor<EscapeAnalysis>()
+			.when(Block.class, (block, analysis) -> {
+				for (var instr : block.instrs()) {
+					visitEscape(instr, analysis);
+				}
+			}).when(Literal.class, (literal, analysis) -> {
+				// do nothing
+			}).when(FunCall.class, (funCall, analysis) -> {
+				visitEscape(funCall.qualifier(), analysis);
+				funCall.args().forEach(arg -> visitEscape(arg, analysis));
+			}).when(LocalVarAssignment.class, (localVarAssignment, analysis) -> {
+				var name = localVarAssignment.name();
+				if (analysis.declarations.get(name) == localVarAssignment) {
+					// the object itself does not escape
+					((New) localVarAssignment.expr()).initMap().values().forEach(expr -> visitEscape(expr, analysis));
+					analysis.declared.add(name);
+					return;
+				}
+				analysis.escaped.add(name);
+				visitEscape(localVarAssignment.expr(), analysis);
+			}).when(LocalVarAccess.class, (localVarAccess, analysis) -> {
+				analysis.escaped.add(localVarAccess.name());
+			}).when(Fun.class, (fun, analysis) -> {
+				// do nothing, the local variables of a function are not visible from the nested functions
+			}).when(Return.class, (_return, analysis) -> {
+				visitEscape(_return.expr(), analysis);
+			}).when(If.class, (_if, analysis) -> {
+				visitEscape(_if.condition(), analysis);
+				visitEscape(_if.trueBlock(), analysis);
+				visitEscape(_if.falseBlock(), analysis);
+			}).when(New.class, (_new, analysis) -> {
+				_new.initMap().values().forEach(expr -> visitEscape(expr, analysis));
+			}).when(FieldAccess.class, (fieldAccess, analysis) -> {
+				if (!analysis.isField(fieldAccess.receiver(), fieldAccess.name())) {
+					visitEscape(fieldAccess.receiver(), analysis);
+				}
+			}).when(FieldAssignment.class, (fieldAssignment, analysis) -> {
+				if (!analysis.isField(fieldAssignment.receiver(), fieldAssignment.name())) {
+					visitEscape(fieldAssignment.receiver(), analysis);
+				}
+				visitEscape(fieldAssignment.expr(), analysis);
+			}).when(MethodCall.class, (methodCall, analysis) -> {
+				visitEscape(methodCall.receiver(), analysis);
+				methodCall.args().forEach(arg -> visitEscape(arg, analysis));
+			});
+
+	/**
+	 * Returns the slot of the local variable that stores the field of an object that does not escape
+	 * or -1 if the receiver is not such an object.
+	 */
+	private static int fieldSlot(Expr receiver, String fieldName, JSObject env) {
+		if (!(receiver instanceof LocalVarAccess localVarAccess)) {
+			return -1;
+		}
+		var slotOrUndefined = env.lookup(localVarAccess.name() + "." + fieldName);
+		return (slotOrUndefined == UNDEFINED) ? -1 : (int) slotOrUndefined;
+	}
+
+	private static void visitDeclaration(Expr expr, Set<String> declaredFunctions) {
+		DECLARATION_VISITOR.visit(expr, declaredFunctions);
+	}
+
+	private static final VoidVisitor<Set<String>> DECLARATION_VISITOR = new VoidVisitor<Set<String>>()
+			.when(Block.class, (block, declaredFunctions) -> {
+				for (var instr : block.instrs()) {
+					visitDeclaration(instr, declaredFunctions);
+				}
+			}).when(Literal.class, (literal, declaredFunctions) -> {
+				// do nothing
+			}).when(FunCall.class, (funCall, declaredFunctions) -> {
+				visitDeclaration(funCall.qualifier(), declaredFunctions);
+				funCall.args().forEach(arg -> visitDeclaration(arg, declaredFunctions));
+			}).when(LocalVarAssignment.class, (localVarAssignment, declaredFunctions) -> {
+				visitDeclaration(localVarAssignment.expr(), declaredFunctions);
+			}).when(LocalVarAccess.class, (localVarAccess, declaredFunctions) -> {
+				// do nothing
+			}).when(Fun.class, (fun, declaredFunctions) -> {
+				fun.name().ifPresent(declaredFunctions::add);
+				visitDeclaration(fun.body(), declaredFunctions);
+			}).when(Return.class, (_return, declaredFunctions) -> {
+				visitDeclaration(_return.expr(), declaredFunctions);
+			}).when(If.class, (_if, declaredFunctions) -> {
+				visitDeclaration(_if.condition(), declaredFunctions);
+				visitDeclaration(_if.trueBlock(), declaredFunctions);
+				visitDeclaration(_if.falseBlock(), declaredFunctions);
+			}).when(New.class, (_new, declaredFunctions) -> {
+				_new.initMap().values().forEach(expr -> visitDeclaration(expr, declaredFunctions));
+			}).when(FieldAccess.class, (fieldAccess, declaredFunctions) -> {
+				visitDeclaration(fieldAccess.receiver(), declaredFunctions);
+			}).when(FieldAssignment.class, (fieldAssignment, declaredFunctions) -> {
+				visitDeclaration(fieldAssignment.receiver(), declaredFunctions);
+				visitDeclaration(fieldAssignment.expr(), declaredFunctions);
+			}).when(MethodCall.class, (methodCall, declaredFunctions) -> {
+				visitDeclaration(methodCall.receiver(), declaredFunctions);
+				methodCall.args().forEach(arg -> visitDeclaration(arg, declaredFunctions));
+			});
+
 	private void rewrite(Expr expr, JSObject env) {
 		visitor.visit(expr, env);
 	}
 
-	public static VoidVisitor<JSObject> createVisitor(InstrBuffer buffer, Dictionary dict, JSObject globalEnv) {
+	public static VoidVisitor<JSObject> createVisitor(InstrBuffer buffer, Dictionary dict, JSObject globalEnv,
+			StackInterpreter.Config config, Set<String> declaredFunctions) {
 		var visitor = new VoidVisitor<JSObject>();
 		visitor.when(Block.class, (block, env) -> {
 			// for each expression of the block
@@ -159,13 +390,22 @@ public class InstrRewriter {
 		}).when(Literal.class, (literal, env) -> {
 			// get the literal value
 			var value = literal.value();
-			if (value instanceof Integer toto && toto >= 0) {
+			if (value instanceof Integer toto && fitsInSmallInt(toto)) {
 				buffer.emit(CONST).emit(encodeSmallInt(toto));
 			} else {
 				// emit a dictionary object
 				buffer.emit(CONST).emit(encodeDictObject(value, dict));
 			}
 		}).when(FunCall.class, (funCall, env) -> {
+			var operator = operator(funCall, env);
+			if (operator != -1) {
+				// visit the two operands
+				visitor.visit(funCall.args().get(0), env);
+				visitor.visit(funCall.args().get(1), env);
+				// emit the operator followed by the funcall used if the fast path fails
+				buffer.emit(operator).emit(FUNCALL).emit(2);
+				return;
+			}
 			// visit the qualifier
 			visitor.visit(funCall.qualifier(), env);
 			// emit undefined
@@ -188,10 +428,19 @@ public class InstrRewriter {
 				buffer.emit(LOAD).emit((int) slotOrUndefined);
 			}
 		}).when(LocalVarAssignment.class, (localVarAssignment, env) -> {
-			// visit the expression
-			visitor.visit(localVarAssignment.expr(), env);
 			// get the local variable name
 			var name = localVarAssignment.name();
+			// an object that does not escape is not allocated, store the fields in their local variables
+			if (localVarAssignment.expr() instanceof New _new && !_new.initMap().isEmpty()
+					&& env.lookup(name + "." + _new.initMap().keySet().iterator().next()) != UNDEFINED) {
+				_new.initMap().forEach((fieldName, expr) -> {
+					visitor.visit(expr, env);
+					buffer.emit(STORE).emit((int) env.lookup(name + "." + fieldName));
+				});
+				return;
+			}
+			// visit the expression
+			visitor.visit(localVarAssignment.expr(), env);
 			// find if there is a local variable in the env from the name
 			var slotOrUndefined = env.lookup(name);
 			if (slotOrUndefined == UNDEFINED) {
@@ -200,8 +449,8 @@ public class InstrRewriter {
 			// emit a store at the variable slot
 			buffer.emit(STORE).emit((int) slotOrUndefined);
 		}).when(Fun.class, (fun, env) -> {
-			// create a JSObject function
-			var function = createFunction(fun.name(), fun.parameters(), fun.body(), dict, globalEnv);
+			// create a JSObject function, its code is created by its first call
+			var function = createLazyFunction(fun, dict, globalEnv, config, declaredFunctions);
 			// emit a const on the function
 			buffer.emit(CONST).emit(encodeDictObject(function, dict));
 			// if the name is present emit a code to register the function in the global environment
@@ -210,15 +459,45 @@ public class InstrRewriter {
 				buffer.emit(REGISTER).emit(encodeDictObject(name, dict));
 			});
 		}).when(Return.class, (_return, env) -> {
+			if (_return.expr() instanceof MethodCall methodCall) {
+				// an INVOKE_METHOD can not replace the current frame, so a method call in tail position
+				// gets the method with a GET and calls it with a TAILCALL
+				visitor.visit(methodCall.receiver(), env);
+				buffer.emit(DUP);
+				buffer.emit(GET).emit(encodeDictObject(methodCall.name(), dict));
+				buffer.emit(SWAP);
+				for (var arg : methodCall.args()) {
+					visitor.visit(arg, env);
+				}
+				buffer.emit(TAILCALL).emit(methodCall.args().size());
+				buffer.emit(RET);
+				return;
+			}
 			// emit a visit of the expression
 			visitor.visit(_return.expr(), env);
+			// a call in tail position reuses the frame of the current function,
+			// rewrite the FUNCALL that ends the expression to a TAILCALL
+			if (isTailCall(_return.expr(), env)) {
+				buffer.patch(buffer.label() - 2, TAILCALL);
+			}
 			// emit a RET
 			buffer.emit(RET);
 		}).when(If.class, (_if, env) -> {
-			// visit the condition
-			visitor.visit(_if.condition(), env);
-			// emit a JUMP_IF_FALSE and a placeholder
-			var falsePlaceHolder = buffer.emit(JUMP_IF_FALSE).placeholder();
+			var operator = (_if.condition() instanceof FunCall funCall) ? operator(funCall, env) : -1;
+			int falsePlaceHolder;
+			if (operator >= EQ) {
+				// a comparison, visit the two operands
+				var funCall = (FunCall) _if.condition();
+				visitor.visit(funCall.args().get(0), env);
+				visitor.visit(funCall.args().get(1), env);
+				// emit a fused comparison and jump, the funcall and the JUMP_IF_FALSE are used if the fast path fails
+				falsePlaceHolder = buffer.emit(operator - EQ + JUMP_IF_NOT_EQ).emit(FUNCALL).emit(2).emit(JUMP_IF_FALSE).placeholder();
+			} else {
+				// visit the condition
+				visitor.visit(_if.condition(), env);
+				// emit a JUMP_IF_FALSE and a placeholder
+				falsePlaceHolder = buffer.emit(JUMP_IF_FALSE).placeholder();
+			}
 			// visit the true block
 			visitor.visit(_if.trueBlock(), env);
 			// emit a goto with another placeholder
@@ -242,11 +521,23 @@ public class InstrRewriter {
 			// emit a NEW with the class
 			buffer.emit(NEW).emit(encodeDictObject(clazz, dict));
 		}).when(FieldAccess.class, (fieldAccess, env) -> {
+			// the field of an object that does not escape is a local variable
+			var slot = fieldSlot(fieldAccess.receiver(), fieldAccess.name(), env);
+			if (slot != -1) {
+				buffer.emit(LOAD).emit(slot);
+				return;
+			}
 			// visit the receiver
 			visitor.visit(fieldAccess.receiver(), env);
 			// emit a GET with the field name
 			buffer.emit(GET).emit(encodeDictObject(fieldAccess.name(), dict));
 		}).when(FieldAssignment.class, (fieldAssignment, env) -> {
+			var slot = fieldSlot(fieldAssignment.receiver(), fieldAssignment.name(), env);
+			if (slot != -1) {
+				visitor.visit(fieldAssignment.expr(), env);
+				buffer.emit(STORE).emit(slot);
+				return;
+			}
 			// visit the receiver
 			visitor.visit(fieldAssignment.receiver(), env);
 		   // visit the expression
@@ -256,19 +547,45 @@ public class InstrRewriter {
 		}).when(MethodCall.class, (methodCall, env) -> {
 		  // visit the receiver
 		  visitor.visit(methodCall.receiver(), env);
-		  // emit a DUP, get the field name and emit a SWAP of the qualifier and the receiver
+		  // emit a DUP, the copy of the receiver is replaced by the method (the qualifier) by the INVOKE_METHOD
 		  buffer.emit(DUP);
-		  buffer.emit(GET).emit(encodeDictObject(methodCall.name(), dict));
-		  buffer.emit(SWAP);
 		  // visit all arguments
 		  for (var arg : methodCall.args()) {
 		    visitor.visit(arg, env);
 		  }
-		  // emit the funcall
-		  buffer.emit(FUNCALL).emit(methodCall.args().size());
+		  // emit the method call
+		  buffer.emit(INVOKE_METHOD).emit(encodeDictObject(methodCall.name(), dict)).emit(methodCall.args().size());
 		});
 		return visitor;
 	}
 
+	private static final Map<String, Integer> OPERATORS = Map.ofEntries(
+			Map.entry("+", ADD), Map.entry("-", SUB), Map.entry("*", MUL), Map.entry("/", DIV), Map.entry("%", REM),
+			Map.entry("==", EQ), Map.entry("!=", NE), Map.entry("<", LT), Map.entry("<=", LE), Map.entry(">", GT), Map.entry(">=", GE));
+
+	/**
+	 * Returns the operator instruction of a call like {@code a + b},
+	 * or -1 if it's not a call to an operator of the global environment.
+	 */
+	private static int operator(FunCall funCall, JSObject env) {
+		if (funCall.args().size() != 2 || !(funCall.qualifier() instanceof LocalVarAccess localVarAccess)) {
+			return -1;
+		}
+		var name = localVarAccess.name();
+		if (env.lookup(name) != UNDEFINED) {
+			// a local variable
+			return -1;
+		}
+		return OPERATORS.getOrDefault(name, -1);
+	}
+
+	/**
+	 * Returns true if the code of the expression ends with a FUNCALL,
+	 * a call to an operator ends with the operator instruction followed by its slow path.
+	 */
+	private static boolean isTailCall(Expr expr, JSObject env) {
+		return expr instanceof FunCall funCall && operator(funCall, env) == -1;
+	}
+
 	private final VoidVisitor<JSObject> visitor;
 }
@@ -1,5 +1,10 @@
 package fr.umlv.smalljs.stackinterp;
 
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+import fr.umlv.smalljs.rt.JSObject;
+
 public interface Instructions {
 	int CONST = 1; // CONST tag_value (smallint or dictionary_index)
 	int LOOKUP = 2; // LOOKUP dictionary_index (String global_name)
@@ -19,9 +24,180 @@ public interface Instructions {
 
 	int PRINT = 20;
 
+	// operators on small ints, the instruction is followed by a FUNCALL 2 that calls
+	// the operator from the global environment if the operands are not small ints,
+	// if the result does not fit in a small int or if the operator has been redefined
+	int ADD = 21; // ADD FUNCALL 2
+	int SUB = 22; // SUB FUNCALL 2
+	int MUL = 23; // MUL FUNCALL 2
+	int DIV = 24; // DIV FUNCALL 2
+	int REM = 25; // REM FUNCALL 2
+	int EQ = 26; // EQ FUNCALL 2
+	int NE = 27; // NE FUNCALL 2
+	int LT = 28; // LT FUNCALL 2
+	int LE = 29; // LE FUNCALL 2
+	int GT = 30; // GT FUNCALL 2
+	int GE = 31; // GE FUNCALL 2
+
+	// comparisons fused with a JUMP_IF_FALSE, if the fast path fails the FUNCALL 2
+	// and the JUMP_IF_FALSE that follow are executed
+	int JUMP_IF_NOT_EQ = 32; // JUMP_IF_NOT_EQ FUNCALL 2 JUMP_IF_FALSE instr_index
+	int JUMP_IF_NOT_NE = 33; // JUMP_IF_NOT_NE FUNCALL 2 JUMP_IF_FALSE instr_index
+	int JUMP_IF_NOT_LT = 34; // JUMP_IF_NOT_LT FUNCALL 2 JUMP_IF_FALSE instr_index
+	int JUMP_IF_NOT_LE = 35; // JUMP_IF_NOT_LE FUNCALL 2 JUMP_IF_FALSE instr_index
+	int JUMP_IF_NOT_GT = 36; // JUMP_IF_NOT_GT FUNCALL 2 JUMP_IF_FALSE instr_index
+	int JUMP_IF_NOT_GE = 37; // JUMP_IF_NOT_GE FUNCALL 2 JUMP_IF_FALSE instr_index
+
+	// quickened instructions, LOOKUP, GET and PUT are rewritten by the interpreter after their first execution,
+	// the operand is not changed, the data used by the instruction are stored in the inline caches of the code
+	int LOOKUP_CACHED = 38; // LOOKUP_CACHED dictionary_index (String global_name)
+	int GET_SLOT = 39; // GET_SLOT dictionary_index (String field_name)
+	int PUT_SLOT = 40; // PUT_SLOT dictionary_index (String field_name)
+
+	// call in tail position, the current frame is replaced by the frame of the called function,
+	// the RET that follows is only executed if the current function has no caller to return to
+	int TAILCALL = 41; // TAILCALL argument_count RET
+
+	// guard of a function inlined by the Inliner, the inlined code follows the instruction if the qualifier
+	// is the inlined function, otherwise the FUNCALL at instr_index (after the inlined code) is executed
+	int INLINED_FUNCALL = 42; // INLINED_FUNCALL argument_count dictionary_index (JSObject function) instr_index
+
+	// method call, the receiver is below the arguments and a copy of the receiver is in the slot of the qualifier,
+	// the method is found in the class of the receiver and stored in the slot of the qualifier before the call,
+	// the three words of the inline caches store the class word, the slot of the method and the index of the function
+	int INVOKE_METHOD = 43; // INVOKE_METHOD dictionary_index (String method_name) argument_count
+
+	/**
+	 * Returns the number of words of an instruction, an operator instruction
+	 * includes the FUNCALL (and the JUMP_IF_FALSE) that follows.
+	 */
+	static int size(int opcode) {
+		return switch (opcode) {
+			case DUP, POP, SWAP, RET, PRINT -> 1;
+			case CONST, LOOKUP, REGISTER, LOAD, STORE, FUNCALL, GOTO, JUMP_IF_FALSE, NEW, GET, PUT,
+					LOOKUP_CACHED, GET_SLOT, PUT_SLOT, TAILCALL -> 2;
+			case ADD, SUB, MUL, DIV, REM, EQ, NE, LT, LE, GT, GE -> 3;
+			case INVOKE_METHOD -> 3;
+			case INLINED_FUNCALL -> 4;
+			case JUMP_IF_NOT_EQ, JUMP_IF_NOT_NE, JUMP_IF_NOT_LT, JUMP_IF_NOT_LE, JUMP_IF_NOT_GT, JUMP_IF_NOT_GE -> 5;
+			default -> throw new IllegalArgumentException("unknown instr " + opcode);
+		};
+	}
+
+	/**
+	 * Returns the offset of the label of a jump instruction or -1 if the instruction is not a jump.
+	 */
+	static int labelOffset(int opcode) {
+		return switch (opcode) {
+			case GOTO, JUMP_IF_FALSE -> 1;
+			case INLINED_FUNCALL -> 3;
+			case JUMP_IF_NOT_EQ, JUMP_IF_NOT_NE, JUMP_IF_NOT_LT, JUMP_IF_NOT_LE, JUMP_IF_NOT_GT, JUMP_IF_NOT_GE -> 4;
+			default -> -1;
+		};
+	}
+
+	/**
+	 * Returns the maximum depth of the operand stack of a code.
+	 */
+	static int maxStackDepth(int[] instrs, Dictionary dict) {
+		return maxStackDepth(instrs, classWord -> ((JSObject) TagValues.decodeDictObject(classWord, dict)).length());
+	}
+
+	/**
+	 * Computes the maximum depth of the operand stack with a dataflow analysis,
+	 * the depth before each instruction is propagated to the following instruction and to the label of a jump,
+	 * all the paths to an instruction must have the same depth.
+	 * The slow path of an operator pushes the operator function and the receiver before the FUNCALL 2 that follows.
+	 *
+	 * @param fieldCount the number of fields of a class encoded as a dictionary index, the values popped by NEW.
+	 */
+	private static int maxStackDepth(int[] instrs, IntUnaryOperator fieldCount) {
+		var depths = new int[instrs.length];
+		Arrays.fill(depths, -1);
+		var pending = new int[instrs.length];
+		var pendingCount = 0;
+		depths[0] = 0;
+		pending[pendingCount++] = 0;
+		var maxDepth = 0;
+		while (pendingCount != 0) {
+			var pc = pending[--pendingCount];
+			var depth = depths[pc];
+			var opcode = instrs[pc];
+			var peak = depth;
+			var label = -1;
+			var fallThrough = true;
+			switch (opcode) {
+				case CONST, LOOKUP, LOOKUP_CACHED, LOAD, DUP -> depth++;
+				case REGISTER, STORE, POP -> depth--;
+				case SWAP, PRINT, GET, GET_SLOT -> {
+					// same depth
+				}
+				case PUT, PUT_SLOT -> depth -= 2;
+				case NEW -> depth += 1 - fieldCount.applyAsInt(instrs[pc + 1]);
+				case FUNCALL, TAILCALL -> depth -= instrs[pc + 1] + 1; // qualifier + receiver + arguments, push the result
+				case INVOKE_METHOD -> depth -= instrs[pc + 2] + 1; // same as FUNCALL
+				case RET -> {
+					depth--;
+					fallThrough = false;
+				}
+				case GOTO -> {
+					label = instrs[pc + 1];
+					fallThrough = false;
+				}
+				case JUMP_IF_FALSE -> {
+					label = instrs[pc + 1];
+					depth--;
+				}
+				case INLINED_FUNCALL -> label = instrs[pc + 3]; // same depth
+				case ADD, SUB, MUL, DIV, REM, EQ, NE, LT, LE, GT, GE -> {
+					peak = depth + StackInterpreter.FUNCALL_PREFIX;
+					depth--;
+				}
+				case JUMP_IF_NOT_EQ, JUMP_IF_NOT_NE, JUMP_IF_NOT_LT, JUMP_IF_NOT_LE, JUMP_IF_NOT_GT, JUMP_IF_NOT_GE -> {
+					peak = depth + StackInterpreter.FUNCALL_PREFIX;
+					label = instrs[pc + labelOffset(opcode)];
+					depth -= 2;
+				}
+				default -> throw new IllegalArgumentException("unknown instr " + opcode);
+			}
+			if (depth < 0) {
+				throw new IllegalArgumentException("stack underflow at " + pc);
+			}
+			maxDepth = Math.max(maxDepth, Math.max(peak, depth));
+			if (label != -1 && propagate(depths, label, depth)) {
+				pending[pendingCount++] = label;
+			}
+			if (fallThrough) {
+				var next = pc + size(opcode);
+				if (next >= instrs.length) {
+					throw new IllegalArgumentException("no RET at the end of the code");
+				}
+				if (propagate(depths, next, depth)) {
+					pending[pendingCount++] = next;
+				}
+			}
+		}
+		return maxDepth;
+	}
+
+	private static boolean propagate(int[] depths, int pc, int depth) {
+		if (depths[pc] == -1) {
+			depths[pc] = depth;
+			return true;
+		}
+		if (depths[pc] != depth) {
+			throw new IllegalArgumentException("inconsistent stack depth at " + pc + " " + depths[pc] + " " + depth);
+		}
+		return false;
+	}
+
 	static void dump(int[] instrs, Dictionary dict) {
 		var strings = new String[] { null, "CONST", "LOOKUP", "REGISTER", "LOAD", "STORE", "DUP", "POP", "SWAP",
-				"FUNCALL", "RET", "GOTO", "JUMP_IF_FALSE", "NEW", "GET", "PUT", null, null, null, null, "PRINT" };
+				"FUNCALL", "RET", "GOTO", "JUMP_IF_FALSE", "NEW", "GET", "PUT", null, null, null, null, "PRINT",
+				"ADD", "SUB", "MUL", "DIV", "REM", "EQ", "NE", "LT", "LE", "GT", "GE",
+				"JUMP_IF_NOT_EQ", "JUMP_IF_NOT_NE", "JUMP_IF_NOT_LT", "JUMP_IF_NOT_LE", "JUMP_IF_NOT_GT", "JUMP_IF_NOT_GE",
+				"LOOKUP_CACHED", "GET_SLOT", "PUT_SLOT", "TAILCALL", "INLINED_FUNCALL",
+				"INVOKE_METHOD" };
 		for (var pc = 0; pc < instrs.length;) {
 			System.err.print(pc + " ");
 			var instr = instrs[pc++];
@@ -31,6 +207,23 @@ public interface Instructions {
 			case SWAP:
 			case RET:
 			case PRINT:
+			case ADD: // the fallback FUNCALL is dumped as a separate instruction
+			case SUB:
+			case MUL:
+			case DIV:
+			case REM:
+			case EQ:
+			case NE:
+			case LT:
+			case LE:
+			case GT:
+			case GE:
+			case JUMP_IF_NOT_EQ:
+			case JUMP_IF_NOT_NE:
+			case JUMP_IF_NOT_LT:
+			case JUMP_IF_NOT_LE:
+			case JUMP_IF_NOT_GT:
+			case JUMP_IF_NOT_GE:
 				System.err.println(strings[instr]);
 				continue;
 
@@ -38,7 +231,8 @@ public interface Instructions {
 			case STORE:
 			case GOTO:
 			case JUMP_IF_FALSE:
-			case FUNCALL: {
+			case FUNCALL:
+			case TAILCALL: {
 				var operand = instrs[pc++];
 				System.err.println(strings[instr] + " " + operand);
 				continue;
@@ -48,7 +242,10 @@ public interface Instructions {
 			case REGISTER:
 			case NEW:
 			case GET:
-			case PUT: {
+			case PUT:
+			case LOOKUP_CACHED:
+			case GET_SLOT:
+			case PUT_SLOT: {
 				var operand = instrs[pc++];
 				System.err.println(strings[instr] + " " + TagValues.decodeDictObject(operand, dict));
 				continue;
@@ -64,6 +261,21 @@ public interface Instructions {
 				continue;
 			}
 
+			case INVOKE_METHOD: { // dictionary constant and int args instr
+				var name = TagValues.decodeDictObject(instrs[pc++], dict);
+				var argumentCount = instrs[pc++];
+				System.err.println(strings[instr] + " " + name + " " + argumentCount);
+				continue;
+			}
+
+			case INLINED_FUNCALL: { // int, function and label args instr
+				var argumentCount = instrs[pc++];
+				var function = (JSObject) TagValues.decodeDictObject(instrs[pc++], dict);
+				var label = instrs[pc++];
+				System.err.println(strings[instr] + " " + argumentCount + " " + function.getName() + " " + label);
+				continue;
+			}
+
 			default:
 				throw new Error("unknown instr " + instr);
 			}
@@ -0,0 +1,52 @@
+package fr.umlv.smalljs.stackinterp;
+
+import static fr.umlv.smalljs.stackinterp.TagValues.OBJECT_HEADER_SIZE;
+
+import java.util.function.IntConsumer;
+
+/**
+ * A heap with a bump pointer allocation and a mark and compact GC
+ * (see "In place GC" in stack_interpreter.md).
+ */
+final class MarkCompactHeap extends Heap {
+	private int hp; // heap pointer
+
+	MarkCompactHeap(Dictionary dict, int initialSize, int maxSize, HeapStorage storage) {
+		super(dict, initialSize, maxSize, storage);
+	}
+
+	@Override
+	int allocate(int classWord, int fieldCount) {
+		var size = OBJECT_HEADER_SIZE + fieldCount;
+		if (hp + size > words.size()) {
+			return -1;
+		}
+		var ref = hp;
+		hp += size;
+		return initHeader(ref, classWord);
+	}
+
+	@Override
+	void collectGarbage(Roots roots, int size) {
+		var start = System.nanoTime();
+		hp = markAndCompact(roots, 0, hp, 0, 0);
+		collectionDone();
+		// less than a quarter of the heap is free, grow it
+		if (words.size() - hp < Math.max(size, words.size() / 4)) {
+			grow(size);
+		}
+		pauseDone(start);
+	}
+
+	@Override
+	void putField(int ref, int slot, int value) {
+		words.set(ref + OBJECT_HEADER_SIZE + slot, value);
+	}
+
+	@Override
+	void forEachObject(IntConsumer consumer) {
+		for (var ref = 0; ref < hp; ref += objectSize(ref)) {
+			consumer.accept(ref);
+		}
+	}
+}
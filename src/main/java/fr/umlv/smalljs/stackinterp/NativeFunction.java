@@ -0,0 +1,160 @@
+package fr.umlv.smalljs.stackinterp;
+
+import static fr.umlv.smalljs.stackinterp.TagValues.*;
+
+import fr.umlv.smalljs.rt.Failure;
+import fr.umlv.smalljs.rt.JSObject;
+
+/**
+ * A native function that works directly on the tagged values of the stack of the interpreters,
+ * so calling it does not decode the arguments into an array of objects and does not encode the result.
+ *
+ * A function of the global environment that has a native version registers it with the key {@code __native__},
+ * the interpreters call the native version instead of its invoker (see {@link Dictionary#nativeFunction(int)}).
+ */
+@FunctionalInterface
+public interface NativeFunction {
+	/**
+	 * Calls the function, the receiver is {@code stack[base - 1]} and the arguments are
+	 * {@code stack[base]} to {@code stack[base + argumentCount - 1]}.
+	 *
+	 * @return the result as a tagged value.
+	 */
+	int call(int[] stack, int base, int argumentCount, Context context);
+
+	/**
+	 * Creates a function that is called by the interpreters through its native version
+	 * and by the other callers through its invoker.
+	 */
+	static JSObject newFunction(String name, JSObject.Invoker invoker, NativeFunction nativeFunction) {
+		var function = JSObject.newFunction(name, invoker);
+		function.register("__native__", nativeFunction);
+		return function;
+	}
+
+	/**
+	 * The heap and the dictionary of an interpreter, with the current stack frame
+	 * so a native function can box an integer (the roots of the GC are the stack frames).
+	 * A context is created once by interpreter and updated before each native call.
+	 */
+	final class Context {
+		private final Heap heap;
+		private final Dictionary dict;
+		private final int undefined;
+		private int[] stack;
+		private int sp;
+		private int bp;
+		private JSObject function;
+
+		Context(Heap heap, Dictionary dict) {
+			this.heap = heap;
+			this.dict = dict;
+			this.undefined = encodeDictObject(JSObject.UNDEFINED, dict);
+		}
+
+		void enter(int[] stack, int sp, int bp, JSObject function) {
+			this.stack = stack;
+			this.sp = sp;
+			this.bp = bp;
+			this.function = function;
+		}
+
+		public Heap heap() {
+			return heap;
+		}
+		public Dictionary dict() {
+			return dict;
+		}
+		public int undefined() {
+			return undefined;
+		}
+
+		/**
+		 * Returns true if the value is an integer, a small int, a boxed integer or an integer constant.
+		 */
+		public boolean isInt(int value) {
+			if (isSmallInt(value)) {
+				return true;
+			}
+			if (isReference(value)) {
+				return heap.isBoxedInt(decodeReference(value));
+			}
+			return decodeDictObject(value, dict) instanceof Integer;
+		}
+
+		/**
+		 * Returns the value of an integer.
+		 * @throws Failure if the value is not an integer.
+		 */
+		public int intValue(int value) {
+			if (isSmallInt(value)) {
+				return decodeSmallInt(value);
+			}
+			if (isReference(value)) {
+				var ref = decodeReference(value);
+				if (heap.isBoxedInt(ref)) {
+					return heap.boxedIntValue(ref);
+				}
+			} else if (decodeDictObject(value, dict) instanceof Integer integer) {
+				return integer;
+			}
+			throw new Failure("not an integer " + decode(value));
+		}
+
+		/**
+		 * Returns true if the value is a string, a constant or a string of the heap.
+		 */
+		public boolean isString(int value) {
+			if (isReference(value)) {
+				return heap.isString(decodeReference(value));
+			}
+			return !isSmallInt(value) && decodeDictObject(value, dict) instanceof String;
+		}
+
+		/**
+		 * Returns the value of a string.
+		 * @throws Failure if the value is not a string.
+		 */
+		public String stringValue(int value) {
+			if (isReference(value)) {
+				var ref = decodeReference(value);
+				if (heap.isString(ref)) {
+					return heap.stringValue(ref);
+				}
+			} else if (!isSmallInt(value) && decodeDictObject(value, dict) instanceof String string) {
+				return string;
+			}
+			throw new Failure("not a string " + decode(value));
+		}
+
+		/**
+		 * Returns true if the two values are the same value, an object that has been relocated
+		 * is still referenced through its forwarded object (see {@link Heap#forward(int, int)}).
+		 */
+		public boolean isSame(int left, int right) {
+			if (isReference(left) && isReference(right)) {
+				return heap.resolve(decodeReference(left)) == heap.resolve(decodeReference(right));
+			}
+			return left == right;
+		}
+
+		/**
+		 * Encodes an integer as a small int or as a boxed integer, the heap may be collected.
+		 */
+		public int encodeInt(int value) {
+			if (fitsInSmallInt(value)) {
+				return encodeSmallInt(value);
+			}
+			var ref = StackInterpreter.allocate(heap, Heap.BOXED_INT_CLASS, 1, stack, sp, bp, function, dict);
+			heap.initBoxedInt(ref, value);
+			return encodeReference(ref);
+		}
+
+		/**
+		 * Decodes a value, an object of the heap is converted to a {@link JSObject}.
+		 */
+		public Object decode(int value) {
+			return decodeAnyValue(value, dict, heap);
+		}
+	}
+}
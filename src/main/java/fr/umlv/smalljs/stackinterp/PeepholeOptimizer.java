@@ -0,0 +1,339 @@
+package fr.umlv.smalljs.stackinterp;
+
+import static fr.umlv.smalljs.stackinterp.Instructions.ADD;
+import static fr.umlv.smalljs.stackinterp.Instructions.CONST;
+import static fr.umlv.smalljs.stackinterp.Instructions.DIV;
+import static fr.umlv.smalljs.stackinterp.Instructions.DUP;
+import static fr.umlv.smalljs.stackinterp.Instructions.EQ;
+import static fr.umlv.smalljs.stackinterp.Instructions.GE;
+import static fr.umlv.smalljs.stackinterp.Instructions.GOTO;
+import static fr.umlv.smalljs.stackinterp.Instructions.GT;
+import static fr.umlv.smalljs.stackinterp.Instructions.JUMP_IF_FALSE;
+import static fr.umlv.smalljs.stackinterp.Instructions.JUMP_IF_NOT_EQ;
+import static fr.umlv.smalljs.stackinterp.Instructions.JUMP_IF_NOT_GE;
+import static fr.umlv.smalljs.stackinterp.Instructions.LE;
+import static fr.umlv.smalljs.stackinterp.Instructions.LOAD;
+import static fr.umlv.smalljs.stackinterp.Instructions.LT;
+import static fr.umlv.smalljs.stackinterp.Instructions.MUL;
+import static fr.umlv.smalljs.stackinterp.Instructions.NE;
+import static fr.umlv.smalljs.stackinterp.Instructions.POP;
+import static fr.umlv.smalljs.stackinterp.Instructions.REGISTER;
+import static fr.umlv.smalljs.stackinterp.Instructions.REM;
+import static fr.umlv.smalljs.stackinterp.Instructions.RET;
+import static fr.umlv.smalljs.stackinterp.Instructions.SUB;
+import static fr.umlv.smalljs.stackinterp.Instructions.SWAP;
+import static fr.umlv.smalljs.stackinterp.TagValues.FALSE;
+import static fr.umlv.smalljs.stackinterp.TagValues.decodeSmallInt;
+import static fr.umlv.smalljs.stackinterp.TagValues.encodeSmallInt;
+import static fr.umlv.smalljs.stackinterp.TagValues.fitsInSmallInt;
+import static fr.umlv.smalljs.stackinterp.TagValues.isSmallInt;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * Peephole optimizer of the instructions generated by the {@link InstrRewriter}.
+ *
+ * The instructions are decoded to a list where a jump references its target instruction,
+ * so instructions can be removed or replaced, the labels are computed again when the list is encoded.
+ * The following optimizations are applied until nothing changes
+ * <ul>
+ *   <li>dead code removal, the instructions that can not be reached (after a RET or a GOTO) are removed,
+ *   <li>jump threading, a jump to a GOTO jumps directly to the target of the GOTO,
+ *       a GOTO to the next instruction is removed and a JUMP_IF_FALSE to the next instruction becomes a POP,
+ *   <li>redundant stack operations, a value pushed then popped is removed,
+ *       DUP REGISTER POP becomes REGISTER and SWAP SWAP is removed,
+ *   <li>constant folding, an operator or a jump on constants is replaced by its result
+ *       if the operator can not be redefined.
+ * </ul>
+ */
+final class PeepholeOptimizer {
+	private static final class Instr {
+		private final int[] words; // opcode and operands
+		private Instr target;      // target of a jump
+		private int pc;            // position when encoded
+
+		private Instr(int... words) {
+			this.words = words;
+		}
+
+		private int opcode() {
+			return words[0];
+		}
+
+		private boolean isJump() {
+			return Instructions.labelOffset(opcode()) != -1;
+		}
+	}
+
+	/**
+	 * The optimized instructions and the number of instructions removed.
+	 */
+	record Result(int[] instrs, int saved) {}
+
+	private final ArrayList<Instr> instrs;
+	private final IntPredicate foldable;
+
+	private PeepholeOptimizer(ArrayList<Instr> instrs, IntPredicate foldable) {
+		this.instrs = instrs;
+		this.foldable = foldable;
+	}
+
+	/**
+	 * Optimizes the instructions of a function.
+	 *
+	 * @param code the instructions.
+	 * @param foldable the operators (ADD, SUB, etc) that can be folded, i.e. that can not be redefined.
+	 * @return the optimized instructions.
+	 */
+	static Result optimize(int[] code, IntPredicate foldable) {
+		var optimizer = new PeepholeOptimizer(decode(code), foldable);
+		var count = optimizer.instrs.size();
+		while (optimizer.step()) {
+			// empty
+		}
+		return new Result(optimizer.encode(), count - optimizer.instrs.size());
+	}
+
+	private static ArrayList<Instr> decode(int[] code) {
+		var instrs = new ArrayList<Instr>();
+		var instrAt = new Instr[code.length];
+		for (var pc = 0; pc < code.length; ) {
+			var size = Instructions.size(code[pc]);
+			var instr = new Instr(Arrays.copyOfRange(code, pc, pc + size));
+			instrAt[pc] = instr;
+			instrs.add(instr);
+			pc += size;
+		}
+		for (var instr : instrs) {
+			if (instr.isJump()) {
+				var target = instrAt[instr.words[Instructions.labelOffset(instr.opcode())]];
+				if (target == null) {
+					throw new IllegalStateException("invalid label in " + Arrays.toString(instr.words));
+				}
+				instr.target = target;
+			}
+		}
+		return instrs;
+	}
+
+	private int[] encode() {
+		var pc = 0;
+		for (var instr : instrs) {
+			instr.pc = pc;
+			pc += instr.words.length;
+		}
+		var code = new int[pc];
+		for (var instr : instrs) {
+			if (instr.isJump()) {
+				instr.words[Instructions.labelOffset(instr.opcode())] = instr.target.pc;
+			}
+			System.arraycopy(instr.words, 0, code, instr.pc, instr.words.length);
+		}
+		return code;
+	}
+
+	/**
+	 * Applies one optimization.
+	 *
+	 * @return true if the instructions have changed.
+	 */
+	private boolean step() {
+		return removeDeadCode() || threadJumps() || rewrite();
+	}
+
+	private boolean removeDeadCode() {
+		var indexes = new IdentityHashMap<Instr, Integer>();
+		for (var i = 0; i < instrs.size(); i++) {
+			indexes.put(instrs.get(i), i);
+		}
+		var reachable = Collections.newSetFromMap(new IdentityHashMap<Instr, Boolean>());
+		var pending = new ArrayDeque<Integer>();
+		pending.push(0);
+		while (!pending.isEmpty()) {
+			var index = (int) pending.pop();
+			if (index == instrs.size()) {
+				continue;
+			}
+			var instr = instrs.get(index);
+			if (!reachable.add(instr)) {
+				continue;
+			}
+			if (instr.isJump()) {
+				pending.push(indexes.get(instr.target));
+			}
+			if (instr.opcode() != RET && instr.opcode() != GOTO) {
+				pending.push(index + 1);
+			}
+		}
+		return instrs.removeIf(instr -> !reachable.contains(instr));
+	}
+
+	private boolean threadJumps() {
+		var changed = false;
+		for (var instr : instrs) {
+			if (!instr.isJump()) {
+				continue;
+			}
+			var target = instr.target;
+			// stop if there is a loop of GOTOs
+			for (var hops = 0; target.opcode() == GOTO && hops < instrs.size(); hops++) {
+				target = target.target;
+			}
+			if (target != instr.target) {
+				instr.target = target;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private boolean rewrite() {
+		var targets = Collections.newSetFromMap(new IdentityHashMap<Instr, Boolean>());
+		for (var instr : instrs) {
+			if (instr.isJump()) {
+				targets.add(instr.target);
+			}
+		}
+		for (var i = 0; i < instrs.size(); i++) {
+			if (rewrite(i, targets)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean rewrite(int index, Set<Instr> targets) {
+		var first = instrs.get(index);
+		var second = (index + 1 < instrs.size()) ? instrs.get(index + 1) : null;
+		var third = (index + 2 < instrs.size()) ? instrs.get(index + 2) : null;
+		switch (first.opcode()) {
+			case GOTO -> {
+				if (first.target == second) {
+					return replace(index, 1, targets);
+				}
+			}
+			case JUMP_IF_FALSE -> {
+				if (first.target == second) {
+					return replace(index, 1, targets, new Instr(POP));
+				}
+			}
+			case CONST, LOAD, DUP -> {
+				if (second == null) {
+					return false;
+				}
+				if (second.opcode() == POP) {
+					return replace(index, 2, targets);
+				}
+				if (first.opcode() == DUP && second.opcode() == REGISTER && third != null && third.opcode() == POP) {
+					return replace(index, 3, targets, new Instr(REGISTER, second.words[1]));
+				}
+				if (first.opcode() == CONST && second.opcode() == JUMP_IF_FALSE) {
+					// constant condition
+					return (first.words[1] == FALSE) ?
+							replace(index, 2, targets, goTo(second.target)) :
+							replace(index, 2, targets);
+				}
+				if (first.opcode() == CONST && second.opcode() == CONST && third != null) {
+					return fold(index, first.words[1], second.words[1], third, targets);
+				}
+			}
+			case SWAP -> {
+				if (second != null && second.opcode() == SWAP) {
+					return replace(index, 2, targets);
+				}
+			}
+			default -> {
+				// do nothing
+			}
+		}
+		return false;
+	}
+
+	private boolean fold(int index, int left, int right, Instr instr, Set<Instr> targets) {
+		if (!isSmallInt(left) || !isSmallInt(right)) {
+			return false;
+		}
+		var opcode = instr.opcode();
+		var fused = opcode >= JUMP_IF_NOT_EQ && opcode <= JUMP_IF_NOT_GE;
+		var operator = fused ? opcode - JUMP_IF_NOT_EQ + EQ : opcode;
+		if (operator < ADD || operator > GE || !foldable.test(operator)) {
+			return false;
+		}
+		var x = decodeSmallInt(left);
+		var y = decodeSmallInt(right);
+		if ((operator == DIV || operator == REM) && y == 0) {
+			// the division by zero is reported at runtime
+			return false;
+		}
+		long result = switch (operator) {
+			case ADD -> (long) x + y;
+			case SUB -> (long) x - y;
+			case MUL -> (long) x * y;
+			case DIV -> x / y;
+			case REM -> x % y;
+			case EQ -> (x == y) ? 1 : 0;
+			case NE -> (x != y) ? 1 : 0;
+			case LT -> (x < y) ? 1 : 0;
+			case LE -> (x <= y) ? 1 : 0;
+			case GT -> (x > y) ? 1 : 0;
+			case GE -> (x >= y) ? 1 : 0;
+			default -> throw new AssertionError("unknown operator " + operator);
+		};
+		if (fused) {
+			// the jump is taken if the comparison is false
+			return (result == 0) ? replace(index, 3, targets, goTo(instr.target)) : replace(index, 3, targets);
+		}
+		if (result != (int) result || !fitsInSmallInt((int) result)) {
+			return false;
+		}
+		return replace(index, 3, targets, new Instr(CONST, encodeSmallInt((int) result)));
+	}
+
+	private static Instr goTo(Instr target) {
+		var instr = new Instr(GOTO, 0);
+		instr.target = target;
+		return instr;
+	}
+
+	/**
+	 * Replaces {@code count} instructions starting at {@code index} by some new instructions,
+	 * the jumps to the first replaced instruction now jump to the first new instruction
+	 * (or to the instruction after the replaced instructions).
+	 *
+	 * @return false if the instructions can not be replaced because there is a jump in the middle of them.
+	 */
+	private boolean replace(int index, int count, Set<Instr> targets, Instr... replacements) {
+		for (var i = index + 1; i < index + count; i++) {
+			if (targets.contains(instrs.get(i))) {
+				return false;
+			}
+		}
+		if (replacements.length == 0 && index + count == instrs.size()) {
+			// the last instruction can not be removed
+			return false;
+		}
+		var first = instrs.get(index);
+		var newFirst = (replacements.length == 0) ? instrs.get(index + count) : replacements[0];
+		for (var instr : instrs) {
+			if (instr.target == first) {
+				instr.target = newFirst;
+			}
+		}
+		for (var replacement : replacements) {
+			if (replacement.target == first) {
+				replacement.target = newFirst;
+			}
+		}
+		var range = instrs.subList(index, index + count);
+		range.clear();
+		range.addAll(List.of(replacements));
+		return true;
+	}
+}
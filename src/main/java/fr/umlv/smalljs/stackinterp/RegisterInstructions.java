@@ -0,0 +1,100 @@
+package fr.umlv.smalljs.stackinterp;
+
+/**
+ * Instructions of the register based interpreter (see {@link RegisterInterpreter}).
+ *
+ * A register is a slot of the current stack frame, the first registers are the local variables
+ * (this, the parameters and the variables), the other registers are temporaries.
+ * The operands named {@code dst}, {@code src}, {@code left}, {@code right}, {@code obj} and {@code base}
+ * are register indexes.
+ */
+public interface RegisterInstructions {
+	int CONST = 1; // CONST dst tag_value (smallint or dictionary_index)
+	int LOOKUP = 2; // LOOKUP dst dictionary_index (String global_name)
+	int REGISTER = 3; // REGISTER dictionary_index (String global_name) src
+	int MOVE = 4; // MOVE dst src
+	int FUNCALL = 5; // FUNCALL dst base argument_count, base is the qualifier, base + 1 the receiver then the arguments
+	int RET = 6; // RET src
+	int GOTO = 7; // GOTO instr_index
+	int JUMP_IF_FALSE = 8; // JUMP_IF_FALSE src instr_index
+	int NEW = 9; // NEW dst dictionary_index (JSObject class) base, base is the first field value
+	int GET = 10; // GET dst obj dictionary_index (String field_name)
+	int PUT = 11; // PUT obj dictionary_index (String field_name) src
+
+	// operators on small ints, the instruction is followed by a FUNCALL dst base 2 that calls
+	// the operator from the global environment if the fast path fails,
+	// the operands are copied to the registers of the FUNCALL by the operator instruction.
+	// The opcodes are the ones of the stack instructions
+	int ADD = Instructions.ADD; // ADD dst left right FUNCALL dst base 2
+	int SUB = Instructions.SUB; // SUB dst left right FUNCALL dst base 2
+	int MUL = Instructions.MUL; // MUL dst left right FUNCALL dst base 2
+	int DIV = Instructions.DIV; // DIV dst left right FUNCALL dst base 2
+	int REM = Instructions.REM; // REM dst left right FUNCALL dst base 2
+	int EQ = Instructions.EQ; // EQ dst left right FUNCALL dst base 2
+	int NE = Instructions.NE; // NE dst left right FUNCALL dst base 2
+	int LT = Instructions.LT; // LT dst left right FUNCALL dst base 2
+	int LE = Instructions.LE; // LE dst left right FUNCALL dst base 2
+	int GT = Instructions.GT; // GT dst left right FUNCALL dst base 2
+	int GE = Instructions.GE; // GE dst left right FUNCALL dst base 2
+
+	// comparisons fused with a JUMP_IF_FALSE, if the fast path fails the FUNCALL
+	// and the JUMP_IF_FALSE that follow are executed
+	int JUMP_IF_NOT_EQ = Instructions.JUMP_IF_NOT_EQ; // JUMP_IF_NOT_EQ left right FUNCALL base base 2 JUMP_IF_FALSE base instr_index
+	int JUMP_IF_NOT_NE = Instructions.JUMP_IF_NOT_NE; // JUMP_IF_NOT_NE left right FUNCALL base base 2 JUMP_IF_FALSE base instr_index
+	int JUMP_IF_NOT_LT = Instructions.JUMP_IF_NOT_LT; // JUMP_IF_NOT_LT left right FUNCALL base base 2 JUMP_IF_FALSE base instr_index
+	int JUMP_IF_NOT_LE = Instructions.JUMP_IF_NOT_LE; // JUMP_IF_NOT_LE left right FUNCALL base base 2 JUMP_IF_FALSE base instr_index
+	int JUMP_IF_NOT_GT = Instructions.JUMP_IF_NOT_GT; // JUMP_IF_NOT_GT left right FUNCALL base base 2 JUMP_IF_FALSE base instr_index
+	int JUMP_IF_NOT_GE = Instructions.JUMP_IF_NOT_GE; // JUMP_IF_NOT_GE left right FUNCALL base base 2 JUMP_IF_FALSE base instr_index
+
+	/**
+	 * Returns the number of words of an instruction, the FUNCALL (and the JUMP_IF_FALSE)
+	 * that follow an operator are separate instructions.
+	 */
+	static int size(int opcode) {
+		return switch (opcode) {
+			case GOTO, RET -> 2;
+			case CONST, LOOKUP, REGISTER, MOVE, JUMP_IF_FALSE,
+					JUMP_IF_NOT_EQ, JUMP_IF_NOT_NE, JUMP_IF_NOT_LT, JUMP_IF_NOT_LE, JUMP_IF_NOT_GT, JUMP_IF_NOT_GE -> 3;
+			case FUNCALL, NEW, GET, PUT, ADD, SUB, MUL, DIV, REM, EQ, NE, LT, LE, GT, GE -> 4;
+			default -> throw new IllegalArgumentException("unknown instr " + opcode);
+		};
+	}
+
+	static void dump(int[] instrs, Dictionary dict) {
+		var strings = new String[] { null, "CONST", "LOOKUP", "REGISTER", "MOVE", "FUNCALL", "RET", "GOTO",
+				"JUMP_IF_FALSE", "NEW", "GET", "PUT", null, null, null, null, null, null, null, null, null,
+				"ADD", "SUB", "MUL", "DIV", "REM", "EQ", "NE", "LT", "LE", "GT", "GE",
+				"JUMP_IF_NOT_EQ", "JUMP_IF_NOT_NE", "JUMP_IF_NOT_LT", "JUMP_IF_NOT_LE", "JUMP_IF_NOT_GT", "JUMP_IF_NOT_GE" };
+		for (var pc = 0; pc < instrs.length;) {
+			var instr = instrs[pc];
+			var builder = new StringBuilder().append(pc).append(' ').append(strings[instr]);
+			switch (instr) {
+			case CONST -> {
+				var operand = instrs[pc + 2];
+				builder.append(" r").append(instrs[pc + 1]).append(' ')
+						.append(TagValues.isSmallInt(operand) ? TagValues.decodeSmallInt(operand) : TagValues.decodeDictObject(operand, dict));
+			}
+			case LOOKUP -> builder.append(" r").append(instrs[pc + 1]).append(' ').append(TagValues.decodeDictObject(instrs[pc + 2], dict));
+			case REGISTER -> builder.append(' ').append(TagValues.decodeDictObject(instrs[pc + 1], dict)).append(" r").append(instrs[pc + 2]);
+			case NEW -> builder.append(" r").append(instrs[pc + 1]).append(' ').append(TagValues.decodeDictObject(instrs[pc + 2], dict))
+					.append(" r").append(instrs[pc + 3]);
+			case GET -> builder.append(" r").append(instrs[pc + 1]).append(" r").append(instrs[pc + 2])
+					.append(' ').append(TagValues.decodeDictObject(instrs[pc + 3], dict));
+			case PUT -> builder.append(" r").append(instrs[pc + 1]).append(' ').append(TagValues.decodeDictObject(instrs[pc + 2], dict))
+					.append(" r").append(instrs[pc + 3]);
+			case GOTO -> builder.append(' ').append(instrs[pc + 1]);
+			case JUMP_IF_FALSE -> builder.append(" r").append(instrs[pc + 1]).append(' ').append(instrs[pc + 2]);
+			case FUNCALL -> builder.append(" r").append(instrs[pc + 1]).append(" r").append(instrs[pc + 2]).append(' ').append(instrs[pc + 3]);
+			default -> {
+				// only registers
+				for (var i = 1; i < size(instr); i++) {
+					builder.append(" r").append(instrs[pc + i]);
+				}
+			}
+			}
+			System.err.println(builder);
+			pc += size(instr);
+		}
+		System.err.println();
+	}
+}
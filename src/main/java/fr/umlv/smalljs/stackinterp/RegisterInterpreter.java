@@ -0,0 +1,343 @@
+package fr.umlv.smalljs.stackinterp;
+
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.ACTIVATION_SIZE;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.BP_OFFSET;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.FUN_OFFSET;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.PC_OFFSET;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.addField;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.allocate;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.compare;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.encodeAnyValue;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.functionIndex;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.growStack;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.operatorName;
+import static fr.umlv.smalljs.stackinterp.TagValues.*;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import fr.umlv.smalljs.ast.Script;
+import fr.umlv.smalljs.rt.Failure;
+import fr.umlv.smalljs.rt.JSObject;
+import fr.umlv.smalljs.stackinterp.StackInterpreter.OperatorGuard;
+
+/**
+ * A register based variant of the {@link StackInterpreter}, the instructions are
+ * the {@link RegisterInstructions} generated by the {@link RegisterRewriter}.
+ *
+ * A stack frame is the registers of the function followed by the activation zone (see {@link StackInterpreter}),
+ * there is no operand stack, so a function call copies the receiver and the arguments
+ * to the first registers of the new stack frame that starts after the activation zone of the caller.
+ * The slot count of the {@link Code} is the number of registers, so the stack can be walked
+ * (by the GC or to print a stack trace) like the stack of the {@link StackInterpreter}.
+ * All registers are initialized to undefined, so they always contain a valid value.
+ *
+ * The values, the heap, the dictionary and the inline caches of the FUNCALLs are the same
+ * as the ones of the {@link StackInterpreter}.
+ */
+public class RegisterInterpreter {
+	public static Object execute(JSObject function, Dictionary dict, JSObject globalEnv) {
+		return execute(function, dict, globalEnv, StackInterpreter.Config.DEFAULT);
+	}
+
+	public static Object execute(JSObject function, Dictionary dict, JSObject globalEnv, StackInterpreter.Config config) {
+		return execute(function, dict, globalEnv, config, config.createHeap(dict));
+	}
+
+	public static Object execute(JSObject function, Dictionary dict, JSObject globalEnv, StackInterpreter.Config config, Heap heap) {
+		var maxStackSize = config.maxStackSize();
+		var stack = new int[config.initialStackSize()];
+		var functionIndex = dict.functionIndex(function);
+		var code = dict.code(functionIndex);
+		var instrs = code.instrs();
+
+		var undefined = encodeDictObject(UNDEFINED, dict);
+		var operators = new OperatorGuard(globalEnv);
+		var nativeContext = new NativeFunction.Context(heap, dict);
+
+		var pc = 0; // instruction pointer
+		var bp = 0; // base pointer, the first register
+		if (code.slotCount() + ACTIVATION_SIZE > stack.length) {
+			stack = growStack(stack, code.slotCount() + ACTIVATION_SIZE, maxStackSize, function, bp, dict);
+		}
+
+		// initialize all registers
+		Arrays.fill(stack, 0, code.slotCount(), undefined);
+
+		for (; ; ) {
+			if (StackInterpreter.COUNT_DISPATCHES) {
+				StackInterpreter.dispatchCount++;
+			}
+			switch (instrs[pc]) {
+				case RegisterInstructions.CONST -> {
+					stack[bp + instrs[pc + 1]] = instrs[pc + 2];
+					pc += 3;
+				}
+				case RegisterInstructions.LOOKUP -> {
+					var name = decodeDictObject(instrs[pc + 2], dict).toString();
+					var sp = bp + code.slotCount() + ACTIVATION_SIZE;
+					stack[bp + instrs[pc + 1]] = encodeAnyValue(globalEnv.lookup(name), heap, stack, sp, bp, function, dict);
+					pc += 3;
+				}
+				case RegisterInstructions.REGISTER -> {
+					var name = decodeDictObject(instrs[pc + 1], dict).toString();
+					globalEnv.register(name, decodeAnyValue(stack[bp + instrs[pc + 2]], dict, heap));
+					pc += 3;
+				}
+				case RegisterInstructions.MOVE -> {
+					stack[bp + instrs[pc + 1]] = stack[bp + instrs[pc + 2]];
+					pc += 3;
+				}
+				case RegisterInstructions.FUNCALL -> {
+					var callSite = pc;
+					var base = bp + instrs[pc + 2];
+					var argumentCount = instrs[pc + 3];
+					pc += 4;
+					var qualifier = stack[base];
+					if (isSmallInt(qualifier) || isReference(qualifier)) {
+						// an empty inline cache (0) would match the reference 0
+						throw new Failure("can not call " + decodeAnyValue(qualifier, dict, heap));
+					}
+
+					// find the function using the inline cache of the call site
+					var inlineCaches = code.inlineCaches();
+					int newFunctionIndex;
+					if (inlineCaches[callSite] == qualifier) {
+						newFunctionIndex = inlineCaches[callSite + 1];
+					} else {
+						newFunctionIndex = functionIndex(qualifier, dict, heap);
+						inlineCaches[callSite] = qualifier;
+						inlineCaches[callSite + 1] = newFunctionIndex;
+					}
+					var newFunction = dict.function(newFunctionIndex);
+					var newCode = dict.code(newFunctionIndex);
+					if (newCode == null) { // native call !
+						var nativeFunction = dict.nativeFunction(newFunctionIndex);
+						if (nativeFunction != null) {
+							// the native function reads the arguments in the registers
+							nativeContext.enter(stack, bp + code.slotCount() + ACTIVATION_SIZE, bp, function);
+							stack[bp + instrs[callSite + 1]] = nativeFunction.call(stack, base + 2, argumentCount, nativeContext);
+							continue;
+						}
+
+						var receiver = decodeAnyValue(stack[base + 1], dict, heap);
+						var args = new Object[argumentCount];
+						for (var i = 0; i < argumentCount; i++) {
+							args[i] = decodeAnyValue(stack[base + 2 + i], dict, heap);
+						}
+
+						System.err.println("call native " + newFunction.getName() + " with " + receiver + " " + Arrays.toString(args));
+
+						var sp = bp + code.slotCount() + ACTIVATION_SIZE;
+						stack[bp + instrs[callSite + 1]] = encodeAnyValue(newFunction.invoke(receiver, args), heap, stack, sp, bp, function, dict);
+						continue;
+					}
+
+					// check number of arguments
+					if (newCode.parameterCount() != argumentCount + 1/* this */) {
+						throw new Failure("wrong number of arguments for " + newFunction.getName() + " expected "
+								+ (newCode.parameterCount() - 1) + " but was " + argumentCount);
+					}
+
+					// the new stack frame starts after the activation zone of the current one
+					var newBp = bp + code.slotCount() + ACTIVATION_SIZE;
+					var activation = newBp + newCode.slotCount();
+					if (activation + ACTIVATION_SIZE > stack.length) {
+						stack = growStack(stack, activation + ACTIVATION_SIZE, maxStackSize, function, bp, dict);
+					}
+					// copy the receiver and the arguments, initialize the other registers
+					System.arraycopy(stack, base + 1, stack, newBp, argumentCount + 1);
+					Arrays.fill(stack, newBp + argumentCount + 1, activation, undefined);
+
+					// save bp/pc/function in activation zone
+					stack[activation + BP_OFFSET] = bp;
+					stack[activation + PC_OFFSET] = pc;
+					stack[activation + FUN_OFFSET] = functionIndex;
+
+					pc = 0;
+					bp = newBp;
+					code = newCode;
+					function = newFunction;
+					functionIndex = newFunctionIndex;
+					instrs = code.instrs();
+				}
+				case RegisterInstructions.RET -> {
+					var result = stack[bp + instrs[pc + 1]];
+
+					// find activation and restore pc
+					var activation = bp + code.slotCount();
+					pc = stack[activation + PC_OFFSET];
+					if (pc == 0) {
+						// end of the interpreter
+						return decodeAnyValue(result, dict, heap);
+					}
+
+					// restore function, bp and code
+					functionIndex = stack[activation + FUN_OFFSET];
+					function = dict.function(functionIndex);
+					bp = stack[activation + BP_OFFSET];
+					code = dict.code(functionIndex);
+					instrs = code.instrs();
+
+					// store the result in the destination register of the FUNCALL (pc is after the FUNCALL)
+					stack[bp + instrs[pc - 3]] = result;
+				}
+				case RegisterInstructions.GOTO -> pc = instrs[pc + 1];
+				case RegisterInstructions.JUMP_IF_FALSE -> pc = (stack[bp + instrs[pc + 1]] == FALSE) ? instrs[pc + 2] : pc + 3;
+				case RegisterInstructions.NEW -> {
+					var clazz = (JSObject) decodeDictObject(instrs[pc + 2], dict);
+					var sp = bp + code.slotCount() + ACTIVATION_SIZE;
+					var ref = allocate(heap, clazz, dict.capacity(instrs[pc + 2]), stack, sp, bp, function, dict);
+					var base = bp + instrs[pc + 3];
+					for (var i = 0; i < clazz.length(); i++) {
+						heap.putField(ref, i, stack[base + i]);
+					}
+					stack[bp + instrs[pc + 1]] = encodeReference(ref);
+					pc += 4;
+				}
+				case RegisterInstructions.GET -> {
+					var fieldName = (String) decodeDictObject(instrs[pc + 3], dict);
+					var ref = heap.resolve(decodeReference(stack[bp + instrs[pc + 2]]));
+					var clazz = (JSObject) decodeDictObject(heap.classWord(ref), dict);
+					var slot = clazz.lookup(fieldName);
+					stack[bp + instrs[pc + 1]] = (slot == UNDEFINED) ? undefined : heap.getField(ref, (int) slot);
+					pc += 4;
+				}
+				case RegisterInstructions.PUT -> {
+					var fieldName = (String) decodeDictObject(instrs[pc + 2], dict);
+					var ref = heap.resolve(decodeReference(stack[bp + instrs[pc + 1]]));
+					var clazz = (JSObject) decodeDictObject(heap.classWord(ref), dict);
+					var slot = clazz.lookup(fieldName);
+					if (slot == UNDEFINED) {
+						// no slot, add the field, the registers are part of the roots if a GC occurs
+						var sp = bp + code.slotCount() + ACTIVATION_SIZE;
+						addField(heap, fieldName, bp + instrs[pc + 1], bp + instrs[pc + 3], stack, sp, bp, function, dict);
+					} else {
+						heap.putField(ref, (int) slot, stack[bp + instrs[pc + 3]]);
+					}
+					pc += 4;
+				}
+				case RegisterInstructions.ADD -> {
+					var left = stack[bp + instrs[pc + 2]];
+					var right = stack[bp + instrs[pc + 3]];
+					// (2x + 1) + (2y + 1) - 1 == 2(x + y) + 1
+					var result = left + right - 1;
+					// no overflow if the result has the sign of one of the operands
+					if (isSmallInt(left & right) && ((left ^ result) & (right ^ result)) >= 0 && operators.isNative(Instructions.ADD)) {
+						stack[bp + instrs[pc + 1]] = result;
+						pc += OPERATOR_SIZE;
+					} else {
+						pc = prepareOperatorCall(Instructions.ADD, instrs, pc, stack, bp, left, right, undefined, code, heap, globalEnv, function, dict);
+					}
+				}
+				case RegisterInstructions.SUB -> {
+					var left = stack[bp + instrs[pc + 2]];
+					var right = stack[bp + instrs[pc + 3]];
+					// (2x + 1) - (2y + 1) + 1 == 2(x - y) + 1
+					var result = left - right + 1;
+					// no overflow if the operands have the same sign or the result has the sign of left
+					if (isSmallInt(left & right) && ((left ^ right) & (left ^ result)) >= 0 && operators.isNative(Instructions.SUB)) {
+						stack[bp + instrs[pc + 1]] = result;
+						pc += OPERATOR_SIZE;
+					} else {
+						pc = prepareOperatorCall(Instructions.SUB, instrs, pc, stack, bp, left, right, undefined, code, heap, globalEnv, function, dict);
+					}
+				}
+				case RegisterInstructions.MUL -> {
+					var left = stack[bp + instrs[pc + 2]];
+					var right = stack[bp + instrs[pc + 3]];
+					// (2x + 1 - 1) * y + 1 == 2xy + 1
+					var result = (long) (left - 1) * (right >> 1) + 1;
+					if (isSmallInt(left & right) && result == (int) result && operators.isNative(Instructions.MUL)) {
+						stack[bp + instrs[pc + 1]] = (int) result;
+						pc += OPERATOR_SIZE;
+					} else {
+						pc = prepareOperatorCall(Instructions.MUL, instrs, pc, stack, bp, left, right, undefined, code, heap, globalEnv, function, dict);
+					}
+				}
+				case RegisterInstructions.DIV, RegisterInstructions.REM -> {
+					var opcode = instrs[pc];
+					var left = stack[bp + instrs[pc + 2]];
+					var right = stack[bp + instrs[pc + 3]];
+					// a division by zero is reported by the operator function
+					if (isSmallInt(left & right) && right != encodeSmallInt(0) && operators.isNative(opcode)) {
+						var x = decodeSmallInt(left);
+						var y = decodeSmallInt(right);
+						var result = (opcode == Instructions.DIV) ? x / y : x % y;
+						if (fitsInSmallInt(result)) {
+							stack[bp + instrs[pc + 1]] = encodeSmallInt(result);
+							pc += OPERATOR_SIZE;
+							continue;
+						}
+					}
+					pc = prepareOperatorCall(opcode, instrs, pc, stack, bp, left, right, undefined, code, heap, globalEnv, function, dict);
+				}
+				case RegisterInstructions.EQ, RegisterInstructions.NE, RegisterInstructions.LT,
+						RegisterInstructions.LE, RegisterInstructions.GT, RegisterInstructions.GE -> {
+					var opcode = instrs[pc];
+					var left = stack[bp + instrs[pc + 2]];
+					var right = stack[bp + instrs[pc + 3]];
+					if (isSmallInt(left & right) && operators.isNative(opcode)) {
+						stack[bp + instrs[pc + 1]] = compare(opcode, left, right) ? TRUE : FALSE;
+						pc += OPERATOR_SIZE;
+					} else {
+						pc = prepareOperatorCall(opcode, instrs, pc, stack, bp, left, right, undefined, code, heap, globalEnv, function, dict);
+					}
+				}
+				case RegisterInstructions.JUMP_IF_NOT_EQ, RegisterInstructions.JUMP_IF_NOT_NE, RegisterInstructions.JUMP_IF_NOT_LT,
+						RegisterInstructions.JUMP_IF_NOT_LE, RegisterInstructions.JUMP_IF_NOT_GT, RegisterInstructions.JUMP_IF_NOT_GE -> {
+					var opcode = instrs[pc] - Instructions.JUMP_IF_NOT_EQ + Instructions.EQ;
+					var left = stack[bp + instrs[pc + 1]];
+					var right = stack[bp + instrs[pc + 2]];
+					if (isSmallInt(left & right) && operators.isNative(opcode)) {
+						// skip the FUNCALL and the JUMP_IF_FALSE or jump to its label
+						pc = compare(opcode, left, right) ? pc + FUSED_SIZE : instrs[pc + FUSED_SIZE - 1];
+					} else {
+						pc = prepareOperatorCall(opcode, instrs, pc, stack, bp, left, right, undefined, code, heap, globalEnv, function, dict);
+					}
+				}
+				default -> throw new AssertionError("unknown instruction " + instrs[pc]);
+			}
+		}
+	}
+
+	// size of an operator instruction and of the FUNCALL that follows
+	private static final int OPERATOR_SIZE = 4 + 4;
+
+	// size of a fused comparison, of the FUNCALL and of the JUMP_IF_FALSE that follow
+	private static final int FUSED_SIZE = 3 + 4 + 3;
+
+	/**
+	 * Slow path of the operator instructions, the operator function of the global environment,
+	 * undefined (the receiver) and the two operands are stored in the registers of the FUNCALL
+	 * that follows the operator instruction.
+	 *
+	 * @return the pc of the FUNCALL.
+	 */
+	private static int prepareOperatorCall(int opcode, int[] instrs, int pc, int[] stack, int bp, int left, int right,
+			int undefined, Code code, Heap heap, JSObject globalEnv, JSObject function, Dictionary dict) {
+		var funcall = pc + RegisterInstructions.size(instrs[pc]);
+		var base = bp + instrs[funcall + 2];
+		var sp = bp + code.slotCount() + ACTIVATION_SIZE;
+		stack[base] = encodeAnyValue(globalEnv.lookup(operatorName(opcode)), heap, stack, sp, bp, function, dict);
+		stack[base + 1] = undefined;
+		stack[base + 2] = left;
+		stack[base + 3] = right;
+		return funcall;
+	}
+
+	public static void interpret(Script script, PrintStream outStream) {
+		interpret(script, outStream, StackInterpreter.Config.DEFAULT);
+	}
+
+	public static void interpret(Script script, PrintStream outStream, StackInterpreter.Config config) {
+		JSObject globalEnv = StackInterpreter.createGlobalEnv(outStream);
+		var body = script.body();
+		var function = RegisterRewriter.createFunction(Optional.of("main"), Collections.emptyList(), body, new Dictionary(),
+				globalEnv, config);
+		function.invoke(UNDEFINED, new Object[0]);
+	}
+}
@@ -0,0 +1,299 @@
+package fr.umlv.smalljs.stackinterp;
+
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+import static fr.umlv.smalljs.stackinterp.RegisterInstructions.*;
+import static fr.umlv.smalljs.stackinterp.TagValues.encodeDictObject;
+import static fr.umlv.smalljs.stackinterp.TagValues.encodeSmallInt;
+import static fr.umlv.smalljs.stackinterp.TagValues.fitsInSmallInt;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import fr.umlv.smalljs.ast.Expr;
+import fr.umlv.smalljs.ast.Expr.Block;
+import fr.umlv.smalljs.ast.Expr.FieldAccess;
+import fr.umlv.smalljs.ast.Expr.FieldAssignment;
+import fr.umlv.smalljs.ast.Expr.Fun;
+import fr.umlv.smalljs.ast.Expr.FunCall;
+import fr.umlv.smalljs.ast.Expr.If;
+import fr.umlv.smalljs.ast.Expr.Instr;
+import fr.umlv.smalljs.ast.Expr.Literal;
+import fr.umlv.smalljs.ast.Expr.LocalVarAccess;
+import fr.umlv.smalljs.ast.Expr.LocalVarAssignment;
+import fr.umlv.smalljs.ast.Expr.MethodCall;
+import fr.umlv.smalljs.ast.Expr.New;
+import fr.umlv.smalljs.ast.Expr.Return;
+import fr.umlv.smalljs.ast.VoidVisitor;
+import fr.umlv.smalljs.rt.Failure;
+import fr.umlv.smalljs.rt.JSObject;
+import fr.umlv.smalljs.stackinterp.InstrRewriter.InstrBuffer;
+
+/**
+ * Rewrites the AST of a function to the instructions of the {@link RegisterInterpreter}.
+ *
+ * The local variables are the first registers, the temporaries are allocated after them like a stack,
+ * an expression is rewritten with the register that must contain its value, the temporaries used
+ * by an expression are freed at the end of the expression statement.
+ * A local variable used as an operand is not copied to a temporary.
+ */
+public class RegisterRewriter {
+	private final Dictionary dict;
+	private final JSObject globalEnv;
+	private final StackInterpreter.Config config;
+	private final JSObject env;
+	private final InstrBuffer buffer = new InstrBuffer();
+	private final VoidVisitor<Integer> visitor;
+	private int top;      // first free temporary
+	private int maxTop;   // number of registers
+
+	private RegisterRewriter(Dictionary dict, JSObject globalEnv, StackInterpreter.Config config, JSObject env) {
+		this.dict = dict;
+		this.globalEnv = globalEnv;
+		this.config = config;
+		this.env = env;
+		this.top = env.length();
+		this.maxTop = top;
+		this.visitor = createVisitor();
+	}
+
+	public static JSObject createFunction(Optional<String> name, List<String> parameters, Block body, Dictionary dict,
+			JSObject globalEnv, StackInterpreter.Config config) {
+		var env = JSObject.newEnv(null);
+
+		env.register("this", 0);
+		for (var parameter : parameters) {
+			env.register(parameter, env.length());
+		}
+		visitVariable(body, env);
+
+		var rewriter = new RegisterRewriter(dict, globalEnv, config, env);
+		// a block has no value, so no register
+		rewriter.rewrite(body, 0);
+		var result = rewriter.temporary();
+		rewriter.buffer.emit(CONST).emit(result).emit(encodeDictObject(UNDEFINED, dict));
+		rewriter.buffer.emit(RET).emit(result);
+
+		var instrs = rewriter.buffer.toInstrs();
+		RegisterInstructions.dump(instrs, dict);
+
+		// no operand stack, the temporaries are registers
+		var code = new Code(instrs, parameters.size() + 1 /* this */, rewriter.maxTop, 0);
+		var function = JSObject.newFunction(name.orElse("lambda"), (self, receiver, args) -> {
+			if (receiver != UNDEFINED || args.length != 0) {
+				throw new Failure("can not interpret a function with a receiver and/or arguments");
+			}
+			return RegisterInterpreter.execute(self, dict, globalEnv, config);
+		});
+		function.register("__code__", code);
+		return function;
+	}
+
+	private static void visitVariable(Expr expr, JSObject env) {
+		VARIABLE_VISITOR.visit(expr, env);
+	}
+
+	private static final VoidVisitor<JSObject> VARIABLE_VISITOR = new VoidVisitor<JSObject>()
+			.when(Block.class, (block, env) -> {
+				for (var instr : block.instrs()) {
+					visitVariable(instr, env);
+				}
+			}).when(Literal.class, (literal, env) -> {
+				// do nothing
+			}).when(FunCall.class, (funCall, env) -> {
+				// do nothing
+			}).when(LocalVarAssignment.class, (localVarAssignment, env) -> {
+				if (localVarAssignment.declaration() && env.lookup(localVarAssignment.name()) == UNDEFINED) {
+					env.register(localVarAssignment.name(), env.length());
+				}
+			}).when(LocalVarAccess.class, (localVarAccess, env) -> {
+				// do nothing
+			}).when(Fun.class, (fun, env) -> {
+				// do nothing
+			}).when(Return.class, (_return, env) -> {
+				// do nothing
+			}).when(If.class, (_if, env) -> {
+				visitVariable(_if.trueBlock(), env);
+				visitVariable(_if.falseBlock(), env);
+			}).when(New.class, (_new, env) -> {
+				// do nothing
+			}).when(FieldAccess.class, (fieldAccess, env) -> {
+				// do nothing
+			}).when(FieldAssignment.class, (fieldAssignment, env) -> {
+				// do nothing
+			}).when(MethodCall.class, (methodCall, env) -> {
+				// do nothing
+			});
+
+	/**
+	 * Allocates {@code count} consecutive temporaries.
+	 *
+	 * @return the first temporary.
+	 */
+	private int temporaries(int count) {
+		var register = top;
+		top += count;
+		maxTop = Math.max(maxTop, top);
+		return register;
+	}
+
+	private int temporary() {
+		return temporaries(1);
+	}
+
+	/**
+	 * Returns the slot of a local variable or -1 if the expression is not a local variable.
+	 */
+	private int localSlot(Expr expr) {
+		if (expr instanceof LocalVarAccess localVarAccess && env.lookup(localVarAccess.name()) instanceof Integer slot) {
+			return slot;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the register that contains the value of an expression,
+	 * a local variable is used directly, otherwise the expression is rewritten to a new temporary.
+	 */
+	private int operand(Expr expr) {
+		var slot = localSlot(expr);
+		if (slot != -1) {
+			return slot;
+		}
+		var register = temporary();
+		rewrite(expr, register);
+		return register;
+	}
+
+	private void rewrite(Expr expr, int dst) {
+		visitor.visit(expr, dst);
+	}
+
+	private VoidVisitor<Integer> createVisitor() {
+		var visitor = new VoidVisitor<Integer>();
+		visitor.when(Block.class, (block, dst) -> {
+			for (var expr : block.instrs()) {
+				// the temporaries of an expression are freed at the end of the expression
+				var savedTop = top;
+				rewrite(expr, (expr instanceof Instr) ? dst : temporary());
+				top = savedTop;
+			}
+		}).when(Literal.class, (literal, dst) -> {
+			var value = literal.value();
+			if (value instanceof Integer integer && fitsInSmallInt(integer)) {
+				buffer.emit(CONST).emit(dst).emit(encodeSmallInt(integer));
+			} else {
+				buffer.emit(CONST).emit(dst).emit(encodeDictObject(value, dict));
+			}
+		}).when(FunCall.class, (funCall, dst) -> {
+			var operator = operator(funCall);
+			if (operator != -1) {
+				var left = operand(funCall.args().get(0));
+				var right = operand(funCall.args().get(1));
+				// registers used by the FUNCALL if the fast path fails
+				var base = temporaries(4);
+				buffer.emit(operator).emit(dst).emit(left).emit(right);
+				buffer.emit(FUNCALL).emit(dst).emit(base).emit(2);
+				return;
+			}
+			var args = funCall.args();
+			var base = temporaries(2 + args.size());
+			rewrite(funCall.qualifier(), base);
+			buffer.emit(CONST).emit(base + 1).emit(encodeDictObject(UNDEFINED, dict));
+			for (var i = 0; i < args.size(); i++) {
+				rewrite(args.get(i), base + 2 + i);
+			}
+			buffer.emit(FUNCALL).emit(dst).emit(base).emit(args.size());
+		}).when(LocalVarAccess.class, (localVarAccess, dst) -> {
+			var slot = localSlot(localVarAccess);
+			if (slot == -1) {
+				buffer.emit(LOOKUP).emit(dst).emit(encodeDictObject(localVarAccess.name(), dict));
+			} else if (slot != dst) {
+				buffer.emit(MOVE).emit(dst).emit(slot);
+			}
+		}).when(LocalVarAssignment.class, (localVarAssignment, dst) -> {
+			var name = localVarAssignment.name();
+			var slotOrUndefined = env.lookup(name);
+			if (slotOrUndefined == UNDEFINED) {
+				throw new Failure("unknown local variable " + name);
+			}
+			// the expression is computed directly in the slot of the variable
+			rewrite(localVarAssignment.expr(), (int) slotOrUndefined);
+		}).when(Fun.class, (fun, dst) -> {
+			var function = createFunction(fun.name(), fun.parameters(), fun.body(), dict, globalEnv, config);
+			buffer.emit(CONST).emit(dst).emit(encodeDictObject(function, dict));
+			fun.name().ifPresent(name -> buffer.emit(REGISTER).emit(encodeDictObject(name, dict)).emit(dst));
+		}).when(Return.class, (_return, dst) -> {
+			var result = operand(_return.expr());
+			buffer.emit(RET).emit(result);
+		}).when(If.class, (_if, dst) -> {
+			var operator = (_if.condition() instanceof FunCall funCall) ? operator(funCall) : -1;
+			int falsePlaceHolder;
+			if (operator >= EQ) {
+				var funCall = (FunCall) _if.condition();
+				var left = operand(funCall.args().get(0));
+				var right = operand(funCall.args().get(1));
+				// registers used by the FUNCALL and the JUMP_IF_FALSE if the fast path fails
+				var base = temporaries(4);
+				buffer.emit(operator - EQ + JUMP_IF_NOT_EQ).emit(left).emit(right);
+				buffer.emit(FUNCALL).emit(base).emit(base).emit(2);
+				falsePlaceHolder = buffer.emit(JUMP_IF_FALSE).emit(base).placeholder();
+			} else {
+				var condition = operand(_if.condition());
+				falsePlaceHolder = buffer.emit(JUMP_IF_FALSE).emit(condition).placeholder();
+			}
+			rewrite(_if.trueBlock(), dst);
+			var endPlaceHolder = buffer.emit(GOTO).placeholder();
+			buffer.patch(falsePlaceHolder, buffer.label());
+			rewrite(_if.falseBlock(), dst);
+			buffer.patch(endPlaceHolder, buffer.label());
+		}).when(New.class, (_new, dst) -> {
+			var clazz = JSObject.newObject(null);
+			var base = temporaries(_new.initMap().size());
+			_new.initMap().forEach((fieldName, expr) -> {
+				var slot = clazz.length();
+				clazz.register(fieldName, slot);
+				rewrite(expr, base + slot);
+			});
+			buffer.emit(NEW).emit(dst).emit(encodeDictObject(clazz, dict)).emit(base);
+		}).when(FieldAccess.class, (fieldAccess, dst) -> {
+			var obj = operand(fieldAccess.receiver());
+			buffer.emit(GET).emit(dst).emit(obj).emit(encodeDictObject(fieldAccess.name(), dict));
+		}).when(FieldAssignment.class, (fieldAssignment, dst) -> {
+			var obj = operand(fieldAssignment.receiver());
+			var value = operand(fieldAssignment.expr());
+			buffer.emit(PUT).emit(obj).emit(encodeDictObject(fieldAssignment.name(), dict)).emit(value);
+		}).when(MethodCall.class, (methodCall, dst) -> {
+			var args = methodCall.args();
+			var base = temporaries(2 + args.size());
+			// the receiver is stored once, no DUP and SWAP
+			rewrite(methodCall.receiver(), base + 1);
+			buffer.emit(GET).emit(base).emit(base + 1).emit(encodeDictObject(methodCall.name(), dict));
+			for (var i = 0; i < args.size(); i++) {
+				rewrite(args.get(i), base + 2 + i);
+			}
+			buffer.emit(FUNCALL).emit(dst).emit(base).emit(args.size());
+		});
+		return visitor;
+	}
+
+	private static final Map<String, Integer> OPERATORS = Map.ofEntries(
+			Map.entry("+", ADD), Map.entry("-", SUB), Map.entry("*", MUL), Map.entry("/", DIV), Map.entry("%", REM),
+			Map.entry("==", EQ), Map.entry("!=", NE), Map.entry("<", LT), Map.entry("<=", LE), Map.entry(">", GT), Map.entry(">=", GE));
+
+	/**
+	 * Returns the operator instruction of a call like {@code a + b},
+	 * or -1 if it's not a call to an operator of the global environment.
+	 */
+	private int operator(FunCall funCall) {
+		if (funCall.args().size() != 2 || !(funCall.qualifier() instanceof LocalVarAccess localVarAccess)) {
+			return -1;
+		}
+		var name = localVarAccess.name();
+		if (env.lookup(name) != UNDEFINED) {
+			// a local variable
+			return -1;
+		}
+		return OPERATORS.getOrDefault(name, -1);
+	}
+}
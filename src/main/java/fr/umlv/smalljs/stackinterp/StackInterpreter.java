@@ -2,11 +2,17 @@ package fr.umlv.smalljs.stackinterp;
 
 import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
 import static fr.umlv.smalljs.stackinterp.TagValues.*;
+import static java.util.Objects.requireNonNull;
 
+import java.io.IOException;
 import java.io.PrintStream;
+import java.lang.invoke.SwitchPoint;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Optional;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntUnaryOperator;
 import java.util.stream.Collectors;
 
 import fr.umlv.smalljs.ast.Script;
@@ -14,6 +20,60 @@ import fr.umlv.smalljs.rt.Failure;
 import fr.umlv.smalljs.rt.JSObject;
 
 public class StackInterpreter {
+	/**
+	 * Configuration of the stack interpreter, all sizes are in number of 32 bits words.
+	 *
+	 * @param gcMode the GC algorithm of the heap.
+	 * @param initialStackSize the initial size of the stack.
+	 * @param maxStackSize the size of the stack after which a stack overflow is raised.
+	 * @param initialHeapSize the initial size of the heap.
+	 * @param maxHeapSize the size of the heap after which an out of memory is raised.
+	 * @param dispatch the execution engine.
+	 * @param heapStorage where the words of the heap are stored.
+	 * @param gcWorkBudget the maximum number of words marked or swept by each allocation of the incremental GC.
+	 */
+	public record Config(GCMode gcMode, int initialStackSize, int maxStackSize, int initialHeapSize, int maxHeapSize,
+			Dispatch dispatch, HeapStorage heapStorage, int gcWorkBudget) {
+		public static final Config DEFAULT = new Config(GCMode.MARK_COMPACT, 4096, 1 << 20, 4096, 1 << 24);
+
+		public Config {
+			requireNonNull(gcMode);
+			requireNonNull(dispatch);
+			requireNonNull(heapStorage);
+			if (initialStackSize < 1 || maxStackSize < initialStackSize) {
+				throw new IllegalArgumentException("invalid stack size " + initialStackSize + " " + maxStackSize);
+			}
+			if (initialHeapSize < OBJECT_HEADER_SIZE || maxHeapSize < initialHeapSize) {
+				throw new IllegalArgumentException("invalid heap size " + initialHeapSize + " " + maxHeapSize);
+			}
+			if (gcWorkBudget < 1) {
+				throw new IllegalArgumentException("invalid work budget " + gcWorkBudget);
+			}
+		}
+
+		public Config(GCMode gcMode, int initialStackSize, int maxStackSize, int initialHeapSize, int maxHeapSize,
+				Dispatch dispatch, HeapStorage heapStorage) {
+			this(gcMode, initialStackSize, maxStackSize, initialHeapSize, maxHeapSize, dispatch, heapStorage,
+					IncrementalHeap.DEFAULT_WORK_BUDGET);
+		}
+
+		public Config(GCMode gcMode, int initialStackSize, int maxStackSize, int initialHeapSize, int maxHeapSize,
+				Dispatch dispatch) {
+			this(gcMode, initialStackSize, maxStackSize, initialHeapSize, maxHeapSize, dispatch, HeapStorage.ARRAY);
+		}
+
+		public Config(GCMode gcMode, int initialStackSize, int maxStackSize, int initialHeapSize, int maxHeapSize) {
+			this(gcMode, initialStackSize, maxStackSize, initialHeapSize, maxHeapSize, Dispatch.SWITCH);
+		}
+
+		/**
+		 * Creates a new heap using the GC mode, the sizes, the storage and the work budget of the heap.
+		 */
+		public Heap createHeap(Dictionary dict) {
+			return Heap.create(gcMode, dict, initialHeapSize, maxHeapSize, heapStorage, gcWorkBudget);
+		}
+	}
+
 	private static void push(int[] stack, int sp, int value) {
 		stack[sp] = value;
 	}
@@ -34,7 +94,17 @@ public class StackInterpreter {
 		return stack[bp + offset];
 	}
 
-	private static void dumpStack(String message, int[] stack, int sp, int bp, Dictionary dict, int[] heap) {
+	static int[] growStack(int[] stack, int needed, int maxStackSize, JSObject function, int bp, Dictionary dict) {
+		var length = stack.length;
+		var newLength = (int) Math.min(maxStackSize, Math.max(2L * length, needed));
+		if (newLength < needed) {
+			StackInterpreter.printStackTrace(function, bp, stack, dict);
+			throw new Failure("Stack overflow");
+		}
+		return Arrays.copyOf(stack, newLength);
+	}
+
+	private static void dumpStack(String message, int[] stack, int sp, int bp, Dictionary dict, Heap heap) {
 		System.err.println(message);
 		for (var i = sp - 1; i >= 0; i = i - 1) {
 			var value = stack[i];
@@ -47,53 +117,209 @@ public class StackInterpreter {
 		System.err.println();
 	}
 
-	private static void dumpHeap(String message, int[] heap, int hp, Dictionary dict) {
-		System.err.println(message);
-		for (var i = 0; i < hp; i++) {
-			var value = heap[i];
-			try {
-				System.err.println(i + ": " + value + " " + decodeAnyValue(value, dict, heap));
-			} catch (IndexOutOfBoundsException | ClassCastException e) {
-				System.err.println(i + ": " + value + " (can't decode)");
-			}
+	private static final boolean DEBUG = false;
+
+	// counts the instructions executed by the switch loops, enabled with -Dsmalljs.countDispatches=true
+	static final boolean COUNT_DISPATCHES = Boolean.getBoolean("smalljs.countDispatches");
+	static long dispatchCount;
+
+	/**
+	 * Returns the number of instructions executed by the stack and the register interpreters
+	 * since the last call and resets the counter,
+	 * the instructions are only counted if the system property {@code smalljs.countDispatches} is true.
+	 */
+	public static long takeDispatchCount() {
+		var count = dispatchCount;
+		dispatchCount = 0;
+		return count;
+	}
+
+	static final int BP_OFFSET = 0;
+	static final int PC_OFFSET = 1;
+	static final int FUN_OFFSET = 2;
+	static final int ACTIVATION_SIZE = 3;
+
+	static final int RECEIVER_BASE_ARG_OFFSET = -1;
+	static final int QUALIFIER_BASE_ARG_OFFSET = -2;
+
+	static final int FUNCALL_PREFIX = 2;
+
+	// size of the FUNCALL 2 that follows an operator instruction
+	static final int OPERATOR_FUNCALL_SIZE = 2;
+
+	// names of the operators, indexed by opcode - ADD
+	private static final String[] OPERATOR_NAMES = { "+", "-", "*", "/", "%", "==", "!=", "<", "<=", ">", ">=" };
+
+	// native functions of the operators, indexed by opcode - ADD
+	@SuppressWarnings("unchecked")
+	private static final JSObject[] OPERATOR_FUNCTIONS = {
+			NativeFunction.newFunction("+", (self, receiver, args) -> (Integer) args[0] + (Integer) args[1], arithmetic((a, b) -> a + b)),
+			NativeFunction.newFunction("-", (self, receiver, args) -> (Integer) args[0] - (Integer) args[1], arithmetic((a, b) -> a - b)),
+			NativeFunction.newFunction("*", (self, receiver, args) -> (Integer) args[0] * (Integer) args[1], arithmetic((a, b) -> a * b)),
+			NativeFunction.newFunction("/", (self, receiver, args) -> (Integer) args[0] / (Integer) args[1], arithmetic((a, b) -> a / b)),
+			NativeFunction.newFunction("%", (self, receiver, args) -> (Integer) args[0] % (Integer) args[1], arithmetic((a, b) -> a % b)),
+			NativeFunction.newFunction("==", (self, receiver, args) -> args[0].equals(args[1]) ? 1 : 0, comparison(Instructions.EQ)),
+			NativeFunction.newFunction("!=", (self, receiver, args) -> !args[0].equals(args[1]) ? 1 : 0, comparison(Instructions.NE)),
+			NativeFunction.newFunction("<", (self, receiver, args) -> (((Comparable<Object>) args[0]).compareTo(args[1]) < 0) ? 1 : 0,
+					comparison(Instructions.LT)),
+			NativeFunction.newFunction("<=", (self, receiver, args) -> (((Comparable<Object>) args[0]).compareTo(args[1]) <= 0) ? 1 : 0,
+					comparison(Instructions.LE)),
+			NativeFunction.newFunction(">", (self, receiver, args) -> (((Comparable<Object>) args[0]).compareTo(args[1]) > 0) ? 1 : 0,
+					comparison(Instructions.GT)),
+			NativeFunction.newFunction(">=", (self, receiver, args) -> (((Comparable<Object>) args[0]).compareTo(args[1]) >= 0) ? 1 : 0,
+					comparison(Instructions.GE))
+	};
+
+	private static void checkOperands(int argumentCount) {
+		if (argumentCount != 2) {
+			throw new Failure("an operator requires 2 arguments but was " + argumentCount);
 		}
-		System.err.println();
 	}
 
+	private static NativeFunction arithmetic(IntBinaryOperator operator) {
+		return (stack, base, argumentCount, context) -> {
+			checkOperands(argumentCount);
+			return context.encodeInt(operator.applyAsInt(context.intValue(stack[base]), context.intValue(stack[base + 1])));
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	private static NativeFunction comparison(int opcode) {
+		return (stack, base, argumentCount, context) -> {
+			checkOperands(argumentCount);
+			var left = stack[base];
+			var right = stack[base + 1];
+			int order;
+			if (context.isInt(left) && context.isInt(right)) {
+				order = Integer.compare(context.intValue(left), context.intValue(right));
+			} else if (context.isString(left) && context.isString(right)) {
+				// a string can be a constant or a string of the heap
+				order = context.stringValue(left).compareTo(context.stringValue(right));
+			} else if (opcode == Instructions.EQ || opcode == Instructions.NE) {
+				// an object is only equal to itself
+				order = context.isSame(left, right) ? 0 : 1;
+			} else {
+				order = ((Comparable<Object>) context.decode(left)).compareTo(context.decode(right));
+			}
+			return compare(opcode, order, 0) ? TRUE : FALSE;
+		};
+	}
+
+	/**
+	 * Checks that the operators of the global environment are still the native functions,
+	 * the global environment is only scanned when its switch point has changed.
+	 */
+	static final class OperatorGuard {
+		private final JSObject globalEnv;
+		private SwitchPoint switchPoint;
+		private int natives; // one bit per operator
 
-	private static final int GC_OFFSET = 1;
-	private static final int GC_MARK = -1;
-	private static final int GC_EMPTY = -2;
+		OperatorGuard(JSObject globalEnv) {
+			this.globalEnv = globalEnv;
+		}
 
-	private static final int BP_OFFSET = 0;
-	private static final int PC_OFFSET = 1;
-	private static final int FUN_OFFSET = 2;
-	private static final int ACTIVATION_SIZE = 3;
+		boolean isNative(int opcode) {
+			var switchPoint = globalEnv.getSwitchPoint();
+			if (switchPoint != this.switchPoint) {
+				// the global environment has changed
+				this.switchPoint = switchPoint;
+				natives = 0;
+				for (var i = 0; i < OPERATOR_FUNCTIONS.length; i++) {
+					if (globalEnv.lookup(OPERATOR_NAMES[i]) == OPERATOR_FUNCTIONS[i]) {
+						natives |= 1 << i;
+					}
+				}
+			}
+			return (natives & 1 << (opcode - Instructions.ADD)) != 0;
+		}
+	}
 
-	private static final int RECEIVER_BASE_ARG_OFFSET = -1;
-	private static final int QUALIFIER_BASE_ARG_OFFSET = -2;
+	/**
+	 * Returns the name of the operator function called by the slow path of an operator instruction.
+	 */
+	static String operatorName(int opcode) {
+		return OPERATOR_NAMES[opcode - Instructions.ADD];
+	}
 
-	private static final int FUNCALL_PREFIX = 2;
+	static boolean compare(int opcode, int left, int right) {
+		// the order of the small ints is the order of their encoding
+		return switch (opcode) {
+			case Instructions.EQ -> left == right;
+			case Instructions.NE -> left != right;
+			case Instructions.LT -> left < right;
+			case Instructions.LE -> left <= right;
+			case Instructions.GT -> left > right;
+			case Instructions.GE -> left >= right;
+			default -> throw new AssertionError("unknown comparison " + opcode);
+		};
+	}
 
 	public static Object execute(JSObject function, Dictionary dict, JSObject globalEnv) {
-		var stack = new int[96 /* 4096 */];
-		var heap = new int[96 /* 4096 */];
-		var code = (Code) function.lookup("__code__");
+		return execute(function, dict, globalEnv, Config.DEFAULT);
+	}
+
+	public static Object execute(JSObject function, Dictionary dict, JSObject globalEnv, Config config) {
+		return execute(function, dict, globalEnv, config, config.createHeap(dict));
+	}
+
+	public static Object execute(JSObject function, Dictionary dict, JSObject globalEnv, Config config, Heap heap) {
+		return execute(function, UNDEFINED, new Object[0], dict, globalEnv, config, heap);
+	}
+
+	/**
+	 * Executes a function with a receiver and some arguments,
+	 * used when a function is called by native code or by code compiled by the {@link TieredCompiler}.
+	 */
+	public static Object execute(JSObject function, Object receiver, Object[] args, Dictionary dict, JSObject globalEnv, Config config) {
+		return execute(function, receiver, args, dict, globalEnv, config, config.createHeap(dict));
+	}
+
+	public static Object execute(JSObject function, Object thisValue, Object[] argumentValues, Dictionary dict, JSObject globalEnv,
+			Config config, Heap heap) {
+		if (config.dispatch() == Dispatch.THREADED) {
+			if (thisValue != UNDEFINED || argumentValues.length != 0) {
+				throw new Failure("can not interpret a function with a receiver and/or arguments");
+			}
+			return ThreadedInterpreter.execute(function, dict, globalEnv, config, heap);
+		}
+		var maxStackSize = config.maxStackSize();
+		var stack = new int[config.initialStackSize()];
+		var functionIndex = dict.functionIndex(function);
+		var code = dict.code(functionIndex);
 		var instrs = code.instrs();
+		if (code.parameterCount() != argumentValues.length + 1 /* this */) {
+			throw new Failure("wrong number of arguments for " + function.getName() + " expected "
+					+ (code.parameterCount() - 1) + " but was " + argumentValues.length);
+		}
 
 		var undefined = encodeDictObject(UNDEFINED, dict);
+		var operators = new OperatorGuard(globalEnv);
+		var nativeContext = new NativeFunction.Context(heap, dict);
+		var tieredCompiler = (config.dispatch() == Dispatch.TIERED) ? dict.tieredCompiler(globalEnv) : null;
+		var inliner = (config.dispatch() == Dispatch.INLINING) ? dict.inliner(globalEnv, config) : null;
 
-		var hp = 0; // heap pointer
 		var pc = 0; // instruction pointer
 		var bp = 0; // base pointer
 		var sp = bp + code.slotCount() + ACTIVATION_SIZE; // stack pointer
+		// the stack frame is allocated once, so the instructions do not check the stack pointer
+		if (sp + code.maxStackDepth() > stack.length) {
+			stack = growStack(stack, sp + code.maxStackDepth(), maxStackSize, function, bp, dict);
+		}
 
 		// initialize all local variables
 		for (var i = 0; i < code.slotCount(); i++) {
 			stack[i] = undefined;
 		}
+		// store the receiver and the arguments in the parameters
+		stack[0] = encodeAnyValue(thisValue, heap, stack, sp, bp, function, dict);
+		for (var i = 0; i < argumentValues.length; i++) {
+			stack[1 + i] = encodeAnyValue(argumentValues[i], heap, stack, sp, bp, function, dict);
+		}
 
 		for (; ; ) {
+			if (COUNT_DISPATCHES) {
+				dispatchCount++;
+			}
 			switch (instrs[pc++]) {
 				case Instructions.CONST -> {
 					// push constant from the instruction to the stack
@@ -107,7 +333,27 @@ public class StackInterpreter {
 					String name = decodeDictObject(value, dict).toString();
 					var object = globalEnv.lookup(name);
 					// lookup the name and push as any value
-					var encodeValue = encodeAnyValue(object, dict);
+					var encodeValue = encodeAnyValue(object, heap, stack, sp, bp, function, dict);
+					if (!isReference(encodeValue)) {
+						// quicken, a reference can not be cached because the GC may move the object
+						var instr = pc - 2;
+						var inlineCaches = code.inlineCaches();
+						inlineCaches[instr] = encodeValue;
+						inlineCaches[instr + 1] = dict.globalEpoch(globalEnv);
+						instrs[instr] = Instructions.LOOKUP_CACHED;
+					}
+					push(stack, sp, encodeValue);
+					sp++;
+				}
+				case Instructions.LOOKUP_CACHED -> {
+					var inlineCaches = code.inlineCaches();
+					if (inlineCaches[pc] != dict.globalEpoch(globalEnv)) {
+						// the global environment has changed, de-quicken and execute the LOOKUP
+						instrs[--pc] = Instructions.LOOKUP;
+						continue;
+					}
+					var encodeValue = inlineCaches[pc - 1];
+					pc++;
 					push(stack, sp, encodeValue);
 					sp++;
 				}
@@ -158,22 +404,50 @@ public class StackInterpreter {
 					// push second value on top of the stack
 					push(stack, sp++, value2);
 				}
-				case Instructions.FUNCALL -> {
-					// DEBUG
-					dumpStack(">start funcall dump", stack, sp, bp, dict, heap);
+				case Instructions.FUNCALL, Instructions.TAILCALL, Instructions.INVOKE_METHOD -> {
+					if (DEBUG) {
+						dumpStack(">start funcall dump", stack, sp, bp, dict, heap);
+					}
+
+					var callSite = pc - 1;
+					var inlineCaches = code.inlineCaches();
+					int argumentCount;
+					int newFunctionIndex;
+					if (instrs[callSite] == Instructions.INVOKE_METHOD) {
+						// find argument count after the method name
+						argumentCount = instrs[pc + 1];
+						pc += 2;
+						newFunctionIndex = findMethod(stack, sp - argumentCount, instrs, callSite, inlineCaches, heap, dict);
+					} else {
+						// find argument count
+						argumentCount = instrs[pc++]; // arg apres FUNCALL
+						// stack[baseArg] is the first argument
+						// stack[baseArg + RECEIVER_BASE_ARG_OFFSET] is the receiver
+						// stack[baseArg + QUALIFIER_BASE_ARG_OFFSET] is the qualifier (aka the
+						// function)
+						var qualifier = stack[sp - argumentCount + QUALIFIER_BASE_ARG_OFFSET];
+						if (isSmallInt(qualifier) || isReference(qualifier)) {
+							// an empty inline cache (0) would match the reference 0
+							throw new Failure("can not call " + decodeAnyValue(qualifier, dict, heap));
+						}
 
-					// find argument count
-					var argumentCount = instrs[pc++]; // arg apres FUNCALL
+						// find the function using the inline cache of the call site
+						if (inlineCaches[callSite] == qualifier) {
+							newFunctionIndex = inlineCaches[callSite + 1];
+						} else {
+							// decode qualifier and update the cache
+							newFunctionIndex = functionIndex(qualifier, dict, heap);
+							inlineCaches[callSite] = qualifier;
+							inlineCaches[callSite + 1] = newFunctionIndex;
+						}
+					}
 					// find baseArg
 					var baseArg = sp - argumentCount;
-					// stack[baseArg] is the first argument
-					// stack[baseArg + RECEIVER_BASE_ARG_OFFSET] is the receiver
-					// stack[baseArg + QUALIFIER_BASE_ARG_OFFSET] is the qualifier (aka the
-					// function)
-					var qualifier = stack[baseArg + QUALIFIER_BASE_ARG_OFFSET];
-
-					// decode qualifier
-					var newFunction = (JSObject) decodeDictObject(qualifier, dict);
+					if (inliner != null) {
+						// call the version with the callees inlined if the function is hot
+						newFunctionIndex = inliner.profile(newFunctionIndex);
+					}
+					var newFunction = dict.function(newFunctionIndex);
          /*{ // DEBUG
             var receiver = decodeAnyValue(stack[baseArg + RECEIVER_BASE_ARG_OFFSET], dict, heap);
             var args = new Object[argumentCount];
@@ -183,9 +457,20 @@ public class StackInterpreter {
             System.err.println("funcall " + newFunction.getName() + " with " + receiver + " " + Arrays.toString(args));
           }*/
 
-					// check if the function contains a code attribute
-					var maybeCode = newFunction.lookup("__code__");
-					if (maybeCode == UNDEFINED) { // native call !
+					// check if the function has a code
+					var newCode = dict.code(newFunctionIndex);
+					if (newCode == null) { // native call !
+						var nativeFunction = dict.nativeFunction(newFunctionIndex);
+						if (nativeFunction != null) {
+							// the native function reads the arguments on the stack
+							nativeContext.enter(stack, sp, bp, function);
+							var result = nativeFunction.call(stack, baseArg, argumentCount, nativeContext);
+							sp = baseArg - FUNCALL_PREFIX;
+							push(stack, sp, result);
+							sp++;
+							continue;
+						}
+
 						// decode receiver
 						var receiver = decodeAnyValue(stack[baseArg + RECEIVER_BASE_ARG_OFFSET], dict, heap);
 
@@ -199,7 +484,7 @@ public class StackInterpreter {
 						System.err.println("call native " + newFunction.getName() + " with " + receiver + " " + java.util.Arrays.toString(args));
 
 						// call native function
-						var result = encodeAnyValue(newFunction.invoke(receiver, args), dict);
+						var result = encodeAnyValue(newFunction.invoke(receiver, args), heap, stack, sp, bp, function, dict);
 
 						// fixup sp
 						sp = baseArg - FUNCALL_PREFIX;
@@ -210,21 +495,54 @@ public class StackInterpreter {
 						continue;
 					}
 
-					// initialize new code
-					code = (Code) maybeCode;
-
 					// check number of arguments
-					if (code.parameterCount() != argumentCount + 1/* this */) {
+					if (newCode.parameterCount() != argumentCount + 1/* this */) {
 						throw new Failure("wrong number of arguments for " + newFunction.getName() + " expected "
-								+ (code.parameterCount() - 1) + " but was " + argumentCount);
+								+ (newCode.parameterCount() - 1) + " but was " + argumentCount);
 					}
 
+					// call the compiled version if the function is hot and the arguments can be decoded
+					if (tieredCompiler != null && tieredCompiler.profile(newFunctionIndex) != null
+							&& !containsObject(stack, baseArg + RECEIVER_BASE_ARG_OFFSET, sp, heap)) {
+						var receiver = decodeAnyValue(stack[baseArg + RECEIVER_BASE_ARG_OFFSET], dict, heap);
+						var args = new Object[argumentCount];
+						for (var i = 0; i < argumentCount; i++) {
+							args[i] = decodeAnyValue(stack[baseArg + i], dict, heap);
+						}
+						var result = encodeAnyValue(tieredCompiler.invoke(newFunctionIndex, receiver, args), heap, stack, sp, bp, function, dict);
+						sp = baseArg - FUNCALL_PREFIX;
+						push(stack, sp, result);
+						sp++;
+						continue;
+					}
+
+					// a tail call replaces the current frame if there is a caller to return to,
+					// the receiver and the arguments are moved down over the ones of the current function
+					// and the activation zone of the current function becomes the one of the new function
+					var currentActivation = bp + code.slotCount();
+					if (instrs[callSite] == Instructions.TAILCALL && stack[currentActivation + PC_OFFSET] != 0) {
+						pc = stack[currentActivation + PC_OFFSET];
+						functionIndex = stack[currentActivation + FUN_OFFSET];
+						function = dict.function(functionIndex);
+						var callerBp = stack[currentActivation + BP_OFFSET];
+						System.arraycopy(stack, baseArg + RECEIVER_BASE_ARG_OFFSET, stack, bp, argumentCount + 1);
+						baseArg = bp + 1;
+						bp = callerBp;
+					}
+
+					// initialize new code
+					code = newCode;
+
 					// save bp/pc/code in activation zone
 					// stack[activation + offset] = ??
 					var activation = baseArg - 1 + code.slotCount();
+					var frameEnd = activation + ACTIVATION_SIZE + code.maxStackDepth();
+					if (frameEnd > stack.length) {
+						stack = growStack(stack, frameEnd, maxStackSize, function, bp, dict);
+					}
 					stack[activation + BP_OFFSET] = bp;
 					stack[activation + PC_OFFSET] = pc;
-					stack[activation + FUN_OFFSET] = encodeDictObject(function, dict);
+					stack[activation + FUN_OFFSET] = functionIndex;
 
 					// initialize pc, bp and sp
 					pc = 0;
@@ -237,14 +555,27 @@ public class StackInterpreter {
 
 					// initialize function and instrs of the new function
 					function = newFunction;
+					functionIndex = newFunctionIndex;
 					instrs = code.instrs();
 
-					// DEBUG
-					dumpStack(">end funcall dump", stack, sp, bp, dict, heap);
+					if (DEBUG) {
+						dumpStack(">end funcall dump", stack, sp, bp, dict, heap);
+					}
+				}
+				case Instructions.INLINED_FUNCALL -> {
+					// execute the inlined code if the qualifier is still the inlined function
+					// otherwise jump to the FUNCALL that follows the inlined code
+					var argumentCount = instrs[pc];
+					if (stack[sp - argumentCount + QUALIFIER_BASE_ARG_OFFSET] == instrs[pc + 1]) {
+						pc += 3;
+					} else {
+						pc = instrs[pc + 2];
+					}
 				}
 				case Instructions.RET -> {
-					// DEBUG
-					dumpStack("> start ret dump", stack, sp, bp, dict, heap);
+					if (DEBUG) {
+						dumpStack("> start ret dump", stack, sp, bp, dict, heap);
+					}
 
 					// get the return value from the top of the stack
 					sp--;
@@ -262,18 +593,20 @@ public class StackInterpreter {
 
 					// restore sp, function and bp
 					sp = bp - 1;
-					function = (JSObject) decodeDictObject(stack[activation + FUN_OFFSET], dict);
+					functionIndex = stack[activation + FUN_OFFSET];
+					function = dict.function(functionIndex);
 					bp = stack[activation + BP_OFFSET];
 
 					// restore code and instrs
-					code = (Code) function.lookup("__code__");
+					code = dict.code(functionIndex);
 					instrs = code.instrs();
 
 					// push return value
 					push(stack, sp, result);
 					sp++;
-					// DEBUG
-					dumpStack("> end ret dump", stack, sp, bp, dict, heap);
+					if (DEBUG) {
+						dumpStack("> end ret dump", stack, sp, bp, dict, heap);
+					}
 				}
 				case Instructions.GOTO -> {
 					// change the program counter to the label
@@ -283,8 +616,8 @@ public class StackInterpreter {
 //          throw new UnsupportedOperationException("TODO JUMP_IF_FALSE");
 					// get the label
 					var label = instrs[pc++];
-					// get the value on top of the stack
-					var condition = peek(stack, sp);
+					// pop the value on top of the stack
+					var condition = pop(stack, --sp);
 					// if condition is false change the program counter to the label
 					if (condition == TagValues.FALSE) {
 						pc = label;
@@ -295,38 +628,28 @@ public class StackInterpreter {
 					var vClass = instrs[pc++];
 					var clazz = (JSObject) decodeDictObject(vClass, dict);
 
-					// out of memory ?
-					if (hp + OBJECT_HEADER_SIZE + clazz.length() >= heap.length) {
-						StackInterpreter.printStackTrace(function, bp, stack, dict);
-						throw new Failure("Out of memory");
-					}
-
-					var ref = hp;
+					// allocate the object, with the free words of its class
+					var ref = allocate(heap, clazz, dict.capacity(vClass), stack, sp, bp, function, dict);
 
-					// write the class on heap
-					heap[ref] = encodeDictObject(clazz, dict);
-					// write the empty GC mark
-					heap[ref + GC_OFFSET] = GC_EMPTY;
 					// get all fields values from the stack and write them on heap
 					var baseArg = sp - clazz.length();
 					for (var i = 0; i < clazz.length(); i++) {
-						heap[ref + OBJECT_HEADER_SIZE + i] = stack[baseArg + i];
+						heap.putField(ref, i, stack[baseArg + i]);
 					}
-					// adjust stack pointer and heap pointer
+					// adjust stack pointer
 					sp = baseArg;
-					hp += OBJECT_HEADER_SIZE + clazz.length();
 
 					// push the reference on top of the stack
-					push(stack, sp++, ref);
+					push(stack, sp++, encodeReference(ref));
 				}
 				case Instructions.GET -> {
 					// get field name from the instructions
 					var fieldName = (String) decodeDictObject(instrs[pc++], dict);
 
-					// get reference from the top of the stack
-					var ref = decodeReference(pop(stack, --sp));
+					// get reference from the top of the stack, the object may have been relocated
+					var ref = heap.resolve(decodeReference(pop(stack, --sp)));
 					// get class on heap from the reference
-					var vClass = heap[ref];
+					var vClass = heap.classWord(ref);
 					// get JSObject from class
 					var clazz = (JSObject) decodeDictObject(vClass, dict);
 					// get field slot from JSObject
@@ -337,29 +660,74 @@ public class StackInterpreter {
 						continue;
 					}
 
+					// quicken
+					var instr = pc - 2;
+					var inlineCaches = code.inlineCaches();
+					inlineCaches[instr] = vClass;
+					inlineCaches[instr + 1] = (int) slot;
+					instrs[instr] = Instructions.GET_SLOT;
+
 					// push field value on top of the stack
-					int value = heap[ref + OBJECT_HEADER_SIZE + (int) slot];
+					int value = heap.getField(ref, (int) slot);
 					push(stack, sp++, value);
 				}
+				case Instructions.GET_SLOT -> {
+					var inlineCaches = code.inlineCaches();
+					// get reference from the top of the stack
+					var ref = decodeReference(peek(stack, sp));
+					if (heap.classWord(ref) != inlineCaches[pc - 1]) {
+						// another class, de-quicken and execute the GET
+						instrs[--pc] = Instructions.GET;
+						continue;
+					}
+					// replace the reference by the field value
+					stack[sp - 1] = heap.getField(ref, inlineCaches[pc]);
+					pc++;
+				}
 				case Instructions.PUT -> {
 					// get field name from the instructions
 					var fieldName = (String) decodeDictObject(instrs[pc++], dict);
-					// get new value from the top of the stack
-					var value = pop(stack, --sp);
-					// get reference from the top of the stack
-					var ref = decodeReference(pop(stack, --sp));
+					// get reference below the value on top of the stack, the object may have been relocated
+					var ref = heap.resolve(decodeReference(stack[sp - 2]));
 					// get class on heap from the reference
-					var vClass = heap[ref];
+					var vClass = heap.classWord(ref);
 					// get JSObject from class
 					var clazz = (JSObject) decodeDictObject(vClass, dict);
 					// get field slot from JSObject
 					var slot = clazz.lookup(fieldName);
 					if (slot == UNDEFINED) {
-						throw new Failure("invalid field " + fieldName);
+						// no slot, add the field, the object and the value stay on the stack if a GC occurs
+						addField(heap, fieldName, sp - 2, sp - 1, stack, sp, bp, function, dict);
+						sp -= 2;
+						continue;
 					}
+					// get new value from the top of the stack
+					var value = pop(stack, --sp);
+					sp--;
 
+					// quicken
+					var instr = pc - 2;
+					var inlineCaches = code.inlineCaches();
+					inlineCaches[instr] = vClass;
+					inlineCaches[instr + 1] = (int) slot;
+					instrs[instr] = Instructions.PUT_SLOT;
+
+					// store field value from the top of the stack on heap
+					heap.putField(ref, (int) slot, value);
+				}
+				case Instructions.PUT_SLOT -> {
+					var inlineCaches = code.inlineCaches();
+					// get reference below the value on top of the stack
+					var ref = decodeReference(stack[sp - 2]);
+					if (heap.classWord(ref) != inlineCaches[pc - 1]) {
+						// another class, de-quicken and execute the PUT
+						instrs[--pc] = Instructions.PUT;
+						continue;
+					}
 					// store field value from the top of the stack on heap
-					heap[ref + OBJECT_HEADER_SIZE + (int)slot] = value;
+					heap.putField(ref, inlineCaches[pc], stack[sp - 1]);
+					sp -= 2;
+					pc++;
 				}
 				case Instructions.PRINT -> {
 					//throw new UnsupportedOperationException("TODO PRINT");
@@ -377,60 +745,385 @@ public class StackInterpreter {
 					push(stack, sp, encodedUndefined);
 					sp++;
 				}
+				case Instructions.ADD -> {
+					var left = stack[sp - 2];
+					var right = stack[sp - 1];
+					// (2x + 1) + (2y + 1) - 1 == 2(x + y) + 1
+					var result = left + right - 1;
+					// no overflow if the result has the sign of one of the operands
+					if (isSmallInt(left & right) && ((left ^ result) & (right ^ result)) >= 0 && operators.isNative(Instructions.ADD)) {
+						stack[sp - 2] = result;
+						sp--;
+						pc += OPERATOR_FUNCALL_SIZE;
+					} else {
+						prepareOperatorCall(Instructions.ADD, stack, sp, heap, globalEnv, bp, function, dict);
+						sp += FUNCALL_PREFIX;
+					}
+				}
+				case Instructions.SUB -> {
+					var left = stack[sp - 2];
+					var right = stack[sp - 1];
+					// (2x + 1) - (2y + 1) + 1 == 2(x - y) + 1
+					var result = left - right + 1;
+					// no overflow if the operands have the same sign or the result has the sign of left
+					if (isSmallInt(left & right) && ((left ^ right) & (left ^ result)) >= 0 && operators.isNative(Instructions.SUB)) {
+						stack[sp - 2] = result;
+						sp--;
+						pc += OPERATOR_FUNCALL_SIZE;
+					} else {
+						prepareOperatorCall(Instructions.SUB, stack, sp, heap, globalEnv, bp, function, dict);
+						sp += FUNCALL_PREFIX;
+					}
+				}
+				case Instructions.MUL -> {
+					var left = stack[sp - 2];
+					var right = stack[sp - 1];
+					// (2x + 1 - 1) * y + 1 == 2xy + 1
+					var result = (long) (left - 1) * (right >> 1) + 1;
+					if (isSmallInt(left & right) && result == (int) result && operators.isNative(Instructions.MUL)) {
+						stack[sp - 2] = (int) result;
+						sp--;
+						pc += OPERATOR_FUNCALL_SIZE;
+					} else {
+						prepareOperatorCall(Instructions.MUL, stack, sp, heap, globalEnv, bp, function, dict);
+						sp += FUNCALL_PREFIX;
+					}
+				}
+				case Instructions.DIV, Instructions.REM -> {
+					var opcode = instrs[pc - 1];
+					var left = stack[sp - 2];
+					var right = stack[sp - 1];
+					// a division by zero is reported by the operator function
+					if (isSmallInt(left & right) && right != encodeSmallInt(0) && operators.isNative(opcode)) {
+						var x = decodeSmallInt(left);
+						var y = decodeSmallInt(right);
+						var result = (opcode == Instructions.DIV) ? x / y : x % y;
+						if (fitsInSmallInt(result)) {
+							stack[sp - 2] = encodeSmallInt(result);
+							sp--;
+							pc += OPERATOR_FUNCALL_SIZE;
+							continue;
+						}
+					}
+					prepareOperatorCall(opcode, stack, sp, heap, globalEnv, bp, function, dict);
+					sp += FUNCALL_PREFIX;
+				}
+				case Instructions.EQ, Instructions.NE, Instructions.LT, Instructions.LE, Instructions.GT, Instructions.GE -> {
+					var opcode = instrs[pc - 1];
+					var left = stack[sp - 2];
+					var right = stack[sp - 1];
+					if (isSmallInt(left & right) && operators.isNative(opcode)) {
+						stack[sp - 2] = compare(opcode, left, right) ? TRUE : FALSE;
+						sp--;
+						pc += OPERATOR_FUNCALL_SIZE;
+					} else {
+						prepareOperatorCall(opcode, stack, sp, heap, globalEnv, bp, function, dict);
+						sp += FUNCALL_PREFIX;
+					}
+				}
+				case Instructions.JUMP_IF_NOT_EQ, Instructions.JUMP_IF_NOT_NE, Instructions.JUMP_IF_NOT_LT,
+						Instructions.JUMP_IF_NOT_LE, Instructions.JUMP_IF_NOT_GT, Instructions.JUMP_IF_NOT_GE -> {
+					var opcode = instrs[pc - 1] - Instructions.JUMP_IF_NOT_EQ + Instructions.EQ;
+					var left = stack[sp - 2];
+					var right = stack[sp - 1];
+					if (isSmallInt(left & right) && operators.isNative(opcode)) {
+						sp -= 2;
+						// skip the FUNCALL and the JUMP_IF_FALSE or jump to its label
+						pc = compare(opcode, left, right) ? pc + OPERATOR_FUNCALL_SIZE + 2 : instrs[pc + OPERATOR_FUNCALL_SIZE + 1];
+					} else {
+						prepareOperatorCall(opcode, stack, sp, heap, globalEnv, bp, function, dict);
+						sp += FUNCALL_PREFIX;
+					}
+				}
 				default -> throw new AssertionError("unknown instruction " + instrs[pc - 1]);
 			}
 		}
 	}
 
 
+	/**
+	 * Allocates an object on the heap, the stack is used to find the roots if a GC is necessary.
+	 *
+	 * @return the address of the object.
+	 */
+	static int allocate(Heap heap, JSObject clazz, int fieldCount, int[] stack, int sp, int bp, JSObject function, Dictionary dict) {
+		var classWord = encodeDictObject(clazz, dict);
+		var ref = heap.allocate(classWord, fieldCount);
+		if (ref == -1) {
+			// try to reclaim the dead objects
+			heap.collect(operator -> visitRoots(stack, sp, bp, function, dict, operator), OBJECT_HEADER_SIZE + fieldCount);
+
+			// still out of memory ?
+			ref = heap.allocate(classWord, fieldCount);
+			if (ref == -1) {
+				StackInterpreter.printStackTrace(function, bp, stack, dict);
+				throw new Failure("Out of memory");
+			}
+		}
+		return ref;
+	}
+
+	/**
+	 * Adds a field to the object referenced by the stack at objectIndex and stores the value of the stack at valueIndex.
+	 * The object takes the successor class of its class (see {@link Dictionary#transition(int, String)}),
+	 * if the object has no free word, it is relocated and all the references of the stack are updated,
+	 * the references stored in the heap go through the forwarded object (see {@link Heap#resolve(int)})
+	 * until the GC replaces them.
+	 */
+	static void addField(Heap heap, String fieldName, int objectIndex, int valueIndex, int[] stack, int sp, int bp, JSObject function, Dictionary dict) {
+		var ref = heap.resolve(decodeReference(stack[objectIndex]));
+		var classWord = heap.classWord(ref);
+		var newClassWord = dict.transition(classWord, fieldName);
+		var slot = ((JSObject) decodeDictObject(newClassWord, dict)).length() - 1;
+		if (slot < dict.capacity(classWord)) {
+			// enough room, the object changes its class in place
+			heap.changeClass(ref, newClassWord);
+			heap.putField(ref, slot, stack[valueIndex]);
+			return;
+		}
+
+		// relocate the object, a GC may move it, so reload it from the stack
+		var newClass = (JSObject) decodeDictObject(newClassWord, dict);
+		var newRef = allocate(heap, newClass, dict.capacity(newClassWord), stack, sp, bp, function, dict);
+		var oldRef = heap.resolve(decodeReference(stack[objectIndex]));
+		for (var i = 0; i < slot; i++) {
+			heap.putField(newRef, i, heap.getField(oldRef, i));
+		}
+		heap.putField(newRef, slot, stack[valueIndex]);
+		heap.forward(oldRef, newRef);
+
+		var oldValue = encodeReference(oldRef);
+		var newValue = encodeReference(newRef);
+		visitRoots(stack, sp, bp, function, dict, value -> (value == oldValue) ? newValue : value);
+	}
+
+	/**
+	 * Finds the method called by the INVOKE_METHOD at callSite and stores it in the slot of the qualifier.
+	 * The inline caches of the call site store the class word of the receiver, the slot of the method
+	 * and the index of the function, the field is read at each call because it can be changed by a PUT.
+	 *
+	 * @return the index of the method in the function table.
+	 */
+	static int findMethod(int[] stack, int baseArg, int[] instrs, int callSite, int[] inlineCaches, Heap heap, Dictionary dict) {
+		var receiver = stack[baseArg + RECEIVER_BASE_ARG_OFFSET];
+		if (!isReference(receiver)) {
+			throw new Failure("can not call " + decodeDictObject(instrs[callSite + 1], dict) + " on " + decodeAnyValue(receiver, dict, heap));
+		}
+		var ref = heap.resolve(decodeReference(receiver));
+		var classWord = heap.classWord(ref);
+		int qualifier;
+		if (inlineCaches[callSite] == classWord) {
+			qualifier = heap.getField(ref, inlineCaches[callSite + 1]);
+			var functionIndex = inlineCaches[callSite + 2];
+			if (!isSmallInt(qualifier) && !isReference(qualifier) && decodeDictObject(qualifier, dict) == dict.function(functionIndex)) {
+				stack[baseArg + QUALIFIER_BASE_ARG_OFFSET] = qualifier;
+				return functionIndex;
+			}
+		} else {
+			var name = (String) decodeDictObject(instrs[callSite + 1], dict);
+			var slot = ((JSObject) decodeDictObject(classWord, dict)).lookup(name);
+			if (slot == UNDEFINED) {
+				throw new Failure("no method " + name + " on " + decodeAnyValue(receiver, dict, heap));
+			}
+			inlineCaches[callSite] = classWord;
+			inlineCaches[callSite + 1] = (int) slot;
+			qualifier = heap.getField(ref, (int) slot);
+		}
+		if (isSmallInt(qualifier) || isReference(qualifier)) {
+			throw new Failure("can not call " + decodeAnyValue(qualifier, dict, heap));
+		}
+		// decode qualifier and update the cache
+		var functionIndex = functionIndex(qualifier, dict, heap);
+		inlineCaches[callSite + 2] = functionIndex;
+		stack[baseArg + QUALIFIER_BASE_ARG_OFFSET] = qualifier;
+		return functionIndex;
+	}
+
+	/**
+	 * Returns the index in the function table of the function of a qualifier that is a dictionary value.
+	 *
+	 * @throws Failure if the qualifier is not a function.
+	 */
+	static int functionIndex(int qualifier, Dictionary dict, Heap heap) {
+		if (!(decodeDictObject(qualifier, dict) instanceof JSObject function)) {
+			throw new Failure("can not call " + decodeAnyValue(qualifier, dict, heap));
+		}
+		return dict.functionIndex(function);
+	}
+
+	/**
+	 * Returns true if one of the values of the stack between start and end is a reference on an object
+	 * that is not a boxed integer or a string.
+	 */
+	private static boolean containsObject(int[] stack, int start, int end, Heap heap) {
+		for (var i = start; i < end; i++) {
+			var value = stack[i];
+			if (isReference(value) && !heap.isBoxedInt(decodeReference(value)) && !heap.isString(decodeReference(value))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Encodes a value, the integers that do not fit in a small int are boxed on the heap
+	 * and the strings that are not constants of the dictionary are allocated on the heap.
+	 */
+	static int encodeAnyValue(Object value, Heap heap, int[] stack, int sp, int bp, JSObject function, Dictionary dict) {
+		if (value instanceof Integer integer && !fitsInSmallInt(integer)) {
+			var ref = allocate(heap, Heap.BOXED_INT_CLASS, 1, stack, sp, bp, function, dict);
+			heap.initBoxedInt(ref, integer);
+			return encodeReference(ref);
+		}
+		if (value instanceof String string && dict.indexIfPresent(string) == -1) {
+			// a string created at runtime is allocated on the heap, so it can be reclaimed
+			var ref = allocate(heap, Heap.STRING_CLASS, Heap.stringWordCount(string), stack, sp, bp, function, dict);
+			heap.initString(ref, string);
+			return encodeReference(ref);
+		}
+		if (HeapObjectView.isViewOf(value, heap)) {
+			return ((HeapObjectView) value).encode();
+		}
+		return TagValues.encodeAnyValue(value, dict);
+	}
+
+	/**
+	 * Slow path of the operator instructions, inserts the operator function of the global environment
+	 * and undefined (the receiver) below the two operands on top of the stack,
+	 * so the FUNCALL 2 that follows the operator instruction can be executed.
+	 * The two more values are counted in the max stack depth of the code.
+	 */
+	static void prepareOperatorCall(int opcode, int[] stack, int sp, Heap heap, JSObject globalEnv,
+			int bp, JSObject function, Dictionary dict) {
+		var qualifier = encodeAnyValue(globalEnv.lookup(operatorName(opcode)), heap, stack, sp, bp, function, dict);
+		var left = stack[sp - 2];
+		var right = stack[sp - 1];
+		stack[sp - 2] = qualifier;
+		stack[sp - 1] = encodeDictObject(UNDEFINED, dict);
+		stack[sp] = left;
+		stack[sp + 1] = right;
+	}
+
+	/**
+	 * Visits all the values of the stack that are references on the heap,
+	 * the reference is replaced by the value returned by the operator.
+	 *
+	 * The stack is walked frame by frame because an activation zone contains
+	 * raw values (bp and pc) that can not be distinguished from a reference.
+	 */
+	private static void visitRoots(int[] stack, int sp, int bp, JSObject function, Dictionary dict, IntUnaryOperator operator) {
+		var code = (Code) function.lookup("__code__");
+		var top = sp;
+		for (; ; ) {
+			var activation = bp + code.slotCount();
+			// local variables
+			for (var i = bp; i < activation; i++) {
+				var value = stack[i];
+				if (isReference(value)) {
+					stack[i] = operator.applyAsInt(value);
+				}
+			}
+			// local stack
+			for (var i = activation + ACTIVATION_SIZE; i < top; i++) {
+				var value = stack[i];
+				if (isReference(value)) {
+					stack[i] = operator.applyAsInt(value);
+				}
+			}
+			if (stack[activation + PC_OFFSET] == 0) {
+				// main function, no caller
+				return;
+			}
+			// the local stack of the caller ends where the locals of the callee start
+			top = bp;
+			bp = stack[activation + BP_OFFSET];
+			code = dict.code(stack[activation + FUN_OFFSET]);
+		}
+	}
+
 	public static JSObject createGlobalEnv(PrintStream outStream) {
 		JSObject globalEnv = JSObject.newEnv(null);
 		globalEnv.register("global", globalEnv);
-		globalEnv.register("print", JSObject.newFunction("print", (self, receiver, args) -> {
+		globalEnv.register("print", NativeFunction.newFunction("print", (self, receiver, args) -> {
 			System.err.println("print called with " + Arrays.toString(args));
 			outStream.println(Arrays.stream(args).map(Object::toString).collect(Collectors.joining(" ")));
 			return UNDEFINED;
+		}, (stack, base, argumentCount, context) -> {
+			for (var i = 0; i < argumentCount; i++) {
+				if (i != 0) {
+					outStream.print(' ');
+				}
+				var value = stack[base + i];
+				if (isSmallInt(value)) {
+					outStream.print(decodeSmallInt(value));
+				} else {
+					outStream.print(context.decode(value));
+				}
+			}
+			outStream.println();
+			return context.undefined();
 		}));
-		globalEnv.register("+", JSObject.newFunction("+", (self, receiver, args) -> (Integer) args[0] + (Integer) args[1]));
-		globalEnv.register("-", JSObject.newFunction("-", (self, receiver, args) -> (Integer) args[0] - (Integer) args[1]));
-		globalEnv.register("/", JSObject.newFunction("/", (self, receiver, args) -> (Integer) args[0] / (Integer) args[1]));
-		globalEnv.register("*", JSObject.newFunction("*", (self, receiver, args) -> (Integer) args[0] * (Integer) args[1]));
-		globalEnv.register("%", JSObject.newFunction("%", (self, receiver, args) -> (Integer) args[0] * (Integer) args[1]));
-
-		globalEnv.register("==", JSObject.newFunction("==", (self, receiver, args) -> args[0].equals(args[1]) ? 1 : 0));
-		globalEnv.register("!=", JSObject.newFunction("!=", (self, receiver, args) -> !args[0].equals(args[1]) ? 1 : 0));
-		globalEnv.register("<", JSObject.newFunction("<",
-				(self, receiver, args) -> (((Comparable<Object>) args[0]).compareTo(args[1]) < 0) ? 1 : 0));
-		globalEnv.register("<=", JSObject.newFunction("<=",
-				(self, receiver, args) -> (((Comparable<Object>) args[0]).compareTo(args[1]) <= 0) ? 1 : 0));
-		globalEnv.register(">", JSObject.newFunction(">",
-				(self, receiver, args) -> (((Comparable<Object>) args[0]).compareTo(args[1]) > 0) ? 1 : 0));
-		globalEnv.register(">=", JSObject.newFunction(">=",
-				(self, receiver, args) -> (((Comparable<Object>) args[0]).compareTo(args[1]) >= 0) ? 1 : 0));
+		// the operators are shared so the operator instructions can check that they have not been redefined
+		for (var i = 0; i < OPERATOR_FUNCTIONS.length; i++) {
+			globalEnv.register(OPERATOR_NAMES[i], OPERATOR_FUNCTIONS[i]);
+		}
 
 		return globalEnv;
 	}
 
 	public static void interpret(Script script, PrintStream outStream) {
+		interpret(script, outStream, Config.DEFAULT);
+	}
+
+	public static void interpret(Script script, PrintStream outStream, Config config) {
 		JSObject globalEnv = createGlobalEnv(outStream);
 		var body = script.body();
 		var function = InstrRewriter.createFunction(Optional.of("main"), Collections.emptyList(), body, new Dictionary(),
-				globalEnv);
+				globalEnv, config);
 		function.invoke(UNDEFINED, new Object[0]);
 	}
 
-	public static void printStackTrace(JSObject function, int bp, int[] stack, Dictionary dict) {
-		int fun;
-		int bpBuff = bp;
+	/**
+	 * Rewrites a script and writes its code in a file that can be executed by {@link #interpret(Path, PrintStream, Config)}.
+	 */
+	public static void compile(Script script, Path path) throws IOException {
+		var dict = new Dictionary();
+		var function = InstrRewriter.createFunction(Optional.of("main"), Collections.emptyList(), script.body(), dict,
+				createGlobalEnv(System.out), Config.DEFAULT);
+		CodeFile.write(path, function, dict);
+	}
 
-		for( ;; ) {
-			Code code = (Code)function.lookup("__code__");
-			fun = stack[bpBuff + code.slotCount() + FUN_OFFSET];
-			bpBuff = stack[bpBuff + code.slotCount() + BP_OFFSET];
+	/**
+	 * Executes the code of a script written by {@link #compile(Script, Path)}.
+	 */
+	public static void interpret(Path path, PrintStream outStream, Config config) throws IOException {
+		JSObject globalEnv = createGlobalEnv(outStream);
+		var function = CodeFile.read(path, new Dictionary(), globalEnv, config);
+		function.invoke(UNDEFINED, new Object[0]);
+	}
 
-			if ( fun == 0 ) break;
-			var functionObject = (JSObject)decodeDictObject(fun, dict);
-			System.out.println( functionObject.getName());
+	private static final int STACK_TRACE_MAX_DEPTH = 32;
+
+	/**
+	 * Prints the name of the current function and of the calling functions,
+	 * only the {@code STACK_TRACE_MAX_DEPTH} first functions are printed.
+	 */
+	public static void printStackTrace(JSObject function, int bp, int[] stack, Dictionary dict) {
+		for (var depth = 0; ; depth++) {
+			if (depth < STACK_TRACE_MAX_DEPTH) {
+				System.err.println("  at " + function.getName());
+			}
+			var code = (Code) function.lookup("__code__");
+			var activation = bp + code.slotCount();
+			if (stack[activation + PC_OFFSET] == 0) {
+				// main function, no caller
+				if (depth >= STACK_TRACE_MAX_DEPTH) {
+					System.err.println("  ... " + (depth + 1 - STACK_TRACE_MAX_DEPTH) + " more");
+				}
+				return;
+			}
+			bp = stack[activation + BP_OFFSET];
+			function = dict.function(stack[activation + FUN_OFFSET]);
 		}
 	}
 }
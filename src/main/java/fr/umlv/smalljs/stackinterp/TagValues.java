@@ -1,23 +1,26 @@
 package fr.umlv.smalljs.stackinterp;
 
-import fr.umlv.smalljs.rt.JSObject;
-
 public interface TagValues {
 	// every values are stored as 32 bits integer, boolean, small ints, constant (dictionary object) and reference
 	// the suffix indicates the kind of value
-	//    1 -> small ints or boolean (TRUE/FALSE)
+	//    1 -> small ints (signed 31 bits) or boolean (TRUE/FALSE)
 	//   10 -> dictionary index
 	//   00 -> reference 
+	// integers that do not fit in 31 bits are boxed on the heap
 	
   static boolean isSmallInt(int value) {
     return (value & 0b1) == 0b1;
   }
 
+  static boolean fitsInSmallInt(int value) {
+    return (value << 1) >> 1 == value;
+  }
+
   static int encodeSmallInt(int value) {
     return value << 1 | 0b1;
   }
   static int decodeSmallInt(int value) {
-    return value >>> 1;
+    return value >> 1;
   }
 
   static int encodeDictObject(Object object, Dictionary dict) {
@@ -38,20 +41,26 @@ public interface TagValues {
     return value >>> 2;
   }
 
-  static Object decodeAnyValue(int tagValue, Dictionary dict, int[] heap) {
+  static Object decodeAnyValue(int tagValue, Dictionary dict, Heap heap) {
     if (TagValues.isSmallInt(tagValue)) {
       return TagValues.decodeSmallInt(tagValue);
     }
     if (TagValues.isReference(tagValue)) {
       var ref = TagValues.decodeReference(tagValue);
-      var clazz = (JSObject) decodeDictObject(heap[ref], dict);
-      return clazz.mirror(offset -> decodeAnyValue(heap[ref + OBJECT_HEADER_SIZE + (int)offset], dict, heap));
+      if (heap.isBoxedInt(ref)) {
+        return heap.boxedIntValue(ref);
+      }
+      if (heap.isString(ref)) {
+        return heap.stringValue(ref);
+      }
+      // the fields are decoded lazily
+      return heap.view(ref);
     }
     return TagValues.decodeDictObject(tagValue, dict);
   }
   static int encodeAnyValue(Object object, Dictionary dict) {
   	int smallInt;
-    if (object instanceof Integer && (smallInt = (Integer)object) >= 0) {
+    if (object instanceof Integer && fitsInSmallInt(smallInt = (Integer)object)) {
       return TagValues.encodeSmallInt(smallInt);
     }
     return TagValues.encodeDictObject(object, dict);
@@ -0,0 +1,614 @@
+package fr.umlv.smalljs.stackinterp;
+
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.ACTIVATION_SIZE;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.BP_OFFSET;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.FUNCALL_PREFIX;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.FUN_OFFSET;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.OPERATOR_FUNCALL_SIZE;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.PC_OFFSET;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.QUALIFIER_BASE_ARG_OFFSET;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.RECEIVER_BASE_ARG_OFFSET;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.addField;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.allocate;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.compare;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.encodeAnyValue;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.functionIndex;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.growStack;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.prepareOperatorCall;
+import static fr.umlv.smalljs.stackinterp.TagValues.FALSE;
+import static fr.umlv.smalljs.stackinterp.TagValues.TRUE;
+import static fr.umlv.smalljs.stackinterp.TagValues.decodeAnyValue;
+import static fr.umlv.smalljs.stackinterp.TagValues.decodeDictObject;
+import static fr.umlv.smalljs.stackinterp.TagValues.decodeReference;
+import static fr.umlv.smalljs.stackinterp.TagValues.decodeSmallInt;
+import static fr.umlv.smalljs.stackinterp.TagValues.encodeDictObject;
+import static fr.umlv.smalljs.stackinterp.TagValues.encodeReference;
+import static fr.umlv.smalljs.stackinterp.TagValues.encodeSmallInt;
+import static fr.umlv.smalljs.stackinterp.TagValues.fitsInSmallInt;
+import static fr.umlv.smalljs.stackinterp.TagValues.isReference;
+import static fr.umlv.smalljs.stackinterp.TagValues.isSmallInt;
+
+import java.util.Arrays;
+
+import fr.umlv.smalljs.rt.Failure;
+import fr.umlv.smalljs.rt.JSObject;
+import fr.umlv.smalljs.stackinterp.StackInterpreter.OperatorGuard;
+
+/**
+ * Execution engine of the stack interpreter that uses direct threading (see {@link Dispatch#THREADED}).
+ *
+ * The instructions of a function are decoded once, when the function is called for the first time,
+ * to an array of handlers indexed by pc, so there is no switch on the opcode,
+ * each kind of instruction is a different class that the JIT can profile and inline separately.
+ * The operands of an instruction are fields of its handler, so are the inline caches,
+ * a LOOKUP, a GET, a PUT and a FUNCALL record the last value they have seen instead of being quickened.
+ *
+ * The stack, the activation zones and the values are the same as the ones of the switch loop
+ * of the {@link StackInterpreter}, the instructions after an operator instruction
+ * (the FUNCALL and the JUMP_IF_FALSE of the slow path) have their own handlers.
+ */
+final class ThreadedInterpreter {
+	private ThreadedInterpreter() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Executes the instruction at {@code machine.pc} and updates the pc.
+	 */
+	@FunctionalInterface
+	private interface Handler {
+		void execute(Machine machine);
+	}
+
+	/**
+	 * State of the interpreter shared by all the handlers.
+	 */
+	private static final class Machine {
+		final Dictionary dict;
+		final JSObject globalEnv;
+		final Heap heap;
+		final int maxStackSize;
+		final int undefined;
+		final OperatorGuard operators;
+		final NativeFunction.Context nativeContext;
+
+		// handlers of the functions, indexed by function index, decoded lazily
+		Handler[][] handlerTable = new Handler[16][];
+
+		int[] stack;
+		int sp;
+		int bp;
+		int pc;
+		JSObject function;
+		int functionIndex;
+		Code code;
+		Handler[] handlers;
+
+		boolean running = true;
+		Object result;
+
+		Machine(Dictionary dict, JSObject globalEnv, Heap heap, int initialStackSize, int maxStackSize) {
+			this.dict = dict;
+			this.globalEnv = globalEnv;
+			this.heap = heap;
+			this.maxStackSize = maxStackSize;
+			this.undefined = encodeDictObject(UNDEFINED, dict);
+			this.operators = new OperatorGuard(globalEnv);
+			this.nativeContext = new NativeFunction.Context(heap, dict);
+			this.stack = new int[initialStackSize];
+		}
+
+		void enter(JSObject function, int functionIndex, Code code) {
+			this.function = function;
+			this.functionIndex = functionIndex;
+			this.code = code;
+			this.handlers = handlers(functionIndex, code);
+		}
+
+		private Handler[] handlers(int functionIndex, Code code) {
+			if (functionIndex >= handlerTable.length) {
+				handlerTable = Arrays.copyOf(handlerTable, Math.max(handlerTable.length << 1, functionIndex + 1));
+			}
+			var handlers = handlerTable[functionIndex];
+			if (handlers == null) {
+				handlers = decode(code, dict);
+				handlerTable[functionIndex] = handlers;
+			}
+			return handlers;
+		}
+
+		void push(int value) {
+			// the stack frame has been allocated with the max stack depth of the code
+			stack[sp++] = value;
+		}
+
+		int pop() {
+			return stack[--sp];
+		}
+
+		int encode(Object value) {
+			return encodeAnyValue(value, heap, stack, sp, bp, function, dict);
+		}
+
+		/**
+		 * Slow path of the operator instructions, the FUNCALL that follows the operator is executed.
+		 */
+		void callOperator(int opcode) {
+			prepareOperatorCall(opcode, stack, sp, heap, globalEnv, bp, function, dict);
+			sp += FUNCALL_PREFIX;
+			pc++;
+		}
+
+		/**
+		 * Fast path of the operator instructions, the result replaces the two operands
+		 * and the FUNCALL that follows the operator is skipped.
+		 */
+		void operatorResult(int result) {
+			stack[sp - 2] = result;
+			sp--;
+			pc += 1 + OPERATOR_FUNCALL_SIZE;
+		}
+	}
+
+	static Object execute(JSObject function, Dictionary dict, JSObject globalEnv, StackInterpreter.Config config, Heap heap) {
+		var machine = new Machine(dict, globalEnv, heap, config.initialStackSize(), config.maxStackSize());
+		var functionIndex = dict.functionIndex(function);
+		var code = dict.code(functionIndex);
+		machine.enter(function, functionIndex, code);
+
+		machine.sp = code.slotCount() + ACTIVATION_SIZE;
+		if (machine.sp + code.maxStackDepth() > machine.stack.length) {
+			machine.stack = growStack(machine.stack, machine.sp + code.maxStackDepth(), config.maxStackSize(), function, 0, dict);
+		}
+		// initialize all local variables
+		Arrays.fill(machine.stack, 0, code.slotCount(), machine.undefined);
+
+		while (machine.running) {
+			machine.handlers[machine.pc].execute(machine);
+		}
+		return machine.result;
+	}
+
+	private static boolean isOperator(int opcode) {
+		return opcode >= Instructions.ADD && opcode <= Instructions.JUMP_IF_NOT_GE;
+	}
+
+	private static Handler[] decode(Code code, Dictionary dict) {
+		var instrs = code.instrs();
+		var handlers = new Handler[instrs.length];
+		for (var pc = 0; pc < instrs.length; ) {
+			var opcode = instrs[pc];
+			handlers[pc] = decode(opcode, instrs, pc, dict);
+			// the FUNCALL and the JUMP_IF_FALSE that follow an operator are decoded separately
+			pc += isOperator(opcode) ? 1 : Instructions.size(opcode);
+		}
+		return handlers;
+	}
+
+	private static Handler decode(int opcode, int[] instrs, int pc, Dictionary dict) {
+		return switch (opcode) {
+			case Instructions.CONST -> {
+				var value = instrs[pc + 1];
+				yield m -> {
+					m.push(value);
+					m.pc += 2;
+				};
+			}
+			case Instructions.LOOKUP, Instructions.LOOKUP_CACHED -> new Lookup(decodeDictObject(instrs[pc + 1], dict).toString());
+			case Instructions.REGISTER -> {
+				var name = decodeDictObject(instrs[pc + 1], dict).toString();
+				yield m -> {
+					var value = decodeAnyValue(m.pop(), m.dict, m.heap);
+					m.globalEnv.register(name, value);
+					m.pc += 2;
+				};
+			}
+			case Instructions.LOAD -> {
+				var offset = instrs[pc + 1];
+				yield m -> {
+					m.push(m.stack[m.bp + offset]);
+					m.pc += 2;
+				};
+			}
+			case Instructions.STORE -> {
+				var offset = instrs[pc + 1];
+				yield m -> {
+					m.stack[m.bp + offset] = m.pop();
+					m.pc += 2;
+				};
+			}
+			case Instructions.DUP -> m -> {
+				m.push(m.stack[m.sp - 1]);
+				m.pc++;
+			};
+			case Instructions.POP -> m -> {
+				m.sp--;
+				m.pc++;
+			};
+			case Instructions.SWAP -> m -> {
+				var stack = m.stack;
+				var sp = m.sp;
+				var value = stack[sp - 1];
+				stack[sp - 1] = stack[sp - 2];
+				stack[sp - 2] = value;
+				m.pc++;
+			};
+			case Instructions.FUNCALL -> new Funcall(2, instrs[pc + 1], false);
+			case Instructions.TAILCALL -> new Funcall(2, instrs[pc + 1], true);
+			case Instructions.INVOKE_METHOD -> new InvokeMethod((String) decodeDictObject(instrs[pc + 1], dict), instrs[pc + 2]);
+			case Instructions.RET -> ThreadedInterpreter::ret;
+			case Instructions.GOTO -> {
+				var label = instrs[pc + 1];
+				yield m -> m.pc = label;
+			}
+			case Instructions.JUMP_IF_FALSE -> {
+				var label = instrs[pc + 1];
+				yield m -> m.pc = (m.pop() == FALSE) ? label : m.pc + 2;
+			}
+			case Instructions.NEW -> {
+				var clazz = (JSObject) decodeDictObject(instrs[pc + 1], dict);
+				var capacity = dict.capacity(instrs[pc + 1]);
+				yield m -> {
+					var ref = allocate(m.heap, clazz, capacity, m.stack, m.sp, m.bp, m.function, m.dict);
+					var baseArg = m.sp - clazz.length();
+					for (var i = 0; i < clazz.length(); i++) {
+						m.heap.putField(ref, i, m.stack[baseArg + i]);
+					}
+					m.sp = baseArg;
+					m.push(encodeReference(ref));
+					m.pc += 2;
+				};
+			}
+			case Instructions.GET, Instructions.GET_SLOT -> new Get((String) decodeDictObject(instrs[pc + 1], dict));
+			case Instructions.PUT, Instructions.PUT_SLOT -> new Put((String) decodeDictObject(instrs[pc + 1], dict));
+			case Instructions.PRINT -> m -> {
+				var value = decodeAnyValue(m.pop(), m.dict, m.heap);
+				var print = (JSObject) m.globalEnv.lookup("print");
+				m.push(encodeDictObject(print.invoke(UNDEFINED, new Object[] { value }), m.dict));
+				m.pc++;
+			};
+			case Instructions.ADD -> m -> {
+				var left = m.stack[m.sp - 2];
+				var right = m.stack[m.sp - 1];
+				// (2x + 1) + (2y + 1) - 1 == 2(x + y) + 1
+				var result = left + right - 1;
+				// no overflow if the result has the sign of one of the operands
+				if (isSmallInt(left & right) && ((left ^ result) & (right ^ result)) >= 0 && m.operators.isNative(Instructions.ADD)) {
+					m.operatorResult(result);
+				} else {
+					m.callOperator(Instructions.ADD);
+				}
+			};
+			case Instructions.SUB -> m -> {
+				var left = m.stack[m.sp - 2];
+				var right = m.stack[m.sp - 1];
+				// (2x + 1) - (2y + 1) + 1 == 2(x - y) + 1
+				var result = left - right + 1;
+				// no overflow if the operands have the same sign or the result has the sign of left
+				if (isSmallInt(left & right) && ((left ^ right) & (left ^ result)) >= 0 && m.operators.isNative(Instructions.SUB)) {
+					m.operatorResult(result);
+				} else {
+					m.callOperator(Instructions.SUB);
+				}
+			};
+			case Instructions.MUL -> m -> {
+				var left = m.stack[m.sp - 2];
+				var right = m.stack[m.sp - 1];
+				// (2x + 1 - 1) * y + 1 == 2xy + 1
+				var result = (long) (left - 1) * (right >> 1) + 1;
+				if (isSmallInt(left & right) && result == (int) result && m.operators.isNative(Instructions.MUL)) {
+					m.operatorResult((int) result);
+				} else {
+					m.callOperator(Instructions.MUL);
+				}
+			};
+			case Instructions.DIV, Instructions.REM -> m -> {
+				var left = m.stack[m.sp - 2];
+				var right = m.stack[m.sp - 1];
+				// a division by zero is reported by the operator function
+				if (isSmallInt(left & right) && right != encodeSmallInt(0) && m.operators.isNative(opcode)) {
+					var x = decodeSmallInt(left);
+					var y = decodeSmallInt(right);
+					var result = (opcode == Instructions.DIV) ? x / y : x % y;
+					if (fitsInSmallInt(result)) {
+						m.operatorResult(encodeSmallInt(result));
+						return;
+					}
+				}
+				m.callOperator(opcode);
+			};
+			case Instructions.EQ, Instructions.NE, Instructions.LT, Instructions.LE, Instructions.GT, Instructions.GE -> m -> {
+				var left = m.stack[m.sp - 2];
+				var right = m.stack[m.sp - 1];
+				if (isSmallInt(left & right) && m.operators.isNative(opcode)) {
+					m.operatorResult(compare(opcode, left, right) ? TRUE : FALSE);
+				} else {
+					m.callOperator(opcode);
+				}
+			};
+			case Instructions.JUMP_IF_NOT_EQ, Instructions.JUMP_IF_NOT_NE, Instructions.JUMP_IF_NOT_LT,
+					Instructions.JUMP_IF_NOT_LE, Instructions.JUMP_IF_NOT_GT, Instructions.JUMP_IF_NOT_GE -> {
+				var operator = opcode - Instructions.JUMP_IF_NOT_EQ + Instructions.EQ;
+				var label = instrs[pc + Instructions.labelOffset(opcode)];
+				yield m -> {
+					var left = m.stack[m.sp - 2];
+					var right = m.stack[m.sp - 1];
+					if (isSmallInt(left & right) && m.operators.isNative(operator)) {
+						m.sp -= 2;
+						// skip the FUNCALL and the JUMP_IF_FALSE or jump to the label
+						m.pc = compare(operator, left, right) ? m.pc + Instructions.size(opcode) : label;
+					} else {
+						m.callOperator(operator);
+					}
+				};
+			}
+			default -> throw new AssertionError("unknown instruction " + opcode);
+		};
+	}
+
+	private static final class Lookup implements Handler {
+		private final String name;
+		private int value;
+		private int epoch; // zero if nothing is cached
+
+		private Lookup(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void execute(Machine m) {
+			var epoch = m.dict.globalEpoch(m.globalEnv);
+			if (this.epoch == epoch) {
+				m.push(value);
+				m.pc += 2;
+				return;
+			}
+			var encodedValue = m.encode(m.globalEnv.lookup(name));
+			// a reference can not be cached because the GC may move the object
+			this.epoch = isReference(encodedValue) ? 0 : epoch;
+			this.value = encodedValue;
+			m.push(encodedValue);
+			m.pc += 2;
+		}
+	}
+
+	private static final class Get implements Handler {
+		private final String fieldName;
+		private int classWord; // a class word is never zero
+		private int slot;
+
+		private Get(String fieldName) {
+			this.fieldName = fieldName;
+		}
+
+		@Override
+		public void execute(Machine m) {
+			var ref = decodeReference(m.stack[m.sp - 1]);
+			var classWord = m.heap.classWord(ref);
+			if (classWord != this.classWord) {
+				// the object may have been relocated
+				ref = m.heap.resolve(ref);
+				classWord = m.heap.classWord(ref);
+				var clazz = (JSObject) decodeDictObject(classWord, m.dict);
+				var slot = clazz.lookup(fieldName);
+				if (slot == UNDEFINED) {
+					// no slot, replace the reference by undefined
+					m.stack[m.sp - 1] = m.undefined;
+					m.pc += 2;
+					return;
+				}
+				this.classWord = classWord;
+				this.slot = (int) slot;
+			}
+			m.stack[m.sp - 1] = m.heap.getField(ref, slot);
+			m.pc += 2;
+		}
+	}
+
+	private static final class Put implements Handler {
+		private final String fieldName;
+		private int classWord; // a class word is never zero
+		private int slot;
+
+		private Put(String fieldName) {
+			this.fieldName = fieldName;
+		}
+
+		@Override
+		public void execute(Machine m) {
+			var ref = decodeReference(m.stack[m.sp - 2]);
+			var classWord = m.heap.classWord(ref);
+			if (classWord != this.classWord) {
+				// the object may have been relocated
+				ref = m.heap.resolve(ref);
+				classWord = m.heap.classWord(ref);
+				var clazz = (JSObject) decodeDictObject(classWord, m.dict);
+				var slot = clazz.lookup(fieldName);
+				if (slot == UNDEFINED) {
+					// no slot, add the field, the object and the value stay on the stack if a GC occurs
+					addField(m.heap, fieldName, m.sp - 2, m.sp - 1, m.stack, m.sp, m.bp, m.function, m.dict);
+					m.sp -= 2;
+					m.pc += 2;
+					return;
+				}
+				this.classWord = classWord;
+				this.slot = (int) slot;
+			}
+			m.heap.putField(ref, slot, m.stack[m.sp - 1]);
+			m.sp -= 2;
+			m.pc += 2;
+		}
+	}
+
+	private static class Funcall implements Handler {
+		private final int size;
+		private final int argumentCount;
+		private final boolean tailCall;
+		private int qualifier;
+		private int functionIndex = -1; // -1 if nothing is cached
+
+		private Funcall(int size, int argumentCount, boolean tailCall) {
+			this.size = size;
+			this.argumentCount = argumentCount;
+			this.tailCall = tailCall;
+		}
+
+		/**
+		 * Returns the qualifier of the call, the value below the receiver.
+		 */
+		int qualifier(Machine m, int baseArg) {
+			return m.stack[baseArg + QUALIFIER_BASE_ARG_OFFSET];
+		}
+
+		@Override
+		public void execute(Machine m) {
+			var dict = m.dict;
+			var baseArg = m.sp - argumentCount;
+			var qualifier = qualifier(m, baseArg);
+			var stack = m.stack;
+
+			// find the function using the inline cache of the call site
+			if (functionIndex == -1 || this.qualifier != qualifier) {
+				if (isSmallInt(qualifier) || isReference(qualifier)) {
+					throw new Failure("can not call " + decodeAnyValue(qualifier, dict, m.heap));
+				}
+				functionIndex = functionIndex(qualifier, dict, m.heap);
+				this.qualifier = qualifier;
+			}
+			var newFunctionIndex = functionIndex;
+			var newFunction = dict.function(newFunctionIndex);
+			var newCode = dict.code(newFunctionIndex);
+			if (newCode == null) { // native call !
+				var nativeFunction = dict.nativeFunction(newFunctionIndex);
+				if (nativeFunction != null) {
+					// the native function reads the arguments on the stack
+					m.nativeContext.enter(stack, m.sp, m.bp, m.function);
+					m.stack[baseArg - FUNCALL_PREFIX] = nativeFunction.call(stack, baseArg, argumentCount, m.nativeContext);
+					m.sp = baseArg - FUNCALL_PREFIX + 1;
+					m.pc += size;
+					return;
+				}
+
+				var receiver = decodeAnyValue(stack[baseArg + RECEIVER_BASE_ARG_OFFSET], dict, m.heap);
+				var args = new Object[argumentCount];
+				for (var i = 0; i < argumentCount; i++) {
+					args[i] = decodeAnyValue(stack[baseArg + i], dict, m.heap);
+				}
+
+				System.err.println("call native " + newFunction.getName() + " with " + receiver + " " + Arrays.toString(args));
+
+				var result = m.encode(newFunction.invoke(receiver, args));
+				m.stack[baseArg - FUNCALL_PREFIX] = result;
+				m.sp = baseArg - FUNCALL_PREFIX + 1;
+				m.pc += size;
+				return;
+			}
+
+			// check number of arguments
+			if (newCode.parameterCount() != argumentCount + 1/* this */) {
+				throw new Failure("wrong number of arguments for " + newFunction.getName() + " expected "
+						+ (newCode.parameterCount() - 1) + " but was " + argumentCount);
+			}
+
+			// a tail call replaces the current frame if there is a caller to return to
+			var bp = m.bp;
+			var pc = m.pc + size;
+			var callerFunction = m.function;
+			var callerFunctionIndex = m.functionIndex;
+			var currentActivation = m.bp + m.code.slotCount();
+			if (tailCall && stack[currentActivation + PC_OFFSET] != 0) {
+				bp = stack[currentActivation + BP_OFFSET];
+				pc = stack[currentActivation + PC_OFFSET];
+				callerFunctionIndex = stack[currentActivation + FUN_OFFSET];
+				callerFunction = dict.function(callerFunctionIndex);
+				System.arraycopy(stack, baseArg + RECEIVER_BASE_ARG_OFFSET, stack, m.bp, argumentCount + 1);
+				baseArg = m.bp + 1;
+			}
+
+			// save bp/pc/function in activation zone
+			var activation = baseArg - 1 + newCode.slotCount();
+			var frameEnd = activation + ACTIVATION_SIZE + newCode.maxStackDepth();
+			if (frameEnd > stack.length) {
+				stack = growStack(stack, frameEnd, m.maxStackSize, callerFunction, bp, dict);
+				m.stack = stack;
+			}
+			stack[activation + BP_OFFSET] = bp;
+			stack[activation + PC_OFFSET] = pc;
+			stack[activation + FUN_OFFSET] = callerFunctionIndex;
+
+			// initialize pc, bp and sp
+			m.pc = 0;
+			m.bp = baseArg - 1;
+			m.sp = activation + ACTIVATION_SIZE;
+			// initialize all locals that are not parameters
+			Arrays.fill(stack, m.bp + newCode.parameterCount(), activation, m.undefined);
+
+			m.enter(newFunction, newFunctionIndex, newCode);
+		}
+	}
+
+	/**
+	 * A FUNCALL that first stores in the slot of the qualifier the method found in the class of the receiver,
+	 * the class word and the slot of the method are cached, the function is cached by the FUNCALL.
+	 */
+	private static final class InvokeMethod extends Funcall {
+		private final String name;
+		private int classWord; // a class word is never zero
+		private int slot;
+
+		private InvokeMethod(String name, int argumentCount) {
+			super(3, argumentCount, false);
+			this.name = name;
+		}
+
+		@Override
+		int qualifier(Machine m, int baseArg) {
+			var receiver = m.stack[baseArg + RECEIVER_BASE_ARG_OFFSET];
+			if (!isReference(receiver)) {
+				throw new Failure("can not call " + name + " on " + decodeAnyValue(receiver, m.dict, m.heap));
+			}
+			var ref = decodeReference(receiver);
+			var classWord = m.heap.classWord(ref);
+			if (classWord != this.classWord) {
+				// the object may have been relocated
+				ref = m.heap.resolve(ref);
+				classWord = m.heap.classWord(ref);
+				var slot = ((JSObject) decodeDictObject(classWord, m.dict)).lookup(name);
+				if (slot == UNDEFINED) {
+					throw new Failure("no method " + name + " on " + decodeAnyValue(receiver, m.dict, m.heap));
+				}
+				this.classWord = classWord;
+				this.slot = (int) slot;
+			}
+			var qualifier = m.heap.getField(ref, slot);
+			m.stack[baseArg + QUALIFIER_BASE_ARG_OFFSET] = qualifier;
+			return qualifier;
+		}
+	}
+
+	private static void ret(Machine m) {
+		var result = m.pop();
+
+		// find activation and restore pc
+		var stack = m.stack;
+		var activation = m.bp + m.code.slotCount();
+		var pc = stack[activation + PC_OFFSET];
+		if (pc == 0) {
+			// end of the interpreter
+			m.result = decodeAnyValue(result, m.dict, m.heap);
+			m.running = false;
+			return;
+		}
+
+		// restore sp, function, bp and pc
+		m.sp = m.bp - 1;
+		var functionIndex = stack[activation + FUN_OFFSET];
+		m.bp = stack[activation + BP_OFFSET];
+		m.pc = pc;
+		m.enter(m.dict.function(functionIndex), functionIndex, m.dict.code(functionIndex));
+
+		// push return value
+		stack[m.sp++] = result;
+	}
+}
@@ -0,0 +1,416 @@
+package fr.umlv.smalljs.stackinterp;
+
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+import static fr.umlv.smalljs.stackinterp.TagValues.decodeDictObject;
+import static fr.umlv.smalljs.stackinterp.TagValues.decodeSmallInt;
+import static fr.umlv.smalljs.stackinterp.TagValues.isSmallInt;
+import static java.lang.invoke.MethodType.genericMethodType;
+import static java.lang.invoke.MethodType.methodType;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.ASTORE;
+import static org.objectweb.asm.Opcodes.DUP;
+import static org.objectweb.asm.Opcodes.GOTO;
+import static org.objectweb.asm.Opcodes.H_INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.IF_ACMPNE;
+import static org.objectweb.asm.Opcodes.IFEQ;
+import static org.objectweb.asm.Opcodes.POP;
+import static org.objectweb.asm.Opcodes.SWAP;
+import static org.objectweb.asm.Opcodes.V11;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+import fr.umlv.smalljs.jvminterp.FunClassLoader;
+import fr.umlv.smalljs.jvminterp.RT;
+import fr.umlv.smalljs.rt.Failure;
+import fr.umlv.smalljs.rt.JSObject;
+
+/**
+ * Second tier of the stack interpreter (see {@link Dispatch#TIERED}).
+ *
+ * The invocations of the functions of the function table of the dictionary are counted,
+ * when a function is called {@code THRESHOLD} times, its instructions are translated to a static method
+ * of a new JVM class. Both instruction sets are stack based so the translation is one JVM instruction
+ * (or one invokedynamic) per instruction, the local variables of the function are the local variables of the method.
+ * The global variables are accessed with the bootstrap methods of {@link RT}, the operators, the function calls
+ * and the conversion to a boolean use the bootstrap methods of {@link TieredRT}.
+ *
+ * The compiled code manipulates boxed values (Integer, String and JSObject), the tagged values are decoded
+ * when the interpreter calls a compiled function and the result is encoded.
+ * The compiled code does not know the heap of the interpreter, so the functions that allocate or access objects
+ * (NEW, GET and PUT) are never compiled and a compiled function is only called by the interpreter
+ * if the receiver and the arguments are not objects, the integers boxed on the heap are converted.
+ *
+ * A compiled function calls the other functions with a JVM call, so a deep recursion would overflow
+ * the stack of the JVM while the interpreter only grows its own stack. At most {@code MAX_DEPTH} calls
+ * of compiled code are nested, past that depth the functions are interpreted.
+ */
+final class TieredCompiler {
+	/**
+	 * Number of calls after which a function is compiled, the default can be changed with the system property
+	 * {@code smalljs.tierUpThreshold}.
+	 */
+	static final int THRESHOLD = Integer.getInteger("smalljs.tierUpThreshold", 1_000);
+
+	/**
+	 * Maximum number of nested calls of compiled code, the default can be changed with the system property
+	 * {@code smalljs.tierMaxDepth}.
+	 */
+	static final int MAX_DEPTH = Integer.getInteger("smalljs.tierMaxDepth", 64);
+
+	private static final MethodHandle CAN_ENTER, ENTER, EXIT, INVOKE;
+	static {
+		var lookup = MethodHandles.lookup();
+		try {
+			CAN_ENTER = lookup.findVirtual(TieredCompiler.class, "canEnter", methodType(boolean.class));
+			ENTER = lookup.findVirtual(TieredCompiler.class, "enter", methodType(void.class));
+			EXIT = lookup.findVirtual(TieredCompiler.class, "exit", methodType(Object.class, Throwable.class, Object.class));
+			INVOKE = lookup.findVirtual(JSObject.class, "invoke", methodType(Object.class, Object.class, Object[].class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private final Dictionary dict;
+	private final JSObject globalEnv;
+	private final StackInterpreter.OperatorGuard operators;
+
+	// indexed by function index, a count equals to THRESHOLD means that the compilation has been tried
+	private int[] invocationCounts = new int[16];
+	// compiled code of type (Object this, Object... parameters)Object, null if the function can not be compiled
+	private MethodHandle[] targets = new MethodHandle[16];
+	// the same compiled code of type (Object[])Object, used by the interpreter
+	private MethodHandle[] spreaders = new MethodHandle[16];
+	// number of calls of compiled code currently executing
+	private int depth;
+
+	TieredCompiler(Dictionary dict, JSObject globalEnv) {
+		this.dict = dict;
+		this.globalEnv = globalEnv;
+		this.operators = new StackInterpreter.OperatorGuard(globalEnv);
+	}
+
+	Dictionary dictionary() {
+		return dict;
+	}
+
+	JSObject globalEnv() {
+		return globalEnv;
+	}
+
+	StackInterpreter.OperatorGuard operators() {
+		return operators;
+	}
+
+	/**
+	 * Counts an invocation of a function of the function table and compiles it if necessary.
+	 *
+	 * @return the compiled code of the function or null if the function is not (yet) compiled
+	 *         or if too many calls of compiled code are nested.
+	 */
+	MethodHandle profile(int functionIndex) {
+		if (functionIndex >= invocationCounts.length) {
+			var length = Math.max(invocationCounts.length * 2, functionIndex + 1);
+			invocationCounts = Arrays.copyOf(invocationCounts, length);
+			targets = Arrays.copyOf(targets, length);
+			spreaders = Arrays.copyOf(spreaders, length);
+		}
+		var count = invocationCounts[functionIndex];
+		if (count != THRESHOLD) {
+			invocationCounts[functionIndex] = ++count;
+			if (count != THRESHOLD) {
+				return null;
+			}
+			var target = compile(functionIndex);
+			if (target != null) {
+				targets[functionIndex] = target;
+				spreaders[functionIndex] = target.asSpreader(Object[].class, target.type().parameterCount());
+			}
+		}
+		return canEnter() ? targets[functionIndex] : null;
+	}
+
+	private boolean canEnter() {
+		return depth < MAX_DEPTH;
+	}
+
+	private void enter() {
+		depth++;
+	}
+
+	@SuppressWarnings("unused")  // used by a method handle
+	private Object exit(Throwable throwable, Object result) {
+		depth--;
+		return result;
+	}
+
+	/**
+	 * Returns a method handle that counts the nested calls of the compiled code,
+	 * the function is interpreted if too many calls are nested.
+	 */
+	private MethodHandle guard(JSObject function, MethodHandle compiled) {
+		var type = compiled.type();
+		var target = MethodHandles.tryFinally(MethodHandles.foldArguments(compiled, ENTER.bindTo(this)), EXIT.bindTo(this));
+		var interpreted = INVOKE.bindTo(function).asCollector(Object[].class, type.parameterCount() - 1).asType(type);
+		return MethodHandles.guardWithTest(CAN_ENTER.bindTo(this), target, interpreted);
+	}
+
+	/**
+	 * Calls the compiled code of a function, the function must have been compiled.
+	 */
+	Object invoke(int functionIndex, Object receiver, Object[] args) {
+		var array = new Object[args.length + 1];
+		array[0] = receiver;
+		System.arraycopy(args, 0, array, 1, args.length);
+		try {
+			return (Object) spreaders[functionIndex].invokeExact(array);
+		} catch (StackOverflowError e) {
+			throw new Failure("Stack overflow");
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new Failure(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Returns true if all the instructions can be translated.
+	 */
+	private static boolean isCompilable(int[] instrs) {
+		for (var pc = 0; pc < instrs.length; pc += Instructions.size(instrs[pc])) {
+			switch (instrs[pc]) {
+				case Instructions.NEW, Instructions.GET, Instructions.PUT, Instructions.GET_SLOT, Instructions.PUT_SLOT,
+						Instructions.INVOKE_METHOD -> {
+					return false;
+				}
+				default -> {
+					// ok
+				}
+			}
+		}
+		return true;
+	}
+
+	private MethodHandle compile(int functionIndex) {
+		var code = dict.code(functionIndex);
+		if (code == null || !isCompilable(code.instrs())) {
+			return null;
+		}
+		var function = dict.function(functionIndex);
+		var name = function.getName().substring("function ".length());
+		var methodType = genericMethodType(code.parameterCount());
+		var bytecode = generate(name, methodType.toMethodDescriptorString(), code, function);
+		var classLoader = new TieredClassLoader(this);
+		classLoader.createClass("tiered", bytecode);
+		Class<?> type;
+		try {
+			// initialize the class to verify the bytecode now
+			type = Class.forName("tiered", true, classLoader);
+		} catch (VerifyError e) {
+			// the stack of the instructions is not balanced, stay in the interpreter
+			return null;
+		} catch (ClassNotFoundException e) {
+			throw new AssertionError(e);
+		}
+		try {
+			return guard(function, MethodHandles.lookup().findStatic(type, name, methodType));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private byte[] generate(String name, String desc, Code code, JSObject function) {
+		var cv = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+		cv.visit(V11, ACC_PUBLIC | ACC_SUPER, "tiered", null, "java/lang/Object", null);
+		cv.visitSource("script", null);
+
+		var mv = cv.visitMethod(ACC_PUBLIC | ACC_STATIC, name, desc, null, null);
+		mv.visitCode();
+
+		// a tail call to the function itself jumps here
+		var start = new Label();
+		mv.visitLabel(start);
+
+		// initialize the local variables that are not parameters to undefined
+		for (var i = code.parameterCount(); i < code.slotCount(); i++) {
+			mv.visitLdcInsn(new ConstantDynamic("undefined", "Ljava/lang/Object;", BSM_UNDEFINED));
+			mv.visitVarInsn(ASTORE, i);
+		}
+
+		var instrs = code.instrs();
+		var labels = new Label[instrs.length];
+		for (var i = 0; i < labels.length; i++) {
+			labels[i] = new Label();
+		}
+		for (var pc = 0; pc < instrs.length; ) {
+			mv.visitLabel(labels[pc]);
+			if (instrs[pc] == Instructions.TAILCALL && instrs[pc + 1] + 1 == code.parameterCount()) {
+				pc = translateTailCall(mv, code, pc, function, start);
+				continue;
+			}
+			pc = translate(mv, instrs, pc, labels);
+		}
+
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		return cv.toByteArray();
+	}
+
+	/**
+	 * Translates a TAILCALL that may call the function itself.
+	 * The JVM has no tail call, so if the qualifier is the function, the receiver and the arguments
+	 * are stored in the parameters and the code jumps to the start of the method,
+	 * otherwise the TAILCALL is translated as a FUNCALL followed by the RET.
+	 *
+	 * @return the pc of the next instruction.
+	 */
+	private int translateTailCall(MethodVisitor mv, Code code, int pc, JSObject function, Label start) {
+		var parameterCount = code.parameterCount();
+		// the receiver and the arguments are stored in temporary local variables
+		var temp = code.slotCount();
+		for (var i = parameterCount; --i >= 0; ) {
+			mv.visitVarInsn(ASTORE, temp + i);
+		}
+		var other = new Label();
+		mv.visitInsn(DUP);
+		mv.visitLdcInsn(new ConstantDynamic("dict", "Ljava/lang/Object;", BSM_DICT, dict.index(function)));
+		mv.visitJumpInsn(IF_ACMPNE, other);
+		mv.visitInsn(POP);
+		for (var i = 0; i < parameterCount; i++) {
+			mv.visitVarInsn(ALOAD, temp + i);
+			mv.visitVarInsn(ASTORE, i);
+		}
+		mv.visitJumpInsn(GOTO, start);
+
+		mv.visitLabel(other);
+		for (var i = 0; i < parameterCount; i++) {
+			mv.visitVarInsn(ALOAD, temp + i);
+		}
+		var desc = genericMethodType(code.instrs()[pc + 1] + StackInterpreter.FUNCALL_PREFIX).toMethodDescriptorString();
+		mv.visitInvokeDynamicInsn("funcall", desc, BSM_FUNCALL);
+		return pc + Instructions.size(Instructions.TAILCALL);
+	}
+
+	/**
+	 * Translates the instruction at pc.
+	 *
+	 * @return the pc of the next instruction.
+	 */
+	private int translate(MethodVisitor mv, int[] instrs, int pc, Label[] labels) {
+		var opcode = instrs[pc];
+		switch (opcode) {
+			case Instructions.CONST -> {
+				var value = instrs[pc + 1];
+				if (isSmallInt(value)) {
+					mv.visitLdcInsn(new ConstantDynamic("const_int", "Ljava/lang/Object;", BSM_CONST, decodeSmallInt(value)));
+				} else {
+					var constant = decodeDictObject(value, dict);
+					if (constant instanceof String) {
+						mv.visitLdcInsn(constant);
+					} else if (constant == UNDEFINED) {
+						mv.visitLdcInsn(new ConstantDynamic("undefined", "Ljava/lang/Object;", BSM_UNDEFINED));
+					} else {
+						mv.visitLdcInsn(new ConstantDynamic("dict", "Ljava/lang/Object;", BSM_DICT, value >>> 2));
+					}
+				}
+			}
+			case Instructions.LOOKUP, Instructions.LOOKUP_CACHED -> {
+				var name = (String) decodeDictObject(instrs[pc + 1], dict);
+				mv.visitInvokeDynamicInsn("lookup", "()Ljava/lang/Object;", BSM_LOOKUP, name);
+			}
+			case Instructions.REGISTER -> {
+				var name = (String) decodeDictObject(instrs[pc + 1], dict);
+				mv.visitInvokeDynamicInsn("register", "(Ljava/lang/Object;)V", BSM_REGISTER, name);
+			}
+			case Instructions.LOAD -> mv.visitVarInsn(ALOAD, instrs[pc + 1]);
+			case Instructions.STORE -> mv.visitVarInsn(ASTORE, instrs[pc + 1]);
+			case Instructions.DUP -> mv.visitInsn(DUP);
+			case Instructions.POP -> mv.visitInsn(POP);
+			case Instructions.SWAP -> mv.visitInsn(SWAP);
+			case Instructions.FUNCALL, Instructions.TAILCALL -> {
+				// the JVM has no tail call, a TAILCALL is a FUNCALL followed by the RET
+				var desc = genericMethodType(instrs[pc + 1] + StackInterpreter.FUNCALL_PREFIX).toMethodDescriptorString();
+				mv.visitInvokeDynamicInsn("funcall", desc, BSM_FUNCALL);
+			}
+			case Instructions.RET -> mv.visitInsn(ARETURN);
+			case Instructions.GOTO -> mv.visitJumpInsn(GOTO, labels[instrs[pc + 1]]);
+			case Instructions.JUMP_IF_FALSE -> {
+				mv.visitInvokeDynamicInsn("truth", "(Ljava/lang/Object;)Z", BSM_TRUTH);
+				mv.visitJumpInsn(IFEQ, labels[instrs[pc + 1]]);
+			}
+			case Instructions.PRINT -> mv.visitInvokeDynamicInsn("print", "(Ljava/lang/Object;)Ljava/lang/Object;", BSM_PRINT);
+			case Instructions.ADD, Instructions.SUB, Instructions.MUL, Instructions.DIV, Instructions.REM,
+					Instructions.EQ, Instructions.NE, Instructions.LT, Instructions.LE, Instructions.GT, Instructions.GE -> {
+				// the FUNCALL 2 that follows is the slow path of the operator
+				mv.visitInvokeDynamicInsn("operator", OPERATOR_DESC, BSM_OPERATOR, opcode);
+				return pc + 1 + StackInterpreter.OPERATOR_FUNCALL_SIZE;
+			}
+			case Instructions.JUMP_IF_NOT_EQ, Instructions.JUMP_IF_NOT_NE, Instructions.JUMP_IF_NOT_LT,
+					Instructions.JUMP_IF_NOT_LE, Instructions.JUMP_IF_NOT_GT, Instructions.JUMP_IF_NOT_GE -> {
+				// the FUNCALL 2 and the JUMP_IF_FALSE that follow are the slow path of the comparison
+				var comparison = opcode - Instructions.JUMP_IF_NOT_EQ + Instructions.EQ;
+				mv.visitInvokeDynamicInsn("operator", OPERATOR_DESC, BSM_OPERATOR, comparison);
+				mv.visitInvokeDynamicInsn("truth", "(Ljava/lang/Object;)Z", BSM_TRUTH);
+				var jumpIfFalse = pc + 1 + StackInterpreter.OPERATOR_FUNCALL_SIZE;
+				mv.visitJumpInsn(IFEQ, labels[instrs[jumpIfFalse + 1]]);
+				return jumpIfFalse + 2;
+			}
+			default -> throw new AssertionError("unknown instruction " + opcode);
+		}
+		return pc + Instructions.size(opcode);
+	}
+
+	/**
+	 * Class loader of a compiled function, the bootstrap methods find the compiler
+	 * (and the global environment) through it.
+	 */
+	static final class TieredClassLoader extends FunClassLoader {
+		private final TieredCompiler compiler;
+
+		private TieredClassLoader(TieredCompiler compiler) {
+			super(compiler.globalEnv);
+			this.compiler = compiler;
+		}
+
+		TieredCompiler compiler() {
+			return compiler;
+		}
+
+		@Override
+		protected Class<?> createClass(String name, byte[] instrs) {
+			return super.createClass(name, instrs);
+		}
+	}
+
+	private static Handle bsm(Class<?> owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+		return new Handle(H_INVOKESTATIC,
+				owner.getName().replace('.', '/'), name,
+				methodType(returnType, parameterTypes).toMethodDescriptorString(), false);
+	}
+
+	private static final String OPERATOR_DESC = "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;";
+
+	private static final Handle BSM_UNDEFINED = bsm(RT.class, "bsm_undefined", Object.class, Lookup.class, String.class, Class.class);
+	private static final Handle BSM_CONST = bsm(RT.class, "bsm_const", Object.class, Lookup.class, String.class, Class.class, int.class);
+	private static final Handle BSM_LOOKUP = bsm(RT.class, "bsm_lookup", CallSite.class, Lookup.class, String.class, MethodType.class, String.class);
+	private static final Handle BSM_REGISTER = bsm(RT.class, "bsm_register", CallSite.class, Lookup.class, String.class, MethodType.class, String.class);
+	private static final Handle BSM_DICT = bsm(TieredRT.class, "bsm_dict", Object.class, Lookup.class, String.class, Class.class, int.class);
+	private static final Handle BSM_FUNCALL = bsm(TieredRT.class, "bsm_funcall", CallSite.class, Lookup.class, String.class, MethodType.class);
+	private static final Handle BSM_TRUTH = bsm(TieredRT.class, "bsm_truth", CallSite.class, Lookup.class, String.class, MethodType.class);
+	private static final Handle BSM_PRINT = bsm(TieredRT.class, "bsm_print", CallSite.class, Lookup.class, String.class, MethodType.class);
+	private static final Handle BSM_OPERATOR = bsm(TieredRT.class, "bsm_operator", CallSite.class, Lookup.class, String.class, MethodType.class, int.class);
+}
@@ -0,0 +1,152 @@
+package fr.umlv.smalljs.stackinterp;
+
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+import static java.lang.invoke.MethodHandles.dropArguments;
+import static java.lang.invoke.MethodHandles.guardWithTest;
+import static java.lang.invoke.MethodHandles.insertArguments;
+import static java.lang.invoke.MethodType.methodType;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+import fr.umlv.smalljs.rt.Failure;
+import fr.umlv.smalljs.rt.JSObject;
+
+/**
+ * Bootstrap methods of the code compiled by the {@link TieredCompiler}
+ * that follow the semantics of the stack interpreter.
+ */
+public class TieredRT {
+	private static final MethodHandle TRUTH, PRINT, OPERATOR;
+	static {
+		var lookup = MethodHandles.lookup();
+		try {
+			TRUTH = lookup.findStatic(TieredRT.class, "truth", methodType(boolean.class, Object.class));
+			PRINT = lookup.findStatic(TieredRT.class, "print", methodType(Object.class, JSObject.class, Object.class));
+			OPERATOR = lookup.findStatic(TieredRT.class, "operator",
+					methodType(Object.class, StackInterpreter.OperatorGuard.class, JSObject.class, int.class, Object.class, Object.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static TieredCompiler compiler(Lookup lookup) {
+		return ((TieredCompiler.TieredClassLoader) lookup.lookupClass().getClassLoader()).compiler();
+	}
+
+	public static Object bsm_dict(Lookup lookup, String name, Class<?> type, int index) {
+		return compiler(lookup).dictionary().getConst(index);
+	}
+
+	@SuppressWarnings("unused")  // used by a method handle
+	private static boolean truth(Object o) {
+		// like JUMP_IF_FALSE, only the small int 0 is false
+		return !(o instanceof Integer value && value == 0);
+	}
+
+	public static CallSite bsm_truth(Lookup lookup, String name, MethodType type) {
+		return new ConstantCallSite(TRUTH);
+	}
+
+	@SuppressWarnings("unused")  // used by a method handle
+	private static Object print(JSObject globalEnv, Object value) {
+		var print = (JSObject) globalEnv.lookup("print");
+		return print.invoke(UNDEFINED, new Object[] { value });
+	}
+
+	public static CallSite bsm_print(Lookup lookup, String name, MethodType type) {
+		return new ConstantCallSite(PRINT.bindTo(compiler(lookup).globalEnv()));
+	}
+
+	@SuppressWarnings("unused")  // used by a method handle
+	private static Object operator(StackInterpreter.OperatorGuard operators, JSObject globalEnv, int opcode, Object left, Object right) {
+		if (left instanceof Integer l && right instanceof Integer r && operators.isNative(opcode)) {
+			// same semantics as the native functions of the operators
+			switch (opcode) {
+				case Instructions.ADD -> { return l + r; }
+				case Instructions.SUB -> { return l - r; }
+				case Instructions.MUL -> { return l * r; }
+				case Instructions.DIV, Instructions.REM -> {
+					// a division by zero is reported by the operator function
+					if (r != 0) {
+						return (opcode == Instructions.DIV) ? l / r : l % r;
+					}
+				}
+				default -> {
+					return StackInterpreter.compare(opcode, l, r) ? 1 : 0;
+				}
+			}
+		}
+		var function = (JSObject) globalEnv.lookup(StackInterpreter.operatorName(opcode));
+		return function.invoke(UNDEFINED, new Object[] { left, right });
+	}
+
+	public static CallSite bsm_operator(Lookup lookup, String name, MethodType type, int opcode) {
+		var compiler = compiler(lookup);
+		return new ConstantCallSite(insertArguments(OPERATOR, 0, compiler.operators(), compiler.globalEnv(), opcode));
+	}
+
+	public static CallSite bsm_funcall(Lookup lookup, String name, MethodType type) {
+		return new InliningCache(compiler(lookup), type);
+	}
+
+	/**
+	 * Call site of a FUNCALL, a call to a compiled function is inlined (with a guard on the qualifier),
+	 * an interpreted function is called through its invoker, so it is called by the compiled version
+	 * once it has been compiled.
+	 */
+	private static final class InliningCache extends MutableCallSite {
+		private static final MethodHandle SLOW_PATH, CHECK;
+		static {
+			var lookup = MethodHandles.lookup();
+			try {
+				SLOW_PATH = lookup.findVirtual(InliningCache.class, "slowPath", methodType(Object.class, Object.class, Object.class, Object[].class));
+				CHECK = lookup.findStatic(InliningCache.class, "check", methodType(boolean.class, Object.class, Object.class));
+			} catch (NoSuchMethodException | IllegalAccessException e) {
+				throw new AssertionError(e);
+			}
+		}
+
+		private final TieredCompiler compiler;
+
+		private InliningCache(TieredCompiler compiler, MethodType type) {
+			super(type);
+			this.compiler = compiler;
+			setTarget(SLOW_PATH.bindTo(this).asCollector(Object[].class, type.parameterCount() - 2));
+		}
+
+		@SuppressWarnings("unused")  // used by a method handle
+		private static boolean check(Object expected, Object qualifier) {
+			return expected == qualifier;
+		}
+
+		@SuppressWarnings("unused")  // used by a method handle
+		private Object slowPath(Object qualifier, Object receiver, Object[] args) throws Throwable {
+			var function = (JSObject) qualifier;
+			var target = compiler.profile(compiler.dictionary().functionIndex(function));
+			if (target == null) {
+				// native or interpreted function
+				return function.invoke(receiver, args);
+			}
+			if (target.type().parameterCount() != args.length + 1 /* this */) {
+				throw new Failure("wrong number of arguments for " + function.getName() + " expected "
+						+ (target.type().parameterCount() - 1) + " but was " + args.length);
+			}
+
+			var guard = guardWithTest(CHECK.bindTo(function),
+					dropArguments(target, 0, Object.class),
+					new InliningCache(compiler, type()).dynamicInvoker());
+			setTarget(guard);
+
+			var array = new Object[args.length + 1];
+			array[0] = receiver;
+			System.arraycopy(args, 0, array, 1, args.length);
+			return target.invokeWithArguments(array);
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package fr.umlv.smalljs.stackinterp;
+
+import static fr.umlv.smalljs.stackinterp.TagValues.OBJECT_HEADER_SIZE;
+import static fr.umlv.smalljs.stackinterp.TagValues.decodeDictObject;
+import static fr.umlv.smalljs.stackinterp.WideValues.decodeReference;
+import static fr.umlv.smalljs.stackinterp.WideValues.encodeReference;
+import static fr.umlv.smalljs.stackinterp.WideValues.isReference;
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.LongUnaryOperator;
+
+import fr.umlv.smalljs.rt.JSObject;
+
+/**
+ * The heap of the {@link WideInterpreter}, a heap of 64 bits words with a bump pointer allocation
+ * and a mark and compact GC (the same algorithm as {@link MarkCompactHeap}).
+ *
+ * An object is a header (the class encoded as a 32 bits dictionary value, see {@link TagValues},
+ * and a word used by the GC) followed by the fields, the fields are NaN-boxed values (see {@link WideValues}).
+ * There is no boxed integer and no string object, an integer always fits in a value
+ * and the strings created at runtime are stored in the dictionary.
+ */
+final class WideHeap {
+	private static final int GC_OFFSET = 1;
+	private static final long GC_MARK = -1;
+	private static final long GC_EMPTY = -2;
+
+	/**
+	 * The roots of the GC, i.e. all the references stored on the stack.
+	 */
+	@FunctionalInterface
+	interface Roots {
+		/**
+		 * Visits all the references, each reference is replaced by the value returned by the operator.
+		 */
+		void visit(LongUnaryOperator operator);
+	}
+
+	private final Dictionary dict;
+	private final int maxSize;
+	private long[] words;
+	private int hp; // heap pointer
+	private int collections;
+
+	WideHeap(Dictionary dict, int initialSize, int maxSize) {
+		this.dict = requireNonNull(dict);
+		if (initialSize < OBJECT_HEADER_SIZE || maxSize < initialSize) {
+			throw new IllegalArgumentException("invalid heap size " + initialSize + " " + maxSize);
+		}
+		this.maxSize = maxSize;
+		this.words = new long[initialSize];
+	}
+
+	/**
+	 * Returns the current size of the heap in words.
+	 */
+	int size() {
+		return words.length;
+	}
+
+	/**
+	 * Returns the number of collections since the creation of the heap.
+	 */
+	int collections() {
+		return collections;
+	}
+
+	/**
+	 * Allocates an object with its header initialized.
+	 *
+	 * @return the address of the object or -1 if the GC needs to be run.
+	 */
+	int allocate(int classWord, int fieldCount) {
+		var size = OBJECT_HEADER_SIZE + fieldCount;
+		if (hp + size > words.length) {
+			return -1;
+		}
+		var ref = hp;
+		hp += size;
+		words[ref] = classWord;
+		words[ref + GC_OFFSET] = GC_EMPTY;
+		return ref;
+	}
+
+	/**
+	 * Reclaims the memory so an object of {@code size} words can be allocated,
+	 * the heap grows if less than a quarter of the heap is free.
+	 */
+	void collect(Roots roots, int size) {
+		hp = markAndCompact(roots);
+		collections++;
+		if (words.length - hp < Math.max(size, words.length / 4)) {
+			var length = words.length;
+			var newLength = (int) Math.min(maxSize, Math.max(2L * length, (long) length + size));
+			if (newLength > length) {
+				words = Arrays.copyOf(words, newLength);
+			}
+		}
+	}
+
+	int classWord(int ref) {
+		return (int) words[ref];
+	}
+
+	long getField(int ref, int slot) {
+		return words[ref + OBJECT_HEADER_SIZE + slot];
+	}
+
+	void putField(int ref, int slot, long value) {
+		words[ref + OBJECT_HEADER_SIZE + slot] = value;
+	}
+
+	private int objectSize(int ref) {
+		var clazz = (JSObject) decodeDictObject(classWord(ref), dict);
+		return OBJECT_HEADER_SIZE + clazz.length();
+	}
+
+	private void mark(int ref, ArrayDeque<Integer> pending) {
+		if (words[ref + GC_OFFSET] == GC_MARK) {
+			return;
+		}
+		words[ref + GC_OFFSET] = GC_MARK;
+		pending.push(ref);
+	}
+
+	private void markFields(int ref, ArrayDeque<Integer> pending) {
+		var end = ref + objectSize(ref);
+		for (var i = ref + OBJECT_HEADER_SIZE; i < end; i++) {
+			var value = words[i];
+			if (isReference(value)) {
+				mark((int) decodeReference(value), pending);
+			}
+		}
+	}
+
+	private long forward(long value) {
+		return encodeReference(words[(int) decodeReference(value) + GC_OFFSET]);
+	}
+
+	private int markAndCompact(Roots roots) {
+		// 1. scan the stack and mark all reachable objects in the heap
+		var pending = new ArrayDeque<Integer>();
+		roots.visit(value -> {
+			mark((int) decodeReference(value), pending);
+			return value;
+		});
+		while (!pending.isEmpty()) {
+			markFields(pending.pop(), pending);
+		}
+
+		// 2. scan the heap to find the new addresses of all live objects
+		var newTop = 0;
+		for (var ref = 0; ref < hp; ref += objectSize(ref)) {
+			if (words[ref + GC_OFFSET] == GC_MARK) {
+				words[ref + GC_OFFSET] = newTop;
+				newTop += objectSize(ref);
+			} else {
+				words[ref + GC_OFFSET] = GC_EMPTY;
+			}
+		}
+
+		// 3. scan the heap to rewrite all field references
+		for (var ref = 0; ref < hp; ref += objectSize(ref)) {
+			if (words[ref + GC_OFFSET] != GC_EMPTY) {
+				var end = ref + objectSize(ref);
+				for (var i = ref + OBJECT_HEADER_SIZE; i < end; i++) {
+					var value = words[i];
+					if (isReference(value)) {
+						words[i] = forward(value);
+					}
+				}
+			}
+		}
+
+		// 4. scan the stack to rewrite the references
+		roots.visit(this::forward);
+
+		// 5. scan the heap and move the objects to their new addresses
+		for (var ref = 0; ref < hp; ) {
+			var size = objectSize(ref);
+			var newRef = words[ref + GC_OFFSET];
+			if (newRef != GC_EMPTY) {
+				System.arraycopy(words, ref, words, (int) newRef, size);
+				words[(int) newRef + GC_OFFSET] = GC_EMPTY;
+			}
+			ref += size;
+		}
+		return newTop;
+	}
+}
@@ -0,0 +1,595 @@
+package fr.umlv.smalljs.stackinterp;
+
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.ACTIVATION_SIZE;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.BP_OFFSET;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.FUNCALL_PREFIX;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.FUN_OFFSET;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.OPERATOR_FUNCALL_SIZE;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.PC_OFFSET;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.QUALIFIER_BASE_ARG_OFFSET;
+import static fr.umlv.smalljs.stackinterp.StackInterpreter.RECEIVER_BASE_ARG_OFFSET;
+import static fr.umlv.smalljs.stackinterp.TagValues.OBJECT_HEADER_SIZE;
+import static fr.umlv.smalljs.stackinterp.WideValues.*;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Optional;
+
+import fr.umlv.smalljs.ast.Script;
+import fr.umlv.smalljs.rt.Failure;
+import fr.umlv.smalljs.rt.JSObject;
+import fr.umlv.smalljs.stackinterp.StackInterpreter.Config;
+import fr.umlv.smalljs.stackinterp.StackInterpreter.OperatorGuard;
+
+/**
+ * A stack interpreter that executes the same instructions as the {@link StackInterpreter}
+ * on a stack and a heap of 64 bits words, the values are NaN-boxed (see {@link WideValues}).
+ *
+ * The integers are never boxed, the doubles returned by the native functions are not boxed
+ * and the arithmetic operators also work on doubles.
+ * The activation zones contain small positive raw values that are decoded as doubles,
+ * so the GC scans the whole stack without walking the stack frames.
+ *
+ * The sizes of the {@link Config} are in number of 64 bits words, the dispatch of the config is ignored.
+ * An object of the heap passed to a native function is copied, the native function sees a snapshot of its fields.
+ */
+public class WideInterpreter {
+	// not a value, returned by the fast paths of the operators when the operator function has to be called
+	private static final long SLOW_PATH = 0xFFFF_0000_0000_0000L;
+
+	public static Object execute(JSObject function, Dictionary dict, JSObject globalEnv) {
+		return execute(function, dict, globalEnv, Config.DEFAULT);
+	}
+
+	public static Object execute(JSObject function, Dictionary dict, JSObject globalEnv, Config config) {
+		var heap = new WideHeap(dict, config.initialHeapSize(), config.maxHeapSize());
+		return execute(function, dict, globalEnv, config, heap);
+	}
+
+	static Object execute(JSObject function, Dictionary dict, JSObject globalEnv, Config config, WideHeap heap) {
+		var maxStackSize = config.maxStackSize();
+		var stack = new long[config.initialStackSize()];
+		var functionIndex = dict.functionIndex(function);
+		var code = dict.code(functionIndex);
+		var instrs = code.instrs();
+		if (code.parameterCount() != 1 /* this */) {
+			throw new Failure("wrong number of arguments for " + function.getName() + " expected "
+					+ (code.parameterCount() - 1) + " but was 0");
+		}
+
+		var undefined = encodeDictObject(UNDEFINED, dict);
+		var operators = new OperatorGuard(globalEnv);
+
+		var pc = 0; // instruction pointer
+		var bp = 0; // base pointer
+		var sp = bp + code.slotCount() + ACTIVATION_SIZE; // stack pointer
+		// the stack frame is allocated once, so the instructions do not check the stack pointer
+		if (sp + code.maxStackDepth() > stack.length) {
+			stack = growStack(stack, sp + code.maxStackDepth(), maxStackSize, function, bp, dict);
+		}
+
+		// initialize all local variables, the receiver is undefined
+		for (var i = 0; i < code.slotCount(); i++) {
+			stack[i] = undefined;
+		}
+
+		for (; ; ) {
+			switch (instrs[pc++]) {
+				case Instructions.CONST -> {
+					// the constants of the instructions are 32 bits values
+					stack[sp++] = fromTagValue(instrs[pc++]);
+				}
+				case Instructions.LOOKUP -> {
+					var name = (String) TagValues.decodeDictObject(instrs[pc++], dict);
+					var value = encodeAnyValue(globalEnv.lookup(name), dict);
+					if (fitsInTagValue(value)) {
+						// quicken, the cached value is stored as a 32 bits value
+						var instr = pc - 2;
+						var inlineCaches = code.inlineCaches();
+						inlineCaches[instr] = toTagValue(value);
+						inlineCaches[instr + 1] = dict.globalEpoch(globalEnv);
+						instrs[instr] = Instructions.LOOKUP_CACHED;
+					}
+					stack[sp++] = value;
+				}
+				case Instructions.LOOKUP_CACHED -> {
+					var inlineCaches = code.inlineCaches();
+					if (inlineCaches[pc] != dict.globalEpoch(globalEnv)) {
+						// the global environment has changed, de-quicken and execute the LOOKUP
+						instrs[--pc] = Instructions.LOOKUP;
+						continue;
+					}
+					stack[sp++] = fromTagValue(inlineCaches[pc - 1]);
+					pc++;
+				}
+				case Instructions.REGISTER -> {
+					var name = (String) TagValues.decodeDictObject(instrs[pc++], dict);
+					globalEnv.register(name, decodeAnyValue(stack[--sp], dict, heap));
+				}
+				case Instructions.LOAD -> {
+					var offset = instrs[pc++];
+					stack[sp++] = stack[bp + offset];
+				}
+				case Instructions.STORE -> {
+					var offset = instrs[pc++];
+					stack[bp + offset] = stack[--sp];
+				}
+				case Instructions.DUP -> {
+					stack[sp] = stack[sp - 1];
+					sp++;
+				}
+				case Instructions.POP -> {
+					--sp;
+				}
+				case Instructions.SWAP -> {
+					var value = stack[sp - 1];
+					stack[sp - 1] = stack[sp - 2];
+					stack[sp - 2] = value;
+				}
+				case Instructions.FUNCALL, Instructions.TAILCALL, Instructions.INVOKE_METHOD -> {
+					var callSite = pc - 1;
+					var inlineCaches = code.inlineCaches();
+					int argumentCount;
+					int newFunctionIndex;
+					if (instrs[callSite] == Instructions.INVOKE_METHOD) {
+						argumentCount = instrs[pc + 1];
+						pc += 2;
+						newFunctionIndex = findMethod(stack, sp - argumentCount, instrs, callSite, inlineCaches, heap, dict);
+					} else {
+						argumentCount = instrs[pc++];
+						var qualifier = stack[sp - argumentCount + QUALIFIER_BASE_ARG_OFFSET];
+						if (!isDictObject(qualifier)) {
+							throw new Failure("can not call " + decodeAnyValue(qualifier, dict, heap));
+						}
+
+						// find the function using the inline cache of the call site,
+						// the qualifier is stored as a 32 bits value
+						var tagQualifier = toTagValue(qualifier);
+						if (inlineCaches[callSite] == tagQualifier) {
+							newFunctionIndex = inlineCaches[callSite + 1];
+						} else {
+							newFunctionIndex = dict.functionIndex((JSObject) decodeDictObject(qualifier, dict));
+							inlineCaches[callSite] = tagQualifier;
+							inlineCaches[callSite + 1] = newFunctionIndex;
+						}
+					}
+					var baseArg = sp - argumentCount;
+					var newFunction = dict.function(newFunctionIndex);
+
+					var newCode = dict.code(newFunctionIndex);
+					if (newCode == null) {
+						// native call, the native versions work on 32 bits values so the invoker is called
+						var mirrors = new HashMap<Integer, JSObject>();
+						var receiver = decodeAnyValue(stack[baseArg + RECEIVER_BASE_ARG_OFFSET], dict, heap, mirrors);
+						var args = new Object[argumentCount];
+						for (var i = 0; i < argumentCount; i++) {
+							args[i] = decodeAnyValue(stack[baseArg + i], dict, heap, mirrors);
+						}
+						var result = encodeAnyValue(newFunction.invoke(receiver, args), dict);
+						sp = baseArg - FUNCALL_PREFIX;
+						stack[sp++] = result;
+						continue;
+					}
+
+					if (newCode.parameterCount() != argumentCount + 1/* this */) {
+						throw new Failure("wrong number of arguments for " + newFunction.getName() + " expected "
+								+ (newCode.parameterCount() - 1) + " but was " + argumentCount);
+					}
+
+					// a tail call replaces the current frame if there is a caller to return to
+					var currentActivation = bp + code.slotCount();
+					if (instrs[callSite] == Instructions.TAILCALL && stack[currentActivation + PC_OFFSET] != 0) {
+						pc = (int) stack[currentActivation + PC_OFFSET];
+						functionIndex = (int) stack[currentActivation + FUN_OFFSET];
+						function = dict.function(functionIndex);
+						var callerBp = (int) stack[currentActivation + BP_OFFSET];
+						System.arraycopy(stack, baseArg + RECEIVER_BASE_ARG_OFFSET, stack, bp, argumentCount + 1);
+						baseArg = bp + 1;
+						bp = callerBp;
+					}
+
+					code = newCode;
+					var activation = baseArg - 1 + code.slotCount();
+					var frameEnd = activation + ACTIVATION_SIZE + code.maxStackDepth();
+					if (frameEnd > stack.length) {
+						stack = growStack(stack, frameEnd, maxStackSize, function, bp, dict);
+					}
+					stack[activation + BP_OFFSET] = bp;
+					stack[activation + PC_OFFSET] = pc;
+					stack[activation + FUN_OFFSET] = functionIndex;
+
+					pc = 0;
+					bp = baseArg - 1;
+					sp = activation + ACTIVATION_SIZE;
+					for (var i = bp + code.parameterCount(); i < bp + code.slotCount(); i++) {
+						stack[i] = undefined;
+					}
+
+					function = newFunction;
+					functionIndex = newFunctionIndex;
+					instrs = code.instrs();
+				}
+				case Instructions.RET -> {
+					var result = stack[--sp];
+					var activation = bp + code.slotCount();
+					pc = (int) stack[activation + PC_OFFSET];
+					if (pc == 0) {
+						// end of the interpreter
+						return decodeAnyValue(result, dict, heap);
+					}
+
+					sp = bp - 1;
+					functionIndex = (int) stack[activation + FUN_OFFSET];
+					function = dict.function(functionIndex);
+					bp = (int) stack[activation + BP_OFFSET];
+					code = dict.code(functionIndex);
+					instrs = code.instrs();
+
+					stack[sp++] = result;
+				}
+				case Instructions.GOTO -> {
+					pc = instrs[pc];
+				}
+				case Instructions.JUMP_IF_FALSE -> {
+					var label = instrs[pc++];
+					if (stack[--sp] == FALSE) {
+						pc = label;
+					}
+				}
+				case Instructions.NEW -> {
+					var classWord = instrs[pc++];
+					var clazz = (JSObject) TagValues.decodeDictObject(classWord, dict);
+					var fieldCount = clazz.length();
+					var ref = allocate(heap, classWord, fieldCount, stack, sp, function, bp, dict);
+					var baseArg = sp - fieldCount;
+					for (var i = 0; i < fieldCount; i++) {
+						heap.putField(ref, i, stack[baseArg + i]);
+					}
+					sp = baseArg;
+					stack[sp++] = encodeReference(ref);
+				}
+				case Instructions.GET -> {
+					var fieldName = (String) TagValues.decodeDictObject(instrs[pc++], dict);
+					var ref = reference(stack[--sp], dict, heap);
+					var classWord = heap.classWord(ref);
+					var slot = ((JSObject) TagValues.decodeDictObject(classWord, dict)).lookup(fieldName);
+					if (slot == UNDEFINED) {
+						stack[sp++] = undefined;
+						continue;
+					}
+
+					// quicken, the class word is a 32 bits value
+					var instr = pc - 2;
+					var inlineCaches = code.inlineCaches();
+					inlineCaches[instr] = classWord;
+					inlineCaches[instr + 1] = (int) slot;
+					instrs[instr] = Instructions.GET_SLOT;
+
+					stack[sp++] = heap.getField(ref, (int) slot);
+				}
+				case Instructions.GET_SLOT -> {
+					var inlineCaches = code.inlineCaches();
+					var value = stack[sp - 1];
+					if (!isReference(value) || heap.classWord((int) decodeReference(value)) != inlineCaches[pc - 1]) {
+						// another class, de-quicken and execute the GET
+						instrs[--pc] = Instructions.GET;
+						continue;
+					}
+					stack[sp - 1] = heap.getField((int) decodeReference(value), inlineCaches[pc]);
+					pc++;
+				}
+				case Instructions.PUT -> {
+					var fieldName = (String) TagValues.decodeDictObject(instrs[pc++], dict);
+					var value = stack[--sp];
+					var ref = reference(stack[--sp], dict, heap);
+					var classWord = heap.classWord(ref);
+					var slot = ((JSObject) TagValues.decodeDictObject(classWord, dict)).lookup(fieldName);
+					if (slot == UNDEFINED) {
+						throw new Failure("invalid field " + fieldName);
+					}
+
+					// quicken
+					var instr = pc - 2;
+					var inlineCaches = code.inlineCaches();
+					inlineCaches[instr] = classWord;
+					inlineCaches[instr + 1] = (int) slot;
+					instrs[instr] = Instructions.PUT_SLOT;
+
+					heap.putField(ref, (int) slot, value);
+				}
+				case Instructions.PUT_SLOT -> {
+					var inlineCaches = code.inlineCaches();
+					var value = stack[sp - 2];
+					if (!isReference(value) || heap.classWord((int) decodeReference(value)) != inlineCaches[pc - 1]) {
+						// another class, de-quicken and execute the PUT
+						instrs[--pc] = Instructions.PUT;
+						continue;
+					}
+					heap.putField((int) decodeReference(value), inlineCaches[pc], stack[sp - 1]);
+					sp -= 2;
+					pc++;
+				}
+				case Instructions.PRINT -> {
+					var value = decodeAnyValue(stack[sp - 1], dict, heap);
+					var print = (JSObject) globalEnv.lookup("print");
+					stack[sp - 1] = encodeAnyValue(print.invoke(UNDEFINED, new Object[] { value }), dict);
+				}
+				case Instructions.ADD, Instructions.SUB, Instructions.MUL, Instructions.DIV, Instructions.REM -> {
+					var opcode = instrs[pc - 1];
+					var result = arithmetic(opcode, stack[sp - 2], stack[sp - 1]);
+					if (result != SLOW_PATH && operators.isNative(opcode)) {
+						stack[sp - 2] = result;
+						sp--;
+						pc += OPERATOR_FUNCALL_SIZE;
+					} else {
+						prepareOperatorCall(opcode, stack, sp, globalEnv, dict);
+						sp += FUNCALL_PREFIX;
+					}
+				}
+				case Instructions.EQ, Instructions.NE, Instructions.LT, Instructions.LE, Instructions.GT, Instructions.GE -> {
+					var opcode = instrs[pc - 1];
+					var result = comparison(opcode, stack[sp - 2], stack[sp - 1]);
+					if (result != SLOW_PATH && operators.isNative(opcode)) {
+						stack[sp - 2] = result;
+						sp--;
+						pc += OPERATOR_FUNCALL_SIZE;
+					} else {
+						prepareOperatorCall(opcode, stack, sp, globalEnv, dict);
+						sp += FUNCALL_PREFIX;
+					}
+				}
+				case Instructions.JUMP_IF_NOT_EQ, Instructions.JUMP_IF_NOT_NE, Instructions.JUMP_IF_NOT_LT,
+						Instructions.JUMP_IF_NOT_LE, Instructions.JUMP_IF_NOT_GT, Instructions.JUMP_IF_NOT_GE -> {
+					var opcode = instrs[pc - 1] - Instructions.JUMP_IF_NOT_EQ + Instructions.EQ;
+					var result = comparison(opcode, stack[sp - 2], stack[sp - 1]);
+					if (result != SLOW_PATH && operators.isNative(opcode)) {
+						sp -= 2;
+						// skip the FUNCALL and the JUMP_IF_FALSE or jump to its label
+						pc = (result == TRUE) ? pc + OPERATOR_FUNCALL_SIZE + 2 : instrs[pc + OPERATOR_FUNCALL_SIZE + 1];
+					} else {
+						prepareOperatorCall(opcode, stack, sp, globalEnv, dict);
+						sp += FUNCALL_PREFIX;
+					}
+				}
+				default -> throw new AssertionError("unknown instruction " + instrs[pc - 1]);
+			}
+		}
+	}
+
+	private static boolean isNumber(long value) {
+		return isInt(value) || isDouble(value);
+	}
+
+	private static double toDouble(long value) {
+		return isInt(value) ? decodeInt(value) : decodeDouble(value);
+	}
+
+	/**
+	 * Computes an arithmetic operation on two numbers, the integers wrap around like the native operators.
+	 *
+	 * @return the result or {@code SLOW_PATH} if an operand is not a number or on a division by zero.
+	 */
+	private static long arithmetic(int opcode, long left, long right) {
+		if (isInt(left) && isInt(right)) {
+			var x = decodeInt(left);
+			var y = decodeInt(right);
+			return switch (opcode) {
+				case Instructions.ADD -> encodeInt(x + y);
+				case Instructions.SUB -> encodeInt(x - y);
+				case Instructions.MUL -> encodeInt(x * y);
+				// a division by zero is reported by the operator function
+				case Instructions.DIV -> (y == 0) ? SLOW_PATH : encodeInt(x / y);
+				case Instructions.REM -> (y == 0) ? SLOW_PATH : encodeInt(x % y);
+				default -> throw new AssertionError("unknown operator " + opcode);
+			};
+		}
+		if (!isNumber(left) || !isNumber(right)) {
+			return SLOW_PATH;
+		}
+		var x = toDouble(left);
+		var y = toDouble(right);
+		return encodeDouble(switch (opcode) {
+			case Instructions.ADD -> x + y;
+			case Instructions.SUB -> x - y;
+			case Instructions.MUL -> x * y;
+			case Instructions.DIV -> x / y;
+			case Instructions.REM -> x % y;
+			default -> throw new AssertionError("unknown operator " + opcode);
+		});
+	}
+
+	/**
+	 * Compares two numbers, or two values by identity for == and !=
+	 * (the strings are constants of the dictionary so two equal strings have the same value).
+	 *
+	 * @return TRUE, FALSE or {@code SLOW_PATH} if the operator function has to be called.
+	 */
+	private static long comparison(int opcode, long left, long right) {
+		if (isInt(left) && isInt(right)) {
+			return StackInterpreter.compare(opcode, decodeInt(left), decodeInt(right)) ? TRUE : FALSE;
+		}
+		if (isNumber(left) && isNumber(right)) {
+			var x = toDouble(left);
+			var y = toDouble(right);
+			var result = switch (opcode) {
+				case Instructions.EQ -> x == y;
+				case Instructions.NE -> x != y;
+				case Instructions.LT -> x < y;
+				case Instructions.LE -> x <= y;
+				case Instructions.GT -> x > y;
+				case Instructions.GE -> x >= y;
+				default -> throw new AssertionError("unknown comparison " + opcode);
+			};
+			return result ? TRUE : FALSE;
+		}
+		if (opcode == Instructions.EQ || opcode == Instructions.NE) {
+			return ((left == right) == (opcode == Instructions.EQ)) ? TRUE : FALSE;
+		}
+		return SLOW_PATH;
+	}
+
+	/**
+	 * Slow path of the operator instructions, inserts the operator function and undefined (the receiver)
+	 * below the two operands on top of the stack (see {@link StackInterpreter#prepareOperatorCall}).
+	 */
+	private static void prepareOperatorCall(int opcode, long[] stack, int sp, JSObject globalEnv, Dictionary dict) {
+		var qualifier = encodeAnyValue(globalEnv.lookup(StackInterpreter.operatorName(opcode)), dict);
+		var left = stack[sp - 2];
+		var right = stack[sp - 1];
+		stack[sp - 2] = qualifier;
+		stack[sp - 1] = encodeDictObject(UNDEFINED, dict);
+		stack[sp] = left;
+		stack[sp + 1] = right;
+	}
+
+	/**
+	 * Finds the method called by the INVOKE_METHOD at callSite and stores it in the slot of the qualifier,
+	 * the inline caches are the same as the ones of the {@link StackInterpreter}.
+	 *
+	 * @return the index of the method in the function table.
+	 */
+	private static int findMethod(long[] stack, int baseArg, int[] instrs, int callSite, int[] inlineCaches, WideHeap heap,
+			Dictionary dict) {
+		var ref = reference(stack[baseArg + RECEIVER_BASE_ARG_OFFSET], dict, heap);
+		var classWord = heap.classWord(ref);
+		long qualifier;
+		if (inlineCaches[callSite] == classWord) {
+			qualifier = heap.getField(ref, inlineCaches[callSite + 1]);
+			var functionIndex = inlineCaches[callSite + 2];
+			if (isDictObject(qualifier) && decodeDictObject(qualifier, dict) == dict.function(functionIndex)) {
+				stack[baseArg + QUALIFIER_BASE_ARG_OFFSET] = qualifier;
+				return functionIndex;
+			}
+		} else {
+			var name = (String) TagValues.decodeDictObject(instrs[callSite + 1], dict);
+			var slot = ((JSObject) TagValues.decodeDictObject(classWord, dict)).lookup(name);
+			if (slot == UNDEFINED) {
+				throw new Failure("no method " + name + " on " + decodeAnyValue(stack[baseArg + RECEIVER_BASE_ARG_OFFSET], dict, heap));
+			}
+			inlineCaches[callSite] = classWord;
+			inlineCaches[callSite + 1] = (int) slot;
+			qualifier = heap.getField(ref, (int) slot);
+		}
+		if (!isDictObject(qualifier)) {
+			throw new Failure("can not call " + decodeAnyValue(qualifier, dict, heap));
+		}
+		var functionIndex = dict.functionIndex((JSObject) decodeDictObject(qualifier, dict));
+		inlineCaches[callSite + 2] = functionIndex;
+		stack[baseArg + QUALIFIER_BASE_ARG_OFFSET] = qualifier;
+		return functionIndex;
+	}
+
+	private static int reference(long value, Dictionary dict, WideHeap heap) {
+		if (!isReference(value)) {
+			throw new Failure("not an object " + decodeAnyValue(value, dict, heap));
+		}
+		return (int) decodeReference(value);
+	}
+
+	/**
+	 * Allocates an object on the heap, all the references of the stack are roots if a GC is necessary.
+	 *
+	 * @return the address of the object.
+	 */
+	private static int allocate(WideHeap heap, int classWord, int fieldCount, long[] stack, int sp, JSObject function, int bp,
+			Dictionary dict) {
+		var ref = heap.allocate(classWord, fieldCount);
+		if (ref == -1) {
+			// the raw values of the activation zones are not references, so the whole stack can be scanned
+			heap.collect(operator -> {
+				for (var i = 0; i < sp; i++) {
+					var value = stack[i];
+					if (isReference(value)) {
+						stack[i] = operator.applyAsLong(value);
+					}
+				}
+			}, OBJECT_HEADER_SIZE + fieldCount);
+
+			ref = heap.allocate(classWord, fieldCount);
+			if (ref == -1) {
+				printStackTrace(function, bp, stack, dict);
+				throw new Failure("Out of memory");
+			}
+		}
+		return ref;
+	}
+
+	static Object decodeAnyValue(long value, Dictionary dict, WideHeap heap) {
+		return decodeAnyValue(value, dict, heap, new HashMap<>());
+	}
+
+	/**
+	 * Decodes a value, an object of the heap is copied into a {@link JSObject},
+	 * the copies already created are reused so a cycle of objects can be decoded.
+	 */
+	private static Object decodeAnyValue(long value, Dictionary dict, WideHeap heap, HashMap<Integer, JSObject> mirrors) {
+		if (isInt(value)) {
+			return decodeInt(value);
+		}
+		if (isDouble(value)) {
+			return decodeDouble(value);
+		}
+		if (isReference(value)) {
+			var ref = (int) decodeReference(value);
+			var mirror = mirrors.get(ref);
+			if (mirror == null) {
+				var object = JSObject.newObject(null);
+				mirrors.put(ref, object);
+				var clazz = (JSObject) TagValues.decodeDictObject(heap.classWord(ref), dict);
+				clazz.forEach((key, slot) -> object.register(key, decodeAnyValue(heap.getField(ref, (int) slot), dict, heap, mirrors)));
+				mirror = object;
+			}
+			return mirror;
+		}
+		return decodeDictObject(value, dict);
+	}
+
+	private static long[] growStack(long[] stack, int needed, int maxStackSize, JSObject function, int bp, Dictionary dict) {
+		var length = stack.length;
+		var newLength = (int) Math.min(maxStackSize, Math.max(2L * length, needed));
+		if (newLength < needed) {
+			printStackTrace(function, bp, stack, dict);
+			throw new Failure("Stack overflow");
+		}
+		return Arrays.copyOf(stack, newLength);
+	}
+
+	private static final int STACK_TRACE_MAX_DEPTH = 32;
+
+	/**
+	 * Prints the name of the current function and of the calling functions
+	 * (see {@link StackInterpreter#printStackTrace}).
+	 */
+	private static void printStackTrace(JSObject function, int bp, long[] stack, Dictionary dict) {
+		for (var depth = 0; ; depth++) {
+			if (depth < STACK_TRACE_MAX_DEPTH) {
+				System.err.println("  at " + function.getName());
+			}
+			var code = (Code) function.lookup("__code__");
+			var activation = bp + code.slotCount();
+			if (stack[activation + PC_OFFSET] == 0) {
+				if (depth >= STACK_TRACE_MAX_DEPTH) {
+					System.err.println("  ... " + (depth + 1 - STACK_TRACE_MAX_DEPTH) + " more");
+				}
+				return;
+			}
+			bp = (int) stack[activation + BP_OFFSET];
+			function = dict.function((int) stack[activation + FUN_OFFSET]);
+		}
+	}
+
+	public static void interpret(Script script, PrintStream outStream) {
+		interpret(script, outStream, Config.DEFAULT);
+	}
+
+	public static void interpret(Script script, PrintStream outStream, Config config) {
+		JSObject globalEnv = StackInterpreter.createGlobalEnv(outStream);
+		var dict = new Dictionary();
+		var function = InstrRewriter.createFunction(Optional.of("main"), Collections.emptyList(), script.body(), dict,
+				globalEnv, config);
+		execute(function, dict, globalEnv, config);
+	}
+}
@@ -0,0 +1,112 @@
+package fr.umlv.smalljs.stackinterp;
+
+/**
+ * The 64 bits values of the {@link WideInterpreter}, the values are NaN-boxed.
+ *
+ * A double is stored as its bits (all the NaNs are stored as the canonical NaN),
+ * the other values are stored in the payload of a negative quiet NaN, the 16 high bits are the tag
+ * <pre>
+ *   0xFFF9 xxxx xxxx xxxx -> int (on 32 bits), boolean (TRUE/FALSE)
+ *   0xFFFA xxxx xxxx xxxx -> dictionary index
+ *   0xFFFB xxxx xxxx xxxx -> reference on heap (48 bits)
+ *   anything else         -> double
+ * </pre>
+ */
+interface WideValues {
+	long TAG_MASK = 0xFFFF_0000_0000_0000L;
+	long PAYLOAD_MASK = ~TAG_MASK;
+	long INT_TAG = 0xFFF9_0000_0000_0000L;
+	long DICT_TAG = 0xFFFA_0000_0000_0000L;
+	long REFERENCE_TAG = 0xFFFB_0000_0000_0000L;
+	long CANONICAL_NAN = 0x7FF8_0000_0000_0000L;
+
+	static boolean isInt(long value) {
+		return (value & TAG_MASK) == INT_TAG;
+	}
+	static long encodeInt(int value) {
+		return INT_TAG | (value & 0xFFFF_FFFFL);
+	}
+	static int decodeInt(long value) {
+		return (int) value;
+	}
+
+	static boolean isDouble(long value) {
+		return (value >>> 48) < (INT_TAG >>> 48);
+	}
+	static long encodeDouble(double value) {
+		return Double.isNaN(value) ? CANONICAL_NAN : Double.doubleToRawLongBits(value);
+	}
+	static double decodeDouble(long value) {
+		return Double.longBitsToDouble(value);
+	}
+
+	static boolean isDictObject(long value) {
+		return (value & TAG_MASK) == DICT_TAG;
+	}
+	static long encodeDictObject(Object object, Dictionary dict) {
+		return DICT_TAG | dict.index(object);
+	}
+	static Object decodeDictObject(long value, Dictionary dict) {
+		return dict.getConst((int) (value & PAYLOAD_MASK));
+	}
+
+	static boolean isReference(long value) {
+		return (value & TAG_MASK) == REFERENCE_TAG;
+	}
+	static long encodeReference(long reference) {
+		return REFERENCE_TAG | reference;
+	}
+	static long decodeReference(long value) {
+		return value & PAYLOAD_MASK;
+	}
+
+	/**
+	 * Converts a 32 bits value of the instructions (a small int or a dictionary index, see {@link TagValues}).
+	 */
+	static long fromTagValue(int tagValue) {
+		if (TagValues.isSmallInt(tagValue)) {
+			return encodeInt(TagValues.decodeSmallInt(tagValue));
+		}
+		if (TagValues.isReference(tagValue)) {
+			throw new IllegalArgumentException("a reference can not be converted " + tagValue);
+		}
+		return DICT_TAG | (tagValue >>> 2);
+	}
+
+	/**
+	 * Returns true if the value can be converted to a 32 bits value (see {@link #toTagValue(long)}),
+	 * i.e. a small int or a dictionary index.
+	 */
+	static boolean fitsInTagValue(long value) {
+		if (isInt(value)) {
+			return TagValues.fitsInSmallInt(decodeInt(value));
+		}
+		return isDictObject(value) && (value & PAYLOAD_MASK) < 1 << 30;
+	}
+
+	/**
+	 * Converts a value to a 32 bits value, the inverse of {@link #fromTagValue(int)}.
+	 */
+	static int toTagValue(long value) {
+		if (isInt(value)) {
+			return TagValues.encodeSmallInt(decodeInt(value));
+		}
+		return (int) (value & PAYLOAD_MASK) << 2 | 0b10;
+	}
+
+	/**
+	 * Encodes a value that is not an object of the heap.
+	 */
+	static long encodeAnyValue(Object object, Dictionary dict) {
+		if (object instanceof Integer value) {
+			return encodeInt(value);
+		}
+		if (object instanceof Double value) {
+			return encodeDouble(value);
+		}
+		return encodeDictObject(object, dict);
+	}
+
+	long TRUE = encodeInt(1);
+	long FALSE = encodeInt(0);
+}
@@ -0,0 +1,203 @@
+package fr.umlv.smalljs.stackinterp;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static fr.umlv.smalljs.ast.ASTBuilder.createScript;
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+import static fr.umlv.smalljs.stackinterp.Instructions.ADD;
+import static fr.umlv.smalljs.stackinterp.Instructions.CONST;
+import static fr.umlv.smalljs.stackinterp.Instructions.DUP;
+import static fr.umlv.smalljs.stackinterp.Instructions.FUNCALL;
+import static fr.umlv.smalljs.stackinterp.Instructions.GOTO;
+import static fr.umlv.smalljs.stackinterp.Instructions.JUMP_IF_FALSE;
+import static fr.umlv.smalljs.stackinterp.Instructions.JUMP_IF_NOT_LT;
+import static fr.umlv.smalljs.stackinterp.Instructions.LOAD;
+import static fr.umlv.smalljs.stackinterp.Instructions.POP;
+import static fr.umlv.smalljs.stackinterp.Instructions.REGISTER;
+import static fr.umlv.smalljs.stackinterp.Instructions.RET;
+import static fr.umlv.smalljs.stackinterp.TagValues.encodeDictObject;
+import static fr.umlv.smalljs.stackinterp.TagValues.encodeSmallInt;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("static-method")
+public class PeepholeOptimizerTests {
+  private static PeepholeOptimizer.Result optimize(int... instrs) {
+    return PeepholeOptimizer.optimize(instrs, opcode -> true);
+  }
+
+  @Tag("Q1") @Test
+  public void deadCodeAfterRet() {
+    var dict = new Dictionary();
+    var result = optimize(
+        CONST, encodeSmallInt(1),
+        RET,
+        CONST, encodeDictObject(UNDEFINED, dict),
+        RET);
+    assertArrayEquals(new int[] { CONST, encodeSmallInt(1), RET }, result.instrs());
+    assertEquals(2, result.saved());
+  }
+
+  @Tag("Q1") @Test
+  public void gotoToTheNextInstruction() {
+    var result = optimize(
+        /* 0:*/ LOAD, 1,
+        /* 2:*/ JUMP_IF_FALSE, 7,
+        /* 4:*/ CONST, encodeSmallInt(1),
+        /* 6:*/ RET,
+        /* 7:*/ GOTO, 9,
+        /* 9:*/ CONST, encodeSmallInt(2),
+        /*11:*/ RET);
+    assertArrayEquals(new int[] {
+        /* 0:*/ LOAD, 1,
+        /* 2:*/ JUMP_IF_FALSE, 7,
+        /* 4:*/ CONST, encodeSmallInt(1),
+        /* 6:*/ RET,
+        /* 7:*/ CONST, encodeSmallInt(2),
+        /* 9:*/ RET
+    }, result.instrs());
+    assertEquals(1, result.saved());
+  }
+
+  @Tag("Q1") @Test
+  public void jumpThreading() {
+    var result = optimize(
+        /* 0:*/ LOAD, 1,
+        /* 2:*/ JUMP_IF_FALSE, 6,
+        /* 4:*/ LOAD, 2,
+        /* 6:*/ GOTO, 10,
+        /* 8:*/ LOAD, 3,
+        /*10:*/ RET);
+    assertArrayEquals(new int[] {
+        /* 0:*/ LOAD, 1,
+        /* 2:*/ JUMP_IF_FALSE, 6,
+        /* 4:*/ LOAD, 2,
+        /* 6:*/ RET
+    }, result.instrs());
+    assertEquals(2, result.saved());
+  }
+
+  @Tag("Q1") @Test
+  public void jumpIfFalseToTheNextInstruction() {
+    var result = optimize(
+        /* 0:*/ LOAD, 1,
+        /* 2:*/ JUMP_IF_FALSE, 4,
+        /* 4:*/ LOAD, 2,
+        /* 6:*/ RET);
+    assertArrayEquals(new int[] { LOAD, 2, RET }, result.instrs());
+    assertEquals(2, result.saved());
+  }
+
+  @Tag("Q2") @Test
+  public void dupRegisterPop() {
+    var dict = new Dictionary();
+    var result = optimize(
+        CONST, encodeDictObject("function", dict),
+        DUP,
+        REGISTER, encodeDictObject("f", dict),
+        POP,
+        CONST, encodeDictObject(UNDEFINED, dict),
+        RET);
+    assertArrayEquals(new int[] {
+        CONST, encodeDictObject("function", dict),
+        REGISTER, encodeDictObject("f", dict),
+        CONST, encodeDictObject(UNDEFINED, dict),
+        RET
+    }, result.instrs());
+    assertEquals(2, result.saved());
+  }
+
+  @Tag("Q2") @Test
+  public void pushPop() {
+    var result = optimize(
+        CONST, encodeSmallInt(1),
+        POP,
+        LOAD, 1,
+        POP,
+        LOAD, 2,
+        RET);
+    assertArrayEquals(new int[] { LOAD, 2, RET }, result.instrs());
+    assertEquals(4, result.saved());
+  }
+
+  @Tag("Q3") @Test
+  public void constantFolding() {
+    var result = optimize(
+        CONST, encodeSmallInt(2),
+        CONST, encodeSmallInt(3),
+        ADD, FUNCALL, 2,
+        RET);
+    assertArrayEquals(new int[] { CONST, encodeSmallInt(5), RET }, result.instrs());
+    assertEquals(2, result.saved());
+  }
+
+  @Tag("Q3") @Test
+  public void constantFoldingOverflow() {
+    int[] instrs = {
+        CONST, encodeSmallInt(1073741823),
+        CONST, encodeSmallInt(1),
+        ADD, FUNCALL, 2,
+        RET
+    };
+    var result = optimize(instrs.clone());
+    assertArrayEquals(instrs, result.instrs());
+    assertEquals(0, result.saved());
+  }
+
+  @Tag("Q3") @Test
+  public void constantFoldingRedefinedOperator() {
+    int[] instrs = {
+        CONST, encodeSmallInt(2),
+        CONST, encodeSmallInt(3),
+        ADD, FUNCALL, 2,
+        RET
+    };
+    var result = PeepholeOptimizer.optimize(instrs.clone(), opcode -> opcode != ADD);
+    assertArrayEquals(instrs, result.instrs());
+  }
+
+  @Tag("Q3") @Test
+  public void constantCondition() {
+    var result = optimize(
+        /* 0:*/ CONST, encodeSmallInt(2),
+        /* 2:*/ CONST, encodeSmallInt(1),
+        /* 4:*/ JUMP_IF_NOT_LT, FUNCALL, 2, JUMP_IF_FALSE, 13,
+        /* 9:*/ CONST, encodeSmallInt(1),
+        /*11:*/ RET,
+        /*12:*/ POP,
+        /*13:*/ CONST, encodeSmallInt(2),
+        /*15:*/ RET);
+    assertArrayEquals(new int[] { CONST, encodeSmallInt(2), RET }, result.instrs());
+  }
+
+  @Tag("Q4") @Test
+  public void peepholeStats() {
+    var script = createScript(new StringReader("""
+        function f(x) {
+          var y = 1 + 2;
+          return x + y;
+        }
+        print(f(1));
+        """));
+    var errStream = new ByteArrayOutputStream(8192);
+    var err = System.err;
+    System.setErr(new PrintStream(errStream, true, StandardCharsets.UTF_8));
+    System.setProperty(InstrRewriter.PEEPHOLE_STATS, "true");
+    try {
+      StackInterpreter.interpret(script, new PrintStream(new ByteArrayOutputStream()), StackInterpreter.Config.DEFAULT);
+    } finally {
+      System.clearProperty(InstrRewriter.PEEPHOLE_STATS);
+      System.setErr(err);
+    }
+    // the addition is folded and the RET of undefined after the return is removed
+    var lines = errStream.toString(StandardCharsets.UTF_8).lines().toList();
+    assertTrue(lines.contains("peephole f: 4 instructions saved"), lines::toString);
+  }
+}
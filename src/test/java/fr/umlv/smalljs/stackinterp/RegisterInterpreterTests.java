@@ -0,0 +1,624 @@
+package fr.umlv.smalljs.stackinterp;
+
+import fr.umlv.smalljs.rt.Failure;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static fr.umlv.smalljs.ast.ASTBuilder.createScript;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("static-method")
+public class RegisterInterpreterTests {
+  private static String execute(String code) {
+    return execute(code, StackInterpreter.Config.DEFAULT);
+  }
+  private static String execute(String code, StackInterpreter.Config config) {
+    var script = createScript(new StringReader(code));
+    var outStream = new ByteArrayOutputStream(8192);
+    RegisterInterpreter.interpret(script, new PrintStream(outStream), config);
+    return outStream.toString(StandardCharsets.UTF_8).replace("\r\n", "\n");
+  }
+
+  @Tag("Q2") @Test
+  public void helloString() {
+    assertEquals("", execute("\"hello\"\n"));
+  }
+
+  @Tag("Q3") @Test
+  public void integer3() {
+    assertEquals("", execute("3\n"));
+  }
+  
+  @Tag("Q4") @Test
+  public void print() {
+    assertEquals("hello\n", execute("print(\"hello\")\n"));
+    assertEquals("foobar\n", execute("print('foobar')\n"));
+    assertEquals("3\n", execute("print(3)\n"));
+  }
+  
+  @Tag("Q5") @Test
+  public void printPrint() {
+    assertFalse(execute("print(print)\n").isEmpty());
+  }
+  
+  @Tag("Q6") @Test
+  public void printOperations() {
+    assertEquals("5\n", execute("print(3 + 2)\n"));
+    assertEquals("1\n", execute("print(3 - 2)\n"));
+    assertEquals("6\n", execute("print(3 * 2)\n"));
+    assertEquals("1\n", execute("print(3 / 2)\n"));
+  }
+  
+  @Tag("Q7") @Test
+  public void printPrint3() {
+    assertEquals("3\nundefined\n", execute("print(print(3))\n"));
+  }
+  
+  @Tag("Q8") @Test
+  public void printAVariable() {
+    assertEquals("3\n", execute("""
+            var a = 3;
+            print(a);
+            """));
+  }
+  @Tag("Q8") @Test
+  public void printSeveralVariables() {
+    assertEquals("7\n", execute("""
+            var a = 3;
+            var b = 4;
+            print(a + b);
+            """));
+  }
+  @Tag("Q8") @Test
+  public void printSeveralAssignments() {
+    assertEquals("42\n42\n", execute("""
+            var a = 42;
+            var b = a;
+            print(a);
+            print(b);
+            """));
+  }
+  @Tag("Q8") @Test
+  public void printSeveralArguments() {
+    assertEquals("hello Bob\n", execute("""
+            var me = 'Bob';
+            print('hello', me);
+            """));
+  }
+  
+  @Tag("Q9") @Test
+  public void printAVariableDefinedAfter() {
+    assertEquals("undefined\n", execute("print(a);\nvar a = 2;\n"));
+  }
+  
+  @Tag("Q10") @Test
+  public void callAUserDefinedFunctionAndPrint() {
+    assertEquals("3\n", execute("""
+            function foo(x) {
+              return x + 1;
+            }
+            print(foo(2));
+            """));
+  }
+  @Tag("Q10") @Test
+  public void callAUserDefinedFunctionWithTheWrongNumberOfArguments() {
+  	assertThrows(Failure.class, () -> execute("""
+            function foo(a, b) {
+            }
+            print(foo(2));
+            """));
+  }
+  @Tag("Q10") @Test
+  public void callSeveralFunctions() {
+    assertEquals("foo\nbar\n", execute("""
+            function foo() {
+              print('foo');
+              bar();
+            }
+            function bar() {
+              print('bar');
+            }
+            foo();
+            """));
+  }
+  @Tag("Q10") @Test
+  public void callVariableFunction() {
+    assertEquals("6\n6\n", execute("""
+            var foo = function bar(x) {
+              return x * 2;}
+            print(foo(3));
+            print(bar(3));
+            """));
+  }
+  @Tag("Q10") @Test
+  public void callVariableFunction2() {
+    assertEquals("6\n", execute("""
+            var foo = function (x) {
+              return x * 2;}
+            print(foo(3));
+            """));
+  }
+  @Tag("Q10") @Test
+  public void callFunctionWithNoReturn() {
+    assertEquals("undefined\n", execute("""
+            function undef() { }
+            print(undef());
+            """));
+  }
+  
+  @Tag("Q11") @Test
+  public void printWithAnIf() {
+    assertEquals("false\n", execute("""
+            var a = 2;
+            if (a == 3) {
+              print("true");
+            } else {
+              print("false");
+            }
+            """));
+  }
+  @Tag("Q11") @Test
+  public void printWithAnIf2() {
+    assertEquals("true\n", execute("""
+            var a = 3;
+            if (a == 3) {
+              print("true");
+            } else {
+              print("false");
+            }
+            """));
+  }
+  @Tag("Q11") @Test
+  public void callAUserDefinedFunctionVarsInitialized() {
+    assertEquals("undefined\n", execute("""
+            function foo(x) {
+              if (x == 3) {
+                var a = 42;
+              } else {
+              }
+              return a;
+            }
+            print(foo(2));
+            """));
+  }
+  @Tag("Q11") @Test
+  public void printVariableWeirdScope() {
+    assertEquals("false\nundefined\n", execute("""
+            var a = 2;
+            if (a == 3) {
+              print("true");
+              var b = 'hello';
+            } else {
+              print("false");
+            }
+            print(b);"""));
+  }
+  @Tag("Q11") @Test
+  public void printVariableWeirdScope2() {
+    assertEquals("true\nhello\n", execute("""
+            var a = 3;
+            if (a == 3) {
+              print("true");
+              var b = 'hello';
+            } else {
+              print("false");
+            }
+            print(b);"""));
+  }
+  @Tag("Q11") @Test
+  public void callAUserDefinedFunctionWithAnIf() {
+    assertEquals("0\n7\n", execute("""
+            function f(x) {
+                if (x < 3) {
+                  return 0;
+                } else {
+                  return x;
+                }
+            }
+            print(f(2));
+            print(f(7));
+            """));
+  }
+  @Tag("Q11") @Test
+  public void callAUserDefinedFunctionWithAnIfAndAVariabe() {
+    assertEquals("0\n7\n", execute("""
+            function f(x) {
+                if (x < 3) {
+                  var a = 0;
+                } else {
+                  var a = x;
+                }
+                return a;
+            }
+            print(f(2));
+            print(f(7));
+            """));
+  }
+  
+  @Tag("Q12") @Test
+  public void callFibo() {
+    assertEquals("21\n", execute("""
+            function fibo(n) {
+                if (n < 2) {
+                  return 1
+                } else {
+                  return fibo(n - 1) + fibo(n - 2)
+                }
+              }
+
+            print(fibo(7))
+            """));
+  }
+  @Tag("Q12") @Test
+  public void callRecursiveFunction() {
+    assertEquals("24\n", execute("""
+            function fact(n) {
+              if (n < 1) {
+                return 1;
+              } else {
+                return n * fact(n - 1);
+              }
+            }
+            print(fact(4));
+            """));
+  }
+  @Tag("Q12") @Test
+  public void callSeveralOperations() {
+    assertEquals("5\n-1\n6\n0\n", execute("""
+            function calc(f, a, b) {
+             return f(a, b);
+            }
+            print(calc(+, 2, 3));
+            print(calc(-, 2, 3));
+            print(calc(*, 2, 3));
+            print(calc(/, 2, 3));
+            """));
+  }
+  @Tag("Q12") @Test
+  public void callAndRewrite() {
+    assertEquals("2\n9\n", execute("""
+            function f() { return op(); }
+            function op() { return 2; }
+            print(f());
+            function op() { return 9; }
+            print(f());
+            """));
+  }
+  
+  
+  @Tag("Q13") @Test
+  public void createAnObject() {
+    assertEquals("""
+            { // object
+              x: 1
+              y: 2
+              proto: null
+            }
+            """,
+        execute("""
+                var o = {
+                    x: 1,
+                    y: 2
+                };
+                print(o);
+                """));
+  }
+  
+  @Tag("Q14") @Test
+  public void createAnObjectFromAVariableValue() {
+    assertEquals("""
+            { // object
+              x: 1
+              y: 2
+              proto: null
+            }
+            """,
+        execute("""
+                var a = 1;
+                var o = {
+                  x: a,
+                  y: a + 1
+                }
+                print(o);
+                """));
+  }
+  @Tag("Q14") @Test
+  public void createAnObjectEvaluationOrder() {
+    assertEquals(
+        "a\nb\n",
+        execute("""
+                var foo = {
+                  a: print('a'),
+                  b: print('b')
+                };"""));
+  }
+  
+  @Tag("Q15") @Test
+  public void objectGetAFieldValue() {
+    assertEquals(
+        "John\n",
+        execute("""
+                var john = { name: "John" };
+                print(john.name);
+                """));
+  }
+  @Tag("Q15") @Test
+  public void objectGetAFieldNoValue() {
+    assertEquals(
+        "undefined\n",
+        execute("""
+                var john = { name: "John" };
+                print(john.foo);
+                """));
+  }
+  
+  @Tag("Q16") @Test
+  public void objectSetAFieldValue() {  // patch visit variable
+    assertEquals(
+        "Jane\n",
+        execute("""
+                var john = { name: "John" };
+                john.name = "Jane";
+                print(john.name);
+                """));
+  }
+  @Tag("Q16") @Test
+  public void objectGetAndSetAField() {
+    assertEquals(
+        "2\n9\n",
+        execute("""
+                function f(o) { return o.field; }
+                var obj = { field: 2 };
+                print(f(obj));
+                obj.field = 9;
+                print(f(obj));
+                """));
+  }
+  
+  @Tag("Q17") @Test
+  public void objectCallAMethod() {
+    assertEquals(
+        "hello 42\nhello 42\n",
+        execute("""
+                var object = {
+                  bar: "hello",
+                  foo: function(x) {
+                         print(this.bar, x);
+                       }
+                };
+                object.foo(42);
+                object.foo(42);
+                """));
+  }
+
+  @Tag("Q18") @Test
+  public void deepRecursion() {
+    assertEquals("5050\n", execute("""
+                function sum(n) {
+                  if (n < 1) {
+                    return 0;
+                  } else {
+                    return n + sum(n - 1);
+                  }
+                }
+                print(sum(100));
+                """,
+        new StackInterpreter.Config(GCMode.MARK_COMPACT, 16, 4096, 96, 96)));
+  }
+  @Tag("Q18") @Test
+  public void stackOverflow() {
+    var failure = assertThrows(Failure.class, () -> execute("""
+                function f(n) {
+                  return f(n);
+                }
+                f(1);
+                """,
+        new StackInterpreter.Config(GCMode.MARK_COMPACT, 16, 4096, 96, 96)));
+    assertEquals("Stack overflow", failure.getMessage());
+  }
+
+  @Tag("Q19") @Test
+  public void negativeIntegers() {
+    assertEquals("-2\n", execute("print(3 - 5)\n"));
+    assertEquals("-8\n", execute("print(5 - 3 - 10)\n"));
+  }
+  @Tag("Q19") @Test
+  public void largeIntegers() {
+    assertEquals("1073741824\n", execute("print(1073741823 + 1)\n"));
+    assertEquals("-1073741825\n", execute("print(0 - 1073741824 - 1)\n"));
+    assertEquals("2147483647\n", execute("""
+                var a = 2147483647;
+                var b = a;
+                print(b);
+                """));
+  }
+
+  @Tag("Q20") @Test
+  public void operators() {
+    assertEquals("1\n", execute("print(7 % 3)\n"));
+    assertEquals("-3\n", execute("print((0 - 7) / 2)\n"));
+    assertEquals("-1\n", execute("print((0 - 7) % 2)\n"));
+    assertEquals("2147483646\n", execute("print(1073741823 * 2)\n"));
+    assertEquals("1\n0\n1\n", execute("print(2 == 2)\nprint(2 != 2)\nprint(3 >= 2)\n"));
+  }
+  @Tag("Q20") @Test
+  public void operatorsNotOnSmallInts() {
+    assertEquals("1\n", execute("print('a' < 'b')\n"));
+    assertEquals("-2147483648\n", execute("print(0 - 1073741824 - 1073741824)\n"));
+    assertEquals("less\n", execute("""
+                if ('a' < 'b') {
+                  print('less');
+                } else {
+                  print('greater');
+                }
+                """));
+  }
+  @Tag("Q20") @Test
+  public void redefineAnOperator() {
+    assertEquals("42\n", execute("""
+                function +(a, b) {
+                  return 42;
+                }
+                print(1 + 2);
+                """));
+  }
+  @Tag("Q20") @Test
+  public void redefineAComparison() {
+    assertEquals("greater\n", execute("""
+                function <(a, b) {
+                  return 0;
+                }
+                if (1 < 2) {
+                  print('less');
+                } else {
+                  print('greater');
+                }
+                """));
+  }
+
+  @Tag("Q21") @Test
+  public void polymorphicCallSite() {
+    assertEquals("1\n2\n1\n", execute("""
+                function foo() {
+                  return 1;
+                }
+                function bar() {
+                  return 2;
+                }
+                function call(f) {
+                  return f();
+                }
+                print(call(foo));
+                print(call(bar));
+                print(call(foo));
+                """));
+  }
+
+  @Tag("Q22") @Test
+  public void fieldAccessWithSeveralClasses() {
+    assertEquals("1\n4\n1\n", execute("""
+                function getX(o) {
+                  return o.x;
+                }
+                var a = { x: 1, y: 2 };
+                var b = { y: 3, x: 4 };
+                print(getX(a));
+                print(getX(b));
+                print(getX(a));
+                """));
+  }
+  @Tag("Q22") @Test
+  public void fieldAssignmentWithSeveralClasses() {
+    assertEquals("5\n6\n", execute("""
+                function setX(o, v) {
+                  o.x = v;
+                }
+                var a = { x: 1, y: 2 };
+                var b = { y: 3, x: 4 };
+                setX(a, 5);
+                setX(b, 6);
+                print(a.x);
+                print(b.x);
+                """));
+  }
+  @Tag("Q22") @Test
+  public void redefineAGlobalFunction() {
+    assertEquals("1\n2\n", execute("""
+                function g() {
+                  return 1;
+                }
+                function show() {
+                  return g();
+                }
+                print(show());
+                function g() {
+                  return 2;
+                }
+                print(show());
+                """));
+  }
+
+  @Tag("Q23") @Test
+  public void garbageCollection() {
+    for (var gcMode : GCMode.values()) {
+      assertEquals("120\n", execute("""
+                function g() {
+                  return { x: 1, y: 2 };
+                }
+                function f(n) {
+                  if (n < 1) {
+                    return 0;
+                  } else {
+                    g();
+                    g();
+                    return n + f(n - 1);
+                  }
+                }
+                print(f(15));
+                """,
+          new StackInterpreter.Config(gcMode, 16, 4096, 96, 96)), gcMode.toString());
+    }
+  }
+  @Tag("Q23") @Test
+  public void methodCallWithoutStackShuffling() {
+    assertEquals("5\n", execute("""
+                var o = {
+                  x: 2,
+                  add: function(y) {
+                    return this.x + y;
+                  }
+                };
+                print(o.add(3));
+                """));
+  }
+  @Tag("Q34") @Test
+  public void addFields() {
+    assertEquals("1 2 3\n", execute("""
+                var o = { x: 1 };
+                o.y = 2;
+                o.z = 3;
+                print(o.x, o.y, o.z);
+                """));
+  }
+  @Tag("Q34") @Test
+  public void addFieldsRelocatedObjectIdentity() {
+    for (var gcMode : GCMode.values()) {
+      assertEquals("1 0\n1\n", execute("""
+                function garbage(n) {
+                  if (n < 1) {
+                    return 0;
+                  } else {
+                    var o = { n: n };
+                    return garbage(n - 1);
+                  }
+                }
+                var a = { x: 1 };
+                var h = { self: a };
+                a.y = 2;
+                print(h.self == a, h.self != a);
+                garbage(50);
+                print(h.self == a);
+                """, new StackInterpreter.Config(gcMode, 16, 4096, 96, 4096)), gcMode.toString());
+    }
+  }
+  @Tag("Q21") @Test
+  public void callHeapObject() {
+    var failure = assertThrows(Failure.class, () -> execute("""
+                function f() {
+                  var o = { x: 1 };
+                  print("start");
+                  o();
+                }
+                f();
+                """));
+    assertTrue(failure.getMessage().startsWith("can not call"), failure.getMessage());
+  }
+}
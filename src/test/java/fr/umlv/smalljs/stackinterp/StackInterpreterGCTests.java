@@ -7,8 +7,12 @@ import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
 
+import static fr.umlv.smalljs.ast.ASTBuilder.createScript;
 import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
 import static fr.umlv.smalljs.stackinterp.Instructions.CONST;
 import static fr.umlv.smalljs.stackinterp.Instructions.FUNCALL;
@@ -23,9 +27,17 @@ import static fr.umlv.smalljs.stackinterp.Instructions.PRINT;
 import static fr.umlv.smalljs.stackinterp.Instructions.PUT;
 import static fr.umlv.smalljs.stackinterp.Instructions.RET;
 import static fr.umlv.smalljs.stackinterp.Instructions.STORE;
+import static fr.umlv.smalljs.stackinterp.TagValues.decodeAnyValue;
+import static fr.umlv.smalljs.stackinterp.TagValues.decodeReference;
 import static fr.umlv.smalljs.stackinterp.TagValues.encodeDictObject;
+import static fr.umlv.smalljs.stackinterp.TagValues.encodeReference;
 import static fr.umlv.smalljs.stackinterp.TagValues.encodeSmallInt;
+import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SuppressWarnings("static-method")
 public class StackInterpreterGCTests {
@@ -38,11 +50,40 @@ public class StackInterpreterGCTests {
     return fun;
   }
   private static String execute(Code mainCode, Dictionary dict) {
+    // the instructions are quickened by the interpreter, so each GC mode runs a copy of the code
+    String output = null;
+    for (var gcMode : GCMode.values()) {
+      var code = new Code(mainCode.instrs().clone(), mainCode.parameterCount(), mainCode.slotCount(), mainCode.maxStackDepth());
+      var result = execute(code, dict, gcMode);
+      if (output == null) {
+        output = result;
+      } else {
+        assertEquals(output, result, gcMode.toString());
+      }
+    }
+    return output;
+  }
+  private static String execute(Code mainCode, Dictionary dict, GCMode gcMode) {
+    return execute(mainCode, dict, Heap.create(gcMode, dict, 96));
+  }
+  private static String execute(Code mainCode, Dictionary dict, Heap heap) {
+    return execute(mainCode, dict, heap, StackInterpreter.Config.DEFAULT);
+  }
+  private static String execute(Code mainCode, Dictionary dict, Heap heap, StackInterpreter.Config config) {
     var outStream = new ByteArrayOutputStream(8192);
     var globalEnv = StackInterpreter.createGlobalEnv(new PrintStream(outStream));
     var mainFun = newMainFunction(mainCode);
     globalEnv.register("main", mainFun);
-    StackInterpreter.execute(mainFun, dict, globalEnv);
+    StackInterpreter.execute(mainFun, dict, globalEnv, config, heap);
+    return outStream.toString(StandardCharsets.UTF_8).replace("\r\n", "\n");
+  }
+  private static String execute(String code, Heap heap) {
+    var outStream = new ByteArrayOutputStream(8192);
+    var globalEnv = StackInterpreter.createGlobalEnv(new PrintStream(outStream));
+    var script = createScript(new StringReader(code));
+    var main = InstrRewriter.createFunction(Optional.of("main"), List.of(), script.body(), heap.dict, globalEnv,
+        StackInterpreter.Config.DEFAULT);
+    StackInterpreter.execute(main, heap.dict, globalEnv, StackInterpreter.Config.DEFAULT, heap);
     return outStream.toString(StandardCharsets.UTF_8).replace("\r\n", "\n");
   }
 
@@ -163,6 +204,99 @@ public class StackInterpreterGCTests {
     execute(new Code(instrs, 1, 2), dict);
   }
 
+  @Tag("Q5") @Test
+  public void gcTestCompaction() {
+  	var dict = new Dictionary();
+  	var linkClass = JSObject.newObject(null);
+  	linkClass.register("value", 0);
+  	linkClass.register("next", 1);
+  	int[] instrs = {
+  		/* 0:*/ CONST, encodeSmallInt(3),
+  	  /* 2:*/ CONST, encodeSmallInt(0),
+  	  /* 4:*/ NEW, encodeDictObject(linkClass, dict),
+  	  /* 6:*/ STORE, 1,
+  	  /* 8:*/ CONST, encodeSmallInt(0),
+  	  /*10:*/ CONST, encodeSmallInt(0),
+  	  /*12:*/ NEW, encodeDictObject(linkClass, dict),
+  	  /*14:*/ POP,  // garbage between the links, the links are moved by the compaction
+
+  	  /*15:*/ CONST, encodeSmallInt(2),
+  	  /*17:*/ LOAD, 1,
+  	  /*19:*/ NEW, encodeDictObject(linkClass, dict),
+  	  /*21:*/ STORE, 1,
+  	  /*23:*/ CONST, encodeSmallInt(0),
+  	  /*25:*/ CONST, encodeSmallInt(0),
+  	  /*27:*/ NEW, encodeDictObject(linkClass, dict),
+  	  /*29:*/ POP,
+
+  	  /*30:*/ CONST, encodeSmallInt(1),
+  	  /*32:*/ LOAD, 1,
+  	  /*34:*/ NEW, encodeDictObject(linkClass, dict),
+  	  /*36:*/ STORE, 1,
+
+  	  /*38:*/ CONST, encodeSmallInt(100),
+  	  /*40:*/ STORE, 2,
+
+  	  /*42:*/ LOAD, 2,
+  	  /*44:*/ JUMP_IF_FALSE, 67,
+
+  	  /*46:*/ CONST, encodeSmallInt(0),
+  	  /*48:*/ CONST, encodeSmallInt(0),
+  	  /*50:*/ NEW, encodeDictObject(linkClass, dict),
+  	  /*52:*/ POP,  // should be GCed
+
+  	  /*53:*/ LOOKUP, encodeDictObject("-", dict),
+  	  /*55:*/ CONST, encodeDictObject(UNDEFINED, dict),
+  	  /*57:*/ LOAD, 2,
+  	  /*59:*/ CONST, encodeSmallInt(1),
+  	  /*61:*/ FUNCALL, 2,
+  	  /*63:*/ STORE, 2,
+
+  	  /*65:*/ GOTO, 42,
+
+  	  /*67:*/ LOAD, 1,
+  	  /*69:*/ GET, encodeDictObject("value", dict),
+  	  /*71:*/ PRINT,
+  	  /*72:*/ POP,
+  	  /*73:*/ LOAD, 1,
+  	  /*75:*/ GET, encodeDictObject("next", dict),
+  	  /*77:*/ GET, encodeDictObject("value", dict),
+  	  /*79:*/ PRINT,
+  	  /*80:*/ POP,
+  	  /*81:*/ LOAD, 1,
+  	  /*83:*/ GET, encodeDictObject("next", dict),
+  	  /*85:*/ GET, encodeDictObject("next", dict),
+  	  /*87:*/ GET, encodeDictObject("value", dict),
+  	  /*89:*/ PRINT,
+  	  /*90:*/ POP,
+
+  	  /*91:*/ CONST, encodeDictObject(UNDEFINED, dict),
+  	  /*93:*/ RET
+  	};
+    assertEquals("1\n2\n3\n", execute(new Code(instrs, 1, 3), dict));
+  }
+
+  @Tag("Q5") @Test
+  public void gcTestOutOfMemory() {
+  	var dict = new Dictionary();
+  	var linkClass = JSObject.newObject(null);
+  	linkClass.register("next", 0);
+  	int[] instrs = {
+  		/* 0:*/ CONST, encodeSmallInt(0),
+  	  /* 2:*/ STORE, 1,
+
+  	  /* 4:*/ LOAD, 1,
+  	  /* 6:*/ NEW, encodeDictObject(linkClass, dict),
+  	  /* 8:*/ STORE, 1,  // the list is alive, nothing can be reclaimed
+  	  /*10:*/ GOTO, 4,
+
+  	  /*12:*/ CONST, encodeDictObject(UNDEFINED, dict),
+  	  /*14:*/ RET
+  	};
+    var failure = assertThrows(Failure.class, () -> execute(new Code(instrs, 1, 2), dict));
+    assertEquals("Out of memory", failure.getMessage());
+  }
+
   @Tag("Q5") @Test
   public void gcTestLikedList() {
   	var dict = new Dictionary();
@@ -208,4 +342,411 @@ public class StackInterpreterGCTests {
   	};
     execute(new Code(instrs, 1, 4), dict);
   }
+
+  private static Code gcTestOldToYoungCode(Dictionary dict) {
+  	var clazz = JSObject.newObject(null);
+  	clazz.register("field", 0);
+  	int[] instrs = {
+  		/* 0:*/ CONST, encodeSmallInt(0),
+  		/* 2:*/ NEW, encodeDictObject(clazz, dict),
+  		/* 4:*/ STORE, 2, // survives long enough to be promoted
+
+  		/* 6:*/ CONST, encodeSmallInt(100),
+  	  /* 8:*/ STORE, 1,
+
+  	  /*10:*/ LOAD, 1,
+  	  /*12:*/ JUMP_IF_FALSE, 36,
+
+  	  /*14:*/ LOAD, 2,
+  	  /*16:*/ LOAD, 1,
+  	  /*18:*/ NEW, encodeDictObject(clazz, dict),
+  	  /*20:*/ PUT, encodeDictObject("field", dict), // only referenced by an old object
+
+  	  /*22:*/ LOOKUP, encodeDictObject("-", dict),
+  	  /*24:*/ CONST, encodeDictObject(UNDEFINED, dict),
+  	  /*26:*/ LOAD, 1,
+  	  /*28:*/ CONST, encodeSmallInt(1),
+  	  /*30:*/ FUNCALL, 2,
+  	  /*32:*/ STORE, 1,
+
+  	  /*34:*/ GOTO, 10,
+
+  	  /*36:*/ LOAD, 2,
+  	  /*38:*/ GET, encodeDictObject("field", dict),
+  	  /*40:*/ GET, encodeDictObject("field", dict),
+  	  /*42:*/ PRINT,
+
+  	  /*43:*/ CONST, encodeDictObject(UNDEFINED, dict),
+  	  /*45:*/ RET
+  	};
+    return new Code(instrs, 1, 3);
+  }
+
+  @Tag("Q6") @Test
+  public void gcTestOldToYoung() {
+  	var dict = new Dictionary();
+    assertEquals("1\n", execute(gcTestOldToYoungCode(dict), dict));
+  }
+
+  @Tag("Q7") @Test
+  public void gcStats() {
+    for (var gcMode : GCMode.values()) {
+      var dict = new Dictionary();
+      var heap = Heap.create(gcMode, dict, 96);
+      execute(gcTestBoxedIntCode(dict), dict, heap);
+      var stats = heap.stats();
+      assertAll(
+          () -> assertTrue(stats.collections() > 0, gcMode + " " + stats),
+          () -> assertTrue(stats.maxPause() > 0, gcMode + " " + stats),
+          () -> assertTrue(stats.maxPause() <= stats.totalTime(), gcMode + " " + stats)
+      );
+    }
+  }
+
+  private static Heap incrementalHeap(Dictionary dict, int size, int workBudget) {
+    return Heap.create(GCMode.INCREMENTAL, dict, size, size, HeapStorage.ARRAY, workBudget);
+  }
+  private static void finishCollection(Heap heap, int classWord) {
+    // each allocation runs a step of the current collection
+    var collections = heap.stats().collections();
+    while (heap.stats().collections() == collections) {
+      heap.allocate(classWord, 1);
+    }
+  }
+
+  @Tag("Q7") @Test
+  public void gcIncrementalBarrier() {
+    var dict = new Dictionary();
+    var heap = incrementalHeap(dict, 256, 1);
+    var clazz = JSObject.newObject(null);
+    clazz.register("field", 0);
+    var classWord = encodeDictObject(clazz, dict);
+    var a = heap.allocate(classWord, 1);
+    var b = heap.allocate(classWord, 1);
+    var c = heap.allocate(classWord, 1);
+    heap.putField(b, 0, encodeSmallInt(42));
+    heap.putField(a, 0, encodeReference(b));
+    heap.putField(c, 0, encodeSmallInt(0));
+    int[] roots = { encodeReference(a), encodeReference(c) };
+    heap.collect(operator -> {
+      for (var i = 0; i < roots.length; i++) {
+        roots[i] = operator.applyAsInt(roots[i]);
+      }
+    }, 0);
+
+    // the last root (c) is marked first, then b moves from a to c
+    heap.allocate(classWord, 1);
+    heap.putField(c, 0, encodeReference(b));
+    heap.putField(a, 0, encodeSmallInt(0));
+
+    finishCollection(heap, classWord);
+    assertEquals(classWord, heap.classWord(b));
+    assertEquals(encodeSmallInt(42), heap.getField(b, 0));
+  }
+
+  @Tag("Q7") @Test
+  public void gcIncrementalLazySweepAndCoalescing() {
+    var dict = new Dictionary();
+    var heap = incrementalHeap(dict, 32, 4);
+    var classWords = new int[15];
+    for (var fieldCount = 0; fieldCount < classWords.length; fieldCount++) {
+      var clazz = JSObject.newObject(null);
+      for (var i = 0; i < fieldCount; i++) {
+        clazz.register("field" + i, i);
+      }
+      classWords[fieldCount] = encodeDictObject(clazz, dict);
+    }
+    // 2 dead objects of 8 words followed by a live object, 13 words are left at the end of the heap
+    heap.allocate(classWords[6], 6);
+    heap.allocate(classWords[6], 6);
+    int[] roots = { encodeReference(heap.allocate(classWords[1], 1)) };
+    Heap.Roots stackRoots = operator -> roots[0] = operator.applyAsInt(roots[0]);
+
+    // 16 words only fit once the dead objects are swept and coalesced
+    heap.collect(stackRoots, 16);
+    assertEquals(1, heap.stats().collections());
+    assertEquals(0, heap.allocate(classWords[14], 14));
+
+    // the next collection is swept lazily by the following allocations
+    heap.collect(stackRoots, 0);
+    heap.allocate(classWords[1], 1);
+    assertEquals(1, heap.stats().collections());
+    finishCollection(heap, classWords[1]);
+    assertEquals(2, heap.stats().collections());
+  }
+
+  @Tag("Q7") @Test
+  public void gcIncrementalWorkBudget() {
+    var code = """
+        function make(i) {
+          return { value: i, next: 0 };
+        }
+        function list(n, next) {
+          if (n == 0) {
+            return next;
+          } else {
+            return list(n - 1, { value: n, next: next });
+          }
+        }
+        function loop(i, keep) {
+          if (i == 0) {
+            return keep.value;
+          } else {
+            make(i);
+            return loop(i - 1, keep);
+          }
+        }
+        print(loop(50000, list(20000, 0)));
+        """;
+    // an object or a free chunk is at least one word, so a step does not process more objects than its budget,
+    // without a budget, a step marks all the objects of the list
+    var heap = Heap.create(GCMode.INCREMENTAL, new Dictionary(), 1 << 18, 1 << 20, HeapStorage.ARRAY,
+        IncrementalHeap.DEFAULT_WORK_BUDGET);
+    assertEquals("1\n", execute(code, heap));
+    var maxStepObjects = ((IncrementalHeap) heap).maxStepObjects();
+    assertTrue(maxStepObjects > 0 && maxStepObjects <= IncrementalHeap.DEFAULT_WORK_BUDGET, "" + maxStepObjects);
+
+    var unboundedHeap = Heap.create(GCMode.INCREMENTAL, new Dictionary(), 1 << 18, 1 << 20, HeapStorage.ARRAY,
+        Integer.MAX_VALUE);
+    assertEquals("1\n", execute(code, unboundedHeap));
+    assertTrue(((IncrementalHeap) unboundedHeap).maxStepObjects() >= 20_000);
+
+    assertThrows(IllegalArgumentException.class,
+        () -> Heap.create(GCMode.INCREMENTAL, new Dictionary(), 32, 32, HeapStorage.ARRAY, 0));
+  }
+
+  @Tag("Q7") @Test
+  public void gcIncrementalWorkBudgetConfig() {
+    var config = new StackInterpreter.Config(GCMode.INCREMENTAL, 4096, 1 << 20, 32, 1024, Dispatch.SWITCH,
+        HeapStorage.ARRAY, 8);
+    assertEquals(8, config.gcWorkBudget());
+    assertEquals(IncrementalHeap.DEFAULT_WORK_BUDGET, StackInterpreter.Config.DEFAULT.gcWorkBudget());
+    var heap = (IncrementalHeap) config.createHeap(new Dictionary());
+    assertEquals("100\n", execute(LINKED_LIST_SCRIPT, heap));
+    assertTrue(heap.stats().collections() > 0);
+    assertTrue(heap.maxStepObjects() <= 8, "" + heap.maxStepObjects());
+    assertThrows(IllegalArgumentException.class,
+        () -> new StackInterpreter.Config(GCMode.INCREMENTAL, 4096, 1 << 20, 4096, 1 << 24, Dispatch.SWITCH,
+            HeapStorage.ARRAY, 0));
+  }
+
+  // a list that is alive until the end, the heap has to grow
+  private static final String LINKED_LIST_SCRIPT = """
+      function list(n) {
+        if (n == 0) {
+          return 0;
+        } else {
+          return { value: n, next: list(n - 1) };
+        }
+      }
+      var l = list(100);
+      print(l.value);
+      """;
+
+  @Tag("Q8") @Test
+  public void gcGrowHeap() {
+    for (var gcMode : GCMode.values()) {
+      var heap = Heap.create(gcMode, new Dictionary(), 32, 1024);
+      assertEquals("100\n", execute(LINKED_LIST_SCRIPT, heap), gcMode.toString());
+      assertTrue(heap.size() > 32, gcMode + " " + heap.size());
+    }
+  }
+
+  private static Code gcTestBoxedIntCode(Dictionary dict) {
+  	int[] instrs = {
+  		/* 0:*/ CONST, encodeSmallInt(100),
+  	  /* 2:*/ STORE, 1,
+
+  	  /* 4:*/ LOAD, 1,
+  	  /* 6:*/ JUMP_IF_FALSE, 34,
+
+  	  /* 8:*/ LOOKUP, encodeDictObject("+", dict),
+  	  /*10:*/ CONST, encodeDictObject(UNDEFINED, dict),
+  	  /*12:*/ CONST, encodeSmallInt(1073741823),
+  	  /*14:*/ LOAD, 1,
+  	  /*16:*/ FUNCALL, 2, // too big for a small int
+  	  /*18:*/ STORE, 2,
+
+  	  /*20:*/ LOOKUP, encodeDictObject("-", dict),
+  	  /*22:*/ CONST, encodeDictObject(UNDEFINED, dict),
+  	  /*24:*/ LOAD, 1,
+  	  /*26:*/ CONST, encodeSmallInt(1),
+  	  /*28:*/ FUNCALL, 2,
+  	  /*30:*/ STORE, 1,
+
+  	  /*32:*/ GOTO, 4,
+
+  	  /*34:*/ LOAD, 2,
+  	  /*36:*/ PRINT,
+
+  	  /*37:*/ CONST, encodeDictObject(UNDEFINED, dict),
+  	  /*39:*/ RET
+  	};
+    return new Code(instrs, 1, 3);
+  }
+
+  @Tag("Q9") @Test
+  public void gcTestBoxedInt() {
+    for (var gcMode : GCMode.values()) {
+      var dict = new Dictionary();
+      var code = gcTestBoxedIntCode(dict);
+      var size = dict.size();
+      assertEquals("1073741824\n", execute(code, dict, gcMode), gcMode.toString());
+      // the boxed integers are allocated on the heap, not in the dictionary
+      assertTrue(dict.size() < size + 10, gcMode + " " + dict.size());
+    }
+  }
+
+  @Tag("Q10") @Test
+  public void gcTestThreadedDispatch() {
+    var config = new StackInterpreter.Config(GCMode.MARK_COMPACT, 4096, 1 << 20, 96, 96, Dispatch.THREADED);
+    for (var gcMode : GCMode.values()) {
+      var dict = new Dictionary();
+      assertEquals("1\n", execute(gcTestOldToYoungCode(dict), dict, Heap.create(gcMode, dict, 96), config), gcMode.toString());
+      var dict2 = new Dictionary();
+      assertEquals("1073741824\n", execute(gcTestBoxedIntCode(dict2), dict2, Heap.create(gcMode, dict2, 96), config),
+          gcMode.toString());
+    }
+  }
+
+  @Tag("Q11") @Test
+  public void gcTestHeapObjectViews() {
+    for (var gcMode : GCMode.values()) {
+      var dict = new Dictionary();
+      var heap = Heap.create(gcMode, dict, 96);
+      var clazz = JSObject.newObject(null);
+      clazz.register("x", 0);
+      clazz.register("next", 1);
+      var classWord = encodeDictObject(clazz, dict);
+      var garbage = heap.allocate(classWord, 2);
+      heap.putField(garbage, 0, encodeSmallInt(0));
+      heap.putField(garbage, 1, encodeSmallInt(0));
+      var ref = heap.allocate(classWord, 2);
+      heap.putField(ref, 0, encodeSmallInt(42));
+      heap.putField(ref, 1, encodeReference(ref));
+
+      // a cycle is decoded lazily and the same reference is decoded to the same view
+      var view = (JSObject) decodeAnyValue(encodeReference(ref), dict, heap);
+      assertSame(view, decodeAnyValue(encodeReference(ref), dict, heap), gcMode.toString());
+      assertSame(view, view.lookup("next"), gcMode.toString());
+
+      // no root on the stack, the view keeps the object alive and follows it if it moves
+      heap.collect(operator -> {}, 0);
+      assertEquals(42, view.lookup("x"), gcMode.toString());
+      assertSame(view, view.lookup("next"), gcMode.toString());
+    }
+  }
+
+  @Tag("Q12") @Test
+  public void gcTestHeapStrings() {
+    for (var gcMode : GCMode.values()) {
+      var dict = new Dictionary();
+      var outStream = new ByteArrayOutputStream(8192);
+      var globalEnv = StackInterpreter.createGlobalEnv(new PrintStream(outStream));
+      // a native function that creates a new string at each call
+      globalEnv.register("name", JSObject.newFunction("name", (self, receiver, args) -> "name\u00e9" + args[0]));
+      var script = createScript(new StringReader("""
+          function loop(n) {
+            if (n == 0) {
+              return 0;
+            } else {
+              name(n);
+              return loop(n - 1);
+            }
+          }
+          loop(200);
+          print(name(7) == name(7));
+          print(name(7) == name(8));
+          print(name(7) < name(8));
+          """));
+      var main = InstrRewriter.createFunction(Optional.of("main"), List.of(), script.body(), dict, globalEnv,
+          StackInterpreter.Config.DEFAULT);
+      StackInterpreter.execute(main, dict, globalEnv, StackInterpreter.Config.DEFAULT, Heap.create(gcMode, dict, 96));
+      assertEquals("1\n0\n1\n", outStream.toString(StandardCharsets.UTF_8).replace("\r\n", "\n"), gcMode.toString());
+      // the strings are allocated on the heap, not in the dictionary
+      assertTrue(dict.size() < 50, gcMode + " " + dict.size());
+    }
+  }
+  @Tag("Q12") @Test
+  public void heapStringEncoding() {
+    var dict = new Dictionary();
+    var heap = Heap.create(GCMode.MARK_COMPACT, dict, 96);
+    for (var string : List.of("", "a", "abcd", "abcde", "\u00e9t\u00e9", "\u03bb", "x\u03bbyz")) {
+      var ref = heap.allocate(encodeDictObject(Heap.STRING_CLASS, dict), Heap.stringWordCount(string));
+      heap.initString(ref, string);
+      assertEquals(string, decodeAnyValue(encodeReference(ref), dict, heap));
+    }
+  }
+
+  @Tag("Q13") @Test
+  public void gcHeapStorages() {
+    for (var storage : HeapStorage.values()) {
+      for (var gcMode : GCMode.values()) {
+        var message = storage + " " + gcMode;
+        var dict = new Dictionary();
+        assertEquals("1\n", execute(gcTestOldToYoungCode(dict), dict, Heap.create(gcMode, dict, 96, 96, storage)), message);
+        var dict2 = new Dictionary();
+        assertEquals("1073741824\n", execute(gcTestBoxedIntCode(dict2), dict2, Heap.create(gcMode, dict2, 96, 96, storage)), message);
+        var heap = Heap.create(gcMode, new Dictionary(), 32, 1024, storage);
+        assertEquals("100\n", execute(LINKED_LIST_SCRIPT, heap), message);
+        assertTrue(heap.size() > 32, message + " " + heap.size());
+      }
+    }
+  }
+  @Tag("Q13") @Test
+  public void bufferHeapMemory() {
+    for (var storage : List.of(HeapStorage.DIRECT, HeapStorage.MAPPED)) {
+      var memory = HeapMemory.create(storage, 10);
+      for (var i = 0; i < 10; i++) {
+        memory.set(i, i);
+      }
+      // the words are kept and the new words span several chunks
+      memory = memory.grow(200_000);
+      memory.set(199_999, 42);
+      memory.copy(0, 2, 8);   // overlapping ranges
+      memory.copy(65_530, 65_540, 10);
+      var result = memory;
+      assertAll(
+          () -> assertEquals(200_000, result.size(), storage.toString()),
+          () -> assertEquals(0, result.get(2), storage.toString()),
+          () -> assertEquals(7, result.get(9), storage.toString()),
+          () -> assertEquals(42, result.get(199_999), storage.toString())
+      );
+    }
+  }
+
+  @Tag("Q14") @Test
+  public void gcForwardedObjects() {
+    for (var gcMode : GCMode.values()) {
+      var dict = new Dictionary();
+      var heap = Heap.create(gcMode, dict, 96);
+      var clazz = JSObject.newObject(null);
+      clazz.register("field", 0);
+      var classWord = encodeDictObject(clazz, dict);
+      var holder = heap.allocate(classWord, 1);
+      var object = heap.allocate(classWord, 1);
+      heap.putField(object, 0, encodeSmallInt(42));
+      heap.putField(holder, 0, encodeReference(object));
+      var relocated = heap.allocate(classWord, 1);
+      heap.putField(relocated, 0, encodeSmallInt(42));
+      heap.forward(object, relocated);
+      int[] roots = { encodeReference(holder), encodeReference(relocated) };
+
+      // the incremental GC keeps a forwarded object until the next collection
+      for (var i = 0; i < 2; i++) {
+        heap.collect(operator -> {
+          for (var j = 0; j < roots.length; j++) {
+            roots[j] = operator.applyAsInt(roots[j]);
+          }
+        }, 0);
+        if (gcMode == GCMode.INCREMENTAL) {
+          finishCollection(heap, classWord);
+        }
+      }
+      var newHolder = decodeReference(roots[0]);
+      assertEquals(roots[1], heap.getField(newHolder, 0), gcMode.toString());
+      assertEquals(encodeSmallInt(42), heap.getField(decodeReference(roots[1]), 0), gcMode.toString());
+      heap.forEachObject(ref -> assertFalse(dict.isForwarded(heap.classWord(ref)), gcMode + " " + ref));
+    }
+  }
 }
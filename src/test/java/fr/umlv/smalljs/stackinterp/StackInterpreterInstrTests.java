@@ -10,14 +10,18 @@ import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 
 import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+import static fr.umlv.smalljs.stackinterp.Instructions.ADD;
 import static fr.umlv.smalljs.stackinterp.Instructions.CONST;
 import static fr.umlv.smalljs.stackinterp.Instructions.DUP;
 import static fr.umlv.smalljs.stackinterp.Instructions.FUNCALL;
 import static fr.umlv.smalljs.stackinterp.Instructions.GET;
+import static fr.umlv.smalljs.stackinterp.Instructions.GET_SLOT;
 import static fr.umlv.smalljs.stackinterp.Instructions.GOTO;
 import static fr.umlv.smalljs.stackinterp.Instructions.JUMP_IF_FALSE;
+import static fr.umlv.smalljs.stackinterp.Instructions.JUMP_IF_NOT_LT;
 import static fr.umlv.smalljs.stackinterp.Instructions.LOAD;
 import static fr.umlv.smalljs.stackinterp.Instructions.LOOKUP;
+import static fr.umlv.smalljs.stackinterp.Instructions.LOOKUP_CACHED;
 import static fr.umlv.smalljs.stackinterp.Instructions.NEW;
 import static fr.umlv.smalljs.stackinterp.Instructions.POP;
 import static fr.umlv.smalljs.stackinterp.Instructions.PRINT;
@@ -1192,4 +1196,180 @@ public class StackInterpreterInstrTests {
 //  	assertEquals("hello 42\nhello 42\n",
 //        execute(new Code(instrs, 1, 2), dict));
 //  }
+
+  @Tag("Q20") @Test
+  public void operatorAdd() {
+    // print(3 + 2)
+  	var dict = new Dictionary();
+  	int[] instrs = {
+  		CONST, encodeSmallInt(3),
+  		CONST, encodeSmallInt(2),
+  		ADD, FUNCALL, 2,
+  		PRINT,
+  		POP,
+  		CONST, encodeDictObject(UNDEFINED, dict),
+  		RET
+  	};
+    assertEquals("5\n", execute(new Code(instrs, 1, 1), dict));
+  }
+
+  @Tag("Q20") @Test
+  public void operatorAddOverflow() {
+    // print(1073741823 + 1073741823)
+  	var dict = new Dictionary();
+  	int[] instrs = {
+  		CONST, encodeSmallInt(1073741823),
+  		CONST, encodeSmallInt(1073741823),
+  		ADD, FUNCALL, 2,
+  		PRINT,
+  		POP,
+  		CONST, encodeDictObject(UNDEFINED, dict),
+  		RET
+  	};
+    assertEquals("2147483646\n", execute(new Code(instrs, 1, 1), dict));
+  }
+
+  private static String executeJumpIfNotLt(Object left, Object right) {
+    // if (left < right) { print("less") } else { print("greater") }
+  	var dict = new Dictionary();
+  	int[] instrs = {
+  		/* 0:*/ CONST, TagValues.encodeAnyValue(left, dict),
+  		/* 2:*/ CONST, TagValues.encodeAnyValue(right, dict),
+  		/* 4:*/ JUMP_IF_NOT_LT, FUNCALL, 2, JUMP_IF_FALSE, 13,
+  		/* 9:*/ CONST, encodeDictObject("less", dict),
+  		/*11:*/ GOTO, 15,
+  		/*13:*/ CONST, encodeDictObject("greater", dict),
+  		/*15:*/ PRINT,
+  		/*16:*/ POP,
+  		/*17:*/ CONST, encodeDictObject(UNDEFINED, dict),
+  		/*19:*/ RET
+  	};
+    return execute(new Code(instrs, 1, 1), dict);
+  }
+
+  @Tag("Q20") @Test
+  public void jumpIfNotLt() {
+    assertEquals("less\n", executeJumpIfNotLt(1, 2));
+    assertEquals("greater\n", executeJumpIfNotLt(2, 1));
+    assertEquals("greater\n", executeJumpIfNotLt(2, 2));
+  }
+
+  @Tag("Q20") @Test
+  public void jumpIfNotLtNotOnSmallInts() {
+    assertEquals("less\n", executeJumpIfNotLt("a", "b"));
+    assertEquals("greater\n", executeJumpIfNotLt("b", "a"));
+  }
+
+  @Tag("Q21") @Test
+  public void funcallInlineCache() {
+    // function f() { return 42 }; f(); f()
+  	var dict = new Dictionary();
+  	var f = newFunction("f", new Code(new int[] {
+  		CONST, encodeSmallInt(42),
+  		RET
+  	}, 1, 1));
+  	var qualifier = encodeDictObject(f, dict);
+  	int[] instrs = {
+  		/* 0:*/ CONST, qualifier,
+  		/* 2:*/ CONST, encodeDictObject(UNDEFINED, dict),
+  		/* 4:*/ FUNCALL, 0,
+  		/* 6:*/ PRINT,
+  		/* 7:*/ POP,
+  		/* 8:*/ CONST, encodeDictObject(UNDEFINED, dict),
+  		/*10:*/ RET
+  	};
+  	var code = new Code(instrs, 1, 1);
+    assertEquals("42\n", execute(code, dict));
+    assertEquals(qualifier, code.inlineCaches()[4]);
+    assertEquals(f, dict.function(code.inlineCaches()[5]));
+  }
+
+  @Tag("Q22") @Test
+  public void quickening() {
+    // var o = { x: 3 }; print(o.x)
+  	var dict = new Dictionary();
+  	var clazz = JSObject.newObject(null);
+  	clazz.register("x", 0);
+  	int[] instrs = {
+  		/* 0:*/ CONST, encodeSmallInt(3),
+  		/* 2:*/ NEW, encodeDictObject(clazz, dict),
+  		/* 4:*/ STORE, 1,
+  		/* 6:*/ LOOKUP, encodeDictObject("print", dict),
+  		/* 8:*/ CONST, encodeDictObject(UNDEFINED, dict),
+  		/*10:*/ LOAD, 1,
+  		/*12:*/ GET, encodeDictObject("x", dict),
+  		/*14:*/ FUNCALL, 1,
+  		/*16:*/ POP,
+  		/*17:*/ CONST, encodeDictObject(UNDEFINED, dict),
+  		/*19:*/ RET
+  	};
+  	var code = new Code(instrs, 1, 2);
+    assertEquals("3\n", execute(code, dict));
+    assertEquals(LOOKUP_CACHED, instrs[6]);
+    assertEquals(GET_SLOT, instrs[12]);
+    assertEquals(0, code.inlineCaches()[13]);
+    // execute the quickened code
+    assertEquals("3\n", execute(code, dict));
+  }
+
+  @Tag("Q23") @Test
+  public void maxStackDepth() {
+    // var o = { x: 3, y: 4 }; print(o.x + 1)
+  	var dict = new Dictionary();
+  	var clazz = JSObject.newObject(null);
+  	clazz.register("x", 0);
+  	clazz.register("y", 1);
+  	int[] instrs = {
+  		/* 0:*/ CONST, encodeSmallInt(3),
+  		/* 2:*/ CONST, encodeSmallInt(4),
+  		/* 4:*/ NEW, encodeDictObject(clazz, dict),  // 1
+  		/* 6:*/ STORE, 1,                            // 0
+  		/* 8:*/ LOOKUP, encodeDictObject("print", dict),
+  		/*10:*/ CONST, encodeDictObject(UNDEFINED, dict),
+  		/*12:*/ LOAD, 1,
+  		/*14:*/ GET, encodeDictObject("x", dict),
+  		/*16:*/ CONST, encodeSmallInt(1),           // 4
+  		/*18:*/ ADD, FUNCALL, 2,                     // 3, 6 on the slow path
+  		/*21:*/ FUNCALL, 1,
+  		/*23:*/ POP,
+  		/*24:*/ CONST, encodeDictObject(UNDEFINED, dict),
+  		/*26:*/ RET
+  	};
+    assertEquals(6, Instructions.maxStackDepth(instrs, dict));
+    assertEquals("4\n", execute(new Code(instrs, 1, 2, 6), dict));
+  }
+
+  @Tag("Q23") @Test
+  public void maxStackDepthBranches() {
+    // if (a) { print(1) } else { 2 }
+  	var dict = new Dictionary();
+  	int[] instrs = {
+  		/* 0:*/ LOAD, 0,
+  		/* 2:*/ JUMP_IF_FALSE, 15,
+  		/* 4:*/ LOOKUP, encodeDictObject("print", dict),
+  		/* 6:*/ CONST, encodeDictObject(UNDEFINED, dict),
+  		/* 8:*/ CONST, encodeSmallInt(1),            // 3
+  		/*10:*/ FUNCALL, 1,
+  		/*12:*/ POP,
+  		/*13:*/ GOTO, 18,
+  		/*15:*/ CONST, encodeSmallInt(2),
+  		/*17:*/ POP,
+  		/*18:*/ CONST, encodeDictObject(UNDEFINED, dict),
+  		/*20:*/ RET
+  	};
+    assertEquals(3, Instructions.maxStackDepth(instrs, dict));
+  }
+
+  @Tag("Q23") @Test
+  public void maxStackDepthInconsistent() {
+  	var dict = new Dictionary();
+  	int[] instrs = {
+  		/* 0:*/ LOAD, 0,
+  		/* 2:*/ JUMP_IF_FALSE, 6,
+  		/* 4:*/ CONST, encodeSmallInt(1),
+  		/* 6:*/ CONST, encodeDictObject(UNDEFINED, dict),
+  		/* 8:*/ RET
+  	};
+    assertThrows(IllegalArgumentException.class, () -> Instructions.maxStackDepth(instrs, dict));
+  }
 }
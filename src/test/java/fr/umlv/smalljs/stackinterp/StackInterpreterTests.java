@@ -1,25 +1,36 @@
 package fr.umlv.smalljs.stackinterp;
 
 import fr.umlv.smalljs.rt.Failure;
+import fr.umlv.smalljs.rt.JSObject;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Optional;
 
 import static fr.umlv.smalljs.ast.ASTBuilder.createScript;
+import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SuppressWarnings("static-method")
 public class StackInterpreterTests {
   private static String execute(String code) {
+    return execute(code, StackInterpreter.Config.DEFAULT);
+  }
+  private static String execute(String code, StackInterpreter.Config config) {
     var script = createScript(new StringReader(code));
     var outStream = new ByteArrayOutputStream(8192);
-    StackInterpreter.interpret(script, new PrintStream(outStream));
+    StackInterpreter.interpret(script, new PrintStream(outStream), config);
     return outStream.toString(StandardCharsets.UTF_8).replace("\r\n", "\n");
   }
 
@@ -394,4 +405,907 @@ public class StackInterpreterTests {
                 object.foo(42);
                 """));
   }
+
+  @Tag("Q18") @Test
+  public void deepRecursion() {
+    assertEquals("5050\n", execute("""
+                function sum(n) {
+                  if (n < 1) {
+                    return 0;
+                  } else {
+                    return n + sum(n - 1);
+                  }
+                }
+                print(sum(100));
+                """,
+        new StackInterpreter.Config(GCMode.MARK_COMPACT, 16, 4096, 96, 96)));
+  }
+  @Tag("Q18") @Test
+  public void stackOverflow() {
+    var failure = assertThrows(Failure.class, () -> execute("""
+                function f(n) {
+                  return f(n) + 1;
+                }
+                f(1);
+                """,
+        new StackInterpreter.Config(GCMode.MARK_COMPACT, 16, 4096, 96, 96)));
+    assertEquals("Stack overflow", failure.getMessage());
+  }
+
+  @Tag("Q19") @Test
+  public void negativeIntegers() {
+    assertEquals("-2\n", execute("print(3 - 5)\n"));
+    assertEquals("-8\n", execute("print(5 - 3 - 10)\n"));
+  }
+  @Tag("Q19") @Test
+  public void largeIntegers() {
+    assertEquals("1073741824\n", execute("print(1073741823 + 1)\n"));
+    assertEquals("-1073741825\n", execute("print(0 - 1073741824 - 1)\n"));
+    assertEquals("2147483647\n", execute("""
+                var a = 2147483647;
+                var b = a;
+                print(b);
+                """));
+  }
+
+  @Tag("Q20") @Test
+  public void operators() {
+    assertEquals("1\n", execute("print(7 % 3)\n"));
+    assertEquals("-3\n", execute("print((0 - 7) / 2)\n"));
+    assertEquals("-1\n", execute("print((0 - 7) % 2)\n"));
+    assertEquals("2147483646\n", execute("print(1073741823 * 2)\n"));
+    assertEquals("1\n0\n1\n", execute("print(2 == 2)\nprint(2 != 2)\nprint(3 >= 2)\n"));
+  }
+  @Tag("Q20") @Test
+  public void operatorsNotOnSmallInts() {
+    assertEquals("1\n", execute("print('a' < 'b')\n"));
+    assertEquals("-2147483648\n", execute("print(0 - 1073741824 - 1073741824)\n"));
+    assertEquals("less\n", execute("""
+                if ('a' < 'b') {
+                  print('less');
+                } else {
+                  print('greater');
+                }
+                """));
+  }
+  @Tag("Q20") @Test
+  public void redefineAnOperator() {
+    assertEquals("42\n", execute("""
+                function +(a, b) {
+                  return 42;
+                }
+                print(1 + 2);
+                """));
+  }
+  @Tag("Q20") @Test
+  public void redefineAComparison() {
+    assertEquals("greater\n", execute("""
+                function <(a, b) {
+                  return 0;
+                }
+                if (1 < 2) {
+                  print('less');
+                } else {
+                  print('greater');
+                }
+                """));
+  }
+
+  @Tag("Q21") @Test
+  public void polymorphicCallSite() {
+    assertEquals("1\n2\n1\n", execute("""
+                function foo() {
+                  return 1;
+                }
+                function bar() {
+                  return 2;
+                }
+                function call(f) {
+                  return f();
+                }
+                print(call(foo));
+                print(call(bar));
+                print(call(foo));
+                """));
+  }
+  @Tag("Q21") @Test
+  public void callHeapObject() {
+    // the first object is at the address 0, an empty inline cache must not match it
+    var failure = assertThrows(Failure.class, () -> execute("""
+                function f() {
+                  var o = { x: 1 };
+                  print("start");
+                  o();
+                }
+                f();
+                """));
+    assertTrue(failure.getMessage().startsWith("can not call"), failure.getMessage());
+    failure = assertThrows(Failure.class, () -> execute("""
+                function f() {
+                  var o = { x: 1 };
+                  print("start");
+                  o();
+                }
+                f();
+                """, THREADED));
+    assertTrue(failure.getMessage().startsWith("can not call"), failure.getMessage());
+  }
+
+  @Tag("Q22") @Test
+  public void fieldAccessWithSeveralClasses() {
+    assertEquals("1\n4\n1\n", execute("""
+                function getX(o) {
+                  return o.x;
+                }
+                var a = { x: 1, y: 2 };
+                var b = { y: 3, x: 4 };
+                print(getX(a));
+                print(getX(b));
+                print(getX(a));
+                """));
+  }
+  @Tag("Q22") @Test
+  public void fieldAssignmentWithSeveralClasses() {
+    assertEquals("5\n6\n", execute("""
+                function setX(o, v) {
+                  o.x = v;
+                }
+                var a = { x: 1, y: 2 };
+                var b = { y: 3, x: 4 };
+                setX(a, 5);
+                setX(b, 6);
+                print(a.x);
+                print(b.x);
+                """));
+  }
+  @Tag("Q22") @Test
+  public void redefineAGlobalFunction() {
+    assertEquals("1\n2\n", execute("""
+                function g() {
+                  return 1;
+                }
+                function show() {
+                  return g();
+                }
+                print(show());
+                function g() {
+                  return 2;
+                }
+                print(show());
+                """));
+  }
+
+  private static final StackInterpreter.Config THREADED = new StackInterpreter.Config(GCMode.MARK_COMPACT, 16, 4096, 96, 4096,
+      Dispatch.THREADED);
+
+  @Tag("Q23") @Test
+  public void threadedDispatch() {
+    assertEquals("hello\n5\n-8\n2147483646\n1\n", execute("""
+                print('hello');
+                print(3 + 2);
+                print(5 - 3 - 10);
+                print(1073741823 * 2);
+                print(7 % 3);
+                """, THREADED));
+  }
+  @Tag("Q23") @Test
+  public void threadedDispatchRecursion() {
+    assertEquals("21\n", execute("""
+                function fibo(n) {
+                  if (n < 2) {
+                    return 1;
+                  } else {
+                    return fibo(n - 1) + fibo(n - 2);
+                  }
+                }
+                print(fibo(7));
+                """, THREADED));
+  }
+  @Tag("Q23") @Test
+  public void threadedDispatchObjects() {
+    assertEquals("1\n4\n5\nundefined\n", execute("""
+                function getX(o) {
+                  return o.x;
+                }
+                var a = { x: 1, y: 2 };
+                var b = { y: 3, x: 4 };
+                print(getX(a));
+                print(getX(b));
+                a.x = 5;
+                print(a.x);
+                print(a.z);
+                """, THREADED));
+  }
+  @Tag("Q23") @Test
+  public void threadedDispatchRedefinitions() {
+    assertEquals("1\n2\ngreater\n", execute("""
+                function g() {
+                  return 1;
+                }
+                function show() {
+                  return g();
+                }
+                print(show());
+                function g() {
+                  return 2;
+                }
+                print(show());
+                function <(a, b) {
+                  return 0;
+                }
+                if (1 < 2) {
+                  print('less');
+                } else {
+                  print('greater');
+                }
+                """, THREADED));
+  }
+  @Tag("Q23") @Test
+  public void threadedDispatchStackOverflow() {
+    var failure = assertThrows(Failure.class, () -> execute("""
+                function f(n) {
+                  return f(n) + 1;
+                }
+                f(1);
+                """, THREADED));
+    assertEquals("Stack overflow", failure.getMessage());
+  }
+
+  private static final StackInterpreter.Config TIERED = new StackInterpreter.Config(GCMode.MARK_COMPACT, 4096, 1 << 20, 4096, 1 << 24,
+      Dispatch.TIERED);
+
+  @Tag("Q24") @Test
+  public void tieredDispatchRecursion() {
+    assertEquals("10946\n", execute("""
+                function fibo(n) {
+                  if (n < 2) {
+                    return 1;
+                  } else {
+                    return fibo(n - 1) + fibo(n - 2);
+                  }
+                }
+                print(fibo(20));
+                """, TIERED));
+  }
+  @Tag("Q24") @Test
+  public void tieredDispatchMixedMode() {
+    assertEquals("1125750\n1125750000\n", execute("""
+                function get(n) {
+                  var o = { v: n, self: 0 };
+                  o.self = o;
+                  return o.v;
+                }
+                function sum(n) {
+                  if (n == 0) {
+                    return 0;
+                  } else {
+                    return get(n) + sum(n - 1);
+                  }
+                }
+                var s = sum(1500);
+                print(s);
+                print(s * 1000);
+                """, TIERED));
+  }
+  @Tag("Q24") @Test
+  public void tieredDispatchBoxedIntegers() {
+    assertEquals("1073742500\n", execute("""
+                function add(a, b) {
+                  return a + b;
+                }
+                function loop(n, acc) {
+                  if (n == 0) {
+                    return acc;
+                  } else {
+                    return loop(n - 1, add(acc, 1));
+                  }
+                }
+                print(loop(1500, 1073741000));
+                """, TIERED));
+  }
+  @Tag("Q24") @Test
+  public void tieredDispatchRedefinitions() {
+    assertEquals("2000\n4000\ngreater\n", execute("""
+                function g() {
+                  return 1;
+                }
+                function count(n) {
+                  if (n == 0) {
+                    return 0;
+                  } else {
+                    return g() + count(n - 1);
+                  }
+                }
+                print(count(2000));
+                function g() {
+                  return 2;
+                }
+                print(count(2000));
+                function <(a, b) {
+                  return 0;
+                }
+                if (1 < 2) {
+                  print('less');
+                } else {
+                  print('greater');
+                }
+                """, TIERED));
+  }
+  @Tag("Q24") @Test
+  public void tieredDispatchStackOverflow() {
+    var failure = assertThrows(Failure.class, () -> execute("""
+                function f(n) {
+                  return f(n) + 1;
+                }
+                f(1);
+                """, TIERED));
+    assertEquals("Stack overflow", failure.getMessage());
+  }
+  @Tag("Q24") @Test
+  public void tieredDispatchDeepRecursion() {
+    assertEquals("100000\n", execute("""
+                function f(n) {
+                  if (n == 0) {
+                    return 0;
+                  } else {
+                    return f(n - 1) + 1;
+                  }
+                }
+                print(f(100000));
+                """, TIERED));
+  }
+
+  private static String compileAndRun(String code) throws IOException {
+    var script = createScript(new StringReader(code));
+    var path = Files.createTempFile("smalljs", ".jsc");
+    try {
+      StackInterpreter.compile(script, path);
+      var outStream = new ByteArrayOutputStream(8192);
+      StackInterpreter.interpret(path, new PrintStream(outStream), StackInterpreter.Config.DEFAULT);
+      return outStream.toString(StandardCharsets.UTF_8).replace("\r\n", "\n");
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  @Tag("Q25") @Test
+  public void codeFile() throws IOException {
+    assertEquals("hello world\n2147483647\n4\n120\n", compileAndRun("""
+                print('hello world');
+                print(2147483647);
+                function getX(o) {
+                  return o.x;
+                }
+                var b = { y: 3, x: 4 };
+                print(getX(b));
+                function fact(n) {
+                  if (n < 2) {
+                    return 1;
+                  } else {
+                    return n * fact(n - 1);
+                  }
+                }
+                print(fact(5));
+                """));
+  }
+  @Tag("Q25") @Test
+  public void codeFileNestedFunctions() throws IOException {
+    assertEquals("1\n2\n", compileAndRun("""
+                function apply(f, v) {
+                  return f(v);
+                }
+                print(apply(function(x) { return x; }, 1));
+                print(apply(function(x) { return x + 1; }, 1));
+                """));
+  }
+
+  @Tag("Q26") @Test
+  public void lazyFunctionNotCalled() {
+    // the body of f is invalid but f is never called, so it is never rewritten
+    assertEquals("ok\n", execute("""
+                function f() {
+                  x = 3;
+                }
+                print('ok');
+                """));
+  }
+  @Tag("Q26") @Test
+  public void lazyFunctionCalled() {
+    var failure = assertThrows(Failure.class, () -> execute("""
+                function f() {
+                  x = 3;
+                }
+                print('ok');
+                f();
+                """));
+    assertEquals("unknown local variable x", failure.getMessage());
+  }
+  @Tag("Q26") @Test
+  public void printLazyFunction() {
+    // the function is printed the same way before and after its code is created
+    var function = """
+        { // function f
+          apply: ... // function f
+          proto: null
+        }
+        """;
+    assertEquals(function + function, execute("""
+                function f() {
+                }
+                print(f);
+                f();
+                print(f);
+                """));
+  }
+
+  @Tag("Q27") @Test
+  public void nativeOperators() {
+    assertEquals("1073741824\n2147483647 -2147483648\n1\n0\n1\n1\n", execute("""
+                var a = 1073741823;
+                print(a + 1);
+                var b = a + a + 1;
+                print(b, b + 1);
+                print('abc' < 'abd');
+                print('abc' == 'abd');
+                var o = { x: 1 };
+                print(o == o);
+                print(b - 1 > a);
+                """));
+  }
+
+  @Tag("Q28") @Test
+  public void printCyclicObject() {
+    assertEquals("""
+        { // object
+          x: 1
+          next: ... // object
+          proto: null
+        }
+        """, execute("""
+                var o = { x: 1, next: 0 };
+                o.next = o;
+                print(o);
+                """));
+  }
+  @Tag("Q30") @Test
+  public void tailCall() {
+    assertEquals("10000\n", execute("""
+                function count(n, acc) {
+                  if (n == 0) {
+                    return acc;
+                  } else {
+                    return count(n - 1, acc + 1);
+                  }
+                }
+                print(count(10000, 0));
+                """,
+        new StackInterpreter.Config(GCMode.MARK_COMPACT, 16, 4096, 96, 4096)));
+  }
+  @Tag("Q30") @Test
+  public void tailCallMutualRecursion() {
+    assertEquals("1\n0\n", execute("""
+                function even(n) {
+                  if (n == 0) {
+                    return 1;
+                  } else {
+                    var next = n - 1;
+                    return odd(next, n);
+                  }
+                }
+                function odd(n, previous) {
+                  if (n == 0) {
+                    return 0;
+                  } else {
+                    return even(n - 1);
+                  }
+                }
+                print(even(10000));
+                print(odd(9998, 0));
+                """,
+        new StackInterpreter.Config(GCMode.MARK_COMPACT, 16, 4096, 96, 4096)));
+  }
+  @Tag("Q30") @Test
+  public void tailCallMethod() {
+    assertEquals("5000\n", execute("""
+                var counter = {
+                  count: function(n, acc) {
+                    if (n == 0) {
+                      return acc;
+                    } else {
+                      return this.count(n - 1, acc + 1);
+                    }
+                  }
+                };
+                print(counter.count(5000, 0));
+                """,
+        new StackInterpreter.Config(GCMode.MARK_COMPACT, 16, 4096, 96, 4096)));
+  }
+  @Tag("Q30") @Test
+  public void tailCallThreadedDispatch() {
+    assertEquals("10000\n", execute("""
+                function count(n, acc) {
+                  if (n == 0) {
+                    return acc;
+                  } else {
+                    return count(n - 1, acc + 1);
+                  }
+                }
+                print(count(10000, 0));
+                """, THREADED));
+  }
+  @Tag("Q30") @Test
+  public void tailCallTieredDispatch() {
+    assertEquals(TieredCompiler.THRESHOLD * 1_000 + "\n", execute("""
+                function count(n, acc) {
+                  if (n == 0) {
+                    return acc;
+                  } else {
+                    return count(n - 1, acc + 1);
+                  }
+                }
+                print(count(%d, 0));
+                """.formatted(TieredCompiler.THRESHOLD * 1_000),
+        new StackInterpreter.Config(GCMode.MARK_COMPACT, 16, 4096, 96, 4096, Dispatch.TIERED)));
+  }
+  @Tag("Q30") @Test
+  public void tailCallMutualRecursionTieredDispatch() {
+    assertEquals("1\n", execute("""
+                function even(n) {
+                  if (n == 0) {
+                    return 1;
+                  } else {
+                    return odd(n - 1);
+                  }
+                }
+                function odd(n) {
+                  if (n == 0) {
+                    return 0;
+                  } else {
+                    return even(n - 1);
+                  }
+                }
+                print(even(%d));
+                """.formatted(TieredCompiler.THRESHOLD * 100),
+        new StackInterpreter.Config(GCMode.MARK_COMPACT, 16, 4096, 96, 4096, Dispatch.TIERED)));
+  }
+
+  private static final StackInterpreter.Config INLINING = new StackInterpreter.Config(GCMode.MARK_COMPACT, 4096, 1 << 20, 4096, 1 << 24,
+      Dispatch.INLINING);
+
+  @Tag("Q31") @Test
+  public void inliningDispatch() {
+    assertEquals("2000\n", execute("""
+                function add1(x) {
+                  return x + 1;
+                }
+                function loop(n, acc) {
+                  if (n == 0) {
+                    return acc;
+                  } else {
+                    return loop(n - 1, add1(acc));
+                  }
+                }
+                print(loop(2000, 0));
+                """, INLINING));
+  }
+  @Tag("Q31") @Test
+  public void inliningDispatchObjects() {
+    assertEquals("3000\n", execute("""
+                function get(o) {
+                  return o.v;
+                }
+                function set(o, v) {
+                  o.v = v;
+                  return o;
+                }
+                function loop(n, o) {
+                  if (n == 0) {
+                    return get(o);
+                  } else {
+                    return loop(n - 1, set(o, get(o) + 2));
+                  }
+                }
+                print(loop(1500, { v: 0 }));
+                """, INLINING));
+  }
+  @Tag("Q31") @Test
+  public void inliningDispatchRedefinitions() {
+    assertEquals("2000\n4000\n", execute("""
+                function g() {
+                  return 1;
+                }
+                function count(n) {
+                  if (n == 0) {
+                    return 0;
+                  } else {
+                    return g() + count(n - 1);
+                  }
+                }
+                print(count(2000));
+                function g() {
+                  return 2;
+                }
+                print(count(2000));
+                """, INLINING));
+  }
+  @Tag("Q31") @Test
+  public void inlinerSplicesCallee() {
+    var dict = new Dictionary();
+    var globalEnv = StackInterpreter.createGlobalEnv(new PrintStream(new ByteArrayOutputStream()));
+    var script = createScript(new StringReader("""
+                function add1(x) {
+                  var y = x + 1;
+                  return y;
+                }
+                function loop(n, acc) {
+                  if (n == 0) {
+                    return acc;
+                  } else {
+                    return loop(n - 1, add1(acc));
+                  }
+                }
+                loop(10, 0);
+                """));
+    var main = InstrRewriter.createFunction(Optional.of("main"), List.of(), script.body(), dict, globalEnv,
+        StackInterpreter.Config.DEFAULT);
+    StackInterpreter.execute(main, dict, globalEnv, StackInterpreter.Config.DEFAULT);
+    var code = (Code) ((JSObject) globalEnv.lookup("loop")).lookup("__code__");
+    var inlined = Inliner.inline(code, dict);
+    assertNotNull(inlined);
+    var instrs = inlined.instrs();
+    var inlinedCalls = 0;
+    for (var pc = 0; pc < instrs.length; pc += Instructions.size(instrs[pc])) {
+      if (instrs[pc] == Instructions.INLINED_FUNCALL) {
+        inlinedCalls++;
+      }
+    }
+    assertEquals(1, inlinedCalls);
+    assertEquals(code.slotCount() + 3, inlined.slotCount());
+  }
+
+  private static boolean allocates(String code) {
+    var script = createScript(new StringReader(code));
+    var function = InstrRewriter.createFunction(Optional.of("main"), List.of(), script.body(), new Dictionary(),
+        StackInterpreter.createGlobalEnv(System.out), StackInterpreter.Config.DEFAULT);
+    var instrs = ((Code) function.lookup("__code__")).instrs();
+    for (var pc = 0; pc < instrs.length; pc += Instructions.size(instrs[pc])) {
+      if (instrs[pc] == Instructions.NEW) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Tag("Q32") @Test
+  public void scalarReplacement() {
+    assertEquals("3\n2\n", execute("""
+                var p = { x: 1, y: 2 };
+                p.x = p.x + p.y;
+                print(p.x);
+                print(p.y);
+                """));
+  }
+  @Tag("Q32") @Test
+  public void scalarReplacementDoesNotAllocate() {
+    assertFalse(allocates("""
+                var p = { x: 1, y: 2 };
+                if (p.x < p.y) {
+                  p.y = 0;
+                } else {
+                  p.x = 0;
+                }
+                print(p.x + p.y);
+                """));
+  }
+  @Tag("Q32") @Test
+  public void escapingObjectsAreAllocated() {
+    assertAll(
+        () -> assertTrue(allocates("""
+                var p = { x: 1 };
+                print(p);
+                """)),
+        () -> assertTrue(allocates("""
+                var p = { x: 1 };
+                var q = p;
+                """)),
+        () -> assertTrue(allocates("""
+                var p = { x: 1 };
+                p.x = p;
+                """)),
+        () -> assertTrue(allocates("""
+                var p = { x: 1, f: function() { return this.x; } };
+                p.f();
+                """)),
+        () -> assertTrue(allocates("""
+                var p = { x: 1 };
+                print(p.y);
+                """)),
+        () -> assertTrue(allocates("""
+                if (1 < 2) {
+                  var p = { x: 1 };
+                  print(p.x);
+                } else {
+                  print(0);
+                }
+                """)));
+  }
+  @Tag("Q32") @Test
+  public void scalarReplacementInFunctions() {
+    assertEquals("499500\n", execute("""
+                function sum(n, acc) {
+                  var pair = { n: n, acc: acc };
+                  if (pair.n == 0) {
+                    return pair.acc;
+                  } else {
+                    pair.acc = pair.acc + pair.n;
+                    return sum(pair.n - 1, pair.acc);
+                  }
+                }
+                print(sum(999, 0));
+                """, new StackInterpreter.Config(GCMode.MARK_COMPACT, 4096, 1 << 20, 2, 2)));
+  }
+  @Tag("Q33") @Test
+  public void invokeMethodSeveralClasses() {
+    assertEquals("1\n2\n1\n2\n", execute("""
+                function get(o) {
+                  return o.value() + 0;
+                }
+                var a = { value: function() { return 1; } };
+                var b = { x: 0, value: function() { return 2; } };
+                print(get(a));
+                print(get(b));
+                print(get(a));
+                print(get(b));
+                """));
+  }
+  @Tag("Q33") @Test
+  public void invokeMethodFieldChanged() {
+    assertEquals("1\n2\n", execute("""
+                function one() {
+                  return 1;
+                }
+                function two() {
+                  return 2;
+                }
+                function call(o) {
+                  return o.m() + 0;
+                }
+                var o = { m: one };
+                print(call(o));
+                o.m = two;
+                print(call(o));
+                """));
+  }
+  @Tag("Q33") @Test
+  public void invokeMethodUnknownMethod() {
+    assertThrows(Failure.class, () -> execute("""
+                var o = { x: 1 };
+                o.foo();
+                """));
+  }
+  @Tag("Q33") @Test
+  public void invokeMethodThreadedDispatch() {
+    assertEquals("1 2\n3\n30\n", execute("""
+                var point = {
+                  x: 1,
+                  y: 2,
+                  print: function () {
+                    print(this.x, this.y);
+                  },
+                  sum: function(z) {
+                    return this.x + this.y + z;
+                  }
+                };
+                point.print();
+                print(point.sum(0));
+                print(point.sum(27));
+                """, THREADED));
+  }
+  @Tag("Q34") @Test
+  public void addFields() {
+    assertEquals("""
+            6
+            { // object
+              x: 1
+              y: 2
+              z: 3
+              proto: null
+            }
+            """, execute("""
+                var o = { x: 1 };
+                o.y = 2;
+                o.z = 3;
+                print(o.x + o.y + o.z);
+                print(o);
+                """));
+  }
+  @Tag("Q34") @Test
+  public void addFieldsSameTransitions() {
+    assertEquals("3\n30\n", execute("""
+                function make(a, b) {
+                  var o = { a: a };
+                  o.b = b;
+                  return o;
+                }
+                function sum(o) {
+                  return o.a + o.b;
+                }
+                print(sum(make(1, 2)));
+                print(sum(make(10, 20)));
+                """));
+  }
+  @Tag("Q34") @Test
+  public void addFieldsRelocatedObject() {
+    assertEquals("1 2 3\n", execute("""
+                var o = { x: 1 };
+                var holder = { value: o };
+                o.y = 2;
+                o.z = 3;
+                var p = holder.value;
+                print(p.x, p.y, p.z);
+                """));
+  }
+  @Tag("Q34") @Test
+  public void addFieldsGarbageCollection() {
+    for (var gcMode : GCMode.values()) {
+      assertEquals("120\n", execute("""
+                function make(n) {
+                  var o = { n: n };
+                  o.a = 1;
+                  o.b = 2;
+                  o.c = 3;
+                  return o;
+                }
+                function f(n) {
+                  if (n < 1) {
+                    return 0;
+                  } else {
+                    var o = make(n);
+                    return o.n + o.c - o.b - o.a + f(n - 1);
+                  }
+                }
+                print(f(15));
+                """, new StackInterpreter.Config(gcMode, 16, 4096, 96, 4096)), gcMode.toString());
+    }
+  }
+  @Tag("Q34") @Test
+  public void addFieldsThreadedDispatch() {
+    assertEquals("1 2 3\n", execute("""
+                var o = { x: 1 };
+                o.y = 2;
+                o.z = 3;
+                print(o.x, o.y, o.z);
+                """, THREADED));
+  }
+  @Tag("Q34") @Test
+  public void addFieldsRelocatedObjectIdentity() {
+    var code = """
+        function id(o) {
+          return o;
+        }
+        function garbage(n) {
+          if (n < 1) {
+            return 0;
+          } else {
+            var o = id({ n: n });
+            return garbage(n - 1);
+          }
+        }
+        var a = { x: 1 };
+        var h = id({ self: a });
+        a.y = 2;
+        print(h.self == a, h.self != a);
+        garbage(50);
+        print(h.self == a, h.self.y);
+        """;
+    assertAll(
+        () -> assertEquals("1 0\n1 2\n", execute(code)),
+        () -> assertEquals("1 0\n1 2\n", execute(code, THREADED)),
+        () -> assertEquals("1 0\n1 2\n", execute(code, TIERED)),
+        () -> assertEquals("1 0\n1 2\n", execute(code, INLINING))
+    );
+    for (var gcMode : GCMode.values()) {
+      assertEquals("1 0\n1 2\n", execute(code, new StackInterpreter.Config(gcMode, 16, 4096, 96, 4096)), gcMode.toString());
+    }
+  }
 }
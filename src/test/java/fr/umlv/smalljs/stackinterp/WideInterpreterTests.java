@@ -0,0 +1,211 @@
+package fr.umlv.smalljs.stackinterp;
+
+import fr.umlv.smalljs.rt.Failure;
+import fr.umlv.smalljs.rt.JSObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Optional;
+
+import static fr.umlv.smalljs.ast.ASTBuilder.createScript;
+import static fr.umlv.smalljs.rt.JSObject.UNDEFINED;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SuppressWarnings("static-method")
+public class WideInterpreterTests {
+  private static String execute(String code) {
+    return execute(code, StackInterpreter.Config.DEFAULT);
+  }
+  private static String execute(String code, StackInterpreter.Config config) {
+    var script = createScript(new StringReader(code));
+    var outStream = new ByteArrayOutputStream(8192);
+    WideInterpreter.interpret(script, new PrintStream(outStream), config);
+    return outStream.toString(StandardCharsets.UTF_8).replace("\r\n", "\n");
+  }
+
+  @Tag("Q29") @Test
+  public void wideValuesEncoding() {
+    assertAll(
+        () -> assertEquals(42, WideValues.decodeInt(WideValues.encodeInt(42))),
+        () -> assertEquals(Integer.MIN_VALUE, WideValues.decodeInt(WideValues.encodeInt(Integer.MIN_VALUE))),
+        () -> assertTrue(WideValues.isInt(WideValues.encodeInt(-1))),
+        () -> assertEquals(1.5, WideValues.decodeDouble(WideValues.encodeDouble(1.5))),
+        () -> assertTrue(WideValues.isDouble(WideValues.encodeDouble(Double.NEGATIVE_INFINITY))),
+        () -> assertTrue(WideValues.isDouble(WideValues.encodeDouble(Double.longBitsToDouble(0xFFFF_FFFF_FFFF_FFFFL)))),
+        () -> assertTrue(WideValues.isReference(WideValues.encodeReference(1L << 40))),
+        () -> assertEquals(1L << 40, WideValues.decodeReference(WideValues.encodeReference(1L << 40))),
+        () -> assertFalse(WideValues.isReference(WideValues.encodeDouble(-0.0))));
+  }
+
+  @Tag("Q29") @Test
+  public void wideValuesFromTagValue() {
+    var dict = new Dictionary();
+    var tagValue = TagValues.encodeDictObject("hello", dict);
+    assertAll(
+        () -> assertEquals(WideValues.encodeInt(-7), WideValues.fromTagValue(TagValues.encodeSmallInt(-7))),
+        () -> assertEquals("hello", WideValues.decodeDictObject(WideValues.fromTagValue(tagValue), dict)),
+        () -> assertEquals(tagValue, WideValues.toTagValue(WideValues.fromTagValue(tagValue))),
+        () -> assertFalse(WideValues.fitsInTagValue(WideValues.encodeInt(Integer.MAX_VALUE))));
+  }
+
+  @Tag("Q29") @Test
+  public void print() {
+    assertEquals("hello\n3\n", execute("""
+            print("hello");
+            print(3);
+            """));
+  }
+
+  @Tag("Q29") @Test
+  public void fibo() {
+    assertEquals("21\n", execute("""
+            function fibo(n) {
+              if (n < 2) {
+                return 1;
+              } else {
+                return fibo(n - 1) + fibo(n - 2);
+              }
+            }
+            print(fibo(7));
+            """));
+  }
+
+  @Tag("Q29") @Test
+  public void integersAreNotBoxed() {
+    assertEquals("2000000000\n-294967296\n", execute("""
+            var a = 1000000000;
+            print(a + a);
+            print(a + a + a + a);
+            """));
+  }
+
+  @Tag("Q29") @Test
+  public void objects() {
+    assertEquals("""
+            Jane
+            { // object
+              name: Jane
+              age: 34
+              proto: null
+            }
+            """, execute("""
+            var john = { name: "John", age: 33 };
+            john.name = "Jane";
+            john.age = john.age + 1;
+            print(john.name);
+            print(john);
+            """));
+  }
+
+  @Tag("Q29") @Test
+  public void redefinedOperator() {
+    assertEquals("42\n", execute("""
+            function +(a, b) {
+              return 42;
+            }
+            print(1 + 2);
+            """));
+  }
+
+  @Tag("Q29") @Test
+  public void stackOverflow() {
+    assertThrows(Failure.class, () -> execute("""
+            function loop(n) {
+              return loop(n + 1) + 1;
+            }
+            loop(0);
+            """));
+  }
+
+  @Tag("Q30") @Test
+  public void tailCall() {
+    var config = new StackInterpreter.Config(GCMode.MARK_COMPACT, 16, 4096, 96, 4096);
+    assertEquals("10000\n", execute("""
+            function count(n, acc) {
+              if (n == 0) {
+                return acc;
+              } else {
+                return count(n - 1, acc + 1);
+              }
+            }
+            print(count(10000, 0));
+            """, config));
+  }
+
+  @Tag("Q33") @Test
+  public void invokeMethod() {
+    assertEquals("3\n42\n", execute("""
+            var a = { x: 1, y: 2, sum: function() { return this.x + this.y; } };
+            var b = { sum: function() { return 42; } };
+            function sum(o) {
+              return o.sum() + 0;
+            }
+            print(sum(a));
+            print(sum(b));
+            """));
+  }
+
+  @Tag("Q29") @Test
+  public void garbageCollection() {
+    var config = new StackInterpreter.Config(GCMode.MARK_COMPACT, 4096, 1 << 20, 64, 64);
+    assertEquals("499500\n3\n", execute("""
+            function make(i, keep) {
+              var o = { value: i, next: keep, self: 0 };
+              o.self = o;
+              return o.value;
+            }
+            function loop(i, sum, keep) {
+              if (i == 1000) {
+                return sum;
+              } else {
+                return loop(i + 1, sum + make(i, keep), keep);
+              }
+            }
+            var keep = { value: 3 };
+            print(loop(0, 0, keep));
+            print(keep.value);
+            """, config));
+  }
+
+  @Tag("Q29") @Test
+  public void outOfMemory() {
+    var config = new StackInterpreter.Config(GCMode.MARK_COMPACT, 4096, 1 << 20, 64, 64);
+    assertThrows(Failure.class, () -> execute("""
+            function list(n) {
+              if (n == 0) {
+                return undefined;
+              } else {
+                return { next: list(n - 1) };
+              }
+            }
+            list(100);
+            """, config));
+  }
+
+  @Tag("Q29") @Test
+  public void doubles() {
+    var outStream = new ByteArrayOutputStream(8192);
+    var globalEnv = StackInterpreter.createGlobalEnv(new PrintStream(outStream));
+    globalEnv.register("half", JSObject.newFunction("half", (self, receiver, args) -> (Integer) args[0] / 2.0));
+    var dict = new Dictionary();
+    var script = createScript(new StringReader("""
+            var x = half(3);
+            print(x + 1);
+            print(x * 2 == 3);
+            print(x < 1);
+            """));
+    var function = InstrRewriter.createFunction(Optional.of("main"), Collections.emptyList(), script.body(), dict,
+        globalEnv, StackInterpreter.Config.DEFAULT);
+    assertEquals(UNDEFINED, WideInterpreter.execute(function, dict, globalEnv));
+    assertEquals("2.5\n1\n0\n", outStream.toString(StandardCharsets.UTF_8).replace("\r\n", "\n"));
+  }
+}